@@ -160,7 +160,9 @@ public class GenericServletSSOAgentFilter implements Filter {
             if ("".equals(contextPath))
                 contextPath = "/";
 
-            if (!_agent.isPartnerApp(vhost, contextPath)) {
+            // The partner application configuration is resolved once and kept for the rest of the request.
+            SSOPartnerAppConfig cfg = _agent.getPartnerAppConfig(hreq);
+            if (cfg == null) {
                 filterChain.doFilter(hreq, hres);
                 if (log.isDebugEnabled())
                     log.debug("Context is not a josso partner app : " + hreq.getContextPath());
@@ -168,11 +170,21 @@ public class GenericServletSSOAgentFilter implements Filter {
                 return;
             }
 
+            // ------------------------------------------------------------------
+            // Check if the gateway is pushing destroyed sessions
+            // ------------------------------------------------------------------
+            if (_agent.isSessionInvalidationRequest(hreq)) {
+                if (log.isDebugEnabled())
+                    log.debug("josso_session_invalidation request received for uri '" + hreq.getRequestURI() + "'");
+
+                _agent.processSessionInvalidationRequest(hreq, hres);
+                return;
+            }
+
             // ------------------------------------------------------------------
             // Check some basic HTTP handling
             // ------------------------------------------------------------------
             // P3P Header for IE 6+ compatibility when embedding JOSSO in a IFRAME
-            SSOPartnerAppConfig cfg = _agent.getPartnerAppConfig(vhost, contextPath);
             if (cfg.isSendP3PHeader() && !hres.isCommitted()) {
                 hres.setHeader("P3P", cfg.getP3PHeaderValue());
             }
@@ -28,6 +28,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -47,6 +48,7 @@ import org.apache.catalina.SessionListener;
 import org.apache.catalina.authenticator.SavedRequest;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
+import org.apache.catalina.deploy.SecurityCollection;
 import org.apache.catalina.deploy.SecurityConstraint;
 import org.apache.catalina.util.LifecycleSupport;
 import org.apache.catalina.valves.ValveBase;
@@ -296,6 +298,17 @@ public class SSOAgentValve extends ValveBase
                 return;
             }
 
+            // ------------------------------------------------------------------
+            // Check if the gateway is pushing destroyed sessions
+            // ------------------------------------------------------------------
+            if (_agent.isSessionInvalidationRequest(hreq)) {
+                if (debug >= 1)
+                    log("josso_session_invalidation request received for uri '" + hreq.getRequestURI() + "'");
+
+                _agent.processSessionInvalidationRequest(hreq, hres);
+                return;
+            }
+
             String nodeId = hreq.getParameter("josso_node");
             if (nodeId != null) {
                 if (debug >= 1)
@@ -974,13 +987,13 @@ public class SSOAgentValve extends ValveBase
 
 
     protected boolean isResourceIgnored(SSOPartnerAppConfig cfg, Request request) {
-        // There are some web-resources to ignore.
-        String[] ignoredWebResources = cfg.getIgnoredWebRources();
+        // There are some web-resources to ignore, names are kept in a set built once per partner application.
+        Set<String> ignoredWebResources = cfg.getIgnoredWebResourceNames();
 
         if (debug >= 1)
-            log("Found [" +  (ignoredWebResources!= null ? ignoredWebResources.length+"" : "no") + "] ignored web resources ");
+            log("Found [" +  (ignoredWebResources.size() > 0 ? ignoredWebResources.size()+"" : "no") + "] ignored web resources ");
 
-        if (ignoredWebResources != null && ignoredWebResources.length > 0) {
+        if (ignoredWebResources.size() > 0) {
 
             Realm realm = request.getContext().getRealm();
             SecurityConstraint [] constraints
@@ -988,19 +1001,18 @@ public class SSOAgentValve extends ValveBase
 
             if ((constraints != null)) {
 
-                for (int i = 0; i < ignoredWebResources.length; i++) {
+                for (int i = 0; i < constraints.length; i++) {
 
-                    // For each ignored web resource, find a correspondig web resource collection.
-                    String ignoredWebResource = ignoredWebResources[i];
-                    for (int j = 0; j < constraints.length; j++) {
+                    // Look up each web resource collection of the matching constraints in the ignored set.
+                    SecurityCollection[] collections = constraints[i].findCollections();
+                    for (int j = 0; j < collections.length; j++) {
 
-                        // Find a matching web resource collection for each ignored web resources
-                        SecurityConstraint constraint = constraints[j];
-                        if (constraint.findCollection(ignoredWebResource) != null) {
+                        String webResource = collections[j].getName();
+                        if (webResource != null && ignoredWebResources.contains(webResource)) {
 
                             // We should ignore this URI, it's not subject to SSO protection.
                             if (debug >= 1)
-                                log("Not subject to SSO protection :  web-resource-name:" + ignoredWebResource);
+                                log("Not subject to SSO protection :  web-resource-name:" + webResource);
 
                             return true;
                         }
@@ -23,11 +23,15 @@
 package org.josso.tc60.agent;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -47,6 +51,7 @@ import org.apache.catalina.SessionListener;
 import org.apache.catalina.authenticator.SavedRequest;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
+import org.apache.catalina.deploy.SecurityCollection;
 import org.apache.catalina.deploy.SecurityConstraint;
 import org.apache.catalina.util.LifecycleSupport;
 import org.apache.catalina.valves.ValveBase;
@@ -95,7 +100,23 @@ public class SSOAgentValve extends ValveBase
     /**
      * Catalina Session to Local Session Map.
      */
-    Map _sessionMap = Collections.synchronizedMap(new HashMap());
+    Map<String, LocalSession> _sessionMap = new ConcurrentHashMap<String, LocalSession>();
+
+    /**
+     * Catalina Session id to saved request, in save order so that the oldest requests are evicted first.
+     * Requests are saved for unauthenticated users, abandoned logins would otherwise keep them until the session expires.
+     */
+    private final LinkedHashMap<String, SavedRequestEntry> _savedRequests = new LinkedHashMap<String, SavedRequestEntry>();
+
+    private long _savedRequestBytes;
+
+    private long _evictedSavedRequests;
+
+    private int maxSavedRequests = 10000;
+
+    private long maxSavedRequestBytes = 16 * 1024 * 1024;
+
+    private long savedRequestMaxAge = 5 * 60 * 1000;
 
     // ------------------------------------------------------------- Properties
 
@@ -120,17 +141,74 @@ public class SSOAgentValve extends ValveBase
 
     }
 
+    /**
+     * Max number of saved requests kept by this valve, -1 means no limit.
+     */
+    public int getMaxSavedRequests() {
+        return maxSavedRequests;
+    }
+
+    public void setMaxSavedRequests(int maxSavedRequests) {
+        this.maxSavedRequests = maxSavedRequests;
+    }
+
+    /**
+     * Max estimated size, in bytes, of all saved requests kept by this valve, -1 means no limit.
+     */
+    public long getMaxSavedRequestBytes() {
+        return maxSavedRequestBytes;
+    }
+
+    public void setMaxSavedRequestBytes(long maxSavedRequestBytes) {
+        this.maxSavedRequestBytes = maxSavedRequestBytes;
+    }
+
+    /**
+     * Time, in milliseconds, after which a saved request is dropped if the user did not complete the login, -1 means
+     * saved requests live as long as the session.
+     */
+    public long getSavedRequestMaxAge() {
+        return savedRequestMaxAge;
+    }
+
+    public void setSavedRequestMaxAge(long savedRequestMaxAge) {
+        this.savedRequestMaxAge = savedRequestMaxAge;
+    }
+
+    public int getSessionMapSize() {
+        return _sessionMap.size();
+    }
+
+    public int getSavedRequestCount() {
+        synchronized (_savedRequests) {
+            return _savedRequests.size();
+        }
+    }
+
+    public long getSavedRequestBytes() {
+        synchronized (_savedRequests) {
+            return _savedRequestBytes;
+        }
+    }
+
+    public long getEvictedSavedRequests() {
+        synchronized (_savedRequests) {
+            return _evictedSavedRequests;
+        }
+    }
+
     // ------------------------------------------------------ SessionListener Methods
 
     public void sessionEvent(SessionEvent event) {
 
 
         // obtain the local session for the catalina session, and notify the listeners for it.
-        LocalSession localSession = (LocalSession) _sessionMap.get(event.getSession().getId());
-
         if (event.getType().equals(Session.SESSION_DESTROYED_EVENT)) {
-            localSession.expire();
-            _sessionMap.remove(event.getSession().getId());
+            LocalSession localSession = _sessionMap.remove(event.getSession().getId());
+            if (localSession != null)
+                localSession.expire();
+
+            untrackSavedRequest(event.getSession());
         }
             
     }
@@ -250,6 +328,15 @@ public class SSOAgentValve extends ValveBase
     // ---------------------------------------------------------- Valve Methods
 
 
+    /**
+     * Drops saved requests older than the configured max age, invoked periodically by the container.
+     */
+    public void backgroundProcess() {
+        super.backgroundProcess();
+        evictSavedRequests(null);
+    }
+
+
     /**
      * Return descriptive information about this Valve implementation.
      */
@@ -290,7 +377,9 @@ public class SSOAgentValve extends ValveBase
             if ("".equals(contextPath))
                 contextPath = "/";
 
-            if (!_agent.isPartnerApp(vhost, contextPath)) {
+            // The partner application configuration is resolved once and kept for the rest of the request.
+            SSOPartnerAppConfig cfg = _agent.getPartnerAppConfig(hreq);
+            if (cfg == null) {
                 getNext().invoke(request, response);
                 if (debug >= 1)
                     log("Context is not a josso partner app : " + hreq.getContextPath());
@@ -298,6 +387,17 @@ public class SSOAgentValve extends ValveBase
                 return;
             }
 
+            // ------------------------------------------------------------------
+            // Check if the gateway is pushing destroyed sessions
+            // ------------------------------------------------------------------
+            if (_agent.isSessionInvalidationRequest(hreq)) {
+                if (debug >= 1)
+                    log("josso_session_invalidation request received for uri '" + hreq.getRequestURI() + "'");
+
+                _agent.processSessionInvalidationRequest(hreq, hres);
+                return;
+            }
+
             String nodeId = hreq.getParameter("josso_node");
             if (nodeId != null) {
                 if (debug >= 1)
@@ -314,7 +414,6 @@ public class SSOAgentValve extends ValveBase
             // Check some basic HTTP handling
             // ------------------------------------------------------------------
             // P3P Header for IE 6+ compatibility when embedding JOSSO in a IFRAME
-            SSOPartnerAppConfig cfg = _agent.getPartnerAppConfig(vhost, contextPath);
             if (cfg.isSendP3PHeader() && !hres.isCommitted()) {
                 hres.setHeader("P3P", cfg.getP3PHeaderValue());
             }
@@ -402,7 +501,7 @@ public class SSOAgentValve extends ValveBase
             String jossoSessionId = (cookie == null) ? null : cookie.getValue();
             if (debug >= 1)
                 log("Session is: " + session);
-            LocalSession localSession = (LocalSession) _sessionMap.get(session.getId());
+            LocalSession localSession = _sessionMap.get(session.getId());
             if (localSession == null) {
                 localSession = new CatalinaLocalSession(session);
                 // the local session is new so, make the valve listen for its events so that it can
@@ -897,6 +996,7 @@ public class SSOAgentValve extends ValveBase
         
         // Stash the SavedRequest in our session for later use
         session.setNote(org.apache.catalina.authenticator.Constants.FORM_REQUEST_NOTE, saved);
+        trackSavedRequest(session, saved);
         
         StringBuffer sb = new StringBuffer(request.getRequestURI());
         if (request.getQueryString() != null) {
@@ -937,6 +1037,7 @@ public class SSOAgentValve extends ValveBase
             saved.setQueryString(queryStr);
 
             session.setNote(org.apache.catalina.authenticator.Constants.FORM_REQUEST_NOTE, saved);
+            trackSavedRequest(session, saved);
             
             _agent.setAttribute(request, response, WebAccessControlUtil.KEY_JOSSO_SAVED_REQUEST_URI, referer);
         } else if (saved != null) {
@@ -962,18 +1063,117 @@ public class SSOAgentValve extends ValveBase
      */
     protected void clearSavedRequestURLs(HttpServletRequest hreq, HttpServletResponse hres, Session session) {
     	session.removeNote(org.apache.catalina.authenticator.Constants.FORM_REQUEST_NOTE);
+    	untrackSavedRequest(session);
     	_agent.removeAttribute(hreq, hres, WebAccessControlUtil.KEY_JOSSO_SAVED_REQUEST_URI);
     	_agent.removeAttribute(hreq, hres, Constants.JOSSO_SPLASH_RESOURCE_PARAMETER);
     }
 
+    /**
+     * Keeps track of a request saved in the given session, evicting the oldest saved requests when limits are exceeded.
+     */
+    protected void trackSavedRequest(Session session, SavedRequest saved) {
+        SavedRequestEntry entry = new SavedRequestEntry(session, estimateSize(saved), System.currentTimeMillis());
+        synchronized (_savedRequests) {
+            SavedRequestEntry old = _savedRequests.remove(session.getIdInternal());
+            if (old != null)
+                _savedRequestBytes -= old.size;
+
+            _savedRequests.put(session.getIdInternal(), entry);
+            _savedRequestBytes += entry.size;
+        }
+
+        evictSavedRequests(entry);
+    }
+
+    protected void untrackSavedRequest(Session session) {
+        synchronized (_savedRequests) {
+            SavedRequestEntry old = _savedRequests.remove(session.getIdInternal());
+            if (old != null)
+                _savedRequestBytes -= old.size;
+        }
+    }
+
+    /**
+     * Removes saved requests from their sessions, oldest first, until count, size and age limits are met.
+     * The saved request URI is kept, so users completing an evicted login are still sent back to the requested resource.
+     *
+     * @param keep entry that was just saved, it is only evicted when it exceeds the size limit by itself.
+     */
+    protected void evictSavedRequests(SavedRequestEntry keep) {
+        List<SavedRequestEntry> evicted = null;
+        long expired = savedRequestMaxAge > 0 ? System.currentTimeMillis() - savedRequestMaxAge : Long.MIN_VALUE;
+
+        synchronized (_savedRequests) {
+            Iterator<SavedRequestEntry> it = _savedRequests.values().iterator();
+            while (it.hasNext()) {
+                SavedRequestEntry entry = it.next();
+
+                boolean tooMany = maxSavedRequests >= 0 && _savedRequests.size() > maxSavedRequests;
+                boolean tooBig = maxSavedRequestBytes >= 0 && _savedRequestBytes > maxSavedRequestBytes;
+                if (!tooMany && !tooBig && entry.savedAt >= expired)
+                    break;
+
+                if (entry == keep && !tooBig && entry.savedAt >= expired)
+                    continue;
+
+                it.remove();
+                _savedRequestBytes -= entry.size;
+                _evictedSavedRequests++;
+
+                if (evicted == null)
+                    evicted = new ArrayList<SavedRequestEntry>();
+                evicted.add(entry);
+            }
+        }
+
+        if (evicted == null)
+            return;
+
+        for (SavedRequestEntry entry : evicted) {
+            entry.session.removeNote(org.apache.catalina.authenticator.Constants.FORM_REQUEST_NOTE);
+        }
+
+        if (debug >= 1)
+            log("Evicted " + evicted.size() + " saved requests");
+    }
+
+    /**
+     * Rough estimate of the memory retained by a saved request, in bytes.  Request bodies are not saved by this valve.
+     */
+    protected long estimateSize(SavedRequest saved) {
+        long size = 64;
+        size += length(saved.getRequestURI()) + length(saved.getQueryString()) + length(saved.getMethod());
+
+        Iterator names = saved.getHeaderNames();
+        while (names.hasNext()) {
+            String name = (String) names.next();
+            size += length(name);
+            Iterator values = saved.getHeaderValues(name);
+            while (values.hasNext())
+                size += length((String) values.next());
+        }
+
+        Iterator cookies = saved.getCookies();
+        while (cookies.hasNext()) {
+            Cookie cookie = (Cookie) cookies.next();
+            size += length(cookie.getName()) + length(cookie.getValue()) + 32;
+        }
+
+        return size;
+    }
+
+    private static long length(String s) {
+        return s != null ? 40 + 2L * s.length() : 0;
+    }
+
     protected boolean isResourceIgnored(SSOPartnerAppConfig cfg, Request request) {
-        // There are some web-resources to ignore.
-        String[] ignoredWebResources = cfg.getIgnoredWebRources();
+        // There are some web-resources to ignore, names are kept in a set built once per partner application.
+        Set<String> ignoredWebResources = cfg.getIgnoredWebResourceNames();
 
         if (debug >= 1)
-            log("Found [" +  (ignoredWebResources!= null ? ignoredWebResources.length+"" : "no") + "] ignored web resources ");
+            log("Found [" +  (ignoredWebResources.size() > 0 ? ignoredWebResources.size()+"" : "no") + "] ignored web resources ");
 
-        if (ignoredWebResources != null && ignoredWebResources.length > 0) {
+        if (ignoredWebResources.size() > 0) {
 
             Realm realm = request.getContext().getRealm();
             SecurityConstraint [] constraints
@@ -981,19 +1181,18 @@ public class SSOAgentValve extends ValveBase
 
             if ((constraints != null)) {
 
-                for (int i = 0; i < ignoredWebResources.length; i++) {
+                for (int i = 0; i < constraints.length; i++) {
 
-                    // For each ignored web resource, find a correspondig web resource collection.
-                    String ignoredWebResource = ignoredWebResources[i];
-                    for (int j = 0; j < constraints.length; j++) {
+                    // Look up each web resource collection of the matching constraints in the ignored set.
+                    SecurityCollection[] collections = constraints[i].findCollections();
+                    for (int j = 0; j < collections.length; j++) {
 
-                        // Find a matching web resource collection for each ignored web resources
-                        SecurityConstraint constraint = constraints[j];
-                        if (constraint.findCollection(ignoredWebResource) != null) {
+                        String webResource = collections[j].getName();
+                        if (webResource != null && ignoredWebResources.contains(webResource)) {
 
                             // We should ignore this URI, it's not subject to SSO protection.
                             if (debug >= 1)
-                                log("Not subject to SSO protection :  web-resource-name:" + ignoredWebResource);
+                                log("Not subject to SSO protection :  web-resource-name:" + webResource);
 
                             return true;
                         }
@@ -1007,4 +1206,22 @@ public class SSOAgentValve extends ValveBase
     }
 
 
+    /**
+     * A request saved in a Catalina session.
+     */
+    protected static class SavedRequestEntry {
+
+        final Session session;
+
+        final long size;
+
+        final long savedAt;
+
+        SavedRequestEntry(Session session, long size, long savedAt) {
+            this.session = session;
+            this.size = size;
+            this.savedAt = savedAt;
+        }
+    }
+
 }
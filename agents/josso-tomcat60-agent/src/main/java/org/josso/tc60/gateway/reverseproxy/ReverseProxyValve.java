@@ -30,10 +30,13 @@ import org.apache.catalina.connector.Response;
 import org.apache.catalina.util.LifecycleSupport;
 import org.apache.catalina.valves.ValveBase;
 import org.apache.commons.httpclient.*;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.josso.agent.Lookup;
 import org.josso.gateway.Constants;
 import org.josso.agent.reverseproxy.ProxyContextConfig;
@@ -42,11 +45,16 @@ import org.josso.agent.reverseproxy.ReverseProxyConfiguration;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Enumeration;
-import java.util.StringTokenizer;
 
 /**
  * Reverse Proxy implementation using Tomcat Valves.
+ * <p/>
+ * Requests are sent using HTTP/1.1 over a pool of persistent connections shared by all requests.  Request and
+ * response bodies are streamed using a fixed size buffer, and the proxy context is selected using the longest
+ * context path matching the request URI.
  *
  * @deprecated This component is no longer needed for N-Tier configurations.
  *
@@ -63,11 +71,25 @@ public class ReverseProxyValve extends ValveBase implements Lifecycle {
     static final String METHOD_PUT  = "PUT";
     private final String METHOD_HEAD = "HEAD";
 
+    // Hop-by-hop headers, they apply to a single connection and are not forwarded.
+    private static final String[] HOP_BY_HOP_HEADERS = {
+            "Connection", "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization",
+            "TE", "Trailer", "Trailers", "Transfer-Encoding", "Upgrade"
+    };
+
     // ----------------------------------------------------- Instance Variables
     private String _configurationFileName;
     private ReverseProxyConfiguration _rpc;
     private boolean started;
     private String _reverseProxyHost; // Reverse proxy host value.
+    private MultiThreadedHttpConnectionManager _connectionManager;
+    private HttpClient _client;
+
+    private int _maxConnectionsPerHost = 20;
+    private int _maxTotalConnections = 100;
+    private int _connectionTimeout = 30000;
+    private int _socketTimeout = 60000;
+    private int _bufferSize = 8192;
     protected LifecycleSupport lifecycle = new LifecycleSupport(this);
 
     /**
@@ -133,12 +155,23 @@ public class ReverseProxyValve extends ValveBase implements Lifecycle {
         started = true;
 
         try {
-            _rpc = Lookup.getInstance().lookupReverseProxyConfiguration();
+            if (_rpc == null)
+                _rpc = Lookup.getInstance().lookupReverseProxyConfiguration();
         } catch (Exception e) {
             throw new LifecycleException(e.getMessage(), e);
         }
 
+        // All requests share the same pool of persistent connections
+        _connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = _connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(_maxConnectionsPerHost);
+        params.setMaxTotalConnections(_maxTotalConnections);
+        params.setConnectionTimeout(_connectionTimeout);
+        params.setSoTimeout(_socketTimeout);
+        params.setStaleCheckingEnabled(true);
 
+        _client = new HttpClient(_connectionManager);
+        _client.getParams().setVersion(HttpVersion.HTTP_1_1);
 
         log("Started");
     }
@@ -160,6 +193,12 @@ public class ReverseProxyValve extends ValveBase implements Lifecycle {
         lifecycle.fireLifecycleEvent(STOP_EVENT, null);
         started = false;
 
+        if (_connectionManager != null) {
+            _connectionManager.shutdown();
+            _connectionManager = null;
+            _client = null;
+        }
+
         log("Stopped");
 
     }
@@ -186,6 +225,68 @@ public class ReverseProxyValve extends ValveBase implements Lifecycle {
     }
 
 
+    /**
+     * Sets the reverse proxy configuration, when not set it is obtained from the agent configuration on start.
+     */
+    public void setReverseProxyConfiguration(ReverseProxyConfiguration rpc) {
+        _rpc = rpc;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return _maxConnectionsPerHost;
+    }
+
+    /**
+     * Max number of pooled connections to each backend host.
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        _maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public int getMaxTotalConnections() {
+        return _maxTotalConnections;
+    }
+
+    /**
+     * Max number of pooled connections to all backend hosts.
+     */
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        _maxTotalConnections = maxTotalConnections;
+    }
+
+    public int getConnectionTimeout() {
+        return _connectionTimeout;
+    }
+
+    /**
+     * Backend connection timeout in milliseconds.
+     */
+    public void setConnectionTimeout(int connectionTimeout) {
+        _connectionTimeout = connectionTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return _socketTimeout;
+    }
+
+    /**
+     * Backend read timeout in milliseconds.
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        _socketTimeout = socketTimeout;
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    /**
+     * Size of the buffer used to copy request and response bodies.
+     */
+    public void setBufferSize(int bufferSize) {
+        _bufferSize = bufferSize;
+    }
+
     /**
      * Return descriptive information about this Valve implementation.
      */
@@ -206,95 +307,46 @@ public class ReverseProxyValve extends ValveBase implements Lifecycle {
      */
     public void invoke(Request request, Response response) throws IOException, javax.servlet.ServletException {
 
-        if (container.getLogger().isDebugEnabled())
-            container.getLogger().debug("ReverseProxyValve Acting.");
-
-        ProxyContextConfig[] contexts =
-                _rpc.getProxyContexts();
-
-
-        // Create an instance of HttpClient.
-        HttpClient client = new HttpClient();
+        if (isDebugEnabled())
+            log("ReverseProxyValve Acting.");
 
         HttpServletRequest hsr = (HttpServletRequest)request.getRequest();
         String uri = hsr.getRequestURI();
 
-        String uriContext = null;
-
-        StringTokenizer st = new StringTokenizer (uri.substring(1), "/");
-        while (st.hasMoreTokens()) {
-            String token = st.nextToken();
-            uriContext = "/" + token;
-            break;
-        }
-
-        if (uriContext == null)
-            uriContext = uri;
-
-        // Obtain the target host from the
-        String proxyForwardHost = null;
-        String proxyForwardUri = null;
-
-        for (int i=0; i < contexts.length; i++) {
-            if (contexts[i].getContext().equals(uriContext)) {
-                log("Proxy context mapped to host/uri: " + contexts[i].getForwardHost() +
-                        contexts[i].getForwardUri() );
-                proxyForwardHost = contexts[i].getForwardHost();
-                proxyForwardUri = contexts[i].getForwardUri();
-                break;
-            }
-        }
-
-
-        if (proxyForwardHost == null)
+        // Obtain the target host from the longest context matching the URI
+        ProxyContextConfig context = _rpc.getProxyContextMapper().map(uri);
+        if (context == null)
         {
             log("URI '" + uri + "' can't be mapped to host");
             getNext().invoke(request, response);
             return;
         }
 
-        if (proxyForwardUri == null) {
-            // trim the uri context before submitting the http request
-            int uriTrailStartPos = uri.substring(1).indexOf("/") + 1;
-            proxyForwardUri = uri.substring(uriTrailStartPos);
-        } else {
-            int uriTrailStartPos = uri.substring(1).indexOf("/") + 1;
-            proxyForwardUri = proxyForwardUri + uri.substring(uriTrailStartPos);
-        }
+        if (isDebugEnabled())
+            log("Proxy context mapped to host/uri: " + context.getForwardHost() + context.getForwardUri());
 
-        // log ("Proxy request mapped to " + "http://" + proxyForwardHost + proxyForwardUri);
+        proxy(hsr, (HttpServletResponse) response.getResponse(), context, getReverseProxyHost(request));
 
-        HttpMethod method;
+        if (isDebugEnabled())
+            log("ReverseProxyValve finished.");
+    }
 
-        // to be moved to a builder which instantiates and build concrete methods.
-        if ( hsr.getMethod().equals(METHOD_GET)) {
-            // Create a method instance.
-            HttpMethod getMethod = new GetMethod(proxyForwardHost +
-                    proxyForwardUri + (hsr.getQueryString() != null ? ("?" + hsr.getQueryString()) : "")
-            );
-            method = getMethod;
-        } else
-        if ( hsr.getMethod().equals(METHOD_POST)) {
-            // Create a method instance.
-            PostMethod postMethod = new PostMethod(proxyForwardHost +
-                    proxyForwardUri + (hsr.getQueryString() != null ? ("?" + hsr.getQueryString()) : "")
-            );
-            postMethod.setRequestBody(hsr.getInputStream());
-            method = postMethod;
-        } else
-        if ( hsr.getMethod().equals(METHOD_HEAD)) {
-            // Create a method instance.
-            HeadMethod headMethod = new HeadMethod(proxyForwardHost +
-                    proxyForwardUri + (hsr.getQueryString() != null ? ("?" + hsr.getQueryString()) : "")
-            );
-            method = headMethod;
-        } else
-        if ( hsr.getMethod().equals(METHOD_PUT)) {
-            method = new PutMethod(proxyForwardHost +
-                    proxyForwardUri + (hsr.getQueryString() != null ? ("?" + hsr.getQueryString()) : "")
-            );
-        } else
-            throw new java.lang.UnsupportedOperationException("Unknown method : " + hsr.getMethod());
+    /**
+     * Forwards the request to the host of the given proxy context and streams the backend response to the client.
+     *
+     * @param hsr the received request
+     * @param sres the response sent to the client
+     * @param context the proxy context mapped to the request
+     * @param reverseProxyHost the reverse-proxy-host header value
+     */
+    protected void proxy(HttpServletRequest hsr, HttpServletResponse sres, ProxyContextConfig context,
+                         String reverseProxyHost) throws IOException {
+
+        String proxyForwardHost = context.getForwardHost();
+        String proxyForwardUri = getForwardUri(hsr.getRequestURI(), context);
+
+        HttpMethod method = createMethod(hsr, proxyForwardHost + proxyForwardUri +
+                (hsr.getQueryString() != null ? ("?" + hsr.getQueryString()) : ""));
 
         // copy incoming http headers to reverse proxy request
         Enumeration hne = hsr.getHeaderNames();
@@ -309,6 +361,10 @@ public class ReverseProxyValve extends ValveBase implements Lifecycle {
                 continue;
             }
 
+            // The request entity sets the body length
+            if (isHopByHopHeader(hn) || hn.equalsIgnoreCase("content-length"))
+                continue;
+
             Enumeration hvals = hsr.getHeaders(hn);
             while (hvals.hasMoreElements()) {
                 String hv = (String)hvals.nextElement();
@@ -317,97 +373,150 @@ public class ReverseProxyValve extends ValveBase implements Lifecycle {
         }
 
         // Add Reverse-Proxy-Host header
-        String reverseProxyHost = getReverseProxyHost(request);
         method.addRequestHeader(Constants.JOSSO_REVERSE_PROXY_HEADER, reverseProxyHost);
 
-        if (container.getLogger().isDebugEnabled())
-            container.getLogger().debug("Sending " + Constants.JOSSO_REVERSE_PROXY_HEADER + " " + reverseProxyHost);
+        if (isDebugEnabled())
+            log("Sending " + Constants.JOSSO_REVERSE_PROXY_HEADER + " " + reverseProxyHost);
 
         // DO NOT follow redirects !
         method.setFollowRedirects(false);
 
-        // By default the httpclient uses HTTP v1.1. We are downgrading it
-        // to v1.0 so that the target server doesn't set a reply using chunked
-        // transfer encoding which doesn't seem to be handled properly.
-        client.getParams().setVersion(new HttpVersion(1, 0));
-
-        // Execute the method.
-        int statusCode = -1;
         try {
-            // execute the method.
-            statusCode = client.executeMethod(method);
-        } catch (HttpRecoverableException e) {
-            log(
-                    "A recoverable exception occurred " +
-                    e.getMessage());
-        } catch (IOException e) {
-            log("Failed to connect.");
-            e.printStackTrace();
-        }
 
-        // Check that we didn't run out of retries.
-        if (statusCode == -1) {
-            log("Failed to recover from exception.");
-        }
+            // Execute the method, request bodies are streamed from the client request.
+            int statusCode;
+            try {
+                statusCode = _client.executeMethod(method);
+            } catch (IOException e) {
+                log("Failed to connect to " + proxyForwardHost, e);
+                if (!sres.isCommitted())
+                    sres.sendError(HttpServletResponse.SC_BAD_GATEWAY);
+                return;
+            }
 
-        // Read the response body.
-        byte[] responseBody = method.getResponseBody();
-
-        // Release the connection.
-        method.releaseConnection();
-
-        HttpServletResponse sres = (HttpServletResponse)response.getResponse();
-
-        // First thing to do is to copy status code to response, otherwise
-        // catalina will do it as soon as we set a header or some other part of the response.
-        sres.setStatus(method.getStatusCode());
-
-        // copy proxy response headers to client response
-        Header[] responseHeaders = method.getResponseHeaders();
-        for (int i=0; i < responseHeaders.length; i++) {
-            Header responseHeader = responseHeaders[i];
-            String name = responseHeader.getName();
-            String value = responseHeader.getValue();
-
-            // Adjust the URL in the Location, Content-Location and URI headers on HTTP redirect responses
-            // This is essential to avoid by-passing the reverse proxy because of HTTP redirects on the
-            // backend servers which stay behind the reverse proxy
-            switch (method.getStatusCode()) {
-                case HttpStatus.SC_MOVED_TEMPORARILY:
-                case HttpStatus.SC_MOVED_PERMANENTLY:
-                case HttpStatus.SC_SEE_OTHER:
-                case HttpStatus.SC_TEMPORARY_REDIRECT:
-
-                    if ("Location".equalsIgnoreCase(name) ||
-                        "Content-Location".equalsIgnoreCase(name) || "URI".equalsIgnoreCase(name)) {
-
-                        // Check that this redirect must be adjusted.
-                        if (value.indexOf(proxyForwardHost) >= 0) {
-                            String trail = value.substring(proxyForwardHost.length());
-                            value = getReverseProxyHost(request) + trail;
-                            if (container.getLogger().isDebugEnabled())
-                                container.getLogger().debug("Adjusting redirect header to " + value);
+            // First thing to do is to copy status code to response, otherwise
+            // catalina will do it as soon as we set a header or some other part of the response.
+            sres.setStatus(statusCode);
+
+            // copy proxy response headers to client response
+            Header[] responseHeaders = method.getResponseHeaders();
+            for (int i=0; i < responseHeaders.length; i++) {
+                Header responseHeader = responseHeaders[i];
+                String name = responseHeader.getName();
+                String value = responseHeader.getValue();
+
+                // The container handles the connection and transfer encoding with the client
+                if (isHopByHopHeader(name))
+                    continue;
+
+                // Adjust the URL in the Location, Content-Location and URI headers on HTTP redirect responses
+                // This is essential to avoid by-passing the reverse proxy because of HTTP redirects on the
+                // backend servers which stay behind the reverse proxy
+                switch (statusCode) {
+                    case HttpStatus.SC_MOVED_TEMPORARILY:
+                    case HttpStatus.SC_MOVED_PERMANENTLY:
+                    case HttpStatus.SC_SEE_OTHER:
+                    case HttpStatus.SC_TEMPORARY_REDIRECT:
+
+                        if ("Location".equalsIgnoreCase(name) ||
+                            "Content-Location".equalsIgnoreCase(name) || "URI".equalsIgnoreCase(name)) {
+
+                            // Check that this redirect must be adjusted.
+                            if (value.indexOf(proxyForwardHost) >= 0) {
+                                String trail = value.substring(proxyForwardHost.length());
+                                value = reverseProxyHost + trail;
+                                if (isDebugEnabled())
+                                    log("Adjusting redirect header to " + value);
+                            }
                         }
-                    }
-                    break;
+                        break;
+
+                } //end of switch
+                sres.addHeader(name, value);
+
+            }
+
+            // Stream the response body, sometimes there is no body at all ...
+            InputStream in = method.getResponseBodyAsStream();
+            OutputStream out = sres.getOutputStream();
+            if (in != null) {
+                try {
+                    copy(in, out);
+                } catch (IOException e) {
+                    // Don't drain what is left of the body, the connection is closed instead of reused
+                    method.abort();
+                    throw e;
+                }
+            }
+
+            out.flush();
+
+        } finally {
+            // Give the connection back to the pool, unread content is discarded.
+            method.releaseConnection();
+        }
+    }
 
-            } //end of switch
-            sres.addHeader(name, value);
+    /**
+     * Builds the method used to forward the request, request bodies are streamed and not buffered.
+     */
+    protected HttpMethod createMethod(HttpServletRequest hsr, String url) throws IOException {
 
+        // to be moved to a builder which instantiates and build concrete methods.
+        if (hsr.getMethod().equals(METHOD_GET)) {
+            return new GetMethod(url);
+        } else if (hsr.getMethod().equals(METHOD_HEAD)) {
+            return new HeadMethod(url);
         }
 
-        // Sometimes this is null, when no body is returned ...
-        if (responseBody != null && responseBody.length > 0)
-            sres.getOutputStream().write(responseBody);
+        EntityEnclosingMethod method;
+        if (hsr.getMethod().equals(METHOD_POST)) {
+            method = new PostMethod(url);
+        } else if (hsr.getMethod().equals(METHOD_PUT)) {
+            method = new PutMethod(url);
+        } else
+            throw new java.lang.UnsupportedOperationException("Unknown method : " + hsr.getMethod());
+
+        // Unknown lengths are sent using chunked transfer encoding
+        method.setRequestEntity(new InputStreamRequestEntity(hsr.getInputStream(),
+                hsr.getContentLength(), hsr.getContentType()));
+
+        return method;
+    }
+
+    /**
+     * Builds the backend URI, replacing the context path by the configured forward URI.
+     */
+    protected String getForwardUri(String uri, ProxyContextConfig context) {
+        String contextPath = context.getContext();
 
-        sres.getOutputStream().flush();
+        // Trim the uri context before submitting the http request
+        String trail = uri;
+        if (contextPath != null && !contextPath.equals("/") && uri.startsWith(contextPath))
+            trail = uri.substring(contextPath.length());
 
-        if (container.getLogger().isDebugEnabled())
-            container.getLogger().debug("ReverseProxyValve finished.");
+        String forwardUri = context.getForwardUri() != null ? context.getForwardUri() + trail : trail;
+        return forwardUri.length() > 0 ? forwardUri : "/";
+    }
 
-        return;
+    /**
+     * Copies the stream using a fixed size buffer, so that memory does not depend on the body size.
+     */
+    protected void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[_bufferSize];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
     }
 
+    protected boolean isHopByHopHeader(String name) {
+        for (int i = 0; i < HOP_BY_HOP_HEADERS.length; i++) {
+            if (HOP_BY_HOP_HEADERS[i].equalsIgnoreCase(name))
+                return true;
+        }
+        return false;
+    }
 
     /**
      * Return a String rendering of this object.
@@ -441,6 +550,10 @@ public class ReverseProxyValve extends ValveBase implements Lifecycle {
 
     }
 
+    protected boolean isDebugEnabled() {
+        return container != null && container.getLogger().isDebugEnabled();
+    }
+
     /**
      * Log a message on the Logger associated with our Container (if any).
      *
@@ -0,0 +1,187 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.tc60.agent.test;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.SessionEvent;
+import org.apache.catalina.authenticator.Constants;
+import org.apache.catalina.authenticator.SavedRequest;
+import org.josso.tc60.agent.SSOAgentValve;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks the limits applied by the agent valve to requests saved for unauthenticated users.
+ *
+ * @version $Id$
+ */
+public class SSOAgentValveSavedRequestTest {
+
+    private TestSSOAgentValve valve;
+
+    @Before
+    public void setUp() {
+        valve = new TestSSOAgentValve();
+        valve.setMaxSavedRequests(-1);
+        valve.setMaxSavedRequestBytes(-1);
+        valve.setSavedRequestMaxAge(-1);
+    }
+
+    @Test
+    public void testMaxSavedRequests() {
+        valve.setMaxSavedRequests(3);
+
+        Session[] sessions = new Session[5];
+        for (int i = 0; i < sessions.length; i++)
+            sessions[i] = save("s" + i, "/app/page" + i);
+
+        assert valve.getSavedRequestCount() == 3 : "Expected 3 saved requests, found " + valve.getSavedRequestCount();
+        assert valve.getEvictedSavedRequests() == 2 : "Expected 2 evicted requests, found " + valve.getEvictedSavedRequests();
+
+        // Oldest requests go first
+        assert sessions[0].getNote(Constants.FORM_REQUEST_NOTE) == null : "Oldest saved request not evicted";
+        assert sessions[1].getNote(Constants.FORM_REQUEST_NOTE) == null : "Second oldest saved request not evicted";
+        for (int i = 2; i < sessions.length; i++)
+            assert sessions[i].getNote(Constants.FORM_REQUEST_NOTE) != null : "Saved request " + i + " evicted";
+    }
+
+    @Test
+    public void testMaxSavedRequestBytes() {
+        Session first = save("s0", "/app/page0");
+        long size = valve.getSavedRequestBytes();
+        assert size > 0 : "Saved request size not estimated";
+
+        valve.setMaxSavedRequestBytes(2 * size);
+        Session second = save("s1", "/app/page1");
+        Session third = save("s2", "/app/page2");
+
+        assert valve.getSavedRequestBytes() <= 2 * size : "Saved requests exceed size limit : " + valve.getSavedRequestBytes();
+        assert first.getNote(Constants.FORM_REQUEST_NOTE) == null : "Oldest saved request not evicted";
+        assert second.getNote(Constants.FORM_REQUEST_NOTE) != null : "Saved request evicted";
+        assert third.getNote(Constants.FORM_REQUEST_NOTE) != null : "Saved request evicted";
+
+        // A request exceeding the limit by itself is not kept either
+        valve.setMaxSavedRequestBytes(size / 2);
+        Session big = save("s3", "/app/page3");
+
+        assert big.getNote(Constants.FORM_REQUEST_NOTE) == null : "Saved request exceeding size limit kept";
+        assert valve.getSavedRequestCount() == 0 : "Expected no saved requests, found " + valve.getSavedRequestCount();
+        assert valve.getSavedRequestBytes() == 0 : "Expected no saved bytes, found " + valve.getSavedRequestBytes();
+    }
+
+    @Test
+    public void testSavedRequestMaxAge() throws Exception {
+        valve.setSavedRequestMaxAge(50);
+
+        Session old = save("s0", "/app/page0");
+        Thread.sleep(100);
+
+        // Just saved requests are not evicted by the age limit
+        Session recent = save("s1", "/app/page1");
+        assert old.getNote(Constants.FORM_REQUEST_NOTE) == null : "Expired saved request not evicted";
+        assert recent.getNote(Constants.FORM_REQUEST_NOTE) != null : "Saved request evicted";
+
+        Thread.sleep(100);
+        valve.evict();
+
+        assert recent.getNote(Constants.FORM_REQUEST_NOTE) == null : "Expired saved request not evicted";
+        assert valve.getSavedRequestCount() == 0 : "Expected no saved requests, found " + valve.getSavedRequestCount();
+        assert valve.getEvictedSavedRequests() == 2 : "Expected 2 evicted requests, found " + valve.getEvictedSavedRequests();
+    }
+
+    @Test
+    public void testResaveAndDestroy() {
+        Session session = save("s0", "/app/page0");
+        long size = valve.getSavedRequestBytes();
+
+        // Saving again in the same session replaces the tracked request
+        save(session, "/app/page1");
+        assert valve.getSavedRequestCount() == 1 : "Expected 1 saved request, found " + valve.getSavedRequestCount();
+        assert valve.getSavedRequestBytes() == size : "Saved request counted twice : " + valve.getSavedRequestBytes();
+
+        valve.sessionEvent(new SessionEvent(session, Session.SESSION_DESTROYED_EVENT, null));
+
+        assert valve.getSavedRequestCount() == 0 : "Saved request tracked after session destroyed";
+        assert valve.getSavedRequestBytes() == 0 : "Expected no saved bytes, found " + valve.getSavedRequestBytes();
+        assert valve.getEvictedSavedRequests() == 0 : "Destroyed session counted as evicted";
+    }
+
+    private Session save(String id, String uri) {
+        return save(newSession(id), uri);
+    }
+
+    private Session save(Session session, String uri) {
+        SavedRequest saved = new SavedRequest();
+        saved.setMethod("GET");
+        saved.setRequestURI(uri);
+        saved.addHeader("Accept", "text/html");
+
+        session.setNote(Constants.FORM_REQUEST_NOTE, saved);
+        valve.track(session, saved);
+        return session;
+    }
+
+    /**
+     * Catalina session backed by a map of notes, only the methods used by the valve are supported.
+     */
+    private static Session newSession(final String id) {
+        final Map<String, Object> notes = new HashMap<String, Object>();
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class[]{Session.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("getId") || name.equals("getIdInternal"))
+                            return id;
+                        if (name.equals("setNote"))
+                            return notes.put((String) args[0], args[1]);
+                        if (name.equals("getNote"))
+                            return notes.get(args[0]);
+                        if (name.equals("removeNote"))
+                            return notes.remove(args[0]);
+                        if (name.equals("hashCode"))
+                            return System.identityHashCode(proxy);
+                        if (name.equals("equals"))
+                            return proxy == args[0];
+                        if (name.equals("toString"))
+                            return "Session[" + id + "]";
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+    private static class TestSSOAgentValve extends SSOAgentValve {
+
+        void track(Session session, SavedRequest saved) {
+            trackSavedRequest(session, saved);
+        }
+
+        void evict() {
+            evictSavedRequests(null);
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.tc60.gateway.reverseproxy.test;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.josso.agent.reverseproxy.ProxyContextConfig;
+import org.josso.agent.reverseproxy.ProxyContextMapper;
+import org.josso.agent.reverseproxy.ReverseProxyConfigurationImpl;
+import org.josso.tc60.gateway.reverseproxy.ReverseProxyValve;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the reverse proxy valve against a local HTTP/1.1 backend, measuring throughput and backend connections,
+ * and checking that large bodies are streamed.
+ *
+ * @version $Id$
+ */
+public class ReverseProxyValveLoadTest {
+
+    private static final Log logger = LogFactory.getLog(ReverseProxyValveLoadTest.class);
+
+    private static final int THREADS = 8;
+
+    private static final int REQUESTS_PER_THREAD = 250;
+
+    private static final int LARGE_BODY_SIZE = 64 * 1024 * 1024;
+
+    private Backend backend;
+
+    private TestReverseProxyValve valve;
+
+    private ProxyContextConfig context;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new Backend();
+        backend.start();
+
+        ReverseProxyConfigurationImpl rpc = new ReverseProxyConfigurationImpl();
+        rpc.addProxyContext("backend", "/app", "http://127.0.0.1:" + backend.getPort(), "/backend");
+        context = rpc.getProxyContextMapper().map("/app");
+
+        valve = new TestReverseProxyValve();
+        valve.setReverseProxyConfiguration(rpc);
+        valve.setMaxConnectionsPerHost(THREADS);
+        valve.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        valve.stop();
+        backend.stop();
+    }
+
+    @Test
+    public void testLongestPrefixMapping() throws Exception {
+        ProxyContextConfig app = new ProxyContextConfig("app", "/app", "http://app", null);
+        ProxyContextConfig sub = new ProxyContextConfig("sub", "/app/sub", "http://sub", null);
+        ProxyContextConfig other = new ProxyContextConfig("other", "/other", "http://other", null);
+
+        ProxyContextMapper mapper = new ProxyContextMapper(new ProxyContextConfig[] {app, sub, other});
+
+        assert mapper.map("/app") == app;
+        assert mapper.map("/app/index.jsp") == app;
+        assert mapper.map("/app/sub") == sub;
+        assert mapper.map("/app/sub/index.jsp") == sub;
+        assert mapper.map("/app/subway") == app;
+        assert mapper.map("/other/x") == other;
+        assert mapper.map("/application") == null;
+        assert mapper.map("/") == null;
+
+        // A root context only maps the root URI, other unmapped URIs go to the next valve
+        ProxyContextConfig root = new ProxyContextConfig("root", "/", "http://root", null);
+        mapper = new ProxyContextMapper(new ProxyContextConfig[] {root, app});
+
+        assert mapper.map("/") == root;
+        assert mapper.map("/app/index.jsp") == app;
+        assert mapper.map("/other/x") == null;
+    }
+
+    @Test
+    public void testPooledThroughput() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < THREADS; t++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                            TestResponse r = valve.send("GET", "/app/small", null);
+                            if (r.status != 200 || r.body.size() != Backend.SMALL_BODY.length)
+                                failures.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        logger.error("Request failed", e);
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        int requests = THREADS * REQUESTS_PER_THREAD;
+        logger.info("Proxied " + requests + " requests in " + elapsed + " ms (" +
+                (requests * 1000L / elapsed) + " req/s) using " + backend.getConnections() + " backend connections");
+
+        assert failures.get() == 0 : "Failed requests : " + failures.get();
+        // Connections are kept alive and reused, not opened for each request
+        assert backend.getConnections() <= THREADS : "Backend connections " + backend.getConnections();
+    }
+
+    @Test
+    public void testStreamingLargeResponse() throws Exception {
+        DiscardingOutputStream out = new DiscardingOutputStream(backend, false);
+        long start = System.currentTimeMillis();
+        TestResponse r = valve.send("GET", "/app/large", null, out);
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        logger.info("Streamed " + out.getCount() + " bytes in " + elapsed + " ms (" +
+                (out.getCount() / 1024 / elapsed) + " KB/ms), largest write " + out.getMaxWrite() + " bytes");
+
+        assert r.status == 200;
+        assert out.getCount() == LARGE_BODY_SIZE : "Received " + out.getCount();
+        // The backend sends the second half once the client got bytes, a buffered response would wait for it
+        assert backend.isStreamed() : "Response not streamed";
+        assert out.getMaxWrite() <= valve.getBufferSize() : "Largest write " + out.getMaxWrite();
+    }
+
+    @Test
+    public void testClientAbort() throws Exception {
+        DiscardingOutputStream out = new DiscardingOutputStream(backend, true);
+        try {
+            valve.send("GET", "/app/large", null, out);
+            assert false : "Client failure not reported";
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // The connection is closed instead of reading the rest of the body
+        assert backend.awaitClosedConnection() : "Backend connection not closed";
+        assert valve.send("GET", "/app/small", null).status == 200;
+    }
+
+    @Test
+    public void testStreamingRequestBody() throws Exception {
+        byte[] body = new byte[8 * 1024 * 1024];
+        new Random(1).nextBytes(body);
+
+        TestResponse r = valve.send("POST", "/app/echo", body);
+
+        assert r.status == 200;
+        assert Arrays.equals(body, r.body.toByteArray());
+    }
+
+    @Test
+    public void testUnavailableBackend() throws Exception {
+        backend.stop();
+
+        TestResponse r = valve.send("GET", "/app/small", null);
+        assert r.status == HttpServletResponse.SC_BAD_GATEWAY : "Status " + r.status;
+    }
+
+    // ------------------------------------------------------------------ Test support
+
+    private static class TestResponse {
+        int status = -1;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Exposes the servlet level proxy operation, so that no Catalina request is needed.
+     */
+    private class TestReverseProxyValve extends ReverseProxyValve {
+
+        TestResponse send(String method, String uri, byte[] body) throws IOException {
+            TestResponse r = new TestResponse();
+            send(method, uri, body, r, r.body);
+            return r;
+        }
+
+        TestResponse send(String method, String uri, byte[] body, OutputStream out) throws IOException {
+            TestResponse r = new TestResponse();
+            send(method, uri, body, r, out);
+            return r;
+        }
+
+        private void send(String method, String uri, byte[] body, TestResponse r, OutputStream out) throws IOException {
+            proxy(request(method, uri, body), response(r, out), context, "http://localhost:8080");
+        }
+    }
+
+    private static HttpServletRequest request(final String method, final String uri, final byte[] body) {
+        final Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Host", "localhost:8080");
+        if (body != null)
+            headers.put("Content-Type", "application/octet-stream");
+
+        return (HttpServletRequest) Proxy.newProxyInstance(ReverseProxyValveLoadTest.class.getClassLoader(),
+                new Class[] {HttpServletRequest.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                String name = m.getName();
+                if (name.equals("getMethod"))
+                    return method;
+                if (name.equals("getRequestURI"))
+                    return uri;
+                if (name.equals("getQueryString"))
+                    return null;
+                if (name.equals("getHeaderNames"))
+                    return Collections.enumeration(headers.keySet());
+                if (name.equals("getHeaders"))
+                    return Collections.enumeration(Collections.singleton(headers.get(args[0])));
+                if (name.equals("getContentLength"))
+                    return body != null ? body.length : -1;
+                if (name.equals("getContentType"))
+                    return headers.get("Content-Type");
+                if (name.equals("getInputStream")) {
+                    final InputStream in = new ByteArrayInputStream(body != null ? body : new byte[0]);
+                    return new ServletInputStream() {
+                        public int read() throws IOException {
+                            return in.read();
+                        }
+
+                        public int read(byte[] b, int off, int len) throws IOException {
+                            return in.read(b, off, len);
+                        }
+                    };
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private static HttpServletResponse response(final TestResponse r, final OutputStream out) {
+        return (HttpServletResponse) Proxy.newProxyInstance(ReverseProxyValveLoadTest.class.getClassLoader(),
+                new Class[] {HttpServletResponse.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                String name = m.getName();
+                if (name.equals("setStatus") || name.equals("sendError")) {
+                    r.status = (Integer) args[0];
+                    return null;
+                }
+                if (name.equals("isCommitted"))
+                    return Boolean.FALSE;
+                if (name.equals("addHeader") || name.equals("setHeader"))
+                    return null;
+                if (name.equals("getOutputStream")) {
+                    return new ServletOutputStream() {
+                        public void write(int b) throws IOException {
+                            out.write(b);
+                        }
+
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            out.write(b, off, len);
+                        }
+                    };
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    /**
+     * Counts received bytes and the largest write, telling the backend when the first bytes arrive.
+     */
+    private static class DiscardingOutputStream extends OutputStream {
+
+        private final Backend backend;
+
+        private final boolean fail;
+
+        private long count;
+
+        private int maxWrite;
+
+        DiscardingOutputStream(Backend backend, boolean fail) {
+            this.backend = backend;
+            this.fail = fail;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            backend.received();
+            if (fail)
+                throw new IOException("Client gone");
+
+            count += len;
+            maxWrite = Math.max(maxWrite, len);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        int getMaxWrite() {
+            return maxWrite;
+        }
+    }
+
+    /**
+     * Minimal HTTP/1.1 backend with keep-alive support.
+     * <ul>
+     * <li>/small : returns a short body.</li>
+     * <li>/large : returns a large body written in small blocks, the second half once the client received bytes.</li>
+     * <li>/echo : returns the request body.</li>
+     * </ul>
+     */
+    private static class Backend implements Runnable {
+
+        static final byte[] SMALL_BODY = "Hello from backend".getBytes();
+
+        private ServerSocket server;
+
+        private AtomicLong connections = new AtomicLong();
+
+        private List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+        private CountDownLatch received = new CountDownLatch(1);
+
+        private CountDownLatch closed = new CountDownLatch(1);
+
+        private volatile boolean streamed;
+
+        void start() throws IOException {
+            server = new ServerSocket(0);
+            Thread t = new Thread(this, "backend");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void stop() throws IOException {
+            server.close();
+            synchronized (sockets) {
+                for (Socket s : sockets) {
+                    s.close();
+                }
+            }
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        long getConnections() {
+            return connections.get();
+        }
+
+        void received() {
+            received.countDown();
+        }
+
+        boolean isStreamed() {
+            return streamed;
+        }
+
+        boolean awaitClosedConnection() throws InterruptedException {
+            return closed.await(10, TimeUnit.SECONDS);
+        }
+
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    final Socket s = server.accept();
+                    connections.incrementAndGet();
+                    sockets.add(s);
+                    Thread t = new Thread("backend-connection") {
+                        public void run() {
+                            try {
+                                serve(s);
+                            } catch (IOException e) {
+                                // Connection closed
+                            } catch (InterruptedException e) {
+                                // Stopped
+                            } finally {
+                                try { s.close(); } catch (IOException e) { /**/ }
+                                closed.countDown();
+                            }
+                        }
+                    };
+                    t.setDaemon(true);
+                    t.start();
+                } catch (SocketException e) {
+                    return;
+                } catch (IOException e) {
+                    logger.error("Backend accept failed", e);
+                }
+            }
+        }
+
+        private void serve(Socket s) throws IOException, InterruptedException {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+
+            String line;
+            while ((line = readLine(in)) != null) {
+                if (line.length() == 0)
+                    continue;
+
+                String uri = line.split(" ")[1];
+
+                long contentLength = 0;
+                boolean chunked = false;
+                String header;
+                while ((header = readLine(in)) != null && header.length() > 0) {
+                    String h = header.toLowerCase();
+                    if (h.startsWith("content-length:"))
+                        contentLength = Long.parseLong(h.substring(15).trim());
+                    else if (h.startsWith("transfer-encoding:") && h.indexOf("chunked") > 0)
+                        chunked = true;
+                }
+
+                if (uri.endsWith("/echo")) {
+                    ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    if (chunked) {
+                        long size;
+                        while ((size = Long.parseLong(readLine(in).trim(), 16)) > 0) {
+                            copy(in, body, size);
+                            readLine(in);
+                        }
+                        readLine(in);
+                    } else {
+                        copy(in, body, contentLength);
+                    }
+                    writeHeaders(out, body.size());
+                    body.writeTo(out);
+                } else {
+                    copy(in, new ByteArrayOutputStream(), contentLength);
+                    if (uri.endsWith("/large")) {
+                        writeHeaders(out, LARGE_BODY_SIZE);
+                        byte[] block = new byte[8192];
+                        for (int written = 0; written < LARGE_BODY_SIZE; written += block.length) {
+                            if (written == LARGE_BODY_SIZE / 2) {
+                                out.flush();
+                                streamed = received.await(10, TimeUnit.SECONDS);
+                            }
+                            out.write(block);
+                        }
+                    } else {
+                        writeHeaders(out, SMALL_BODY.length);
+                        out.write(SMALL_BODY);
+                    }
+                }
+                out.flush();
+            }
+        }
+
+        private void writeHeaders(OutputStream out, long length) throws IOException {
+            out.write(("HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: " + length + "\r\n" +
+                    "\r\n").getBytes("ISO-8859-1"));
+        }
+
+        private void copy(InputStream in, OutputStream out, long length) throws IOException {
+            byte[] buffer = new byte[8192];
+            while (length > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if (read < 0)
+                    throw new EOFException();
+                out.write(buffer, 0, read);
+                length -= read;
+            }
+        }
+
+        private String readLine(InputStream in) throws IOException {
+            StringBuffer sb = new StringBuffer();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n')
+                    return sb.toString();
+                if (c != '\r')
+                    sb.append((char) c);
+            }
+            return sb.length() > 0 ? sb.toString() : null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.seam.console;
+
+import org.jboss.seam.framework.EntityQuery;
+
+import java.util.List;
+
+/**
+ * Entity query paginated by key (seek method) instead of by offset, when results are ordered by the entity key.
+ * <p/>
+ * The key of the last row of the current page is the cursor for the next one, restricted with
+ * <code>key &gt; #{list.after}</code> (or <code>key &lt; #{list.before}</code> when descending), so the database
+ * walks the key index from the cursor instead of skipping all previous rows. Any other order falls back
+ * to offset pagination.
+ *
+ * @version $Id$
+ */
+public abstract class KeysetEntityQuery extends EntityQuery {
+
+	private static final long serialVersionUID = 1L;
+
+	private String cursor;
+
+	/**
+	 * @return the entity property used as key, as used in the order parameter, i.e. 'login'
+	 */
+	protected abstract String getKeyProperty();
+
+	/**
+	 * @return the key of the given result row
+	 */
+	protected abstract String getKey(Object entity);
+
+	@Override
+	public String getOrder() {
+		String order = super.getOrder();
+		return order == null || order.trim().length() == 0 ? getKeyProperty() + " asc" : order;
+	}
+
+	public String getCursor() {
+		return cursor;
+	}
+
+	public void setCursor(String cursor) {
+		this.cursor = cursor == null || cursor.length() == 0 ? null : cursor;
+		refresh();
+	}
+
+	/**
+	 * @return true if the current order allows key based pagination
+	 */
+	public boolean isKeyset() {
+		return isAscending() || isDescending();
+	}
+
+	/**
+	 * Restriction parameter, only set when ordering by ascending key.
+	 */
+	public String getAfter() {
+		return isAscending() ? cursor : null;
+	}
+
+	/**
+	 * Restriction parameter, only set when ordering by descending key.
+	 */
+	public String getBefore() {
+		return isDescending() ? cursor : null;
+	}
+
+	/**
+	 * @return the cursor of the next page, the key of the last row in this page.
+	 */
+	public String getNextCursor() {
+		List results = getResultList();
+		if (results == null || results.isEmpty())
+			return null;
+		return getKey(results.get(results.size() - 1));
+	}
+
+	/**
+	 * @return true if this is the first page, either by key or by offset
+	 */
+	public boolean isFirstPage() {
+		return !(isKeyset() && cursor != null) && !isPreviousExists();
+	}
+
+	/**
+	 * Builds a 'starts with' pattern for normalized search columns, null if there is nothing to match.
+	 */
+	protected String toPrefixPattern(String value) {
+		if (value == null || value.trim().length() == 0)
+			return null;
+		return value.trim().toLowerCase() + "%";
+	}
+
+	protected boolean isAscending() {
+		return getOrder().trim().equalsIgnoreCase(getKeyProperty() + " asc");
+	}
+
+	protected boolean isDescending() {
+		return getOrder().trim().equalsIgnoreCase(getKeyProperty() + " desc");
+	}
+
+}
@@ -22,20 +22,24 @@
 package org.josso.seam.console;
 
 import org.jboss.seam.annotations.Name;
-import org.jboss.seam.framework.EntityQuery;
 import org.josso.seam.console.model.Role;
 
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Searches over the normalized (lower case) search columns, which are indexed, and pages by name.
+ */
 @Name("roleList")
-public class RoleList extends EntityQuery {
+public class RoleList extends KeysetEntityQuery {
 
     private static final long serialVersionUID = 1L;
     
 	private static final String[] RESTRICTIONS = {
-			"lower(role.name) like concat(lower(#{roleList.role.name}),'%')",
-			"lower(role.description) like concat(lower(#{roleList.role.description}),'%')",};
+			"role.searchName like #{roleList.namePattern}",
+			"role.searchDescription like #{roleList.descriptionPattern}",
+			"role.name > #{roleList.after}",
+			"role.name < #{roleList.before}",};
 
 	private Role role = new Role();
 
@@ -53,6 +57,24 @@ public class RoleList extends EntityQuery {
 		return role;
 	}
 
+	public String getNamePattern() {
+		return toPrefixPattern(role.getName());
+	}
+
+	public String getDescriptionPattern() {
+		return toPrefixPattern(role.getDescription());
+	}
+
+	@Override
+	protected String getKeyProperty() {
+		return "name";
+	}
+
+	@Override
+	protected String getKey(Object entity) {
+		return ((Role) entity).getName();
+	}
+
 	@Override
 	public List<String> getRestrictions() {
 		return Arrays.asList(RESTRICTIONS);
@@ -28,6 +28,9 @@ import org.josso.seam.console.model.UserRole;
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * User and role are fetched with the page, instead of one by one when rendered.
+ */
 @Name("userRoleList")
 public class UserRoleList extends EntityQuery {
 
@@ -37,7 +40,13 @@ public class UserRoleList extends EntityQuery {
 
 	@Override
 	public String getEjbql() {
-		return "select userRole from UserRole userRole";
+		return "select userRole from UserRole userRole join fetch userRole.username username join fetch userRole.role role";
+	}
+
+	@Override
+	protected String getCountEjbql() {
+		// Fetch joins are not allowed when counting
+		return "select count(userRole) from UserRole userRole";
 	}
 
 	@Override
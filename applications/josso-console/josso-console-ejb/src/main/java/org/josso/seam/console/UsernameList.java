@@ -22,20 +22,26 @@
 package org.josso.seam.console;
 
 import org.jboss.seam.annotations.Name;
-import org.jboss.seam.framework.EntityQuery;
 import org.josso.seam.console.model.Username;
 
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Searches over the normalized (lower case) search columns, which are indexed, and pages by login.
+ */
 @Name("usernameList")
-public class UsernameList extends EntityQuery {
+public class UsernameList extends KeysetEntityQuery {
+
+	private static final long serialVersionUID = 1L;
 
 	private static final String[] RESTRICTIONS = {
-			"lower(username.login) like concat(lower(#{usernameList.username.login}),'%')",
-			"lower(username.description) like concat(lower(#{usernameList.username.description}),'%')",
-			"lower(username.name) like concat(lower(#{usernameList.username.name}),'%')",
-			"lower(username.passwd) like concat(lower(#{usernameList.username.passwd}),'%')",};
+			"username.searchLogin like #{usernameList.loginPattern}",
+			"username.searchDescription like #{usernameList.descriptionPattern}",
+			"username.searchDescription like #{usernameList.namePattern}",
+			"lower(username.passwd) like concat(lower(#{usernameList.username.passwd}),'%')",
+			"username.login > #{usernameList.after}",
+			"username.login < #{usernameList.before}",};
 
 	private Username username = new Username();
 
@@ -53,6 +59,28 @@ public class UsernameList extends EntityQuery {
 		return username;
 	}
 
+	public String getLoginPattern() {
+		return toPrefixPattern(username.getLogin());
+	}
+
+	public String getDescriptionPattern() {
+		return toPrefixPattern(username.getDescription());
+	}
+
+	public String getNamePattern() {
+		return toPrefixPattern(username.getName());
+	}
+
+	@Override
+	protected String getKeyProperty() {
+		return "login";
+	}
+
+	@Override
+	protected String getKey(Object entity) {
+		return ((Username) entity).getLogin();
+	}
+
 	@Override
 	public List<String> getRestrictions() {
 		return Arrays.asList(RESTRICTIONS);
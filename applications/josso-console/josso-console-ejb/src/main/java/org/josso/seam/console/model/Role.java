@@ -40,6 +40,8 @@ public class Role implements java.io.Serializable {
 	private String name;
 	private String description;
 	private Set<UserRole> userRoles = new HashSet<UserRole>(0);
+	private String searchName;
+	private String searchDescription;
 
 	public Role() {
 	}
@@ -74,6 +76,34 @@ public class Role implements java.io.Serializable {
 	public void setDescription(String description) {
 		this.description = description;
 	}
+	/**
+	 * Lower case copy of the name, indexed so that list searches do not need lower() over the table.
+	 */
+	@Column(name = "SEARCH_NAME", length = 32)
+	public String getSearchName() {
+		return this.searchName;
+	}
+
+	public void setSearchName(String searchName) {
+		this.searchName = searchName;
+	}
+
+	@Column(name = "SEARCH_DESCRIPTION", length = 64)
+	public String getSearchDescription() {
+		return this.searchDescription;
+	}
+
+	public void setSearchDescription(String searchDescription) {
+		this.searchDescription = searchDescription;
+	}
+
+	@PrePersist
+	@PreUpdate
+	public void normalize() {
+		this.searchName = name != null ? name.toLowerCase() : null;
+		this.searchDescription = description != null ? description.toLowerCase() : null;
+	}
+
 	@OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY, mappedBy = "role")
 	public Set<UserRole> getUserRoles() {
 		return this.userRoles;
@@ -43,6 +43,8 @@ public class Username implements java.io.Serializable {
 	private String description;
 	private Set<UserRole> userRoles = new HashSet<UserRole>(0);
 	private Set<Property> properties = new HashSet<Property>(0);
+	private String searchLogin;
+	private String searchDescription;
 
 	public Username() {
 	}
@@ -85,7 +87,10 @@ public class Username implements java.io.Serializable {
 		this.passwd = passwd;
 	}
 
-	@Column(name = "DESCRIPTION", length = 64)
+	/**
+	 * Same column as the description, written through the description only.
+	 */
+	@Column(name = "DESCRIPTION", length = 64, insertable = false, updatable = false)
 	@Length(max = 64)
 	public String getName() {
 		return this.name;
@@ -104,6 +109,37 @@ public class Username implements java.io.Serializable {
 	public void setDescription(String description) {
 		this.description = description;
 	}
+	/**
+	 * Lower case copy of the login, indexed so that list searches do not need lower() over the table.
+	 */
+	@Column(name = "SEARCH_LOGIN", length = 32)
+	public String getSearchLogin() {
+		return this.searchLogin;
+	}
+
+	public void setSearchLogin(String searchLogin) {
+		this.searchLogin = searchLogin;
+	}
+
+	/**
+	 * Lower case copy of the description column.
+	 */
+	@Column(name = "SEARCH_DESCRIPTION", length = 64)
+	public String getSearchDescription() {
+		return this.searchDescription;
+	}
+
+	public void setSearchDescription(String searchDescription) {
+		this.searchDescription = searchDescription;
+	}
+
+	@PrePersist
+	@PreUpdate
+	public void normalize() {
+		this.searchLogin = login != null ? login.toLowerCase() : null;
+		this.searchDescription = description != null ? description.toLowerCase() : null;
+	}
+
 	@OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY, mappedBy = "username")
 	public Set<UserRole> getUserRoles() {
 		return this.userRoles;
@@ -0,0 +1,46 @@
+-- JOSSO: Java Open Single Sign-On
+--
+-- Copyright 2004-2009, Atricore, Inc.
+--
+-- This is free software; you can redistribute it and/or modify it
+-- under the terms of the GNU Lesser General Public License as
+-- published by the Free Software Foundation; either version 2.1 of
+-- the License, or (at your option) any later version.
+--
+-- This software is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+-- Lesser General Public License for more details.
+--
+-- You should have received a copy of the GNU Lesser General Public
+-- License along with this software; if not, write to the Free
+-- Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+-- 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+
+-- Normalized search columns used by the console user and role lists (HSQLDB syntax).
+--
+-- The console keeps these columns updated, users and roles created by other means must
+-- set them too or run the UPDATE statements again.
+--
+-- Databases supporting function based indexes may instead index LOWER(LOGIN), LOWER(DESCRIPTION)
+-- and LOWER(NAME) directly, but the columns are still required by the console mapping.
+
+ALTER TABLE JOSSO_USER ADD COLUMN SEARCH_LOGIN VARCHAR(32);
+ALTER TABLE JOSSO_USER ADD COLUMN SEARCH_DESCRIPTION VARCHAR(64);
+
+UPDATE JOSSO_USER SET SEARCH_LOGIN = LOWER(LOGIN), SEARCH_DESCRIPTION = LOWER(DESCRIPTION);
+
+CREATE INDEX IDX_JOSSO_USER_SEARCH_LOGIN ON JOSSO_USER (SEARCH_LOGIN);
+CREATE INDEX IDX_JOSSO_USER_SEARCH_DESC ON JOSSO_USER (SEARCH_DESCRIPTION);
+
+ALTER TABLE JOSSO_ROLE ADD COLUMN SEARCH_NAME VARCHAR(32);
+ALTER TABLE JOSSO_ROLE ADD COLUMN SEARCH_DESCRIPTION VARCHAR(64);
+
+UPDATE JOSSO_ROLE SET SEARCH_NAME = LOWER(NAME), SEARCH_DESCRIPTION = LOWER(DESCRIPTION);
+
+CREATE INDEX IDX_JOSSO_ROLE_SEARCH_NAME ON JOSSO_ROLE (SEARCH_NAME);
+CREATE INDEX IDX_JOSSO_ROLE_SEARCH_DESC ON JOSSO_ROLE (SEARCH_DESCRIPTION);
+
+-- Pages are walked by primary key (LOGIN, NAME), join fetches use the JOSSO_USER_ROLE foreign keys.
+CREATE INDEX IDX_JOSSO_USER_ROLE_LOGIN ON JOSSO_USER_ROLE (LOGIN);
+CREATE INDEX IDX_JOSSO_USER_ROLE_ROLE ON JOSSO_USER_ROLE (ROLE);
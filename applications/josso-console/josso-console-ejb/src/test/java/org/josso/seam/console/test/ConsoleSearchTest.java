@@ -0,0 +1,400 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.seam.console.test;
+
+import org.hibernate.Hibernate;
+import org.josso.seam.console.model.Role;
+import org.josso.seam.console.model.UserRole;
+import org.josso.seam.console.model.Username;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.Query;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the user and role list queries over an embedded H2 database with ten thousand users. Set the
+ * josso.console.test.users system property to run them over a larger population, a million users take
+ * about two minutes. The database is created with the console
+ * schema, seeded and then upgraded with META-INF/josso-console-search.sql, as an existing console
+ * database would be. H2 is used instead of HSQLDB 1.8 because the latter sorts every result in memory,
+ * even when the order by columns are indexed.
+ * <p/>
+ * Searches over the normalized columns must return the same rows as the lower() searches they replace,
+ * and pages walked by key the same rows as pages walked by offset.
+ *
+ * @version $Id$
+ */
+public class ConsoleSearchTest {
+
+	private static final int USERS = Integer.getInteger("josso.console.test.users", 10000).intValue();
+
+	// File based, so that a million users fit in the test heap
+	private static final String URL = "jdbc:h2:target/josso-console-test/console;LOG=0;UNDO_LOG=0;CACHE_SIZE=65536";
+
+	private static final int ROLES = 100;
+
+	private static final int USER_ROLES = 1000;
+
+	// As the console lists
+	private static final int PAGE_SIZE = 25;
+
+	private static final String[] NAMES = {"Alice", "bob", "Carol", "dave", "Erin", "frank", "Grace", "heidi", "Ivan", "judy"};
+
+	private static Connection connection;
+
+	private static EntityManagerFactory emf;
+
+	private EntityManager em;
+
+	@BeforeClass
+	public static void setUpDatabase() throws Exception {
+		Class.forName("org.h2.Driver");
+		connection = DriverManager.getConnection(URL, "sa", "");
+		connection.createStatement().execute("DROP ALL OBJECTS");
+
+		execute("/org/josso/seam/console/test/josso-console-schema.sql");
+		seed();
+		execute("/META-INF/josso-console-search.sql");
+
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("hibernate.connection.url", URL);
+		emf = Persistence.createEntityManagerFactory("josso_console_test", properties);
+	}
+
+	@AfterClass
+	public static void tearDownDatabase() throws Exception {
+		if (emf != null)
+			emf.close();
+		if (connection != null) {
+			connection.createStatement().execute("SHUTDOWN");
+			connection.close();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		em = emf.createEntityManager();
+	}
+
+	@After
+	public void tearDown() {
+		em.close();
+	}
+
+	@Test
+	public void testSearchByLogin() throws Exception {
+		String[] values = {"alice", "BOB.99", "judy.9999", "x"};
+		for (int i = 0; i < values.length; i++) {
+			List<String> indexed = logins(em.createQuery(
+					"select username from Username username where username.searchLogin like :pattern " +
+					"order by username.login asc")
+					.setParameter("pattern", prefixPattern(values[i])).setMaxResults(PAGE_SIZE));
+
+			List<String> baseline = logins(em.createQuery(
+					"select username from Username username where lower(username.login) like concat(lower(:login),'%') " +
+					"order by username.login asc")
+					.setParameter("login", values[i]).setMaxResults(PAGE_SIZE));
+
+			assert indexed.equals(baseline) : "Invalid results for " + values[i] + " : " + indexed + ", expected " + baseline;
+		}
+
+		assert count("select count(username) from Username username where username.searchLogin like :pattern", "bob.99") ==
+				count("select count(username) from Username username where lower(username.login) like :pattern", "bob.99") :
+				"Invalid count";
+	}
+
+	@Test
+	public void testSearchByDescription() throws Exception {
+		String[] values = {"grace user 1", "HEIDI", "nobody"};
+		for (int i = 0; i < values.length; i++) {
+			List<String> indexed = logins(em.createQuery(
+					"select username from Username username where username.searchDescription like :pattern " +
+					"order by username.login asc")
+					.setParameter("pattern", prefixPattern(values[i])).setMaxResults(PAGE_SIZE));
+
+			List<String> baseline = logins(em.createQuery(
+					"select username from Username username where lower(username.description) like concat(lower(:description),'%') " +
+					"order by username.login asc")
+					.setParameter("description", values[i]).setMaxResults(PAGE_SIZE));
+
+			assert indexed.equals(baseline) : "Invalid results for " + values[i] + " : " + indexed + ", expected " + baseline;
+		}
+	}
+
+	@Test
+	public void testSearchUsesIndexes() throws Exception {
+		assert plan("SELECT LOGIN FROM JOSSO_USER WHERE SEARCH_LOGIN LIKE 'alice%'").indexOf("IDX_JOSSO_USER_SEARCH_LOGIN") >= 0 :
+				"Login search not indexed";
+		assert plan("SELECT LOGIN FROM JOSSO_USER WHERE SEARCH_DESCRIPTION LIKE 'alice%'").indexOf("IDX_JOSSO_USER_SEARCH_DESC") >= 0 :
+				"Description search not indexed";
+		assert plan("SELECT NAME FROM JOSSO_ROLE WHERE SEARCH_NAME LIKE 'role%'").indexOf("IDX_JOSSO_ROLE_SEARCH_NAME") >= 0 :
+				"Role search not indexed";
+	}
+
+	@Test
+	public void testKeysetUsesIndexes() throws Exception {
+		String plan = plan("SELECT LOGIN FROM JOSSO_USER WHERE LOGIN > 'bob.5' ORDER BY LOGIN LIMIT 25");
+		assert plan.indexOf("PRIMARY_KEY") >= 0 && plan.indexOf("index sorted") >= 0 : "Pages not walked by key : " + plan;
+	}
+
+	@Test
+	public void testKeysetPagination() throws Exception {
+		String ascending = "select username from Username username where username.login > :after order by username.login asc";
+		String descending = "select username from Username username where username.login < :before order by username.login desc";
+
+		// From the first page
+		assertSamePages(ascending, "after", "select username from Username username order by username.login asc", null, 0, 40);
+		// Few pages, H2 sorts the rows before a descending cursor instead of walking the key index backwards
+		assertSamePages(descending, "before", "select username from Username username order by username.login desc", null, 0, 3);
+
+		// From the middle of the list, the cursor being the last row of the previous page
+		int offset = USERS / 2;
+		String cursor = logins(em.createQuery("select username from Username username order by username.login asc")
+				.setFirstResult(offset - 1).setMaxResults(1)).get(0);
+		assertSamePages(ascending, "after", "select username from Username username order by username.login asc", cursor, offset, 3);
+
+		// Together with a search
+		assertSamePages("select username from Username username where username.searchLogin like 'bob%' and " +
+				"username.login > :after order by username.login asc", "after",
+				"select username from Username username where username.searchLogin like 'bob%' order by username.login asc",
+				null, 0, 3);
+	}
+
+	@Test
+	public void testRoleList() throws Exception {
+		List<String> indexed = names(em.createQuery(
+				"select role from Role role where role.searchName like :pattern order by role.name asc")
+				.setParameter("pattern", prefixPattern("ROLE1")));
+		List<String> baseline = names(em.createQuery(
+				"select role from Role role where lower(role.name) like concat(lower(:name),'%') order by role.name asc")
+				.setParameter("name", "ROLE1"));
+		assert indexed.size() == 11 && indexed.equals(baseline) : "Invalid roles " + indexed + ", expected " + baseline;
+
+		// All pages, walked by name
+		List<String> walked = new ArrayList<String>();
+		String cursor = null;
+		while (true) {
+			Query query = cursor == null ?
+					em.createQuery("select role from Role role order by role.name asc") :
+					em.createQuery("select role from Role role where role.name > :after order by role.name asc")
+							.setParameter("after", cursor);
+			List<String> page = names(query.setMaxResults(PAGE_SIZE));
+			if (page.isEmpty())
+				break;
+			walked.addAll(page);
+			cursor = page.get(page.size() - 1);
+		}
+		assert walked.equals(names(em.createQuery("select role from Role role order by role.name asc"))) :
+				"Invalid role pages " + walked;
+	}
+
+	@Test
+	public void testUserRoleFetch() throws Exception {
+		List userRoles = em.createQuery("select userRole from UserRole userRole join fetch userRole.username username " +
+				"join fetch userRole.role role").setMaxResults(PAGE_SIZE).getResultList();
+		assert userRoles.size() == PAGE_SIZE : "Invalid page size " + userRoles.size();
+		for (int i = 0; i < userRoles.size(); i++) {
+			UserRole userRole = (UserRole) userRoles.get(i);
+			assert Hibernate.isInitialized(userRole.getUsername()) : "User not fetched with the page";
+			assert Hibernate.isInitialized(userRole.getRole()) : "Role not fetched with the page";
+		}
+
+		Number count = (Number) em.createQuery("select count(userRole) from UserRole userRole").getSingleResult();
+		assert count.intValue() == USER_ROLES : "Invalid count " + count;
+	}
+
+	@Test
+	public void testSearchColumnsMaintained() throws Exception {
+		em.getTransaction().begin();
+		Username username = new Username("New.User", "secret");
+		username.setDescription("Mixed Case Description");
+		em.persist(username);
+		Role role = new Role("New.Role");
+		role.setDescription("Mixed Case Role");
+		em.persist(role);
+		em.getTransaction().commit();
+		em.clear();
+
+		try {
+			username = (Username) em.createQuery("select username from Username username where username.searchLogin like :pattern")
+					.setParameter("pattern", prefixPattern("NEW.U")).getSingleResult();
+			assert username.getSearchDescription().equals("mixed case description") :
+					"Invalid search description " + username.getSearchDescription();
+
+			em.getTransaction().begin();
+			username.setDescription("Updated Description");
+			em.getTransaction().commit();
+			em.clear();
+
+			username = em.find(Username.class, "New.User");
+			assert username.getSearchDescription().equals("updated description") : "Search description not updated";
+
+			role = em.find(Role.class, "New.Role");
+			assert role.getSearchName().equals("new.role") && role.getSearchDescription().equals("mixed case role") :
+					"Invalid role search columns";
+
+		} finally {
+			em.getTransaction().begin();
+			em.remove(em.find(Username.class, "New.User"));
+			em.remove(em.find(Role.class, "New.Role"));
+			em.getTransaction().commit();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------- Helpers
+
+	/**
+	 * Compares pages fetched after the last key of the previous page with pages fetched by offset.
+	 */
+	private void assertSamePages(String keysetQuery, String parameter, String offsetQuery, String cursor, int offset, int pages) {
+		for (int p = 0; p < pages; p++) {
+			Query keyset = cursor == null ? em.createQuery(offsetQuery) : em.createQuery(keysetQuery).setParameter(parameter, cursor);
+			List<String> byKey = logins(keyset.setMaxResults(PAGE_SIZE));
+			List<String> byOffset = logins(em.createQuery(offsetQuery).setFirstResult(offset).setMaxResults(PAGE_SIZE));
+
+			assert byKey.equals(byOffset) : "Invalid page at " + offset + " : " + byKey + ", expected " + byOffset;
+			if (byKey.isEmpty())
+				return;
+
+			cursor = byKey.get(byKey.size() - 1);
+			offset += PAGE_SIZE;
+			em.clear();
+		}
+	}
+
+	private String prefixPattern(String value) {
+		// As KeysetEntityQuery.toPrefixPattern()
+		return value.trim().toLowerCase() + "%";
+	}
+
+	private long count(String query, String value) {
+		return ((Number) em.createQuery(query).setParameter("pattern", value + "%").getSingleResult()).longValue();
+	}
+
+	private List<String> logins(Query query) {
+		List results = query.getResultList();
+		List<String> logins = new ArrayList<String>(results.size());
+		for (int i = 0; i < results.size(); i++)
+			logins.add(((Username) results.get(i)).getLogin());
+		return logins;
+	}
+
+	private List<String> names(Query query) {
+		List results = query.getResultList();
+		List<String> names = new ArrayList<String>(results.size());
+		for (int i = 0; i < results.size(); i++)
+			names.add(((Role) results.get(i)).getName());
+		return names;
+	}
+
+	private String plan(String sql) throws Exception {
+		Statement st = connection.createStatement();
+		ResultSet rs = st.executeQuery("EXPLAIN " + sql);
+		StringBuilder plan = new StringBuilder();
+		while (rs.next())
+			plan.append(rs.getString(1)).append('\n');
+		st.close();
+		return plan.toString();
+	}
+
+	private static void seed() throws Exception {
+		connection.setAutoCommit(false);
+
+		PreparedStatement users = connection.prepareStatement(
+				"INSERT INTO JOSSO_USER (LOGIN, PASSWORD, DESCRIPTION) VALUES (?, ?, ?)");
+		for (int i = 0; i < USERS; i++) {
+			String name = NAMES[i % NAMES.length];
+			users.setString(1, name + "." + i);
+			users.setString(2, "secret");
+			users.setString(3, i % 7 == 0 ? null : name + " User " + i);
+			users.addBatch();
+			if (i % 10000 == 9999) {
+				users.executeBatch();
+				connection.commit();
+			}
+		}
+		users.executeBatch();
+		users.close();
+
+		PreparedStatement roles = connection.prepareStatement("INSERT INTO JOSSO_ROLE (NAME, DESCRIPTION) VALUES (?, ?)");
+		for (int i = 0; i < ROLES; i++) {
+			roles.setString(1, "Role" + i);
+			roles.setString(2, "Role Number " + i);
+			roles.addBatch();
+		}
+		roles.executeBatch();
+		roles.close();
+
+		PreparedStatement userRoles = connection.prepareStatement("INSERT INTO JOSSO_USER_ROLE (ID, LOGIN, ROLE) VALUES (?, ?, ?)");
+		for (int i = 0; i < USER_ROLES; i++) {
+			userRoles.setInt(1, i + 1);
+			userRoles.setString(2, NAMES[i % NAMES.length] + "." + i);
+			userRoles.setString(3, "Role" + (i % ROLES));
+			userRoles.addBatch();
+		}
+		userRoles.executeBatch();
+		userRoles.close();
+
+		connection.commit();
+		connection.setAutoCommit(true);
+	}
+
+	/**
+	 * Runs a script from the classpath, statements are separated by ';'.
+	 */
+	private static void execute(String resource) throws Exception {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(ConsoleSearchTest.class.getResourceAsStream(resource)));
+		StringBuilder script = new StringBuilder();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (!line.trim().startsWith("--"))
+				script.append(line).append('\n');
+		}
+		reader.close();
+
+		Statement st = connection.createStatement();
+		String[] statements = script.toString().split(";");
+		for (int i = 0; i < statements.length; i++) {
+			if (statements[i].trim().length() > 0)
+				st.execute(statements[i]);
+		}
+		st.close();
+	}
+
+}
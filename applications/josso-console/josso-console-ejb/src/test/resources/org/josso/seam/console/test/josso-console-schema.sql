@@ -0,0 +1,33 @@
+-- Console tables, as mapped by the console entities before the search columns were added (HSQLDB and H2 syntax).
+
+CREATE TABLE JOSSO_USER (
+       LOGIN                VARCHAR(32) NOT NULL PRIMARY KEY,
+       PASSWORD             VARCHAR(32) NOT NULL,
+       DESCRIPTION          VARCHAR(64)
+);
+
+CREATE TABLE JOSSO_ROLE (
+       NAME                 VARCHAR(32) NOT NULL PRIMARY KEY,
+       DESCRIPTION          VARCHAR(64)
+);
+
+CREATE TABLE JOSSO_USER_ROLE (
+       ID                   INTEGER NOT NULL PRIMARY KEY,
+       LOGIN                VARCHAR(32) NOT NULL,
+       ROLE                 VARCHAR(32) NOT NULL,
+       FOREIGN KEY (LOGIN) REFERENCES JOSSO_USER (LOGIN),
+       FOREIGN KEY (ROLE) REFERENCES JOSSO_ROLE (NAME)
+);
+
+CREATE TABLE JOSSO_USER_PROPERTY (
+       ID                   INTEGER NOT NULL PRIMARY KEY,
+       LOGIN                VARCHAR(32) NOT NULL,
+       NAME                 VARCHAR(255) NOT NULL,
+       VALUE                VARCHAR(255),
+       FOREIGN KEY (LOGIN) REFERENCES JOSSO_USER (LOGIN)
+);
+
+CREATE TABLE HIBERNATE_SEQUENCES (
+       SEQUENCE_NAME        VARCHAR(255),
+       SEQUENCE_NEXT_HI_VALUE INTEGER
+);
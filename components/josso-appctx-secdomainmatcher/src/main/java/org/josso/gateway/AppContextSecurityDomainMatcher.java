@@ -25,8 +25,8 @@ package org.josso.gateway;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 /**
@@ -35,19 +35,27 @@ import java.util.StringTokenizer;
  * @author <a href="mailto:sgonzalez@atricore.org">Sebastian Gonzalez Oyuela</a>
  * @version $Rev: 606 $ $Date: 2008-08-21 12:11:13 -0300 (Thu, 21 Aug 2008) $
  */
-public class AppContextSecurityDomainMatcher implements SecurityDomainMatcher {
+public class AppContextSecurityDomainMatcher implements KeyedSecurityDomainMatcher {
 
     private static Log logger = LogFactory.getLog(AppContextSecurityDomainMatcher.class);
 
-    private List<String> appWebCtxs = new ArrayList<String>();
+    private Set<String> appWebCtxs = new HashSet<String>();
 
     public void init() {
         if (appWebCtxs.isEmpty())
             logger.warn("No web contexts defined for this matcher, check JOSSO configuration!");
     }
 
+    public String getParameterName() {
+        return org.josso.gateway.signon.Constants.PARAM_JOSSO_PARTNERAPP_CONTEXT;
+    }
+
+    public Set<String> getKeys() {
+        return appWebCtxs;
+    }
+
     public boolean match(SSORequest req) {
-        String appWebCtx = req.getParameter(org.josso.gateway.signon.Constants.PARAM_JOSSO_PARTNERAPP_CONTEXT);
+        String appWebCtx = req.getParameter(getParameterName());
         boolean match = appWebCtx != null && appWebCtxs.contains(appWebCtx.toLowerCase());
 
         if (logger.isDebugEnabled())
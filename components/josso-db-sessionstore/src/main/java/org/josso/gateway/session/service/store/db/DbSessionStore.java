@@ -44,6 +44,8 @@ import java.util.Date;
  * <li>loadAllQuery = The SQL Query used to load all sessions from the store.</li>
  * <li>loadQuery = The SQL Query used to load one session from the store based on its id.</li>
  * <li>loadByUserNameQuery = The SQL Query used to load all sessions associated to a given user.</li>
+ * <li>countByUserNameQuery = The SQL Query used to count the sessions associated to a given user (optional).</li>
+ * <li>loadOldestByUserNameQuery = The SQL Query used to load the sessions associated to a given user, oldest first (optional).</li>
  * <li>loadByLastAccesstimeQuery = The SQL Query used to load all sessions last accessed before the given date.</li>
  * <li>loadByValidQuery = The SQL Query used to load all sessions whose valid property is equals to the gvien argument.</li>
  * <li>deleteDml = The SQL Query used to remove a session from the store.</li>
@@ -69,6 +71,8 @@ public abstract class DbSessionStore extends AbstractSessionStore {
     private String _loadAllQuery = null;
     private String _loadQuery = null;
     private String _loadByUserNameQuery = null;
+    private String _countByUserNameQuery = null;
+    private String _loadOldestByUserNameQuery = null;
     private String _loadByLastAccessTimeQuery = null;
     private String _loadByValidQuery = null;
 
@@ -242,6 +246,41 @@ public abstract class DbSessionStore extends AbstractSessionStore {
     }
 
 
+    /**
+     * The SQL Query used to count the sessions associated to a given user.
+     * The first column of the first row in the result set must be the number of sessions.
+     * <p/>
+     * example : SELECT COUNT(1) FROM JOSSO_SESSION WHERE USERNAME = ?
+     * <p/>
+     * When not set, user sessions are loaded to count them.
+     */
+    public void setCountByUserNameQuery(String query) {
+        _countByUserNameQuery = query;
+    }
+
+    public String getCountByUserNameQuery() {
+        return _countByUserNameQuery;
+    }
+
+    /**
+     * The SQL Query used to load the sessions associated to a given user, ordered by creation time.
+     * Only the first rows are read, an index on USERNAME, CREATION_TIME avoids sorting all user sessions.
+     * <p/>
+     * The columns in the result set must be in the following order :
+     * sessionId, userName, creationTime, lastAccessTime, accessCount, maxInactiveInterval, valid
+     * <p/>
+     * example : SELECT SESSION_ID, USERNAME, CREATION_TIME, LAST_ACCESS_TIME, ACCESS_COUNT, MAX_INACTIVE_INTERVAL, VALID FROM JOSSO_SESSION WHERE USERNAME = ? ORDER BY CREATION_TIME
+     * <p/>
+     * When not set, user sessions are loaded and sorted.
+     */
+    public void setLoadOldestByUserNameQuery(String query) {
+        _loadOldestByUserNameQuery = query;
+    }
+
+    public String getLoadOldestByUserNameQuery() {
+        return _loadOldestByUserNameQuery;
+    }
+
     /**
      * The SQL query used to retrieve the number of sessions in the store.
      * The first column of the first row in the result set must be the number of sessions.
@@ -524,6 +563,89 @@ public abstract class DbSessionStore extends AbstractSessionStore {
     }
 
 
+    /**
+     * Counts the sessions associated to the given user.
+     * <p/>
+     * The first column of the first row in the result set must be the number of sessions.
+     *
+     * @see #setCountByUserNameQuery(String)
+     */
+    public int countByUsername(String userName) throws SSOSessionException {
+
+        if (_countByUserNameQuery == null)
+            return super.countByUsername(userName);
+
+        int retval = 0;
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try {
+            conn = getConnection();
+            stmt = conn.prepareStatement(_countByUserNameQuery);
+            stmt.setString(1, userName);
+
+            final ResultSet rs = stmt.executeQuery();
+            if (rs.next())
+                retval = rs.getInt(1);
+            rs.close();
+        }
+        catch (Exception e) {
+            if (__log.isDebugEnabled())
+                __log.debug(e, e);
+            throw new SSOSessionException(e);
+        }
+        finally {
+            close(stmt);
+            close(conn);
+        }
+
+        return retval;
+    }
+
+    /**
+     * Loads the oldest sessions associated to the given user, only the first count rows are read.
+     * <p/>
+     * The columns in the result set must be in the following order :
+     * sessionId, userName, creationTime, lastAccessTime, accessCount, maxInactiveInterval, valid
+     *
+     * @see #setLoadOldestByUserNameQuery(String)
+     */
+    public BaseSession[] loadOldestByUsername(String userName, int count) throws SSOSessionException {
+
+        if (_loadOldestByUserNameQuery == null)
+            return super.loadOldestByUsername(userName, count);
+
+        if (count <= 0)
+            return new BaseSession[0];
+
+        final ArrayList bucket = new ArrayList(count);
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try {
+            conn = getConnection();
+            stmt = conn.prepareStatement(_loadOldestByUserNameQuery);
+            stmt.setMaxRows(count);
+            stmt.setString(1, userName);
+
+            final ResultSet rs = stmt.executeQuery();
+            while (bucket.size() < count && rs.next())
+                bucket.add(createFromResultSet(rs));
+            rs.close();
+        }
+        catch (Exception e) {
+            if (__log.isDebugEnabled())
+                __log.debug(e, e);
+            throw new SSOSessionException(e);
+        }
+        finally {
+            close(stmt);
+            close(conn);
+        }
+
+        return (BaseSession[]) bucket.toArray(new BaseSession[bucket.size()]);
+    }
+
     /**
      * Loads all sessions last accessed before the given date.
      * <p/>
@@ -623,6 +745,98 @@ public abstract class DbSessionStore extends AbstractSessionStore {
     }
 
 
+    /**
+     * Removes the given sessions in a single transaction, using a batch of deleteDml statements.
+     *
+     * @throws SSOSessionException
+     * @see #setDeleteDml(String)
+     */
+    public void remove(String[] ids) throws SSOSessionException {
+        if (ids.length == 0)
+            return;
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try {
+            conn = getConnection();
+            stmt = conn.prepareStatement(_deleteDml);
+            for (int i = 0; i < ids.length; i++) {
+                stmt.setString(1, ids[i]);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+
+            if (__log.isDebugEnabled())
+                __log.debug("Sessions Removed: " + ids.length);
+        }
+        catch (Exception e) {
+            if (__log.isDebugEnabled())
+                __log.debug(e, e);
+
+            rollback(conn);
+            throw new SSOSessionException(e);
+        }
+        finally {
+            close(stmt);
+            close(conn);
+        }
+    }
+
+    /**
+     * Removes all sessions associated to the given user.  Sessions are loaded and then removed by id in the same
+     * transaction, using the loadByUserNameQuery and a batch of deleteDml statements, so that a session created
+     * meanwhile is neither removed nor returned.
+     *
+     * @throws SSOSessionException
+     * @see #setLoadByUserNameQuery(String)
+     * @see #setDeleteDml(String)
+     */
+    public BaseSession[] removeByUsername(String userName) throws SSOSessionException {
+
+        BaseSession[] retval = null;
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try {
+            conn = getConnection();
+
+            stmt = conn.prepareStatement(_loadByUserNameQuery);
+            stmt.setString(1, userName);
+            final ResultSet rs = stmt.executeQuery();
+            retval = getSessions(rs);
+            rs.close();
+            close(stmt);
+
+            if (retval.length > 0) {
+                stmt = conn.prepareStatement(_deleteDml);
+                for (int i = 0; i < retval.length; i++) {
+                    stmt.setString(1, retval[i].getId());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            conn.commit();
+
+            if (__log.isDebugEnabled())
+                __log.debug("Sessions Removed for user " + userName + ": " + retval.length);
+        }
+        catch (Exception e) {
+            if (__log.isDebugEnabled())
+                __log.debug(e, e);
+
+            rollback(conn);
+            throw new SSOSessionException(e);
+        }
+        finally {
+            close(stmt);
+            close(conn);
+        }
+
+        return retval;
+    }
+
     /**
      * Removes ALL stored sessions
      *
@@ -712,6 +926,18 @@ public abstract class DbSessionStore extends AbstractSessionStore {
     // Private Methods
     // ---------------------------
 
+    private void rollback(Connection conn) {
+        if (conn == null)
+            return;
+
+        try {
+            conn.rollback();
+        } catch (SQLException sqle) {
+            if (__log.isDebugEnabled())
+                __log.debug("Error during ROLLBACK ", sqle);
+        }
+    }
+
     /**
      * This removes a session, using the value of the removeDml property as prepared statement.
      *
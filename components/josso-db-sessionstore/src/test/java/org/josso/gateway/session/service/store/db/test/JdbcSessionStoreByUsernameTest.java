@@ -0,0 +1,134 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.db.test;
+
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.MutableBaseSession;
+import org.josso.gateway.session.service.store.db.JdbcSessionStore;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.Statement;
+
+/**
+ * Per-user session count and oldest sessions, using its own in-memory database.
+ *
+ * @version $Id$
+ */
+public class JdbcSessionStoreByUsernameTest {
+
+    private static final String COLUMNS = "SESSION_ID, USERNAME, CREATION_TIME, LAST_ACCESS_TIME, ACCESS_COUNT, MAX_INACTIVE_INTERVAL, VALID";
+
+    protected static JdbcSessionStore db;
+
+    @BeforeClass
+    public static void beforeTest() throws Exception {
+        db = new JdbcSessionStore();
+        db.setDriverName("org.hsqldb.jdbcDriver");
+        db.setConnectionURL("jdbc:hsqldb:mem:jossodb-by-username");
+        db.setConnectionName("sa");
+        db.setConnectionPassword("");
+        db.setLoadQuery("SELECT " + COLUMNS + " FROM JOSSO_SESSION WHERE SESSION_ID = ?");
+        db.setInsertDml("INSERT INTO JOSSO_SESSION VALUES (?, ?, ?, ?, ?, ?, ?)");
+        db.setDeleteDml("DELETE FROM JOSSO_SESSION WHERE SESSION_ID = ?");
+        db.setLoadByUserNameQuery("SELECT " + COLUMNS + " FROM JOSSO_SESSION WHERE USERNAME = ?");
+        db.setCountByUserNameQuery("SELECT COUNT(1) FROM JOSSO_SESSION WHERE USERNAME = ?");
+        db.setLoadOldestByUserNameQuery("SELECT " + COLUMNS + " FROM JOSSO_SESSION WHERE USERNAME = ? ORDER BY CREATION_TIME");
+
+        Connection conn = db.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.execute(getQueryFromFile("sso-session.sql"));
+            stmt.close();
+            conn.commit();
+        } finally {
+            conn.close();
+        }
+
+        // Saved newest first
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            MutableBaseSession session = new MutableBaseSession();
+            session.setId("user1-" + i);
+            session.setUsername("user1");
+            session.setCreationTime(now - i * 1000);
+            session.setLastAccessedTime(now);
+            session.setAccessCount(1);
+            session.setMaxInactiveInterval(60);
+            session.setValid(true);
+            db.save(session);
+        }
+    }
+
+    @Test
+    public void testCountByUsername() throws Exception {
+        assert db.countByUsername("user1") == 3 : "Invalid count " + db.countByUsername("user1");
+        assert db.countByUsername("nobody") == 0 : "Sessions counted for unknown user";
+    }
+
+    @Test
+    public void testLoadOldestByUsername() throws Exception {
+        BaseSession[] oldest = db.loadOldestByUsername("user1", 2);
+        assert oldest.length == 2 : "Invalid oldest sessions " + oldest.length;
+        assert oldest[0].getId().equals("user1-2") && oldest[1].getId().equals("user1-1") : "Sessions not oldest first";
+
+        assert db.loadOldestByUsername("user1", 10).length == 3 : "All sessions expected";
+        assert db.loadOldestByUsername("nobody", 1).length == 0 : "Sessions loaded for unknown user";
+    }
+
+    @Test
+    public void testRemoveByUsername() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 2; i++) {
+            MutableBaseSession session = new MutableBaseSession();
+            session.setId("user2-" + i);
+            session.setUsername("user2");
+            session.setCreationTime(now);
+            session.setMaxInactiveInterval(60);
+            session.setValid(true);
+            db.save(session);
+        }
+
+        BaseSession[] removed = db.removeByUsername("user2");
+        assert removed.length == 2 : "Invalid removed sessions " + removed.length;
+        assert db.load("user2-0") == null && db.load("user2-1") == null : "Sessions not removed";
+        assert db.countByUsername("user1") == 3 : "Other user sessions removed";
+        assert db.removeByUsername("user2").length == 0 : "Sessions removed twice";
+    }
+
+    private static String getQueryFromFile(String resource) throws Exception {
+        InputStream is = JdbcSessionStoreByUsernameTest.class.getResourceAsStream(resource);
+        BufferedReader br = new BufferedReader(new InputStreamReader(is));
+
+        StringBuilder sb = new StringBuilder();
+        for (String s = br.readLine(); s != null; s = br.readLine()) {
+            sb.append(s);
+        }
+
+        is.close();
+        return sb.toString();
+    }
+}
@@ -28,6 +28,7 @@ import org.josso.Lookup;
 import org.josso.gateway.SecurityDomainRegistry;
 import org.josso.gateway.assertion.service.AssertionIdGenerator;
 import org.josso.gateway.assertion.service.store.AssertionStore;
+import org.josso.gateway.stats.SecurityDomainStats;
 
 /**
  *
@@ -41,6 +42,10 @@ public class AssertionManagerImpl implements AssertionManager {
 
     private static final Log logger = LogFactory.getLog(AssertionManagerImpl.class);
 
+    private static final String REQUEST_ASSERTION = "AssertionManager.requestAssertion";
+
+    private static final String CONSUME_ASSERTION = "AssertionManager.consumeAssertion";
+
     private String securityDomainName;
 
     private AssertionMonitor _monitor;
@@ -116,6 +121,9 @@ public class AssertionManagerImpl implements AssertionManager {
     
     public synchronized AuthenticationAssertion requestAssertion(String ssoSessionId) {
 
+        long start = System.nanoTime();
+        AuthenticationAssertion result = null;
+
         try {
 
             AuthenticationAssertionImpl assertion = new AuthenticationAssertionImpl(
@@ -131,16 +139,19 @@ public class AssertionManagerImpl implements AssertionManager {
 
             registry.registerToken(securityDomainName, TOKEN_TYPE, assertion.getId());
 
-            return assertion;
+            result = assertion;
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
+        } finally {
+            SecurityDomainStats.getDomainStats(securityDomainName).record(REQUEST_ASSERTION, start, result == null);
         }
-        return null;
+        return result;
     }
 
     public synchronized AuthenticationAssertion consumeAssertion(String assertionId) {
 
         AuthenticationAssertion targetAuthenticationAssertion = null;
+        long start = System.nanoTime();
 
         try {
 
@@ -161,6 +172,10 @@ public class AssertionManagerImpl implements AssertionManager {
 
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
+        } finally {
+            // Unknown or expired assertions are recorded as errors
+            SecurityDomainStats.getDomainStats(securityDomainName).record(CONSUME_ASSERTION, start,
+                    targetAuthenticationAssertion == null);
         }
 
         return targetAuthenticationAssertion;
@@ -33,6 +33,7 @@ import org.josso.gateway.event.SSOEvent;
 import org.josso.gateway.event.SSOEventListener;
 import org.josso.gateway.event.security.SSOIdentityEvent;
 import org.josso.gateway.event.security.SSOSessionEvent;
+import org.josso.gateway.event.security.SSOSessionsEvent;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -110,6 +111,18 @@ public class SSOAuditManagerImpl implements SSOAuditManager, SSOEventListener {
             if (logger.isDebugEnabled())
                 logger.debug("handling sso event : " + event);
 
+            // Sessions changed together are still audited one by one
+            if (event instanceof SSOSessionsEvent) {
+                SSOSessionsEvent se = (SSOSessionsEvent) event;
+                String[] usernames = se.getUsernames();
+                String[] sessionIds = se.getSessionIds();
+                for (int i = 0; i < sessionIds.length; i++) {
+                    SSOEvent sessionEvent = new SSOSessionEvent(usernames[i], sessionIds[i], se.getType(), se.getData());
+                    processAuditTrail(buildAuditTrail(sessionEvent));
+                }
+                return;
+            }
+
             SSOAuditTrail auditTrail = buildAuditTrail(event);
             processAuditTrail(auditTrail);
 
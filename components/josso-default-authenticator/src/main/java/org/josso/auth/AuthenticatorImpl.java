@@ -27,11 +27,15 @@ import org.apache.commons.logging.LogFactory;
 import org.josso.auth.exceptions.AuthenticationFailureException;
 import org.josso.auth.exceptions.SSOAuthenticationException;
 import org.josso.auth.scheme.AuthenticationScheme;
+import org.josso.auth.throttle.LoginRateLimiter;
+import org.josso.gateway.SSOContext;
+import org.josso.gateway.stats.SecurityDomainStats;
 
 import javax.security.auth.Subject;
 import java.security.Principal;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is the default authenticator implementation.
@@ -46,12 +50,14 @@ public class AuthenticatorImpl implements Authenticator {
 
     private static final Log logger = LogFactory.getLog(AuthenticatorImpl.class);
 
-    private long _authCount;
-    private long _authFailures;
+    private final AtomicLong _authCount = new AtomicLong();
+    private final AtomicLong _authFailures = new AtomicLong();
 
     // Prototype instance for authentication scheme.
     private List<AuthenticationScheme> _as;
 
+    private LoginRateLimiter _rateLimiter;
+
     /**
      * Validates user identity.  Populates the Subject with Principal and Credential information.
      *
@@ -66,13 +72,39 @@ public class AuthenticatorImpl implements Authenticator {
         AuthenticationScheme scheme = getScheme(schemeName);
         scheme.initialize(credentials, s);
 
-        if (scheme.authenticate()) {
+        // Throttled attempts are rejected before the scheme reaches any credential store. The attempt counts as a
+        // failure until it succeeds, so parallel guesses can't all get through before one of them is recorded.
+        String username = null;
+        String location = null;
+        if (_rateLimiter != null) {
+            username = getUsername(scheme);
+            SSOContext ctx = SSOContext.getCurrent();
+            location = ctx != null ? ctx.getUserLocation() : null;
+
+            if (!_rateLimiter.tryAcquire(username, location)) {
+                scheme.cancel();
+                _authFailures.incrementAndGet();
+                throw new AuthenticationFailureException(username, "AUTH_FAILED_RATE_LIMITED");
+            }
+        }
+
+        // Failed authentications are recorded as errors
+        long start = System.nanoTime();
+        boolean authenticated = false;
+        try {
+            authenticated = scheme.authenticate();
+        } finally {
+            SecurityDomainStats.getCurrent().record("AuthenticationScheme." + schemeName, start, !authenticated);
+        }
+
+        if (authenticated) {
             scheme.confirm();
-            _authCount++;
+            _authCount.incrementAndGet();
+            if (_rateLimiter != null)
+                _rateLimiter.release(username, location);
         } else {
             scheme.cancel();
-            _authFailures++;
-
+            _authFailures.incrementAndGet();
             throw new AuthenticationFailureException(scheme.getPrincipal().getName());
         }
 
@@ -123,12 +155,23 @@ public class AuthenticatorImpl implements Authenticator {
 
 
 
+    public LoginRateLimiter getRateLimiter() {
+        return _rateLimiter;
+    }
+
+    /**
+     * Optional limiter for failed logins by username and user location.
+     */
+    public void setRateLimiter(LoginRateLimiter rateLimiter) {
+        _rateLimiter = rateLimiter;
+    }
+
     public long getAuthCount() {
-        return _authCount;
+        return _authCount.get();
     }
 
     public long getAuthFailures() {
-        return _authFailures;
+        return _authFailures.get();
     }
 
     public List<String> getSchemeNames() {
@@ -144,6 +187,23 @@ public class AuthenticatorImpl implements Authenticator {
     // Protected utils
     // --------------------------------------------------------------
 
+    /**
+     * The username asserted by the supplied credentials, read before authenticating.  It is not verified, which is
+     * what the rate limiter needs : failures are counted against the account being guessed.
+     *
+     * @return the asserted username, null if the scheme can't tell it before authenticating.
+     */
+    protected String getUsername(AuthenticationScheme scheme) {
+        try {
+            Principal p = scheme.getPrincipal();
+            return p != null ? p.getName() : null;
+        } catch (RuntimeException e) {
+            if (logger.isDebugEnabled())
+                logger.debug("No principal for scheme " + scheme.getName() + " : " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * This method clones the configured authentication scheme because
      * authentication schemes are not thread safe.  It's a "prototype" pattern.
@@ -0,0 +1,409 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.event.security;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.josso.gateway.event.SSOEvent;
+import org.josso.gateway.event.SSOEventListener;
+import org.josso.gateway.session.SSOSession;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes destroyed SSO session identifiers to the agents, so that they drop their cached principals and local sessions
+ * without waiting for their next session access to fail.
+ * <p/>
+ * Each agent endpoint has its own bounded queue and sender thread.  Identifiers are sent in batches with a plain
+ * HTTP POST (form parameters josso_session_ids and josso_secret) to the agent session invalidation URI.  A batch that
+ * cannot be delivered is retried, waiting twice as long after each failure, and dropped after
+ * <code>maxRetries</code> attempts.  A batch refused by the agent (HTTP 4xx, i.e. a wrong secret) is dropped at once.  When a queue is full new identifiers are dropped for that agent.  Dropped
+ * notifications are not lost sessions : the agent still finds out on its next session access.
+ *
+ * @org.apache.xbean.XBean element="agent-session-invalidation-listener"
+ *
+ * @version $Id$
+ */
+public class AgentSessionInvalidationListener implements SSOEventListener {
+
+    private static final Log logger = LogFactory.getLog(AgentSessionInvalidationListener.class);
+
+    private String name = "agent-session-invalidation-listener";
+
+    private List<String> agentUrls = new ArrayList<String>();
+
+    private String secret;
+
+    private int queueCapacity = 10000;
+
+    private int batchSize = 100;
+
+    private int maxRetries = 5;
+
+    private long retryInterval = 1000;
+
+    private int connectTimeout = 5000;
+
+    private int readTimeout = 5000;
+
+    private volatile AgentChannel[] channels;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Only session destroyed events are sent, the session identifiers are queued for every agent.
+     */
+    public void handleSSOEvent(SSOEvent event) {
+        if (!SSOSession.SESSION_DESTROYED_EVENT.equals(event.getType()))
+            return;
+
+        if (event instanceof SSOSessionEvent) {
+            offer(((SSOSessionEvent) event).getSessionId());
+        } else if (event instanceof SSOSessionsEvent) {
+            String[] sessionIds = ((SSOSessionsEvent) event).getSessionIds();
+            for (int i = 0; i < sessionIds.length; i++) {
+                offer(sessionIds[i]);
+            }
+        }
+    }
+
+    protected void offer(String sessionId) {
+        if (sessionId == null)
+            return;
+
+        AgentChannel[] channels = getChannels();
+        for (int i = 0; i < channels.length; i++) {
+            channels[i].offer(sessionId);
+        }
+    }
+
+    /**
+     * Stops all sender threads, pending notifications are discarded.
+     */
+    public synchronized void destroy() {
+        if (channels == null)
+            return;
+
+        for (int i = 0; i < channels.length; i++) {
+            channels[i].stop();
+        }
+        channels = null;
+    }
+
+    protected AgentChannel[] getChannels() {
+        AgentChannel[] channels = this.channels;
+        if (channels == null)
+            channels = startChannels();
+        return channels;
+    }
+
+    protected synchronized AgentChannel[] startChannels() {
+        if (channels != null)
+            return channels;
+
+        AgentChannel[] started = new AgentChannel[agentUrls.size()];
+        for (int i = 0; i < started.length; i++) {
+            started[i] = new AgentChannel(agentUrls.get(i));
+            started[i].start();
+        }
+        channels = started;
+        return channels;
+    }
+
+    /**
+     * Sends a batch of session identifiers to an agent, returning normally only when the agent accepted them.
+     */
+    protected void send(String agentUrl, List<String> sessionIds) throws IOException {
+
+        StringBuffer body = new StringBuffer("josso_session_ids=");
+        for (int i = 0; i < sessionIds.size(); i++) {
+            if (i > 0)
+                body.append("%2C");
+            body.append(encode(sessionIds.get(i)));
+        }
+        if (secret != null)
+            body.append("&josso_secret=").append(encode(secret));
+
+        byte[] content = body.toString().getBytes("US-ASCII");
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(agentUrl).openConnection();
+        try {
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setUseCaches(false);
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            conn.setRequestProperty("Content-Length", String.valueOf(content.length));
+
+            OutputStream out = conn.getOutputStream();
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+
+            int status = conn.getResponseCode();
+            if (status >= 400 && status < 500)
+                throw new RefusedException("Agent " + agentUrl + " refused the notification, HTTP " + status);
+            if (status < 200 || status >= 300)
+                throw new IOException("Agent " + agentUrl + " answered HTTP " + status);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    // ---------------------------------------------------------------
+    // Statistics
+    // ---------------------------------------------------------------
+
+    public long getSentCount() {
+        long count = 0;
+        AgentChannel[] channels = this.channels;
+        if (channels != null) {
+            for (int i = 0; i < channels.length; i++)
+                count += channels[i].sent.get();
+        }
+        return count;
+    }
+
+    public long getDroppedCount() {
+        long count = 0;
+        AgentChannel[] channels = this.channels;
+        if (channels != null) {
+            for (int i = 0; i < channels.length; i++)
+                count += channels[i].dropped.get();
+        }
+        return count;
+    }
+
+    // ---------------------------------------------------------------
+    // Configuration
+    // ---------------------------------------------------------------
+
+    /**
+     * Agent session invalidation endpoints, i.e. http://app.host:8080/partnerapp/josso_session_invalidation
+     *
+     * @org.apache.xbean.Property alias="agent-urls" nestedType="java.lang.String"
+     */
+    public List<String> getAgentUrls() {
+        return agentUrls;
+    }
+
+    public void setAgentUrls(List<String> agentUrls) {
+        this.agentUrls = agentUrls;
+    }
+
+    /**
+     * Shared secret sent to the agents, it must match the agent sessionInvalidationSecret property.
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    public void setSecret(String secret) {
+        this.secret = secret;
+    }
+
+    /**
+     * Max number of session identifiers waiting to be sent to a single agent.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Max number of session identifiers sent in a single request.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Time to wait, in milliseconds, before the first retry.  It doubles after each failed attempt.
+     */
+    public long getRetryInterval() {
+        return retryInterval;
+    }
+
+    public void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * The agent refused the notification, sending it again will not help.
+     */
+    protected static class RefusedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public RefusedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Queue and sender thread for a single agent.
+     */
+    protected class AgentChannel implements Runnable {
+
+        private final String agentUrl;
+
+        private final BlockingQueue<String> queue;
+
+        private final AtomicLong sent = new AtomicLong();
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        private volatile boolean running;
+
+        private Thread thread;
+
+        AgentChannel(String agentUrl) {
+            this.agentUrl = agentUrl;
+            this.queue = new LinkedBlockingQueue<String>(queueCapacity);
+        }
+
+        void offer(String sessionId) {
+            if (!queue.offer(sessionId)) {
+                // Only log the first identifier dropped after the queue filled up
+                if (dropped.getAndIncrement() % queueCapacity == 0)
+                    logger.warn("Session invalidation queue full for agent " + agentUrl + ", dropping notifications");
+            }
+        }
+
+        void start() {
+            running = true;
+            thread = new Thread(this, "JOSSOAgentNotifier[" + agentUrl + "]");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() {
+            running = false;
+            thread.interrupt();
+        }
+
+        public void run() {
+            List<String> batch = new ArrayList<String>(batchSize);
+
+            while (running) {
+                try {
+                    String first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null)
+                        continue;
+
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    deliver(batch);
+
+                } catch (InterruptedException e) {
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        protected void deliver(List<String> batch) throws InterruptedException {
+            long wait = retryInterval;
+
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    send(agentUrl, batch);
+                    sent.addAndGet(batch.size());
+
+                    if (logger.isDebugEnabled())
+                        logger.debug("Sent " + batch.size() + " destroyed sessions to agent " + agentUrl);
+                    return;
+
+                } catch (IOException e) {
+                    if (attempt >= maxRetries || e instanceof RefusedException) {
+                        dropped.addAndGet(batch.size());
+                        logger.warn("Cannot notify " + batch.size() + " destroyed sessions to agent " + agentUrl +
+                                " : " + e.getMessage());
+                        return;
+                    }
+
+                    if (logger.isDebugEnabled())
+                        logger.debug("Cannot notify agent " + agentUrl + ", retrying in " + wait + "ms : " + e.getMessage());
+
+                    Thread.sleep(wait);
+                    wait *= 2;
+                }
+            }
+        }
+    }
+}
@@ -84,6 +84,16 @@ public abstract class SSOSecurityEventManagerImpl extends SSOEventManagerImpl im
         fireSSOEvent(event);
     }
 
+    /**
+     * This method creates a single SSOSessionsEvent for all sessions and invokes the fireSSOEvent method.
+     *
+     * @see #fireSSOEvent
+     */
+    public void fireSessionEvents(String[] usernames, String[] sessionIds, String type, Object data) {
+        SSOEvent event = new SSOSessionsEvent(usernames, sessionIds, type, data);
+        fireSSOEvent(event);
+    }
+
     public void fireSessionFailureEvent(String username, String sessionId, String type, Throwable error) {
         SSOEvent event = new SSOSessionEvent(username, sessionId, type, error);
         fireSSOEvent(event);
@@ -0,0 +1,283 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.event.security.test;
+
+import org.josso.gateway.event.security.AgentSessionInvalidationListener;
+import org.josso.gateway.event.security.SSOSessionEvent;
+import org.josso.gateway.event.security.SSOSessionsEvent;
+import org.josso.gateway.session.SSOSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes destroyed sessions to a minimal HTTP agent endpoint.
+ *
+ * @version $Id$
+ */
+public class AgentSessionInvalidationListenerTest {
+
+    private static final String SECRET = "changeit";
+
+    private AgentEndpoint agent;
+
+    private AgentSessionInvalidationListener listener;
+
+    @Before
+    public void startAgent() throws Exception {
+        agent = new AgentEndpoint(SECRET);
+        agent.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        if (listener != null)
+            listener.destroy();
+        agent.stop();
+    }
+
+    @Test
+    public void testDelivery() throws Exception {
+        listener = newListener(agent.getUrl(), SECRET);
+
+        listener.handleSSOEvent(new SSOSessionEvent("user1", "id1", SSOSession.SESSION_DESTROYED_EVENT, (Object) null));
+        listener.handleSSOEvent(new SSOSessionEvent("user2", "id2", SSOSession.SESSION_DESTROYED_EVENT, (Object) null));
+        // Other events are not sent
+        listener.handleSSOEvent(new SSOSessionEvent("user3", "id3", SSOSession.SESSION_CREATED_EVENT, (Object) null));
+
+        waitFor(listener, 2, 0);
+        assert agent.getSessionIds().equals(java.util.Arrays.asList("id1", "id2")) : "Invalid sessions " + agent.getSessionIds();
+    }
+
+    @Test
+    public void testSessionsEvent() throws Exception {
+        listener = newListener(agent.getUrl(), SECRET);
+
+        // Bulk operations send one event for all destroyed sessions
+        listener.handleSSOEvent(new SSOSessionsEvent(new String[] {"user1", "user2", "user3"},
+                new String[] {"id1", "id2", "id3"}, SSOSession.SESSION_DESTROYED_EVENT, null));
+
+        waitFor(listener, 3, 0);
+        assert agent.getSessionIds().equals(java.util.Arrays.asList("id1", "id2", "id3")) : "Invalid sessions " + agent.getSessionIds();
+    }
+
+    @Test
+    public void testBadSecret() throws Exception {
+        listener = newListener(agent.getUrl(), "wrong");
+        listener.setRetryInterval(5000);
+
+        long start = System.currentTimeMillis();
+        listener.handleSSOEvent(new SSOSessionEvent("user1", "id1", SSOSession.SESSION_DESTROYED_EVENT, (Object) null));
+
+        // The agent refuses the notification, it is dropped without retrying
+        waitFor(listener, 0, 1);
+        assert System.currentTimeMillis() - start < 5000 : "Refused notification retried";
+        assert agent.getRequests() == 1 : "Invalid requests " + agent.getRequests();
+        assert agent.getSessionIds().isEmpty() : "Sessions accepted " + agent.getSessionIds();
+    }
+
+    @Test
+    public void testRetryExhaustion() throws Exception {
+        // Nobody listens on this port any more
+        String url = agent.getUrl();
+        agent.stop();
+
+        final AtomicInteger attempts = new AtomicInteger();
+        listener = new AgentSessionInvalidationListener() {
+            protected void send(String agentUrl, List<String> sessionIds) throws IOException {
+                attempts.incrementAndGet();
+                super.send(agentUrl, sessionIds);
+            }
+        };
+        listener.setAgentUrls(Collections.singletonList(url));
+        listener.setSecret(SECRET);
+        listener.setMaxRetries(3);
+        listener.setRetryInterval(20);
+
+        long start = System.currentTimeMillis();
+        listener.handleSSOEvent(new SSOSessionEvent("user1", "id1", SSOSession.SESSION_DESTROYED_EVENT, (Object) null));
+
+        waitFor(listener, 0, 1);
+        assert attempts.get() == 4 : "Invalid attempts " + attempts.get();
+        // 20 + 40 + 80 ms between attempts
+        assert System.currentTimeMillis() - start >= 140 : "Retries did not back off";
+    }
+
+    @Test
+    public void testFullQueue() throws Exception {
+        // The sender is blocked until the agent answers, new notifications pile up
+        agent.setDelay(500);
+        listener = newListener(agent.getUrl(), SECRET);
+        listener.setQueueCapacity(2);
+        listener.setBatchSize(1);
+
+        for (int i = 0; i < 6; i++)
+            listener.handleSSOEvent(new SSOSessionEvent("user", "id" + i, SSOSession.SESSION_DESTROYED_EVENT, (Object) null));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (listener.getSentCount() + listener.getDroppedCount() < 6 && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+
+        assert listener.getDroppedCount() >= 3 : "Notifications not dropped " + listener.getDroppedCount();
+        assert listener.getSentCount() + listener.getDroppedCount() == 6 : "Notifications lost";
+    }
+
+    private AgentSessionInvalidationListener newListener(String url, String secret) {
+        AgentSessionInvalidationListener l = new AgentSessionInvalidationListener();
+        l.setAgentUrls(Collections.singletonList(url));
+        l.setSecret(secret);
+        l.setRetryInterval(20);
+        return l;
+    }
+
+    private void waitFor(AgentSessionInvalidationListener l, long sent, long dropped) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((l.getSentCount() < sent || l.getDroppedCount() < dropped) && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+
+        assert l.getSentCount() == sent : "Invalid sent count " + l.getSentCount();
+        assert l.getDroppedCount() == dropped : "Invalid dropped count " + l.getDroppedCount();
+    }
+
+    /**
+     * Accepts POSTed session identifiers when the secret matches, answering 403 otherwise.
+     */
+    private static class AgentEndpoint implements Runnable {
+
+        private final String secret;
+
+        private final List<String> sessionIds = Collections.synchronizedList(new ArrayList<String>());
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private volatile long delay;
+
+        private ServerSocket server;
+
+        AgentEndpoint(String secret) {
+            this.secret = secret;
+        }
+
+        void start() throws IOException {
+            server = new ServerSocket(0);
+            Thread t = new Thread(this, "AgentEndpoint");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void stop() throws IOException {
+            server.close();
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + server.getLocalPort() + "/partnerapp/josso_session_invalidation";
+        }
+
+        List<String> getSessionIds() {
+            return new ArrayList<String>(sessionIds);
+        }
+
+        int getRequests() {
+            return requests.get();
+        }
+
+        void setDelay(long delay) {
+            this.delay = delay;
+        }
+
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    Socket s = server.accept();
+                    try {
+                        handle(s);
+                    } finally {
+                        s.close();
+                    }
+                } catch (Exception e) {
+                    // Closed
+                }
+            }
+        }
+
+        private void handle(Socket s) throws Exception {
+            InputStream in = s.getInputStream();
+            String headers = readHeaders(in);
+            int length = 0;
+            for (String line : headers.split("\r\n")) {
+                if (line.toLowerCase().startsWith("content-length:"))
+                    length = Integer.parseInt(line.substring(15).trim());
+            }
+            byte[] body = new byte[length];
+            for (int read = 0; read < length; )
+                read += in.read(body, read, length - read);
+
+            requests.incrementAndGet();
+            if (delay > 0)
+                Thread.sleep(delay);
+
+            String ids = null;
+            String sent = null;
+            for (String param : new String(body, "US-ASCII").split("&")) {
+                String[] pair = param.split("=", 2);
+                if (pair[0].equals("josso_session_ids"))
+                    ids = URLDecoder.decode(pair[1], "UTF-8");
+                if (pair[0].equals("josso_secret"))
+                    sent = URLDecoder.decode(pair[1], "UTF-8");
+            }
+
+            String status = "403 Forbidden";
+            if (secret.equals(sent)) {
+                status = "204 No Content";
+                for (String id : ids.split(","))
+                    sessionIds.add(id);
+            }
+
+            OutputStream out = s.getOutputStream();
+            out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+            out.flush();
+        }
+
+        private String readHeaders(InputStream in) throws IOException {
+            ByteArrayOutputStream headers = new ByteArrayOutputStream();
+            int matched = 0;
+            int c;
+            while (matched < 4 && (c = in.read()) >= 0) {
+                headers.write(c);
+                matched = (c == '\r' || c == '\n') && (matched % 2 == 0) == (c == '\r') ? matched + 1 : (c == '\r' ? 1 : 0);
+            }
+            return headers.toString("US-ASCII");
+        }
+    }
+}
@@ -28,6 +28,11 @@ import org.josso.Lookup;
 import org.josso.gateway.identity.service.store.ExtendedIdentityStore;
 import org.josso.selfservices.ChallengeResponseCredential;
 import org.josso.auth.Credential;
+import org.josso.gateway.SSONameValuePair;
+import org.josso.gateway.event.SSOEvent;
+import org.josso.gateway.event.SSOEventListener;
+import org.josso.gateway.event.security.SSOSessionEvent;
+import org.josso.gateway.event.security.SSOSessionsEvent;
 import org.josso.gateway.identity.SSORole;
 import org.josso.gateway.identity.SSOUser;
 import org.josso.gateway.identity.exceptions.NoSuchUserException;
@@ -37,26 +42,55 @@ import org.josso.gateway.session.exceptions.NoSuchSessionException;
 import org.josso.gateway.session.exceptions.SSOSessionException;
 import org.josso.gateway.session.service.BaseSession;
 import org.josso.gateway.session.service.SSOSessionManager;
+import org.josso.gateway.stats.SecurityDomainStats;
+
+import java.security.Principal;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @org.apache.xbean.XBean element="identity-manager"
  *
  * This is the default implementation of an SSOIdentityManager.
  * This implementation keeps track of user and session associations in memory.
+ * <p/>
+ * The user and roles resolved for a session are kept until the session is destroyed, or the
+ * account password is updated, so agents looking them up again during the session do not reach the
+ * identity store. The session itself is always validated with the session manager first.
+ * Callers get their own copies of the cached user and roles. When the cache is full, arbitrary sessions are dropped.
+ * The manager must be registered as a listener of the security domain event manager to learn
+ * about destroyed sessions, the gateway does this on initialization.
  *
  * @author <a href="mailto:sgonzalez@josso.org">Sebastian Gonzalez Oyuela</a>
  * @version $Id: SSOIdentityManagerImpl.java 543 2008-03-18 21:34:58Z sgonzalez $
  */
 
-public class SSOIdentityManagerImpl implements SSOIdentityManager {
+public class SSOIdentityManagerImpl implements SSOIdentityManager, SSOEventListener {
 
     private static final Log logger = LogFactory.getLog(SSOIdentityManagerImpl.class);
 
+    private static final String STORE_LOAD_USER = "IdentityStore.loadUser";
+
+    private static final String STORE_FIND_ROLES = "IdentityStore.findRolesByUserKey";
+
+    private static final String STORE_USER_EXISTS = "IdentityStore.userExists";
+
     // Identity store used by the manager.
     private IdentityStore _store;
     private IdentityStoreKeyAdapter _keyAdapter;
     private SSOSessionManager _sessionManager;
 
+    private boolean _sessionCacheEnabled = true;
+    private int _maxCachedSessions = 10000;
+
+    // Session id -> identity resolved for the session, identities are replaced rather than updated.
+    private final ConcurrentHashMap<String, SessionIdentity> _sessionCache = new ConcurrentHashMap<String, SessionIdentity>();
+
+    private final AtomicLong _sessionCacheHits = new AtomicLong();
+    private final AtomicLong _sessionCacheMisses = new AtomicLong();
+
     /**
      *
      */
@@ -74,7 +108,7 @@ public class SSOIdentityManagerImpl implements SSOIdentityManager {
 
         // Find user in store
         UserKey key = getIdentityStoreKeyAdapter().getKeyForUsername(name);
-        BaseUser user = getIdentityStore().loadUser(key);
+        BaseUser user = loadUser(key);
         if (user == null)
             throw new NoSuchUserException(key);
 
@@ -96,8 +130,19 @@ public class SSOIdentityManagerImpl implements SSOIdentityManager {
 
         try {
             BaseSession s = (BaseSession) getSessionManager().getSession(sessionId);
+
+            SessionIdentity identity = getSessionIdentity(sessionId, s.getUsername());
+            if (identity != null && identity.user != null) {
+                _sessionCacheHits.incrementAndGet();
+                return copyUser(identity.user);
+            }
+            _sessionCacheMisses.incrementAndGet();
+
             key = new SimpleUserKey(s.getUsername());
-            user = getIdentityStore().loadUser(key);
+            user = loadUser(key);
+
+            if (user != null)
+                putSessionIdentity(sessionId, s.getUsername(), copyUser(user), null);
 
             if (logger.isDebugEnabled())
                 logger.debug("[findUserInSession(" + sessionId + ")] Found :  " + user);
@@ -105,6 +150,7 @@ public class SSOIdentityManagerImpl implements SSOIdentityManager {
             return user;
 
         } catch (NoSuchSessionException e) {
+            removeSessionIdentity(sessionId);
             throw new SSOIdentityException("Invalid session : " + sessionId);
 
         } catch (SSOSessionException e) {
@@ -125,7 +171,43 @@ public class SSOIdentityManagerImpl implements SSOIdentityManager {
             throws SSOIdentityException {
 
         UserKey key = getIdentityStoreKeyAdapter().getKeyForUsername(username);
-        return getIdentityStore().findRolesByUserKey(key);
+        return findRolesByUserKey(key);
+    }
+
+    /**
+     * Finds the roles of the user associated to a sso session, the roles are kept with the session.
+     *
+     * @param sessionId the sso session identifier
+     * @throws SSOIdentityException if no user is associated to this session id.
+     */
+    public SSORole[] findRolesBySSOSessionId(String sessionId)
+            throws SSOIdentityException {
+
+        try {
+            BaseSession s = (BaseSession) getSessionManager().getSession(sessionId);
+
+            SessionIdentity identity = getSessionIdentity(sessionId, s.getUsername());
+            if (identity != null && identity.roles != null) {
+                _sessionCacheHits.incrementAndGet();
+                return copyRoles(identity.roles);
+            }
+            _sessionCacheMisses.incrementAndGet();
+
+            UserKey key = getIdentityStoreKeyAdapter().getKeyForUsername(s.getUsername());
+            BaseRole[] roles = findRolesByUserKey(key);
+
+            if (roles != null)
+                putSessionIdentity(sessionId, s.getUsername(), null, copyRoles(roles));
+
+            return roles;
+
+        } catch (NoSuchSessionException e) {
+            removeSessionIdentity(sessionId);
+            throw new SSOIdentityException("Invalid session : " + sessionId);
+
+        } catch (SSOSessionException e) {
+            throw new SSOIdentityException(e.getMessage(), e);
+        }
     }
 
     /**
@@ -136,7 +218,7 @@ public class SSOIdentityManagerImpl implements SSOIdentityManager {
      */
     public void userExists(String username) throws NoSuchUserException, SSOIdentityException {
         UserKey key = getIdentityStoreKeyAdapter().getKeyForUsername(username);
-        if (!getIdentityStore().userExists(key))
+        if (!userExists(key))
             throw new NoSuchUserException(key);
     }
 
@@ -145,6 +227,7 @@ public class SSOIdentityManagerImpl implements SSOIdentityManager {
             UserKey key = getIdentityStoreKeyAdapter().getKeyForUsername(user.getName());
             ExtendedIdentityStore eStore = (ExtendedIdentityStore) _store;
             eStore.updateAccountPassword(key, password);
+            removeSessionIdentities(user.getName());
         } else {
             throw new UnsupportedOperationException("The configured identity store implementatino does not support account update.");
         }
@@ -186,6 +269,132 @@ public class SSOIdentityManagerImpl implements SSOIdentityManager {
 
     }
 
+    public String getName() {
+        return "identity-manager";
+    }
+
+    /**
+     * Drops the identity kept for destroyed sessions.
+     */
+    public void handleSSOEvent(SSOEvent event) {
+        if (!BaseSession.SESSION_DESTROYED_EVENT.equals(event.getType()))
+            return;
+
+        if (event instanceof SSOSessionEvent) {
+            removeSessionIdentity(((SSOSessionEvent) event).getSessionId());
+        } else if (event instanceof SSOSessionsEvent) {
+            String[] sessionIds = ((SSOSessionsEvent) event).getSessionIds();
+            for (int i = 0; i < sessionIds.length; i++) {
+                removeSessionIdentity(sessionIds[i]);
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------
+    // Session identity cache
+    // --------------------------------------------------------------------
+
+    public boolean isSessionCacheEnabled() {
+        return _sessionCacheEnabled;
+    }
+
+    public void setSessionCacheEnabled(boolean sessionCacheEnabled) {
+        _sessionCacheEnabled = sessionCacheEnabled;
+    }
+
+    public int getMaxCachedSessions() {
+        return _maxCachedSessions;
+    }
+
+    public void setMaxCachedSessions(int maxCachedSessions) {
+        _maxCachedSessions = maxCachedSessions;
+    }
+
+    public int getCachedSessionCount() {
+        return _sessionCache.size();
+    }
+
+    public long getSessionCacheHits() {
+        return _sessionCacheHits.get();
+    }
+
+    public long getSessionCacheMisses() {
+        return _sessionCacheMisses.get();
+    }
+
+    protected SessionIdentity getSessionIdentity(String sessionId, String username) {
+        if (!_sessionCacheEnabled || sessionId == null)
+            return null;
+
+        SessionIdentity identity = _sessionCache.get(sessionId);
+        return identity != null && identity.username.equals(username) ? identity : null;
+    }
+
+    /**
+     * Keeps the user or roles resolved for a session, the given objects must not be shared with callers.
+     */
+    protected void putSessionIdentity(String sessionId, String username, BaseUser user, BaseRole[] roles) {
+        if (!_sessionCacheEnabled || sessionId == null || username == null)
+            return;
+
+        for (;;) {
+            SessionIdentity old = _sessionCache.get(sessionId);
+            if (old == null || !old.username.equals(username)) {
+                SessionIdentity identity = new SessionIdentity(username, user, roles);
+                if (old == null ? _sessionCache.putIfAbsent(sessionId, identity) == null : _sessionCache.replace(sessionId, old, identity))
+                    break;
+            } else {
+                SessionIdentity identity = new SessionIdentity(username, user != null ? user : old.user, roles != null ? roles : old.roles);
+                if (_sessionCache.replace(sessionId, old, identity))
+                    break;
+            }
+        }
+
+        // Drop arbitrary sessions, their identity is loaded again on the next lookup
+        for (Iterator<String> it = _sessionCache.keySet().iterator(); _sessionCache.size() > _maxCachedSessions && it.hasNext();) {
+            if (!it.next().equals(sessionId))
+                it.remove();
+        }
+    }
+
+    protected void removeSessionIdentity(String sessionId) {
+        if (sessionId == null)
+            return;
+
+        _sessionCache.remove(sessionId);
+    }
+
+    /**
+     * Drops the identity kept for all sessions of a user, account updates are rare enough to scan all sessions.
+     */
+    protected void removeSessionIdentities(String username) {
+        for (Iterator<SessionIdentity> it = _sessionCache.values().iterator(); it.hasNext();) {
+            if (it.next().username.equals(username))
+                it.remove();
+        }
+    }
+
+    protected BaseUser copyUser(BaseUser user) {
+        BaseUserImpl copy = new BaseUserImpl(user.getName());
+        SSONameValuePair[] properties = user.getProperties();
+        for (int i = 0; i < properties.length; i++) {
+            copy.addProperty(properties[i].getName(), properties[i].getValue());
+        }
+        return copy;
+    }
+
+    protected BaseRole[] copyRoles(BaseRole[] roles) {
+        BaseRole[] copy = new BaseRole[roles.length];
+        for (int i = 0; i < roles.length; i++) {
+            BaseRoleImpl role = new BaseRoleImpl(roles[i].getName());
+            for (Enumeration members = roles[i].members(); members.hasMoreElements();) {
+                role.addMember((Principal) members.nextElement());
+            }
+            copy[i] = role;
+        }
+        return copy;
+    }
+
     // --------------------------------------------------------------------
     // Protected utils
     // --------------------------------------------------------------------
@@ -198,6 +407,60 @@ public class SSOIdentityManagerImpl implements SSOIdentityManager {
         return _keyAdapter;
     }
 
+    // Timed store calls, recorded in the statistics of the current security domain.
+
+    private BaseUser loadUser(UserKey key) throws NoSuchUserException, SSOIdentityException {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            BaseUser user = getIdentityStore().loadUser(key);
+            error = false;
+            return user;
+        } finally {
+            SecurityDomainStats.getCurrent().record(STORE_LOAD_USER, start, error);
+        }
+    }
+
+    private BaseRole[] findRolesByUserKey(UserKey key) throws SSOIdentityException {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            BaseRole[] roles = getIdentityStore().findRolesByUserKey(key);
+            error = false;
+            return roles;
+        } finally {
+            SecurityDomainStats.getCurrent().record(STORE_FIND_ROLES, start, error);
+        }
+    }
+
+    private boolean userExists(UserKey key) throws SSOIdentityException {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            boolean exists = getIdentityStore().userExists(key);
+            error = false;
+            return exists;
+        } finally {
+            SecurityDomainStats.getCurrent().record(STORE_USER_EXISTS, start, error);
+        }
+    }
+
+    /**
+     * User and roles resolved for a session, both loaded on demand.
+     */
+    protected static class SessionIdentity {
+
+        private final String username;
+        private final BaseUser user;
+        private final BaseRole[] roles;
+
+        SessionIdentity(String username, BaseUser user, BaseRole[] roles) {
+            this.username = username;
+            this.user = user;
+            this.roles = roles;
+        }
+    }
+
     protected SSOSessionManager getSessionManager() {
 
         if (_sessionManager == null) {
@@ -0,0 +1,226 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.identity.service.test;
+
+import org.josso.gateway.event.security.SSOSessionEvent;
+import org.josso.gateway.event.security.SSOSessionsEvent;
+import org.josso.gateway.identity.SSORole;
+import org.josso.gateway.identity.SSOUser;
+import org.josso.gateway.identity.exceptions.SSOIdentityException;
+import org.josso.gateway.identity.service.BaseRole;
+import org.josso.gateway.identity.service.BaseRoleImpl;
+import org.josso.gateway.identity.service.BaseUser;
+import org.josso.gateway.identity.service.BaseUserImpl;
+import org.josso.gateway.identity.service.SSOIdentityManagerImpl;
+import org.josso.gateway.identity.service.store.IdentityStore;
+import org.josso.gateway.identity.service.store.SimpleIdentityStoreKeyAdapter;
+import org.josso.gateway.identity.service.store.SimpleUserKey;
+import org.josso.gateway.session.exceptions.NoSuchSessionException;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.BaseSessionImpl;
+import org.josso.gateway.session.service.SSOSessionManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @version $Id$
+ */
+public class SSOIdentityManagerImplTest {
+
+    private Map<String, String> sessions;
+
+    private AtomicInteger userLoads;
+
+    private AtomicInteger roleLoads;
+
+    private TestSSOIdentityManager identityManager;
+
+    @Before
+    public void setUp() {
+        sessions = new ConcurrentHashMap<String, String>();
+        userLoads = new AtomicInteger();
+        roleLoads = new AtomicInteger();
+
+        identityManager = new TestSSOIdentityManager();
+        identityManager.setIdentityStore(newIdentityStore());
+        identityManager.setIdentityStoreKeyAdapter(new SimpleIdentityStoreKeyAdapter());
+
+        sessions.put("session1", "user1");
+        sessions.put("session2", "user2");
+    }
+
+    @Test
+    public void testSessionCache() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assert identityManager.findUserInSession("session1").getName().equals("user1") : "Wrong user";
+            assert identityManager.findRolesBySSOSessionId("session1").length == 2 : "Wrong roles";
+        }
+
+        assert userLoads.get() == 1 : "Expected 1 user load, found " + userLoads.get();
+        assert roleLoads.get() == 1 : "Expected 1 role load, found " + roleLoads.get();
+        assert identityManager.getSessionCacheHits() == 4 : "Expected 4 hits, found " + identityManager.getSessionCacheHits();
+        assert identityManager.getSessionCacheMisses() == 2 : "Expected 2 misses, found " + identityManager.getSessionCacheMisses();
+        assert identityManager.getCachedSessionCount() == 1 : "Expected 1 cached session, found " + identityManager.getCachedSessionCount();
+    }
+
+    @Test
+    public void testCopies() throws Exception {
+        BaseUser user = (BaseUser) identityManager.findUserInSession("session1");
+        user.setName("other");
+        user.addProperty("email", "other@josso.org");
+
+        BaseRole[] roles = (BaseRole[]) identityManager.findRolesBySSOSessionId("session1");
+        roles[0].setName("other");
+        roles[1] = null;
+
+        SSOUser cached = identityManager.findUserInSession("session1");
+        assert cached != user : "Cached user shared with callers";
+        assert cached.getName().equals("user1") : "Cached user modified : " + cached.getName();
+        assert cached.getProperties().length == 1 : "Cached user properties modified";
+
+        SSORole[] cachedRoles = identityManager.findRolesBySSOSessionId("session1");
+        assert cachedRoles[0].getName().equals("role1") : "Cached role modified : " + cachedRoles[0].getName();
+        assert cachedRoles[1] != null : "Cached roles modified";
+        assert cachedRoles[0].isMember(new BaseUserImpl("user1")) : "Role members not copied";
+
+        assert userLoads.get() == 1 : "Expected 1 user load, found " + userLoads.get();
+    }
+
+    @Test
+    public void testSessionEvents() throws Exception {
+        sessions.put("session3", "user3");
+        identityManager.findUserInSession("session1");
+        identityManager.findUserInSession("session2");
+        identityManager.findUserInSession("session3");
+
+        identityManager.handleSSOEvent(new SSOSessionEvent("user1", "session1", BaseSession.SESSION_CREATED_EVENT, null));
+        assert identityManager.getCachedSessionCount() == 3 : "Identity dropped for created session";
+
+        identityManager.handleSSOEvent(new SSOSessionEvent("user1", "session1", BaseSession.SESSION_DESTROYED_EVENT, null));
+        assert identityManager.getCachedSessionCount() == 2 : "Identity kept for destroyed session";
+
+        identityManager.handleSSOEvent(new SSOSessionsEvent(new String[]{"user2", "user3"},
+                new String[]{"session2", "session3"}, BaseSession.SESSION_DESTROYED_EVENT, null));
+        assert identityManager.getCachedSessionCount() == 0 : "Identity kept for destroyed sessions";
+
+        identityManager.findUserInSession("session1");
+        assert userLoads.get() == 4 : "Expected 4 user loads, found " + userLoads.get();
+    }
+
+    @Test
+    public void testInvalidSession() throws Exception {
+        identityManager.findUserInSession("session1");
+        sessions.remove("session1");
+
+        try {
+            identityManager.findUserInSession("session1");
+            assert false : "Identity found for invalid session";
+        } catch (SSOIdentityException e) {
+            // Expected
+        }
+
+        assert identityManager.getCachedSessionCount() == 0 : "Identity kept for invalid session";
+    }
+
+    @Test
+    public void testMaxCachedSessions() throws Exception {
+        identityManager.setMaxCachedSessions(10);
+        for (int i = 0; i < 20; i++) {
+            sessions.put("session-" + i, "user" + i);
+            identityManager.findUserInSession("session-" + i);
+            identityManager.findRolesBySSOSessionId("session-" + i);
+        }
+
+        assert identityManager.getCachedSessionCount() == 10 : "Expected 10 cached sessions, found " + identityManager.getCachedSessionCount();
+
+        // The latest session is always kept
+        identityManager.findUserInSession("session-19");
+        assert userLoads.get() == 20 : "Expected 20 user loads, found " + userLoads.get();
+    }
+
+    @Test
+    public void testSessionCacheDisabled() throws Exception {
+        identityManager.setSessionCacheEnabled(false);
+        identityManager.findUserInSession("session1");
+        identityManager.findUserInSession("session1");
+
+        assert userLoads.get() == 2 : "Expected 2 user loads, found " + userLoads.get();
+        assert identityManager.getCachedSessionCount() == 0 : "Identity cached with cache disabled";
+    }
+
+    private IdentityStore newIdentityStore() {
+        return (IdentityStore) Proxy.newProxyInstance(IdentityStore.class.getClassLoader(), new Class[]{IdentityStore.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String username = ((SimpleUserKey) args[0]).getId();
+                        if (method.getName().equals("loadUser")) {
+                            userLoads.incrementAndGet();
+                            BaseUserImpl user = new BaseUserImpl(username);
+                            user.addProperty("name", username);
+                            return user;
+                        }
+
+                        if (method.getName().equals("findRolesByUserKey")) {
+                            roleLoads.incrementAndGet();
+                            BaseRoleImpl role1 = new BaseRoleImpl("role1");
+                            role1.addMember(new BaseUserImpl(username));
+                            return new BaseRole[]{role1, new BaseRoleImpl("role2")};
+                        }
+
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private class TestSSOIdentityManager extends SSOIdentityManagerImpl {
+
+        private final SSOSessionManager sessionManager = (SSOSessionManager) Proxy.newProxyInstance(
+                SSOSessionManager.class.getClassLoader(), new Class[]{SSOSessionManager.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (!method.getName().equals("getSession"))
+                            throw new UnsupportedOperationException(method.getName());
+
+                        String sessionId = (String) args[0];
+                        String username = sessions.get(sessionId);
+                        if (username == null)
+                            throw new NoSuchSessionException(sessionId);
+
+                        BaseSessionImpl session = new BaseSessionImpl();
+                        session.setId(sessionId);
+                        session.setUsername(username);
+                        return session;
+                    }
+                });
+
+        protected SSOSessionManager getSessionManager() {
+            return sessionManager;
+        }
+    }
+}
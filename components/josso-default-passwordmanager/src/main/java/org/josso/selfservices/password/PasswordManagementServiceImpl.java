@@ -34,6 +34,13 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.commons.logging.Log;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.reflect.Method;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Field;
@@ -43,6 +50,9 @@ import java.lang.reflect.Field;
  *
  * Default password management service implementation. This acts like a request dispatcher using the request action
  * to invoke a process method.
+ * <p/>
+ * Running processes are kept in a concurrent map, and their deadlines in a delay queue so that the monitor only
+ * visits expired processes.  The number of running processes is bounded by maxRunningProcesses.
  *
  * @author <a href="mailto:sgonzalez@josso.org">Sebastian Gonzalez Oyuela</a>
  * @version $Id: PasswordManagementServiceImpl.java 974 2009-01-14 00:39:45Z sgonzalez $
@@ -55,15 +65,52 @@ public class PasswordManagementServiceImpl implements PasswordManagementService
 
     private Map<String, PasswordManagementProcess> prototypeProcesses = new HashMap<String, PasswordManagementProcess>();
 
-    private Map<String, PasswordManagementProcess> runningProcesses = new HashMap<String, PasswordManagementProcess>();
+    private ConcurrentMap<String, ProcessEntry> runningProcesses = new ConcurrentHashMap<String, ProcessEntry>();
+
+    // Process deadlines, the monitor takes only expired entries from here.
+    private DelayQueue<ProcessEntry> deadlines = new DelayQueue<ProcessEntry>();
 
     private PasswordManagementMonitor monitor;
 
+    // Time to live used for processes without their own max time to live, in seconds.
+    private int processTimeToLive = 30 * 60;
+
+    // Time completed processes are kept, so that their final state can still be read, in seconds.
+    private int completedProcessTimeToLive = 60;
+
+    private int maxRunningProcesses = 10000;
+
+    private long monitorInterval = 5000;
+
+    // ------------------------------------------------< Metrics >
+
+    private AtomicInteger activeProcesses = new AtomicInteger();
+
+    private AtomicLong startedProcesses = new AtomicLong();
+
+    private AtomicLong completedProcesses = new AtomicLong();
+
+    private AtomicLong expiredProcesses = new AtomicLong();
+
+    private AtomicLong rejectedProcesses = new AtomicLong();
+
+    // Values for the last full minute, updated by the monitor.
+    private volatile long startedPerMinute;
+
+    private volatile long completedPerMinute;
+
+    private volatile long expiredPerMinute;
+
+    private long[] lastMinuteTotals = new long[3];
+
+    private long lastMinute = System.currentTimeMillis();
+
     public void initialize() {
         // Start session monitor.
-        monitor = new PasswordManagementMonitor(this);
+        monitor = new PasswordManagementMonitor(this, monitorInterval);
         Thread t = new Thread(monitor);
         t.setName("JOSSOPasswordManagementMonitor");
+        t.setDaemon(true);
         t.start();
     }
 
@@ -76,12 +123,36 @@ public class PasswordManagementServiceImpl implements PasswordManagementService
         if (p == null)
             throw new SSOException("No such process : " + name);
 
-        // Create a new process based on the received prototype
-        p = p.createNewProcess(id);
-        runningProcesses.put(p.getProcessId(), p);
-        ProcessResponse r = p.start();
-        ((BaseProcessState) p.getState()).setNextStep(r.getNextStep());
-        return r;
+        // Reserve a slot for the new process
+        int active;
+        do {
+            active = activeProcesses.get();
+            if (active >= maxRunningProcesses) {
+                rejectedProcesses.incrementAndGet();
+                log.warn("Too many running processes (" + active + "), rejecting new process : " + name);
+                throw new SSOException("Too many running processes, try again later");
+            }
+        } while (!activeProcesses.compareAndSet(active, active + 1));
+
+        boolean registered = false;
+        try {
+            // Create a new process based on the received prototype
+            p = p.createNewProcess(id);
+
+            int ttl = p.getMaxTimeToLive() > 0 ? p.getMaxTimeToLive() : processTimeToLive;
+            ProcessEntry entry = new ProcessEntry(p, p.getCreationTime() + ttl * 1000L);
+            runningProcesses.put(p.getProcessId(), entry);
+            deadlines.add(entry);
+            registered = true;
+            startedProcesses.incrementAndGet();
+
+            ProcessResponse r = p.start();
+            ((BaseProcessState) p.getState()).setNextStep(r.getNextStep());
+            return r;
+        } finally {
+            if (!registered)
+                activeProcesses.decrementAndGet();
+        }
 
     }
 
@@ -95,7 +166,7 @@ public class PasswordManagementServiceImpl implements PasswordManagementService
 
         try {
             
-            PasswordManagementProcess p = runningProcesses.get(processId);
+            PasswordManagementProcess p = getRunningProcess(processId);
             if (p == null)
                 throw new PasswordManagementException("No such process " + processId);
 
@@ -133,6 +204,10 @@ public class PasswordManagementServiceImpl implements PasswordManagementService
                         // Store response next step in process state :
                         ProcessResponse r = (ProcessResponse) method.invoke(p, request);
                         ((BaseProcessState) p.getState()).setNextStep(r.getNextStep());
+
+                        if (!p.isRunning())
+                            completed(processId);
+
                         return r;
                     }
                 }
@@ -150,11 +225,12 @@ public class PasswordManagementServiceImpl implements PasswordManagementService
     }
 
     public ProcessState getProcessState(String processId) {
-        return this.runningProcesses.get(processId).getState();
+        PasswordManagementProcess p = getRunningProcess(processId);
+        return p != null ? p.getState() : null;
     }
 
     public ProcessRequest createRequest(String processId) throws PasswordManagementException {
-        PasswordManagementProcess p = this.runningProcesses.get(processId);
+        PasswordManagementProcess p = getRunningProcess(processId);
         if (p == null)
             throw new PasswordManagementException("Invalid proces ID : " + processId);
         
@@ -165,6 +241,31 @@ public class PasswordManagementServiceImpl implements PasswordManagementService
         return prototypeProcesses.get(name);
     }
 
+    protected PasswordManagementProcess getRunningProcess(String processId) {
+        if (processId == null)
+            return null;
+
+        ProcessEntry entry = runningProcesses.get(processId);
+        return entry != null ? entry.getProcess() : null;
+    }
+
+    /**
+     * Completed processes are kept a short time, so that their final state is still available.
+     */
+    protected void completed(String processId) {
+        ProcessEntry entry = runningProcesses.get(processId);
+        if (entry == null || entry.isCompleted())
+            return;
+
+        long deadline = Math.min(entry.getDeadline(), System.currentTimeMillis() + completedProcessTimeToLive * 1000L);
+        ProcessEntry completed = new ProcessEntry(entry.getProcess(), deadline, true);
+
+        if (runningProcesses.replace(processId, entry, completed)) {
+            completedProcesses.incrementAndGet();
+            deadlines.add(completed);
+        }
+    }
+
 
     public IdGenerator getProcessIdGenerator() {
         return idGenerator;
@@ -198,42 +299,150 @@ public class PasswordManagementServiceImpl implements PasswordManagementService
     public void checkPendingProcesses() {
         try {
 
-            long now = System.currentTimeMillis();
+            ProcessEntry entry;
+            while ((entry = deadlines.poll()) != null) {
 
-            for (PasswordManagementProcess process : runningProcesses.values()) {
+                PasswordManagementProcess process = entry.getProcess();
 
-                try {
-                    List<PasswordManagementProcess> toRemove =  new ArrayList<PasswordManagementProcess>();
+                // The entry may have been replaced by a new deadline
+                if (!runningProcesses.remove(process.getProcessId(), entry))
+                    continue;
 
-                    // Ignore valid assertions, they have not expired yet.
-                    if (!process.isRunning() || process.getCreationTime() - now > process.getMaxTimeToLive()) {
-                        toRemove.add(process);
-                        ///registry.unregisterToken(securityDomainName, TOKEN_TYPE, process.getId());
-                        if (log.isDebugEnabled())
-                            log.debug("[checkPendingProcesses()] Process expired : " + process.getProcessId());
-                    }
+                activeProcesses.decrementAndGet();
+                if (!entry.isCompleted())
+                    expiredProcesses.incrementAndGet();
 
-                    for (PasswordManagementProcess passwordManagementProcess : toRemove) {
-                        try { passwordManagementProcess.stop(); } catch (Exception e) { log.debug(e.getMessage(), e); }
-                        runningProcesses.remove(passwordManagementProcess.getProcessId());
-                    }
+                if (log.isDebugEnabled())
+                    log.debug("[checkPendingProcesses()] Process expired : " + process.getProcessId());
 
+                try {
+                    process.stop();
                 } catch (Exception e) {
-                    log.warn("Can't remove process " + e.getMessage() != null ? e.getMessage() : e.toString(), e);
+                    log.debug(e.getMessage(), e);
                 }
             }
+
+            updateMinuteRates();
+
         } catch (Exception e) {
             log.error("Cannot check pending processes! " + e.getMessage(), e);
         }
 
     }
 
+    private void updateMinuteRates() {
+        long now = System.currentTimeMillis();
+        if (now - lastMinute < 60000)
+            return;
+
+        long started = startedProcesses.get();
+        long completed = completedProcesses.get();
+        long expired = expiredProcesses.get();
+
+        // Normalize to one minute, the monitor may not run exactly every minute
+        double minutes = (now - lastMinute) / 60000D;
+        startedPerMinute = Math.round((started - lastMinuteTotals[0]) / minutes);
+        completedPerMinute = Math.round((completed - lastMinuteTotals[1]) / minutes);
+        expiredPerMinute = Math.round((expired - lastMinuteTotals[2]) / minutes);
+
+        lastMinuteTotals[0] = started;
+        lastMinuteTotals[1] = completed;
+        lastMinuteTotals[2] = expired;
+        lastMinute = now;
+    }
+
+    // ------------------------------------------------< Metrics >
+
+    public int getActiveProcesses() {
+        return activeProcesses.get();
+    }
+
+    public long getStartedProcesses() {
+        return startedProcesses.get();
+    }
+
+    public long getCompletedProcesses() {
+        return completedProcesses.get();
+    }
+
+    public long getExpiredProcesses() {
+        return expiredProcesses.get();
+    }
+
+    public long getRejectedProcesses() {
+        return rejectedProcesses.get();
+    }
+
+    public long getStartedProcessesPerMinute() {
+        return startedPerMinute;
+    }
+
+    public long getCompletedProcessesPerMinute() {
+        return completedPerMinute;
+    }
+
+    public long getExpiredProcessesPerMinute() {
+        return expiredPerMinute;
+    }
+
+    // ------------------------------------------------< Properties >
+
+    public int getProcessTimeToLive() {
+        return processTimeToLive;
+    }
+
+    /**
+     * Time to live for processes that do not define their own, in seconds.
+     */
+    public void setProcessTimeToLive(int processTimeToLive) {
+        this.processTimeToLive = processTimeToLive;
+    }
+
+    public int getCompletedProcessTimeToLive() {
+        return completedProcessTimeToLive;
+    }
+
+    /**
+     * Time a completed process is kept before it is removed, in seconds.
+     */
+    public void setCompletedProcessTimeToLive(int completedProcessTimeToLive) {
+        this.completedProcessTimeToLive = completedProcessTimeToLive;
+    }
+
+    public int getMaxRunningProcesses() {
+        return maxRunningProcesses;
+    }
+
+    /**
+     * New processes are rejected when this number of processes is running.
+     */
+    public void setMaxRunningProcesses(int maxRunningProcesses) {
+        this.maxRunningProcesses = maxRunningProcesses;
+    }
+
+    public long getMonitorInterval() {
+        return monitorInterval;
+    }
+
+    /**
+     * Time between checks for expired processes, in milliseconds.
+     */
+    public void setMonitorInterval(long monitorInterval) {
+        this.monitorInterval = monitorInterval;
+        if (monitor != null)
+            monitor.setInterval(monitorInterval);
+    }
+
     public void register(String processId, String name, Object extension) {
 
         if (log.isDebugEnabled())
             log.debug("Registering " + name);
 
-        PasswordManagementProcess p = this.runningProcesses.get(processId);
+        PasswordManagementProcess p = getRunningProcess(processId);
+        if (p == null) {
+            log.warn("Cannot register " + name + ", no such process " + processId);
+            return;
+        }
 
         Class clazz = p.getClass();
 
@@ -270,6 +479,49 @@ public class PasswordManagementServiceImpl implements PasswordManagementService
 
     }
 
+    /**
+     * A running process and its deadline, ordered by deadline.
+     */
+    private static class ProcessEntry implements Delayed {
+
+        private final PasswordManagementProcess process;
+
+        private final long deadline;
+
+        private final boolean completed;
+
+        ProcessEntry(PasswordManagementProcess process, long deadline) {
+            this(process, deadline, false);
+        }
+
+        ProcessEntry(PasswordManagementProcess process, long deadline, boolean completed) {
+            this.process = process;
+            this.deadline = deadline;
+            this.completed = completed;
+        }
+
+        public PasswordManagementProcess getProcess() {
+            return process;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isCompleted() {
+            return completed;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            long other = ((ProcessEntry) o).deadline;
+            return deadline < other ? -1 : (deadline == other ? 0 : 1);
+        }
+    }
+
     /**
      * Checks for assertions which have not been consumed yet.
      */
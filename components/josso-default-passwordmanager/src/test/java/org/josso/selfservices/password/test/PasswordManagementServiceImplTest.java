@@ -0,0 +1,209 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.selfservices.password.test;
+
+import org.josso.gateway.SSOException;
+import org.josso.selfservices.ProcessRequest;
+import org.josso.selfservices.ProcessResponse;
+import org.josso.selfservices.annotations.Action;
+import org.josso.selfservices.password.BasePasswordManagementProcess;
+import org.josso.selfservices.password.PasswordManagementProcess;
+import org.josso.selfservices.password.PasswordManagementServiceImpl;
+import org.josso.util.id.IdGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @version $Id$
+ */
+public class PasswordManagementServiceImplTest {
+
+    private PasswordManagementServiceImpl svc;
+
+    @Before
+    public void setUp() {
+        svc = new PasswordManagementServiceImpl();
+        svc.setProcessIdGenerator(new IdGenerator() {
+            private AtomicLong id = new AtomicLong();
+
+            public String generateId() {
+                return "process-" + id.incrementAndGet();
+            }
+        });
+
+        TestProcess prototype = new TestProcess();
+        prototype.setName("test");
+        svc.setPrototypeProcesses(Collections.<PasswordManagementProcess>singletonList(prototype));
+        // The monitor is not started, tests check pending processes themselves
+    }
+
+    @Test
+    public void testExpiredProcess() throws Exception {
+        svc.setProcessTimeToLive(1);
+
+        String id = svc.startProcess("test").getProcessId();
+        svc.checkPendingProcesses();
+        assert svc.getProcessState(id) != null : "Process expired before its deadline";
+
+        Thread.sleep(1100);
+        svc.checkPendingProcesses();
+
+        assert svc.getProcessState(id) == null : "Process not expired";
+        assert svc.getActiveProcesses() == 0 : "Invalid active processes " + svc.getActiveProcesses();
+        assert svc.getExpiredProcesses() == 1 : "Invalid expired processes " + svc.getExpiredProcesses();
+        assert svc.getCompletedProcesses() == 0 : "Invalid completed processes " + svc.getCompletedProcesses();
+    }
+
+    @Test
+    public void testProcessTimeToLive() throws Exception {
+        // The process own time to live wins over the default one
+        TestProcess prototype = new TestProcess();
+        prototype.setName("short");
+        prototype.setMaxTimeToLive(1);
+        svc.setPrototypeProcesses(Collections.<PasswordManagementProcess>singletonList(prototype));
+
+        String shortId = svc.startProcess("short").getProcessId();
+        String longId = svc.startProcess("test").getProcessId();
+
+        Thread.sleep(1100);
+        svc.checkPendingProcesses();
+
+        assert svc.getProcessState(shortId) == null : "Process not expired";
+        assert svc.getProcessState(longId) != null : "Process expired before its deadline";
+        assert svc.getActiveProcesses() == 1 : "Invalid active processes " + svc.getActiveProcesses();
+    }
+
+    @Test
+    public void testCompletedProcess() throws Exception {
+        svc.setCompletedProcessTimeToLive(1);
+
+        String id = svc.startProcess("test").getProcessId();
+        ProcessResponse r = svc.handleRequest(svc.createRequest(id));
+        assert r.isNextStepFinal() : "Process not completed";
+
+        // The final state is still available
+        svc.checkPendingProcesses();
+        assert svc.getProcessState(id) != null : "Completed process removed at once";
+        assert "done".equals(svc.getProcessState(id).getNextStep()) : "Invalid state " + svc.getProcessState(id).getNextStep();
+
+        Thread.sleep(1100);
+        svc.checkPendingProcesses();
+
+        assert svc.getProcessState(id) == null : "Completed process not removed";
+        assert svc.getActiveProcesses() == 0 : "Invalid active processes " + svc.getActiveProcesses();
+        assert svc.getCompletedProcesses() == 1 : "Invalid completed processes " + svc.getCompletedProcesses();
+        assert svc.getExpiredProcesses() == 0 : "Completed process counted as expired";
+    }
+
+    @Test
+    public void testMaxRunningProcesses() throws Exception {
+        svc.setMaxRunningProcesses(2);
+        svc.setProcessTimeToLive(1);
+
+        svc.startProcess("test");
+        svc.startProcess("test");
+        try {
+            svc.startProcess("test");
+            assert false : "Process started over the limit";
+        } catch (SSOException e) {
+            // Expected
+        }
+        assert svc.getRejectedProcesses() == 1 : "Invalid rejected processes " + svc.getRejectedProcesses();
+
+        // Expired processes release their slot
+        Thread.sleep(1100);
+        svc.checkPendingProcesses();
+        svc.startProcess("test");
+        assert svc.getActiveProcesses() == 1 : "Invalid active processes " + svc.getActiveProcesses();
+    }
+
+    @Test
+    public void testConcurrentReservations() throws Exception {
+        final int threads = 16;
+        final int perThread = 50;
+        final int max = 100;
+        svc.setMaxRunningProcesses(max);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < perThread; j++) {
+                            try {
+                                svc.startProcess("test");
+                                started.incrementAndGet();
+                            } catch (SSOException e) {
+                                rejected.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            workers.add(t);
+            t.start();
+        }
+
+        start.countDown();
+        for (Thread t : workers)
+            t.join();
+
+        assert errors.isEmpty() : "Errors " + errors;
+        assert started.get() == max : "Invalid started processes " + started.get();
+        assert rejected.get() == threads * perThread - max : "Invalid rejected processes " + rejected.get();
+        assert svc.getActiveProcesses() == max : "Invalid active processes " + svc.getActiveProcesses();
+        assert svc.getStartedProcesses() == max : "Invalid started count " + svc.getStartedProcesses();
+        assert svc.getRejectedProcesses() == threads * perThread - max : "Invalid rejected count " + svc.getRejectedProcesses();
+    }
+
+    /**
+     * A single step process : started, then completed by a confirm request.
+     */
+    public static class TestProcess extends BasePasswordManagementProcess {
+
+        public ProcessResponse start() {
+            super.start();
+            return createResponse("confirm");
+        }
+
+        @Action(fromSteps = {"confirm"})
+        public ProcessResponse confirm(ProcessRequest request) {
+            stop();
+            return createFinalResponse("done");
+        }
+    }
+}
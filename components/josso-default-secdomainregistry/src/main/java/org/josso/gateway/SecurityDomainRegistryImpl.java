@@ -26,10 +26,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.josso.SecurityDomain;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @org.apache.xbean.XBean element="default-domains-registry" 
@@ -41,40 +41,57 @@ public class SecurityDomainRegistryImpl implements SecurityDomainRegistry {
 
     private static final Log logger = LogFactory.getLog(SecurityDomainRegistryImpl.class);
 
-    private Map<String, SecurityDomainRecord> domainRecords = new HashMap<String, SecurityDomainRecord>();
+    private Map<String, SecurityDomainRecord> domainRecords = new ConcurrentHashMap<String, SecurityDomainRecord>();
+
+    // Token type -> token value -> owning domain record, so that lookups do not scan all domains.
+    private ConcurrentMap<String, ConcurrentMap<String, SecurityDomainRecord>> tokenIndex =
+            new ConcurrentHashMap<String, ConcurrentMap<String, SecurityDomainRecord>>();
 
     public SecurityDomain lookup(String tokenType, String token) {
-        for (SecurityDomainRecord r : domainRecords.values()) {
-            if (r.hasToken(tokenType, token))
-                return r.getSecurityDomain();
-        }
+        if (tokenType == null || token == null)
+            return null;
 
-        return null;
+        Map<String, SecurityDomainRecord> tokens = tokenIndex.get(tokenType);
+        if (tokens == null)
+            return null;
+
+        SecurityDomainRecord r = tokens.get(token);
+        return r != null ? r.getSecurityDomain() : null;
     }
 
     public synchronized void register(SecurityDomain sd) {
         logger.info("Registering SecurityDomain : " + sd.getName());
-        domainRecords.put(sd.getName(), new SecurityDomainRecord(sd));
+        SecurityDomainRecord old = domainRecords.put(sd.getName(), new SecurityDomainRecord(sd));
+        if (old != null)
+            removeTokens(old);
     }
 
     public synchronized void unregister(String securityDomainName) {
         logger.info("Unregistering SecurityDomain : " + securityDomainName);
-        domainRecords.remove(securityDomainName);
+        SecurityDomainRecord old = domainRecords.remove(securityDomainName);
+        if (old != null)
+            removeTokens(old);
     }
 
 
-    public synchronized void registerToken(String securityDomainName, String tokenType, String token) {
+    public void registerToken(String securityDomainName, String tokenType, String token) {
         if (securityDomainName == null)
             throw new IllegalArgumentException("Security Domain Name cannot be null");
 
+        if (tokenType == null || token == null)
+            throw new IllegalArgumentException("Security token type and value cannot be null");
+
         if (logger.isDebugEnabled())
             logger.debug("Registering security token " + securityDomainName + " [" + tokenType + "/" + token + "]");
 
         SecurityDomainRecord r = domainRecords.get(securityDomainName);
-        r.addToken(tokenType, token);
+        if (r == null)
+            throw new IllegalArgumentException("Unknown Security Domain : " + securityDomainName);
+
+        getTokens(tokenType).put(token, r);
     }
 
-    public synchronized void unregisterToken(String securityDomainName, String tokenType, String token) {
+    public void unregisterToken(String securityDomainName, String tokenType, String token) {
         if (securityDomainName == null)
             throw new IllegalArgumentException("Security Domain Name cannot be null");
 
@@ -83,45 +100,64 @@ public class SecurityDomainRegistryImpl implements SecurityDomainRegistry {
 
         SecurityDomainRecord r = domainRecords.get(securityDomainName);
 
-        if (r != null)
-            r.removeToken(tokenType, token);
+        if (r != null && tokenType != null && token != null) {
+            ConcurrentMap<String, SecurityDomainRecord> tokens = tokenIndex.get(tokenType);
+            if (tokens != null)
+                tokens.remove(token, r);
+        }
     }
 
-    protected class SecurityDomainRecord {
+    public void unregisterTokens(String securityDomainName, String tokenType, String[] tokens) {
+        if (securityDomainName == null)
+            throw new IllegalArgumentException("Security Domain Name cannot be null");
 
-        private SecurityDomain sd;
-        private Map<String, Set<String>> tokens = new HashMap<String, Set<String>>();
+        if (logger.isDebugEnabled())
+            logger.debug("Unregistering " + tokens.length + " security tokens " + securityDomainName + " [" + tokenType + "]");
 
-        public SecurityDomainRecord(SecurityDomain sd) {
-            this.sd = sd;
+        SecurityDomainRecord r = domainRecords.get(securityDomainName);
+        ConcurrentMap<String, SecurityDomainRecord> index = tokenType != null ? tokenIndex.get(tokenType) : null;
+
+        if (r == null || index == null)
+            return;
+
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i] != null)
+                index.remove(tokens[i], r);
         }
+    }
 
-        public SecurityDomain getSecurityDomain() {
-            return sd;
+    protected ConcurrentMap<String, SecurityDomainRecord> getTokens(String tokenType) {
+        ConcurrentMap<String, SecurityDomainRecord> tokens = tokenIndex.get(tokenType);
+        if (tokens == null) {
+            tokens = new ConcurrentHashMap<String, SecurityDomainRecord>();
+            ConcurrentMap<String, SecurityDomainRecord> existing = tokenIndex.putIfAbsent(tokenType, tokens);
+            if (existing != null)
+                tokens = existing;
         }
+        return tokens;
+    }
 
-        public boolean hasToken(String type, String token) {
-            Set<String> tokenValues = tokens.get(type);
-            return tokenValues != null && tokenValues.contains(token);
+    protected void removeTokens(SecurityDomainRecord r) {
+        for (ConcurrentMap<String, SecurityDomainRecord> tokens : tokenIndex.values()) {
+            tokens.values().removeAll(Collections.singleton(r));
         }
+    }
 
-        public void addToken(String type, String token) {
-            Set<String> tokenValues = tokens.get(type);
-            if (tokenValues == null) {
-                tokenValues = new HashSet<String>();
-                tokens.put(type, tokenValues);
-            }
+    protected class SecurityDomainRecord {
 
-            tokenValues.add(token);
+        private SecurityDomain sd;
 
+        public SecurityDomainRecord(SecurityDomain sd) {
+            this.sd = sd;
         }
 
-        public void removeToken(String type, String token) {
-            Set<String> tokenValues = tokens.get(type);
-            if (tokenValues == null)
-                return;
+        public SecurityDomain getSecurityDomain() {
+            return sd;
+        }
 
-            tokenValues.remove(token);
+        public boolean hasToken(String type, String token) {
+            Map<String, SecurityDomainRecord> tokens = tokenIndex.get(type);
+            return tokens != null && tokens.get(token) == this;
         }
 
     }
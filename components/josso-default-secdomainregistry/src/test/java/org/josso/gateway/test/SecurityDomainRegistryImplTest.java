@@ -0,0 +1,143 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.test;
+
+import org.josso.SecurityDomain;
+import org.josso.gateway.SecurityDomainRegistryImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * @version $Id$
+ */
+public class SecurityDomainRegistryImplTest {
+
+    private static final String SESSION = "session";
+
+    private static final String ASSERTION = "assertion";
+
+    private SecurityDomainRegistryImpl registry;
+
+    private SecurityDomain sd1;
+
+    private SecurityDomain sd2;
+
+    @Before
+    public void setUp() {
+        registry = new SecurityDomainRegistryImpl();
+        sd1 = newSecurityDomain("sd1");
+        sd2 = newSecurityDomain("sd2");
+        registry.register(sd1);
+        registry.register(sd2);
+    }
+
+    @Test
+    public void testLookup() {
+        registry.registerToken("sd1", SESSION, "token1");
+        registry.registerToken("sd2", SESSION, "token2");
+        registry.registerToken("sd2", ASSERTION, "token1");
+
+        assert registry.lookup(SESSION, "token1") == sd1 : "Wrong security domain";
+        assert registry.lookup(SESSION, "token2") == sd2 : "Wrong security domain";
+        assert registry.lookup(ASSERTION, "token1") == sd2 : "Wrong security domain";
+
+        assert registry.lookup(ASSERTION, "token2") == null : "Token found for other type";
+        assert registry.lookup("unknown", "token1") == null : "Token found for unknown type";
+        assert registry.lookup(SESSION, null) == null : "Null token found";
+        assert registry.lookup(null, "token1") == null : "Token found for null type";
+    }
+
+    @Test
+    public void testUnregisterToken() {
+        registry.registerToken("sd1", SESSION, "token1");
+        registry.registerToken("sd1", SESSION, "token2");
+        registry.registerToken("sd1", SESSION, "token3");
+
+        // Tokens are only removed by their own domain
+        registry.unregisterToken("sd2", SESSION, "token1");
+        assert registry.lookup(SESSION, "token1") == sd1 : "Token removed by other domain";
+
+        registry.unregisterToken("sd1", SESSION, "token1");
+        assert registry.lookup(SESSION, "token1") == null : "Token not removed";
+
+        registry.unregisterTokens("sd1", SESSION, new String[]{"token2", null, "token3"});
+        assert registry.lookup(SESSION, "token2") == null : "Token not removed";
+        assert registry.lookup(SESSION, "token3") == null : "Token not removed";
+
+        // Unknown tokens are ignored
+        registry.unregisterToken("sd1", SESSION, "token1");
+        registry.unregisterToken("sd1", SESSION, null);
+        registry.unregisterToken("sd1", "unknown", "token1");
+    }
+
+    @Test
+    public void testUnregister() {
+        registry.registerToken("sd1", SESSION, "token1");
+        registry.registerToken("sd2", SESSION, "token2");
+
+        registry.unregister("sd1");
+        assert registry.lookup(SESSION, "token1") == null : "Token kept for unregistered domain";
+        assert registry.lookup(SESSION, "token2") == sd2 : "Token removed for other domain";
+
+        // Registering a domain again drops the tokens of the previous instance
+        registry.register(newSecurityDomain("sd2"));
+        assert registry.lookup(SESSION, "token2") == null : "Token kept for replaced domain";
+    }
+
+    @Test
+    public void testRegisterInvalidToken() {
+        assertInvalid(null, SESSION, "token1");
+        assertInvalid("unknown", SESSION, "token1");
+        assertInvalid("sd1", SESSION, null);
+        assertInvalid("sd1", null, "token1");
+
+        assert registry.lookup(SESSION, "token1") == null : "Invalid token registered";
+    }
+
+    private void assertInvalid(String securityDomainName, String tokenType, String token) {
+        try {
+            registry.registerToken(securityDomainName, tokenType, token);
+            assert false : "Token registered for " + securityDomainName + " [" + tokenType + "/" + token + "]";
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static SecurityDomain newSecurityDomain(final String name) {
+        return (SecurityDomain) Proxy.newProxyInstance(SecurityDomain.class.getClassLoader(), new Class[]{SecurityDomain.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getName"))
+                            return name;
+                        if (method.getName().equals("hashCode"))
+                            return System.identityHashCode(proxy);
+                        if (method.getName().equals("equals"))
+                            return proxy == args[0];
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -27,7 +27,10 @@ import org.apache.commons.logging.LogFactory;
 import org.josso.SecurityDomain;
 import org.josso.gateway.identity.exceptions.NoSuchDomainException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -41,6 +44,9 @@ public class DomainSelectorImpl implements SSOSecurityDomainSelector {
 
     private static final Log logger = LogFactory.getLog(DomainSelectorImpl.class);
 
+    // Compiled view of the domains list, rebuilt when a different or modified list is received.
+    private volatile DomainIndex index;
+
     /**
      * This will select the SecurityDomain associated with the received request.
      * <p/>
@@ -81,24 +87,12 @@ public class DomainSelectorImpl implements SSOSecurityDomainSelector {
         if (logger.isDebugEnabled())
             logger.debug("SecurityDomain by request: " + req);
 
-        for (SecurityDomain sd : domains) {
+        SecurityDomain sd = getIndex(domains).match(req);
 
-            boolean match = true;
-            for (SecurityDomainMatcher matcher : sd.getMatchers()) {
-                if (!matcher.match(req)) {
-                    match = false;
-                    break;
-                }
-            }
+        if (sd != null && logger.isDebugEnabled())
+            logger.debug("Domain " + sd.getName() + " matched request " + req);
 
-            if (match) {
-                if (logger.isDebugEnabled())
-                    logger.debug("Domain " + sd.getName() + " matched request " + req);
-                return sd;
-            }
-        }
-
-        return null;
+        return sd;
 
     }
 
@@ -127,11 +121,165 @@ public class DomainSelectorImpl implements SSOSecurityDomainSelector {
         if (name == null)
             return null;
 
-        for (SecurityDomain sd : domains) {
-            if (name.equals(sd.getName())) return sd;
-        }
+        SecurityDomain sd = getIndex(domains).getByName(name);
+        if (sd != null)
+            return sd;
 
         throw new NoSuchDomainException(name);
 
     }
+
+    protected DomainIndex getIndex(List<SecurityDomain> domains) {
+        DomainIndex idx = index;
+        if (idx == null || !idx.isFor(domains)) {
+            idx = new DomainIndex(domains);
+            index = idx;
+
+            if (logger.isDebugEnabled())
+                logger.debug("Compiled domain index for " + domains.size() + " domains");
+        }
+        return idx;
+    }
+
+    /**
+     * Compiled domain selection data.  Keyed matchers (vhost, application context) are resolved through
+     * hash lookups, only domains using other matchers are evaluated by invoking their matcher chain.
+     * <p/>
+     * Selection keeps the original semantics : the first domain, in configuration order, whose matchers ALL
+     * match the request is selected.
+     */
+    protected static class DomainIndex {
+
+        private final List<SecurityDomain> domains;
+
+        private final int size;
+
+        private final Map<String, SecurityDomain> byName = new HashMap<String, SecurityDomain>();
+
+        // Parameter name -> lower case parameter value -> candidate domains, in configuration order.
+        private final Map<String, Map<String, List<Candidate>>> byKey = new HashMap<String, Map<String, List<Candidate>>>();
+
+        // Domains without keyed matchers, in configuration order.
+        private final List<Candidate> generic = new ArrayList<Candidate>();
+
+        DomainIndex(List<SecurityDomain> domains) {
+            this.domains = domains;
+            this.size = domains.size();
+
+            for (int i = 0; i < domains.size(); i++) {
+                SecurityDomain sd = domains.get(i);
+                if (!byName.containsKey(sd.getName()))
+                    byName.put(sd.getName(), sd);
+
+                KeyedSecurityDomainMatcher primary = null;
+                for (SecurityDomainMatcher matcher : sd.getMatchers()) {
+                    if (matcher instanceof KeyedSecurityDomainMatcher) {
+                        primary = (KeyedSecurityDomainMatcher) matcher;
+                        break;
+                    }
+                }
+
+                Candidate c = new Candidate(i, sd, primary);
+                if (primary == null) {
+                    generic.add(c);
+                    continue;
+                }
+
+                Map<String, List<Candidate>> values = byKey.get(primary.getParameterName());
+                if (values == null) {
+                    values = new HashMap<String, List<Candidate>>();
+                    byKey.put(primary.getParameterName(), values);
+                }
+
+                for (String key : primary.getKeys()) {
+                    List<Candidate> candidates = values.get(key);
+                    if (candidates == null) {
+                        candidates = new ArrayList<Candidate>(1);
+                        values.put(key, candidates);
+                    }
+                    candidates.add(c);
+                }
+            }
+        }
+
+        boolean isFor(List<SecurityDomain> domains) {
+            return this.domains == domains && this.size == domains.size();
+        }
+
+        SecurityDomain getByName(String name) {
+            return byName.get(name);
+        }
+
+        SecurityDomain match(SSORequest req) {
+
+            Candidate best = null;
+
+            // Keyed candidates, only domains registered for the request values are checked
+            for (Map.Entry<String, Map<String, List<Candidate>>> e : byKey.entrySet()) {
+                String value = req.getParameter(e.getKey());
+                if (value == null)
+                    continue;
+
+                List<Candidate> candidates = e.getValue().get(value.toLowerCase());
+                if (candidates == null)
+                    continue;
+
+                for (int i = 0; i < candidates.size(); i++) {
+                    Candidate c = candidates.get(i);
+                    if (best != null && best.order < c.order)
+                        break;
+
+                    if (c.matchOthers(req)) {
+                        best = c;
+                        break;
+                    }
+                }
+            }
+
+            // Generic candidates, only those configured before the best keyed candidate
+            for (int i = 0; i < generic.size(); i++) {
+                Candidate c = generic.get(i);
+                if (best != null && best.order < c.order)
+                    break;
+
+                if (c.matchOthers(req)) {
+                    best = c;
+                    break;
+                }
+            }
+
+            return best != null ? best.domain : null;
+        }
+
+    }
+
+    protected static class Candidate {
+
+        private final int order;
+
+        private final SecurityDomain domain;
+
+        private final SecurityDomainMatcher[] others;
+
+        Candidate(int order, SecurityDomain domain, SecurityDomainMatcher primary) {
+            this.order = order;
+            this.domain = domain;
+
+            List<SecurityDomainMatcher> others = new ArrayList<SecurityDomainMatcher>(domain.getMatchers());
+            if (primary != null)
+                others.remove(primary);
+            this.others = others.toArray(new SecurityDomainMatcher[others.size()]);
+        }
+
+        /**
+         * Invokes all matchers except the one used to index this candidate.
+         */
+        boolean matchOthers(SSORequest req) {
+            for (int i = 0; i < others.length; i++) {
+                if (!others[i].match(req))
+                    return false;
+            }
+            return true;
+        }
+    }
 }
@@ -0,0 +1,316 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.test;
+
+import org.josso.SecurityDomain;
+import org.josso.SecurityDomainImpl;
+import org.josso.gateway.DomainSelectorImpl;
+import org.josso.gateway.KeyedSecurityDomainMatcher;
+import org.josso.gateway.SSORequest;
+import org.josso.gateway.SecurityDomainMatcher;
+import org.josso.gateway.identity.exceptions.NoSuchDomainException;
+import org.josso.gateway.signon.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the indexed domain selection against the plain scan of all domains matchers.
+ *
+ * @version $Id$
+ */
+public class DomainSelectorImplTest {
+
+    private static final String HOST = Constants.PARAM_JOSSO_PARTNERAPP_HOST;
+
+    private static final String CTX = Constants.PARAM_JOSSO_PARTNERAPP_CONTEXT;
+
+    private static final String FLAG = "flag";
+
+    private static final String[] HOSTS = {"host1", "host2", "host3", "HOST4"};
+
+    private static final String[] CTXS = {"/app1", "/app2", "/APP3"};
+
+    private static final String[] FLAGS = {"on", "off"};
+
+    private DomainSelectorImpl selector;
+
+    @Before
+    public void setUp() {
+        selector = new DomainSelectorImpl();
+    }
+
+    @Test
+    public void testSameAsScan() throws Exception {
+
+        Random r = new Random(5150);
+
+        for (int round = 0; round < 20; round++) {
+            List<SecurityDomain> domains = new ArrayList<SecurityDomain>();
+            for (int i = 0; i < 30; i++) {
+                List<SecurityDomainMatcher> matchers = new ArrayList<SecurityDomainMatcher>();
+
+                // Matchers are added in a random order, keyed ones may not be the first
+                if (r.nextInt(3) == 0)
+                    matchers.add(new ParamMatcher(FLAG, pick(r, FLAGS)));
+                if (r.nextBoolean())
+                    matchers.add(new KeyMatcher(HOST, pick(r, HOSTS), pick(r, HOSTS)));
+                if (r.nextBoolean())
+                    matchers.add(new KeyMatcher(CTX, pick(r, CTXS)));
+                if (r.nextInt(3) == 0)
+                    matchers.add(new ParamMatcher(FLAG, pick(r, FLAGS)));
+
+                // Domains without matchers match every request, keep them rare
+                if (matchers.isEmpty() && r.nextInt(4) != 0)
+                    matchers.add(new KeyMatcher(HOST, pick(r, HOSTS)));
+
+                domains.add(newDomain("domain" + i, matchers));
+            }
+
+            for (int i = 0; i < 200; i++) {
+                TestRequest req = new TestRequest();
+                if (r.nextInt(5) != 0)
+                    req.setParameter(HOST, randomCase(r, pick(r, HOSTS)));
+                if (r.nextInt(5) != 0)
+                    req.setParameter(CTX, randomCase(r, pick(r, CTXS)));
+                if (r.nextBoolean())
+                    req.setParameter(FLAG, pick(r, FLAGS));
+
+                SecurityDomain expected = scan(req, domains);
+                SecurityDomain actual = selector.matchDomain(req, domains);
+
+                assert expected == actual : "Request " + req + " selected " + name(actual) + " instead of " + name(expected);
+            }
+        }
+    }
+
+    @Test
+    public void testConfigurationOrder() throws Exception {
+        SecurityDomain generic = newDomain("generic", list(new ParamMatcher(FLAG, "on")));
+        SecurityDomain keyed = newDomain("keyed", list(new KeyMatcher(HOST, "host1")));
+
+        TestRequest req = new TestRequest();
+        req.setParameter(HOST, "host1");
+        req.setParameter(FLAG, "on");
+
+        // The first matching domain is selected, whatever its matchers are
+        assert selector.matchDomain(req, Arrays.asList(generic, keyed)) == generic : "Keyed domain selected first";
+        assert selector.matchDomain(req, Arrays.asList(keyed, generic)) == keyed : "Generic domain selected first";
+    }
+
+    @Test
+    public void testAllMatchers() throws Exception {
+        // Indexed by vhost, the context matcher must still be checked
+        SecurityDomain both = newDomain("both", list(new KeyMatcher(HOST, "host1"), new KeyMatcher(CTX, "/app1")));
+        SecurityDomain host = newDomain("host", list(new KeyMatcher(HOST, "host1")));
+        List<SecurityDomain> domains = Arrays.asList(both, host);
+
+        TestRequest req = new TestRequest();
+        req.setParameter(HOST, "Host1");
+        req.setParameter(CTX, "/app2");
+        assert selector.matchDomain(req, domains) == host : "Context matcher not checked";
+
+        req.setParameter(CTX, "/APP1");
+        assert selector.matchDomain(req, domains) == both : "Domain not matched";
+
+        req.setParameter(HOST, "host2");
+        assert selector.matchDomain(req, domains) == null : "Domain matched";
+    }
+
+    @Test
+    public void testModifiedDomains() throws Exception {
+        List<SecurityDomain> domains = new ArrayList<SecurityDomain>();
+        domains.add(newDomain("domain1", list(new KeyMatcher(HOST, "host1"))));
+
+        TestRequest req = new TestRequest();
+        req.setParameter(HOST, "host2");
+        assert selector.matchDomain(req, domains) == null : "Domain matched";
+
+        // Domains added after the index was built are found
+        SecurityDomain added = newDomain("domain2", list(new KeyMatcher(HOST, "host2")));
+        domains.add(added);
+        assert selector.matchDomain(req, domains) == added : "Added domain not matched";
+
+        List<SecurityDomain> other = new ArrayList<SecurityDomain>();
+        other.add(newDomain("domain3", list(new KeyMatcher(HOST, "host2"))));
+        assert selector.matchDomain(req, other) == other.get(0) : "Index not rebuilt for a different list";
+    }
+
+    @Test
+    public void testSelectByName() throws Exception {
+        SecurityDomain domain1 = newDomain("domain1", list(new KeyMatcher(HOST, "host1")));
+        SecurityDomain domain2 = newDomain("domain2", list(new KeyMatcher(HOST, "host2")));
+        List<SecurityDomain> domains = Arrays.asList(domain1, domain2);
+
+        TestRequest req = new TestRequest();
+        req.setAttribute(Constants.KEY_JOSSO_SECURITY_DOMAIN_NAME, "domain2");
+        assert selector.selectDomain(req, domains) == domain2 : "Domain not selected by name";
+
+        // Matchers win over the name
+        req.setParameter(HOST, "host1");
+        assert selector.selectDomain(req, domains) == domain1 : "Domain not selected by matchers";
+
+        req = new TestRequest();
+        req.setAttribute(Constants.KEY_JOSSO_SECURITY_DOMAIN_NAME, "domain3");
+        try {
+            selector.selectDomain(req, domains);
+            assert false : "Unknown domain selected";
+        } catch (NoSuchDomainException e) {
+            // Expected
+        }
+    }
+
+    private static SecurityDomain scan(SSORequest req, List<SecurityDomain> domains) {
+        for (SecurityDomain sd : domains) {
+            boolean match = true;
+            for (SecurityDomainMatcher matcher : sd.getMatchers()) {
+                if (!matcher.match(req)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match)
+                return sd;
+        }
+        return null;
+    }
+
+    private static SecurityDomain newDomain(String name, List<SecurityDomainMatcher> matchers) {
+        SecurityDomain sd = new SecurityDomainImpl();
+        sd.setName(name);
+        sd.setMatchers(matchers);
+        return sd;
+    }
+
+    private static List<SecurityDomainMatcher> list(SecurityDomainMatcher... matchers) {
+        return new ArrayList<SecurityDomainMatcher>(Arrays.asList(matchers));
+    }
+
+    private static String pick(Random r, String[] values) {
+        return values[r.nextInt(values.length)];
+    }
+
+    private static String randomCase(Random r, String value) {
+        return r.nextBoolean() ? value.toUpperCase() : value.toLowerCase();
+    }
+
+    private static String name(SecurityDomain sd) {
+        return sd != null ? sd.getName() : null;
+    }
+
+    /**
+     * Matches a request parameter against a set of values, ignoring case, like the vhost and context matchers.
+     */
+    private static class KeyMatcher implements KeyedSecurityDomainMatcher {
+
+        private final String parameterName;
+
+        private final Set<String> keys = new HashSet<String>();
+
+        KeyMatcher(String parameterName, String... keys) {
+            this.parameterName = parameterName;
+            for (String key : keys)
+                this.keys.add(key.toLowerCase());
+        }
+
+        public void init() {
+        }
+
+        public String getParameterName() {
+            return parameterName;
+        }
+
+        public Set<String> getKeys() {
+            return keys;
+        }
+
+        public boolean match(SSORequest req) {
+            String value = req.getParameter(parameterName);
+            return value != null && keys.contains(value.toLowerCase());
+        }
+    }
+
+    /**
+     * A matcher the selector cannot index.
+     */
+    private static class ParamMatcher implements SecurityDomainMatcher {
+
+        private final String name;
+
+        private final String value;
+
+        ParamMatcher(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public void init() {
+        }
+
+        public boolean match(SSORequest req) {
+            return value.equals(req.getParameter(name));
+        }
+    }
+
+    private static class TestRequest implements SSORequest {
+
+        private final Map<String, String> parameters = new HashMap<String, String>();
+
+        private final Map<String, String> attributes = new HashMap<String, String>();
+
+        public String getUserLocation() {
+            return null;
+        }
+
+        public String getParameter(String name) {
+            return parameters.get(name);
+        }
+
+        public void setParameter(String name, String value) {
+            parameters.put(name, value);
+        }
+
+        public String getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        public void setAttribute(String name, String value) {
+            attributes.put(name, value);
+        }
+
+        public String getHeader(String name) {
+            return null;
+        }
+
+        public String toString() {
+            return parameters.toString();
+        }
+    }
+}
@@ -26,13 +26,17 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.josso.Lookup;
 import org.josso.gateway.SecurityDomainRegistry;
+import org.josso.gateway.event.security.SSOSecurityEventManager;
 import org.josso.gateway.session.SSOSession;
 import org.josso.gateway.session.exceptions.NoSuchSessionException;
 import org.josso.gateway.session.exceptions.SSOSessionException;
 import org.josso.gateway.session.exceptions.TooManyOpenSessionsException;
 import org.josso.gateway.session.service.store.SessionStore;
+import org.josso.gateway.stats.SecurityDomainStats;
 
 import javax.security.auth.Subject;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
 import java.util.*;
 
 /**
@@ -48,6 +52,16 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
 
     private static final Log logger = LogFactory.getLog(SSOSessionManagerImpl.class);
 
+    private static final String STORE_LOAD = "SessionStore.load";
+
+    private static final String STORE_LOAD_BY_USERNAME = "SessionStore.loadByUsername";
+
+    private static final String STORE_COUNT_BY_USERNAME = "SessionStore.countByUsername";
+
+    private static final String STORE_SAVE = "SessionStore.save";
+
+    private static final String STORE_REMOVE = "SessionStore.remove";
+
     // Max inactive interval used for new sessions. Default is set to 30
     private int _maxInactiveInterval = 30;
 
@@ -57,12 +71,26 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
 
     private boolean _invalidateExceedingSessions = false;
 
+    // Remote user session invalidation is disabled unless set
+    private String _remoteInvalidationSecret;
+
     private String _securityDomainName;
 
+    private SSOSecurityEventManager _eventManager;
+
+    private SecurityDomainStats _stats;
+
+    // Logins of the same user are serialized on one of these locks, so that concurrent logins can't exceed
+    // the max sessions per user. The locks are local to this gateway, see setMaxSessionsPerUser.
+    private final Object[] _userLocks = new Object[64];
+
     /**
      * This implementation uses a MemoryStore and a defaylt Session Id generator.
      */
     public SSOSessionManagerImpl() {
+        for (int i = 0; i < _userLocks.length; i++) {
+            _userLocks[i] = new Object();
+        }
     }
 
     //-----------------------------------------------------
@@ -80,6 +108,11 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
 
     public void setSecurityDomainName(String securityDomainName) {
         _securityDomainName = securityDomainName;
+        _stats = null;
+    }
+
+    public void setSecurityEventManager(SSOSecurityEventManager eventManager) {
+        _eventManager = eventManager;
     }
 
 
@@ -140,33 +173,51 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
      */
     public String initiateSession(String username, Subject subject) throws SSOSessionException {
 
-        // Invalidate sessions if necessary
-        BaseSession sessions[] = _store.loadByUsername(username);
+        if (_maxSessionsPerUser == -1)
+            return doInitiateSession(username, subject);
 
-        // Check if we can open a new session for this user.
-        if (!_invalidateExceedingSessions &&
-                _maxSessionsPerUser != -1 &&
-                _maxSessionsPerUser <= sessions.length) {
-            throw new TooManyOpenSessionsException(sessions.length);
-        }
+        // Counting, invalidating and creating sessions for the same user must not interleave
+        synchronized (getUserLock(username)) {
 
-        // Check if sessions should be auto-invalidated.
-        if (_invalidateExceedingSessions && _maxSessionsPerUser != -1) {
+            int sessions = countByUsername(username);
 
-            // Number of sessions to invalidate
-            int invalidate = sessions.length - _maxSessionsPerUser + 1;
-            if (logger.isDebugEnabled())
-                logger.debug("Auto-invalidating " + invalidate + " sessions for user : " + username);
+            // Check if we can open a new session for this user.
+            if (!_invalidateExceedingSessions && _maxSessionsPerUser <= sessions) {
+                throw new TooManyOpenSessionsException(sessions);
+            }
 
-            for (int idx = 0; invalidate > 0; invalidate--) {
-                BaseSession session = sessions[idx];
+            // Check if sessions should be auto-invalidated, oldest first.
+            int invalidate = sessions - _maxSessionsPerUser + 1;
+            if (_invalidateExceedingSessions && invalidate > 0) {
 
                 if (logger.isDebugEnabled())
-                    logger.debug("Auto-invalidating " + session.getId() + " session for user : " + username);
+                    logger.debug("Auto-invalidating " + invalidate + " sessions for user : " + username);
+
+                BaseSession[] oldest = _store.loadOldestByUsername(username, invalidate);
+                for (int idx = 0; idx < oldest.length; idx++) {
+                    BaseSession session = oldest[idx];
 
-                invalidate(session.getId());
+                    if (logger.isDebugEnabled())
+                        logger.debug("Auto-invalidating " + session.getId() + " session for user : " + username);
+
+                    try {
+                        invalidate(session.getId());
+                    } catch (NoSuchSessionException e) {
+                        // Already gone
+                        if (logger.isDebugEnabled())
+                            logger.debug("Session already invalidated " + session.getId());
+                    }
+                }
             }
+
+            return doInitiateSession(username, subject);
         }
+    }
+
+    /**
+     * Creates, stores and registers a new session.
+     */
+    protected String doInitiateSession(String username, Subject subject) throws SSOSessionException {
 
         // Build the new session.
         BaseSession session = doMakeNewSession();
@@ -178,9 +229,10 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
         session.setMaxInactiveInterval(getMaxInactiveInterval() * 60); // Convert minutes in seconds.
         session.setUsername(username);
         session.setSubject(subject);
+        bind(session);
 
         // Store the session
-        _store.save(session);
+        save(session);
 
         try {
             SecurityDomainRegistry registry = Lookup.getInstance().lookupSecurityDomainRegistry();
@@ -203,11 +255,11 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
      * @throws NoSuchSessionException if the session id is not related to any sso session.
      */
     public SSOSession getSession(String sessionId) throws NoSuchSessionException, SSOSessionException {
-        BaseSession s = _store.load(sessionId);
+        BaseSession s = load(sessionId);
         if (s == null) {
             throw new NoSuchSessionException(sessionId);
         }
-        return s;
+        return bind(s);
 
     }
 
@@ -226,7 +278,7 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
      *          if the session id is not related to any sso session.
      */
     public Collection getUserSessions(String username) throws NoSuchSessionException, SSOSessionException {
-        BaseSession s[] = _store.loadByUsername(username);
+        BaseSession s[] = loadByUsername(username);
         if (s.length < 1) {
             throw new NoSuchSessionException(username);
         }
@@ -234,7 +286,7 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
         // Build the result
         List result = new ArrayList(s.length);
         for (int i = 0; i < s.length; i++) {
-            result.add(s[i]);
+            result.add(bind(s[i]));
         }
 
         return result;
@@ -250,14 +302,36 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
      */
     public void accessSession(String sessionId) throws NoSuchSessionException, SSOSessionException {
 
+        if (logger.isDebugEnabled())
+            logger.debug("[accessSession()] trying session : " + sessionId);
 
-        try {
+        // getSession will throw a NoSuchSessionException if not found.
+        doAccessSession((BaseSession) getSession(sessionId));
+    }
 
-            if (logger.isDebugEnabled())
-                logger.debug("[accessSession()] trying session : " + sessionId);
+    /**
+     * This method accesss the given session, already loaded by the caller.
+     * This resets the session last access time and updates the access count.
+     *
+     * @param session the session previously returned by getSession.
+     * @throws NoSuchSessionException if the session is not valid.
+     */
+    public void accessSession(SSOSession session) throws NoSuchSessionException, SSOSessionException {
+
+        if (!(session instanceof BaseSession)) {
+            accessSession(session.getId());
+            return;
+        }
+
+        doAccessSession(bind((BaseSession) session));
+    }
+
+    protected void doAccessSession(BaseSession s) throws NoSuchSessionException, SSOSessionException {
+
+        String sessionId = s.getId();
+
+        try {
 
-            // getSession will throw a NoSuchSessionException if not found.
-            BaseSession s = (BaseSession) getSession(sessionId);
             if (!s.isValid()) {
                 if (logger.isDebugEnabled())
                     logger.debug("[accessSession()] invalid session : " + sessionId);
@@ -265,7 +339,7 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
             }
 
             s.access();
-            _store.save(s); // Update session information ...
+            save(s); // Update session information ...
             try {
                 SecurityDomainRegistry registry = Lookup.getInstance().lookupSecurityDomainRegistry();
                 registry.registerToken(_securityDomainName, TOKEN_TYPE, s.getId());
@@ -289,12 +363,55 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
      */
     public void invalidateAll() throws SSOSessionException {
         BaseSession[] sessions = _store.loadAll();
-        for (int i = 0; i < sessions.length; i++) {
-            BaseSession session = sessions[i];
+        removeSessions(sessions);
+
+        logger.info("[invalidateAll()] Invalidated " + sessions.length + " sessions");
+    }
 
-            // Mark session as expired (this will notify session listeners, if any)
-            session.expire();
+    /**
+     * Invalidates all sessions associated to the given user.  Sessions are removed from the store
+     * in a single batch and one session destroyed notification is sent for all of them.
+     *
+     * @param username the username used when initiating the sessions.
+     * @return the number of invalidated sessions.
+     */
+    public int invalidateUserSessions(String username) throws SSOSessionException {
+        BaseSession[] sessions = _store.removeByUsername(username);
+        expireRemovedSessions(sessions);
+
+        if (logger.isDebugEnabled())
+            logger.debug("[invalidateUserSessions()] Invalidated " + sessions.length + " sessions for user : " + username);
+
+        return sessions.length;
+    }
+
+    /**
+     * Invalidates all sessions accepted by the given filter.  Sessions are removed from the store
+     * in a single batch and one session destroyed notification is sent for all of them.
+     * <p/>
+     * Idle session filters are answered by the store, other filters are checked against all sessions.
+     *
+     * @return the number of invalidated sessions.
+     */
+    public int invalidateSessions(SessionFilter filter) throws SSOSessionException {
+        BaseSession[] sessions;
+        if (filter instanceof IdleSessionFilter)
+            sessions = _store.loadByLastAccessTime(new Date(((IdleSessionFilter) filter).getLastAccessTime()));
+        else
+            sessions = _store.loadAll();
+
+        List<BaseSession> selected = new ArrayList<BaseSession>();
+        for (int i = 0; i < sessions.length; i++) {
+            if (filter.accept(bind(sessions[i])))
+                selected.add(sessions[i]);
         }
+
+        removeSessions(selected.toArray(new BaseSession[selected.size()]));
+
+        if (logger.isDebugEnabled())
+            logger.debug("[invalidateSessions()] Invalidated " + selected.size() + " sessions");
+
+        return selected.size();
     }
 
     /**
@@ -310,7 +427,7 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
 
         // Remove it from the store
         try {
-            _store.remove(sessionId);
+            remove(sessionId);
             SecurityDomainRegistry registry = Lookup.getInstance().lookupSecurityDomainRegistry();
             registry.unregisterToken(_securityDomainName, TOKEN_TYPE, sessionId);
 
@@ -331,44 +448,68 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
      */
     public void checkValidSessions() {
 
+        // Session destroyed events found during this sweep are sent together at the end.
+        List<BaseSession> destroyed = new ArrayList<BaseSession>();
         try {
 
-            //---------------------------------------------
-            // Verify invalid sessions ...
-            //---------------------------------------------
-            BaseSession sessions[] = _store.loadByValid(false);
-            if (logger.isDebugEnabled())
-                logger.debug("[checkValidSessions()] found " + sessions.length + " invalid sessions");
-
-            checkValidSessions(sessions);
-
             //---------------------------------------------
             // Verify old sessions ...
             //---------------------------------------------
 
+            // Old sessions go first : stores keeping live session objects expire timed out sessions, one event at
+            // a time, when loadByValid asks them whether they are valid.
+
             // Convert Max Inactive Interval to MS
             long period = _maxInactiveInterval * 60L * 1000L;
             Date from = new Date(System.currentTimeMillis() - period);
-            sessions = _store.loadByLastAccessTime(from);
+            BaseSession sessions[] = _store.loadByLastAccessTime(from);
             if (logger.isDebugEnabled())
                 logger.debug("[checkValidSessions()] found " + sessions.length + " sessions last accessed before " + from);
 
-            checkValidSessions(sessions);
+            checkValidSessions(sessions, destroyed);
+
+            //---------------------------------------------
+            // Verify invalid sessions ...
+            //---------------------------------------------
+            sessions = _store.loadByValid(false);
+            if (logger.isDebugEnabled())
+                logger.debug("[checkValidSessions()] found " + sessions.length + " invalid sessions");
+
+            checkValidSessions(sessions, destroyed);
 
         } catch (Exception e) {
             logger.error("Can't process expired sessions : " + e.getMessage(), e);
+        } finally {
+            fireSessionsDestroyed(destroyed);
         }
 
     }
 
     protected void checkValidSessions(BaseSession[] sessions) {
+
+        // Session destroyed events found during this sweep are sent together at the end.
+        List<BaseSession> destroyed = new ArrayList<BaseSession>();
+        try {
+            checkValidSessions(sessions, destroyed);
+        } finally {
+            fireSessionsDestroyed(destroyed);
+        }
+    }
+
+    private void checkValidSessions(BaseSession[] sessions, List<BaseSession> destroyed) {
+        long now = System.currentTimeMillis();
         for (int i = 0; i < sessions.length; i++) {
             try {
 
                 // Ignore valid sessions, they have not expired yet.
                 BaseSession session = (BaseSession) sessions[i];
 
-                if (!session.isValid()) {
+                // Timed out sessions are expired here, without notifying listeners one by one.
+                boolean timedOut = isTimedOut(session, now);
+                if (timedOut && session.expireQuietly())
+                    destroyed.add(session);
+
+                if (timedOut || !session.isValid()) {
                     // Remove invalid session from the store.
                     _store.remove(session.getId());
 
@@ -432,6 +573,16 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
         return _maxSessionsPerUser;
     }
 
+    /**
+     * Maximum number of open sessions per user, -1 for no limit.
+     * <p/>
+     * The limit is only enforced within one gateway: concurrent logins are serialized in this manager, not in the
+     * store. Gateways sharing a session store (DB or replicated) count each other's sessions, but two logins of
+     * the same user handled by different gateways at the same time may both pass the check, so the user can end
+     * up with one extra session per gateway until the next login evicts it.
+     *
+     * @param maxSessionsPerUser the limit, -1 to disable it
+     */
     public void setMaxSessionsPerUser(int maxSessionsPerUser) {
         _maxSessionsPerUser = maxSessionsPerUser;
     }
@@ -444,6 +595,39 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
         _invalidateExceedingSessions = invalidateExceedingSessions;
     }
 
+    public String getRemoteInvalidationSecret() {
+        return _remoteInvalidationSecret;
+    }
+
+    /**
+     * Shared secret that SOAP clients must present to invalidate the sessions of a user, remote invalidation is
+     * disabled when not set.
+     */
+    public void setRemoteInvalidationSecret(String remoteInvalidationSecret) {
+        _remoteInvalidationSecret = remoteInvalidationSecret;
+    }
+
+    public boolean isRemoteInvalidationAuthorized(String requester, String secret) {
+        String expected = _remoteInvalidationSecret;
+        if (expected == null || expected.length() == 0) {
+            logger.warn("Remote session invalidation is disabled, request from " + requester + " rejected");
+            return false;
+        }
+
+        boolean authorized;
+        try {
+            // Constant time comparison
+            authorized = secret != null && MessageDigest.isEqual(expected.getBytes("UTF-8"), secret.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            authorized = false;
+        }
+
+        if (!authorized)
+            logger.warn("Invalid remote session invalidation secret, request from " + requester + " rejected");
+
+        return authorized;
+    }
+
     public long getSessionMonitorInterval() {
         return _sessionMonitorInterval;
     }
@@ -460,6 +644,84 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
     // Protected utils.
     // ---------------------------------------------------------------
 
+    /**
+     * Statistics of the security domain this manager belongs to.
+     */
+    protected SecurityDomainStats getStats() {
+        SecurityDomainStats stats = _stats;
+        if (stats == null) {
+            stats = SecurityDomainStats.getDomainStats(_securityDomainName);
+            _stats = stats;
+        }
+        return stats;
+    }
+
+    // Timed store calls, used on the login and keep-alive paths.
+
+    private BaseSession load(String sessionId) throws SSOSessionException {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            BaseSession s = _store.load(sessionId);
+            error = false;
+            return s;
+        } finally {
+            getStats().record(STORE_LOAD, start, error);
+        }
+    }
+
+    private BaseSession[] loadByUsername(String username) throws SSOSessionException {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            BaseSession[] s = _store.loadByUsername(username);
+            error = false;
+            return s;
+        } finally {
+            getStats().record(STORE_LOAD_BY_USERNAME, start, error);
+        }
+    }
+
+    private int countByUsername(String username) throws SSOSessionException {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            int count = _store.countByUsername(username);
+            error = false;
+            return count;
+        } finally {
+            getStats().record(STORE_COUNT_BY_USERNAME, start, error);
+        }
+    }
+
+    private void save(BaseSession session) throws SSOSessionException {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            _store.save(session);
+            error = false;
+        } finally {
+            getStats().record(STORE_SAVE, start, error);
+        }
+    }
+
+    private void remove(String sessionId) throws SSOSessionException {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            _store.remove(sessionId);
+            error = false;
+        } finally {
+            getStats().record(STORE_REMOVE, start, error);
+        }
+    }
+
+    protected Object getUserLock(String username) {
+        int h = username != null ? username.hashCode() : 0;
+        h ^= (h >>> 16);
+        return _userLocks[h & (_userLocks.length - 1)];
+    }
+
     /**
      * Get new session class to be used in the doLoad() method.
      */
@@ -467,6 +729,96 @@ public class SSOSessionManagerImpl implements SSOSessionManager {
         return new BaseSessionImpl();
     }
 
+    /**
+     * Binds the session to the security domain event manager, so that events can be sent without
+     * resolving the security domain for the session again.
+     */
+    protected BaseSession bind(BaseSession session) {
+        if (_eventManager != null)
+            session.setSecurityEventManager(_eventManager);
+        return session;
+    }
+
+    /**
+     * Removes the given sessions from the store in a single batch and expires them.
+     */
+    private void removeSessions(BaseSession[] sessions) throws SSOSessionException {
+        if (sessions.length == 0)
+            return;
+
+        _store.remove(getIds(sessions));
+        expireRemovedSessions(sessions);
+    }
+
+    /**
+     * Unregisters the tokens of sessions already removed from the store and expires them.
+     * Session destroyed events are sent together once all sessions are expired.
+     */
+    private void expireRemovedSessions(BaseSession[] sessions) {
+        if (sessions.length == 0)
+            return;
+
+        try {
+            SecurityDomainRegistry registry = Lookup.getInstance().lookupSecurityDomainRegistry();
+            registry.unregisterTokens(_securityDomainName, TOKEN_TYPE, getIds(sessions));
+        } catch (Exception e) {
+            logger.error("Can't unregister session tokens : " + e.getMessage(), e);
+        }
+
+        // Mark sessions as expired, session listeners are notified once for all of them
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i].expireQuietly();
+        }
+        fireSessionsDestroyed(Arrays.asList(sessions));
+    }
+
+    /**
+     * Tells whether the session has been inactive for longer than its max inactive interval, like
+     * BaseSessionImpl.isValid() does, but without expiring it.
+     */
+    private boolean isTimedOut(BaseSession session, long now) {
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        return maxInactiveInterval >= 0 && (int) ((now - session.getLastAccessTime()) / 1000L) >= maxInactiveInterval;
+    }
+
+    /**
+     * Sends the session destroyed events of the given sessions in a single call to the security domain
+     * event manager.  Without one, each session resolves its own.
+     */
+    private void fireSessionsDestroyed(List<BaseSession> sessions) {
+        if (sessions.size() == 0)
+            return;
+
+        if (_eventManager == null) {
+            for (BaseSession session : sessions) {
+                session.fireSessionEvent(BaseSession.SESSION_DESTROYED_EVENT, null);
+            }
+            return;
+        }
+
+        String[] usernames = new String[sessions.size()];
+        String[] sessionIds = new String[sessions.size()];
+        for (int i = 0; i < sessionIds.length; i++) {
+            BaseSession session = sessions.get(i);
+            usernames[i] = session.getUsername();
+            sessionIds[i] = session.getId();
+        }
+
+        try {
+            _eventManager.fireSessionEvents(usernames, sessionIds, BaseSession.SESSION_DESTROYED_EVENT, null);
+        } catch (Exception e) {
+            logger.error("Can't send session events : " + e.getMessage(), e);
+        }
+    }
+
+    private String[] getIds(BaseSession[] sessions) {
+        String[] ids = new String[sessions.length];
+        for (int i = 0; i < sessions.length; i++) {
+            ids[i] = sessions[i].getId();
+        }
+        return ids;
+    }
+
     // ---------------------------------------------------------------
     // To expire threads periodically,
     // ---------------------------------------------------------------
@@ -0,0 +1,225 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.test;
+
+import org.josso.ComponentKeeper;
+import org.josso.ComponentKeeperFactory;
+import org.josso.Lookup;
+import org.josso.SecurityDomain;
+import org.josso.gateway.SSOGateway;
+import org.josso.gateway.SSOGatewayImpl;
+import org.josso.gateway.SecurityDomainRegistry;
+import org.josso.gateway.event.SSOEvent;
+import org.josso.gateway.event.security.SSOSecurityEventManagerImpl;
+import org.josso.gateway.event.security.SSOSessionsEvent;
+import org.josso.gateway.session.SSOSession;
+import org.josso.gateway.session.exceptions.SSOSessionException;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.BaseSessionImpl;
+import org.josso.gateway.session.service.IdleSessionFilter;
+import org.josso.gateway.session.service.SSOSessionManagerImpl;
+import org.josso.gateway.session.service.SessionFilter;
+import org.josso.gateway.session.service.store.MemorySessionStore;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @version $Id$
+ */
+public class SSOSessionManagerImplTest {
+
+    private static final String DOMAIN = "test-domain";
+
+    private static final RecordingRegistry registry = new RecordingRegistry();
+
+    private static SSOGatewayImpl gateway;
+
+    private SSOSessionManagerImpl manager;
+
+    private CountingSessionStore store;
+
+    private RecordingEventManager eventManager;
+
+    @BeforeClass
+    public static void setUpGateway() throws Exception {
+        gateway = new SSOGatewayImpl();
+        gateway.setSecurityDomainRegistry(registry);
+        ComponentKeeperFactory.setFactory(TestComponentKeeperFactory.class.getName());
+        Lookup.getInstance().lookupSSOGateway();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        registry.tokens.clear();
+
+        store = new CountingSessionStore();
+        eventManager = new RecordingEventManager();
+
+        manager = new SSOSessionManagerImpl();
+        manager.setSessionStore(store);
+        manager.setSecurityDomainName(DOMAIN);
+        manager.setSecurityEventManager(eventManager);
+    }
+
+    @Test
+    public void testSweepSendsOneEvent() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            addSession("expired" + i, "user" + i, now - 60 * 60 * 1000L);
+        }
+        addSession("active1", "user1", now);
+        addSession("active2", "user2", now);
+        // Already expired, removed without a new event
+        addSession("invalid", "user3", now).setValid(false);
+
+        manager.checkValidSessions();
+
+        // Timed out sessions are removed, unregistered and notified together
+        assert eventManager.events.size() == 1 : "Invalid events " + eventManager.events;
+        SSOSessionsEvent event = (SSOSessionsEvent) eventManager.events.get(0);
+        assert event.getType().equals(BaseSession.SESSION_DESTROYED_EVENT) : "Invalid event " + event.getType();
+        assert new HashSet<String>(Arrays.asList(event.getSessionIds())).equals(
+                new HashSet<String>(Arrays.asList("expired0", "expired1", "expired2", "expired3", "expired4"))) :
+                "Invalid sessions " + Arrays.asList(event.getSessionIds());
+        for (int i = 0; i < event.size(); i++) {
+            assert event.getUsernames()[i].equals("user" + event.getSessionIds()[i].substring(7)) :
+                    "Usernames not matched by position";
+        }
+
+        assert store.getSize() == 2 : "Invalid store size " + store.getSize();
+        assert registry.tokens.equals(new HashSet<String>(Arrays.asList("active1", "active2"))) :
+                "Invalid tokens " + registry.tokens;
+
+        // Nothing left to expire, nothing sent
+        manager.checkValidSessions();
+        assert eventManager.events.size() == 1 : "Empty sweep sent events";
+    }
+
+    @Test
+    public void testInvalidateSessions() throws Exception {
+        long now = System.currentTimeMillis();
+        addSession("idle1", "user1", now - 20 * 60 * 1000L);
+        addSession("idle2", "user2", now - 20 * 60 * 1000L);
+        addSession("active1", "user1", now);
+        addSession("active2", "user3", now);
+
+        // Idle sessions are loaded by the store query
+        int invalidated = manager.invalidateSessions(new IdleSessionFilter(now - 10 * 60 * 1000L));
+        assert invalidated == 2 : "Invalid count " + invalidated;
+        assert store.loadAllCount == 0 : "All sessions loaded";
+        assert registry.tokens.equals(new HashSet<String>(Arrays.asList("active1", "active2"))) :
+                "Invalid tokens " + registry.tokens;
+
+        SSOSessionsEvent event = (SSOSessionsEvent) eventManager.events.get(0);
+        assert eventManager.events.size() == 1 && event.size() == 2 : "Invalid events " + eventManager.events;
+
+        // Other filters are checked against every session
+        invalidated = manager.invalidateSessions(new SessionFilter() {
+            public boolean accept(SSOSession session) {
+                return session.getUsername().equals("user3");
+            }
+        });
+        assert invalidated == 1 : "Invalid count " + invalidated;
+        assert store.loadAllCount == 1 : "Sessions not loaded";
+        assert store.getSize() == 1 && store.load("active1") != null : "Invalid sessions left";
+    }
+
+    private BaseSessionImpl addSession(String id, String username, long creationTime) throws Exception {
+        BaseSessionImpl session = new BaseSessionImpl();
+        session.setId(id);
+        session.setUsername(username);
+        session.setCreationTime(creationTime);
+        session.setMaxInactiveInterval(manager.getMaxInactiveInterval() * 60);
+        session.setValid(true);
+        store.save(session);
+        registry.registerToken(DOMAIN, SSOSessionManagerImpl.TOKEN_TYPE, id);
+        return session;
+    }
+
+    public static class TestComponentKeeperFactory extends ComponentKeeperFactory {
+
+        public ComponentKeeper newComponentKeeper() {
+            return new ComponentKeeper() {
+                public SSOGateway fetchSSOGateway() throws Exception {
+                    return gateway;
+                }
+            };
+        }
+    }
+
+    /**
+     * Keeps the session tokens registered for the test domain.
+     */
+    private static class RecordingRegistry implements SecurityDomainRegistry {
+
+        final Set<String> tokens = Collections.synchronizedSet(new HashSet<String>());
+
+        public SecurityDomain lookup(String tokenType, String token) {
+            return null;
+        }
+
+        public void register(SecurityDomain sd) {
+        }
+
+        public void unregister(String securityDomainName) {
+        }
+
+        public void registerToken(String securityDomainName, String tokenType, String token) {
+            tokens.add(token);
+        }
+
+        public void unregisterToken(String securityDomainName, String tokenType, String token) {
+            tokens.remove(token);
+        }
+
+        public void unregisterTokens(String securityDomainName, String tokenType, String[] tokens) {
+            this.tokens.removeAll(Arrays.asList(tokens));
+        }
+    }
+
+    private static class CountingSessionStore extends MemorySessionStore {
+
+        int loadAllCount;
+
+        public BaseSession[] loadAll() throws SSOSessionException {
+            loadAllCount++;
+            return super.loadAll();
+        }
+    }
+
+    private static class RecordingEventManager extends SSOSecurityEventManagerImpl {
+
+        final List<SSOEvent> events = Collections.synchronizedList(new ArrayList<SSOEvent>());
+
+        public void fireSSOEvent(SSOEvent event) {
+            events.add(event);
+        }
+    }
+}
@@ -32,6 +32,9 @@ import java.util.*;
 /**
  * This is a memory based store that uses a Map
  * This implementation is thread safe.
+ * <p/>
+ * User sessions are also indexed by username in creation order, so that they can be
+ * counted and the oldest ones found without scanning the store.
  *
  * @author <a href="mailto:sgonzalez@josso.org">Sebastian Gonzalez Oyuela</a>
  * @version $Id: MemorySessionStore.java 543 2008-03-18 21:34:58Z sgonzalez $
@@ -44,6 +47,8 @@ public class MemorySessionStore extends AbstractSessionStore {
     private static final Log logger = LogFactory.getLog(MemorySessionStore.class);
 
     private Map _sessions;
+
+    // Username -> (session id -> session), in creation order.
     private Map _sessionsByUsername;
 
     public MemorySessionStore() {
@@ -109,10 +114,10 @@ public class MemorySessionStore extends AbstractSessionStore {
         BaseSession result[];
 
         synchronized (_sessions) {
-            Set sessions = (Set) _sessionsByUsername.get(name);
-            if (sessions == null)
-                sessions = new HashSet();
-            result = (BaseSession[]) sessions.toArray(new BaseSession[sessions.size()]);
+            Map sessions = (Map) _sessionsByUsername.get(name);
+            result = sessions != null ?
+                    (BaseSession[]) sessions.values().toArray(new BaseSession[sessions.size()]) :
+                    new BaseSession[0];
         }
 
         if (logger.isDebugEnabled())
@@ -122,6 +127,40 @@ public class MemorySessionStore extends AbstractSessionStore {
 
     }
 
+    /**
+     * Return the number of BaseSessions associated with the specified username.
+     *
+     * @param name username of the sessions to count
+     */
+    public int countByUsername(String name) throws SSOSessionException {
+        synchronized (_sessions) {
+            Map sessions = (Map) _sessionsByUsername.get(name);
+            return sessions != null ? sessions.size() : 0;
+        }
+    }
+
+    /**
+     * Load and return the oldest BaseSessions associated with the specified username,
+     * taken from the head of the user index.
+     *
+     * @param name  username of the sessions to load
+     * @param count max number of sessions to load
+     */
+    public BaseSession[] loadOldestByUsername(String name, int count) throws SSOSessionException {
+        synchronized (_sessions) {
+            Map sessions = (Map) _sessionsByUsername.get(name);
+            if (sessions == null || count <= 0)
+                return new BaseSession[0];
+
+            BaseSession[] result = new BaseSession[Math.min(count, sessions.size())];
+            Iterator it = sessions.values().iterator();
+            for (int i = 0; i < result.length; i++) {
+                result[i] = (BaseSession) it.next();
+            }
+            return result;
+        }
+    }
+
     /**
      * Load and return the BaseSessions whose last access time is less than the received time
      */
@@ -168,10 +207,8 @@ public class MemorySessionStore extends AbstractSessionStore {
         BaseSession session = null;
         synchronized (_sessions) {
             session = (BaseSession) _sessions.remove(id);
-            if (session != null && session.getUsername() != null) {
-                Set userSessions = (Set) _sessionsByUsername.get(session.getUsername());
-                userSessions.remove(session);
-            }
+            if (session != null)
+                unindex(session);
 
         }
 
@@ -179,6 +216,54 @@ public class MemorySessionStore extends AbstractSessionStore {
             logger.debug("[remove(" + id + ")] Session " + (session == null ? " not" : "") + " found");
     }
 
+    /**
+     * Remove the BaseSessions with the specified session identifiers from
+     * this Store, the store is locked only once for all sessions.
+     *
+     * @param ids BaseSession identifiers of the BaseSessions to be removed
+     */
+    public void remove(String[] ids) throws SSOSessionException {
+        int removed = 0;
+        synchronized (_sessions) {
+            for (int i = 0; i < ids.length; i++) {
+                BaseSession session = (BaseSession) _sessions.remove(ids[i]);
+                if (session == null)
+                    continue;
+
+                removed++;
+                unindex(session);
+            }
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("[remove(String[" + ids.length + "])] Sessions removed = " + removed);
+    }
+
+    /**
+     * Remove all BaseSessions associated with the specified username from
+     * this Store, and return them.
+     *
+     * @param name username of the sessions to remove
+     */
+    public BaseSession[] removeByUsername(String name) throws SSOSessionException {
+        BaseSession result[];
+
+        synchronized (_sessions) {
+            Map sessions = (Map) _sessionsByUsername.remove(name);
+            result = sessions != null ?
+                    (BaseSession[]) sessions.values().toArray(new BaseSession[sessions.size()]) :
+                    new BaseSession[0];
+            for (int i = 0; i < result.length; i++) {
+                _sessions.remove(result[i].getId());
+            }
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("[removeByUsername(" + name + ")] Sessions removed = " + result.length);
+
+        return result;
+    }
+
     /**
      * Remove all Sessions from this Store.
      */
@@ -202,39 +287,37 @@ public class MemorySessionStore extends AbstractSessionStore {
             // Replace old session.
             oldSession = (BaseSession) _sessions.put(session.getId(), session);
 
-            // Check if this is an update or an insert :
+            // Check if this is an update or an insert, an update for the same user keeps the session position
+            // in the user index.
             if (oldSession != null) {
 
                 // Updating old session :
                 String oldUsername = oldSession.getUsername();
 
-                if (oldUsername != null) {
+                if (oldUsername != null && !oldUsername.equals(session.getUsername())) {
                     // Remove old association
-                    Set userSessions = (Set) _sessionsByUsername.get(oldUsername);
-                    if (userSessions != null) {
-                        userSessions.remove(oldSession);
-                        if (logger.isDebugEnabled())
-                            logger.debug("Removing old session from reverse map : " + oldSession.getId() + ". user=" + oldUsername);
-                    }
+                    unindex(oldSession);
+                    if (logger.isDebugEnabled())
+                        logger.debug("Removing old session from reverse map : " + oldSession.getId() + ". user=" + oldUsername);
                 }
             }
 
             // Add new session to reverse map.
             if (session.getUsername() != null) {
-                Set sessions = (Set) _sessionsByUsername.get(session.getUsername());
+                Map sessions = (Map) _sessionsByUsername.get(session.getUsername());
                 if (sessions == null) {
 
                     if (logger.isDebugEnabled())
-                        logger.debug("Building new set for user " + session.getUsername());
+                        logger.debug("Building new index for user " + session.getUsername());
 
-                    sessions = new HashSet();
+                    sessions = new LinkedHashMap();
                     _sessionsByUsername.put(session.getUsername(), sessions);
                 }
 
                 if (logger.isDebugEnabled())
                     logger.debug("Adding session to reverse map : " + session.getId() + ". user=" + session.getUsername());
 
-                sessions.add(session);
+                sessions.put(session.getId(), session);
 
             }
         }
@@ -244,4 +327,19 @@ public class MemorySessionStore extends AbstractSessionStore {
 
     }
 
+    /**
+     * Removes the session from the user index, the caller must hold the store lock.
+     */
+    private void unindex(BaseSession session) {
+        if (session.getUsername() == null)
+            return;
+
+        Map userSessions = (Map) _sessionsByUsername.get(session.getUsername());
+        if (userSessions != null) {
+            userSessions.remove(session.getId());
+            if (userSessions.isEmpty())
+                _sessionsByUsername.remove(session.getUsername());
+        }
+    }
+
 }
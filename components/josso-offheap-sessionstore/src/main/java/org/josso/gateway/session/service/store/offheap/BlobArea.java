@@ -0,0 +1,181 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.offheap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length byte arrays in direct buffer segments, used for session subjects.
+ * <p/>
+ * Blobs are stored in chunks of power of two sizes, from 64 bytes to 1MB, each size having its own segments and
+ * free list. A chunk starts with the blob length, free chunks hold the next free chunk instead. Blobs are
+ * addressed by a handle made of the size class and the chunk index. Not thread safe.
+ *
+ * @version $Id$
+ */
+final class BlobArea {
+
+    static final int NONE = -1;
+
+    private static final int MIN_SHIFT = 6;
+
+    private static final int MAX_SHIFT = 20;
+
+    private static final int INDEX_BITS = 24;
+
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+
+    private static final int SEGMENT_SHIFT = 20;
+
+    private static final int LENGTH = 4;
+
+    private final SizeClass[] classes = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+
+    BlobArea() {
+        for (int i = 0; i < classes.length; i++)
+            classes[i] = new SizeClass(MIN_SHIFT + i);
+    }
+
+    /**
+     * Largest blob that can be stored.
+     */
+    static int getMaxLength() {
+        return (1 << MAX_SHIFT) - LENGTH;
+    }
+
+    int put(byte[] b) {
+        if (b.length > getMaxLength())
+            throw new IllegalArgumentException("Blob larger than " + getMaxLength() + " bytes");
+
+        int c = 0;
+        while ((1 << (MIN_SHIFT + c)) < b.length + LENGTH)
+            c++;
+
+        SizeClass sizeClass = classes[c];
+        int index = sizeClass.allocate();
+        ByteBuffer segment = sizeClass.segment(index);
+        int offset = sizeClass.offset(index);
+
+        segment.putInt(offset, b.length);
+
+        // Bulk copy through a view, the segment position is shared
+        ByteBuffer chunk = segment.duplicate();
+        chunk.position(offset + LENGTH);
+        chunk.put(b);
+
+        return (c << INDEX_BITS) | index;
+    }
+
+    byte[] get(int handle) {
+        SizeClass sizeClass = classes[handle >>> INDEX_BITS];
+        int index = handle & INDEX_MASK;
+        ByteBuffer segment = sizeClass.segment(index);
+        int offset = sizeClass.offset(index);
+
+        byte[] b = new byte[segment.getInt(offset)];
+        ByteBuffer chunk = segment.duplicate();
+        chunk.position(offset + LENGTH);
+        chunk.get(b);
+        return b;
+    }
+
+    void free(int handle) {
+        classes[handle >>> INDEX_BITS].free(handle & INDEX_MASK);
+    }
+
+    /**
+     * Frees all blobs, keeping the segments.
+     */
+    void clear() {
+        for (int i = 0; i < classes.length; i++)
+            classes[i].clear();
+    }
+
+    /**
+     * Off-heap bytes used by the blobs.
+     */
+    long getCapacityBytes() {
+        long bytes = 0;
+        for (int i = 0; i < classes.length; i++)
+            bytes += (long) classes[i].segments.length << SEGMENT_SHIFT;
+        return bytes;
+    }
+
+    /**
+     * Chunks of one size.
+     */
+    private static final class SizeClass {
+
+        private final int chunkShift;
+
+        private final int chunksShift;
+
+        private ByteBuffer[] segments = new ByteBuffer[0];
+
+        private int highWater;
+
+        private int freeHead = NONE;
+
+        SizeClass(int chunkShift) {
+            this.chunkShift = chunkShift;
+            this.chunksShift = SEGMENT_SHIFT - chunkShift;
+        }
+
+        int allocate() {
+            if (freeHead != NONE) {
+                int index = freeHead;
+                freeHead = segment(index).getInt(offset(index));
+                return index;
+            }
+
+            if (highWater > INDEX_MASK)
+                throw new IllegalStateException("Too many blobs of " + (1 << chunkShift) + " bytes");
+
+            if ((highWater >> chunksShift) == segments.length) {
+                ByteBuffer[] grown = new ByteBuffer[segments.length + 1];
+                System.arraycopy(segments, 0, grown, 0, segments.length);
+                grown[segments.length] = ByteBuffer.allocateDirect(1 << SEGMENT_SHIFT);
+                segments = grown;
+            }
+            return highWater++;
+        }
+
+        void free(int index) {
+            segment(index).putInt(offset(index), freeHead);
+            freeHead = index;
+        }
+
+        void clear() {
+            highWater = 0;
+            freeHead = NONE;
+        }
+
+        ByteBuffer segment(int index) {
+            return segments[index >>> chunksShift];
+        }
+
+        int offset(int index) {
+            return (index & ((1 << chunksShift) - 1)) << chunkShift;
+        }
+    }
+
+}
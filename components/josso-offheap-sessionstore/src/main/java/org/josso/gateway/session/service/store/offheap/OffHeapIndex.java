@@ -0,0 +1,205 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.offheap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Open addressing hash table in a direct buffer, with linear probing and backward shift deletion.
+ * <p/>
+ * Entries reference session records by slot, keys are not kept in the table but compared against
+ * the referenced record. Each entry is a number of ints : the slot plus one (zero is empty), the
+ * key hash, and any payload. The table doubles when half full. Not thread safe.
+ *
+ * @version $Id$
+ */
+abstract class OffHeapIndex {
+
+    static final int NOT_FOUND = -1;
+
+    private static final int SLOT = 0;
+
+    private static final int HASH = 1;
+
+    private final int entrySize;
+
+    private ByteBuffer table;
+
+    private int mask;
+
+    private int size;
+
+    /**
+     * @param expected    expected number of entries
+     * @param payloadInts number of payload ints for each entry
+     */
+    OffHeapIndex(int expected, int payloadInts) {
+        this.entrySize = (2 + payloadInts) * 4;
+
+        int capacity = 16;
+        while (capacity < expected * 2)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Tells if the record in the given slot has the given key.
+     */
+    protected abstract boolean matches(int slot, byte[] key);
+
+    static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the position of the entry for the key, or {@link #NOT_FOUND}.
+     */
+    int find(byte[] key, int hash) {
+        int pos = hash & mask;
+        while (true) {
+            int slot = table.getInt(pos * entrySize);
+            if (slot == 0)
+                return NOT_FOUND;
+            if (table.getInt(pos * entrySize + 4) == hash && matches(slot - 1, key))
+                return pos;
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    /**
+     * Adds an entry for a key that is not in the table yet, and returns its position. Positions
+     * obtained before are no longer valid.
+     */
+    int insert(int hash, int slot) {
+        if ((size + 1) * 2 > mask + 1)
+            grow();
+
+        int pos = hash & mask;
+        while (table.getInt(pos * entrySize) != 0)
+            pos = (pos + 1) & mask;
+
+        int offset = pos * entrySize;
+        table.putInt(offset, slot + 1);
+        table.putInt(offset + 4, hash);
+        for (int i = 8; i < entrySize; i += 4)
+            table.putInt(offset + i, 0);
+
+        size++;
+        return pos;
+    }
+
+    /**
+     * Removes the entry in the given position, following entries are moved back so that lookups
+     * don't need tombstones. Positions obtained before are no longer valid.
+     */
+    void delete(int pos) {
+        int free = pos;
+        int next = pos;
+        while (true) {
+            next = (next + 1) & mask;
+            if (table.getInt(next * entrySize) == 0)
+                break;
+
+            // Entries whose home position is cyclically between the free position and their own stay
+            int home = table.getInt(next * entrySize + 4) & mask;
+            if (free <= next ? (free < home && home <= next) : (free < home || home <= next))
+                continue;
+
+            copy(next, free);
+            free = next;
+        }
+
+        for (int i = 0; i < entrySize; i += 4)
+            table.putInt(free * entrySize + i, 0);
+        size--;
+    }
+
+    int getSlot(int pos) {
+        return table.getInt(pos * entrySize + SLOT * 4) - 1;
+    }
+
+    void setSlot(int pos, int slot) {
+        table.putInt(pos * entrySize + SLOT * 4, slot + 1);
+    }
+
+    int getPayload(int pos, int i) {
+        return table.getInt(pos * entrySize + (2 + i) * 4);
+    }
+
+    void setPayload(int pos, int i, int value) {
+        table.putInt(pos * entrySize + (2 + i) * 4, value);
+    }
+
+    void clear() {
+        for (int i = 0; i < table.capacity(); i += 8)
+            table.putLong(i, 0L);
+        size = 0;
+    }
+
+    /**
+     * Off-heap bytes used by this table.
+     */
+    long getCapacityBytes() {
+        return table.capacity();
+    }
+
+    private void copy(int from, int to) {
+        for (int i = 0; i < entrySize; i += 4)
+            table.putInt(to * entrySize + i, table.getInt(from * entrySize + i));
+    }
+
+    private void grow() {
+        ByteBuffer old = table;
+        int oldCapacity = mask + 1;
+        allocate(oldCapacity * 2);
+
+        for (int pos = 0; pos < oldCapacity; pos++) {
+            int offset = pos * entrySize;
+            if (old.getInt(offset) == 0)
+                continue;
+
+            int newPos = old.getInt(offset + HASH * 4) & mask;
+            while (table.getInt(newPos * entrySize) != 0)
+                newPos = (newPos + 1) & mask;
+
+            for (int i = 0; i < entrySize; i += 4)
+                table.putInt(newPos * entrySize + i, old.getInt(offset + i));
+        }
+    }
+
+    private void allocate(int capacity) {
+        if ((long) capacity * entrySize > Integer.MAX_VALUE)
+            throw new IllegalStateException("Off-heap index too large : " + capacity + " entries");
+
+        table = ByteBuffer.allocateDirect(capacity * entrySize);
+        mask = capacity - 1;
+    }
+
+}
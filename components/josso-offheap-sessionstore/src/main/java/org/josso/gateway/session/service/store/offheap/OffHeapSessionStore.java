@@ -0,0 +1,618 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.offheap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.josso.gateway.session.exceptions.SSOSessionException;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.MutableBaseSession;
+import org.josso.gateway.session.service.store.AbstractSessionStore;
+import org.josso.gateway.session.service.store.SessionCodec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Memory based store that keeps sessions outside the Java heap, so that millions of sessions don't add
+ * to garbage collection pauses.
+ * <p/>
+ * Sessions are kept as fixed size records in direct buffers, indexed by id and by username with open
+ * addressing hash tables, also in direct buffers. The user index keeps user sessions in the order they
+ * were saved, so that they can be counted and the oldest ones found without scanning the store. Other
+ * queries scan the records sequentially.
+ * <p/>
+ * Sessions are copied in and out of the store, changes to a loaded session must be saved. Ids and usernames
+ * can't be longer than the configured lengths in UTF-8 bytes. Session subjects are serialized with
+ * {@link SessionCodec} into a separate off-heap area, every save and load of a session with a subject pays
+ * for the serialization.
+ * Direct memory is limited by the -XX:MaxDirectMemorySize JVM option.
+ *
+ * @version $Id$
+ *
+ * @org.apache.xbean.XBean element="offheap-store"
+ */
+public class OffHeapSessionStore extends AbstractSessionStore {
+
+    private static final Log logger = LogFactory.getLog(OffHeapSessionStore.class);
+
+    private int _maxIdLength = 64;
+
+    private int _maxUsernameLength = 128;
+
+    private int _initialCapacity = 16384;
+
+    private int _segmentSize = 65536;
+
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+    private final SessionCodec _codec = new SessionCodec();
+
+    private volatile boolean _initialized;
+
+    private SessionRecords _records;
+
+    private BlobArea _subjects;
+
+    private OffHeapIndex _ids;
+
+    // Head slot -> (tail slot, session count)
+    private OffHeapIndex _usernames;
+
+    public OffHeapSessionStore() {
+    }
+
+    public int getSize() throws SSOSessionException {
+        checkInit();
+        _lock.readLock().lock();
+        try {
+            return _records.size();
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    public String[] keys() throws SSOSessionException {
+        checkInit();
+        _lock.readLock().lock();
+        try {
+            List<String> keys = new ArrayList<String>(_records.size());
+            for (int slot = 0; slot < _records.highWater(); slot++) {
+                if (_records.isUsed(slot))
+                    keys.add(_records.getId(slot));
+            }
+            return keys.toArray(new String[keys.size()]);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    public BaseSession[] loadAll() throws SSOSessionException {
+        checkInit();
+        _lock.readLock().lock();
+        try {
+            List<BaseSession> sessions = new ArrayList<BaseSession>(_records.size());
+            for (int slot = 0; slot < _records.highWater(); slot++) {
+                if (_records.isUsed(slot))
+                    sessions.add(read(slot));
+            }
+            return sessions.toArray(new BaseSession[sessions.size()]);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    public BaseSession load(String id) throws SSOSessionException {
+        checkInit();
+        byte[] key = id != null ? _records.encodeId(id) : null;
+        if (key == null)
+            return null;
+
+        BaseSession s = null;
+        _lock.readLock().lock();
+        try {
+            int pos = _ids.find(key, OffHeapIndex.hash(id));
+            if (pos != OffHeapIndex.NOT_FOUND)
+                s = read(_ids.getSlot(pos));
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("[load(" + id + ")] Session " + (s == null ? " not" : "") + " found");
+
+        return s;
+    }
+
+    public BaseSession[] loadByUsername(String name) throws SSOSessionException {
+        return loadOldestByUsername(name, Integer.MAX_VALUE);
+    }
+
+    public int countByUsername(String name) throws SSOSessionException {
+        checkInit();
+        byte[] key = name != null ? _records.encodeUsername(name) : null;
+        if (key == null)
+            return 0;
+
+        _lock.readLock().lock();
+        try {
+            int pos = _usernames.find(key, OffHeapIndex.hash(name));
+            return pos != OffHeapIndex.NOT_FOUND ? _usernames.getPayload(pos, 1) : 0;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Load and return the oldest BaseSessions associated with the specified username, following the user index.
+     */
+    public BaseSession[] loadOldestByUsername(String name, int count) throws SSOSessionException {
+        checkInit();
+        byte[] key = name != null ? _records.encodeUsername(name) : null;
+        if (key == null || count <= 0)
+            return new BaseSession[0];
+
+        _lock.readLock().lock();
+        try {
+            int pos = _usernames.find(key, OffHeapIndex.hash(name));
+            if (pos == OffHeapIndex.NOT_FOUND)
+                return new BaseSession[0];
+
+            BaseSession[] result = new BaseSession[Math.min(count, _usernames.getPayload(pos, 1))];
+            int slot = _usernames.getSlot(pos);
+            for (int i = 0; i < result.length; i++) {
+                result[i] = read(slot);
+                slot = _records.getInt(slot, SessionRecords.NEXT_BY_USER);
+            }
+            return result;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    public BaseSession[] loadByLastAccessTime(Date time) throws SSOSessionException {
+        checkInit();
+        long t = time.getTime();
+
+        _lock.readLock().lock();
+        try {
+            List<BaseSession> sessions = new ArrayList<BaseSession>();
+            for (int slot = 0; slot < _records.highWater(); slot++) {
+                if (_records.isUsed(slot) && _records.getLong(slot, SessionRecords.LAST_ACCESS_TIME) < t)
+                    sessions.add(read(slot));
+            }
+            return sessions.toArray(new BaseSession[sessions.size()]);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sessions idle for longer than their max inactive interval are not valid, as in {@link BaseSession#isValid()}.
+     */
+    public BaseSession[] loadByValid(boolean valid) throws SSOSessionException {
+        checkInit();
+        long now = System.currentTimeMillis();
+
+        _lock.readLock().lock();
+        try {
+            List<BaseSession> sessions = new ArrayList<BaseSession>();
+            for (int slot = 0; slot < _records.highWater(); slot++) {
+                if (_records.isUsed(slot) && isValid(slot, now) == valid)
+                    sessions.add(read(slot));
+            }
+            return sessions.toArray(new BaseSession[sessions.size()]);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    public void remove(String id) throws SSOSessionException {
+        checkInit();
+        byte[] key = id != null ? _records.encodeId(id) : null;
+        if (key == null)
+            return;
+
+        boolean removed;
+        _lock.writeLock().lock();
+        try {
+            removed = delete(id, key);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("[remove(" + id + ")] Session " + (!removed ? " not" : "") + " found");
+    }
+
+    /**
+     * Remove the BaseSessions with the specified session identifiers from this Store, the store is locked only
+     * once for all sessions.
+     */
+    public void remove(String[] ids) throws SSOSessionException {
+        checkInit();
+        int removed = 0;
+
+        _lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                byte[] key = ids[i] != null ? _records.encodeId(ids[i]) : null;
+                if (key != null && delete(ids[i], key))
+                    removed++;
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("[remove(String[" + ids.length + "])] Sessions removed = " + removed);
+    }
+
+    public BaseSession[] removeByUsername(String name) throws SSOSessionException {
+        checkInit();
+        byte[] key = name != null ? _records.encodeUsername(name) : null;
+        if (key == null)
+            return new BaseSession[0];
+
+        BaseSession[] result;
+        _lock.writeLock().lock();
+        try {
+            int pos = _usernames.find(key, OffHeapIndex.hash(name));
+            if (pos == OffHeapIndex.NOT_FOUND)
+                return new BaseSession[0];
+
+            result = new BaseSession[_usernames.getPayload(pos, 1)];
+            int slot = _usernames.getSlot(pos);
+            _usernames.delete(pos);
+
+            for (int i = 0; i < result.length; i++) {
+                result[i] = read(slot);
+                int next = _records.getInt(slot, SessionRecords.NEXT_BY_USER);
+
+                String id = result[i].getId();
+                _ids.delete(_ids.find(_records.encodeId(id), OffHeapIndex.hash(id)));
+                freeSubject(slot);
+                _records.free(slot);
+
+                slot = next;
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("[removeByUsername(" + name + ")] Sessions removed = " + result.length);
+
+        return result;
+    }
+
+    public void clear() throws SSOSessionException {
+        checkInit();
+        _lock.writeLock().lock();
+        try {
+            _records.clear();
+            _subjects.clear();
+            _ids.clear();
+            _usernames.clear();
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Save the specified BaseSession into this Store.  Any previously saved information for the associated
+     * session identifier is replaced, an update for the same user keeps the session position in the user index.
+     */
+    public void save(BaseSession session) throws SSOSessionException {
+        checkInit();
+
+        String id = session.getId();
+        byte[] key = id != null ? _records.encodeId(id) : null;
+        if (key == null)
+            throw new SSOSessionException("Session id is missing or longer than " + _maxIdLength + " bytes : " + id);
+
+        String username = session.getUsername();
+        byte[] user = null;
+        if (username != null) {
+            user = _records.encodeUsername(username);
+            if (user == null)
+                throw new SSOSessionException("Username longer than " + _maxUsernameLength + " bytes : " + username);
+        }
+
+        byte[] subject = null;
+        if (session.getSubject() != null) {
+            try {
+                subject = _codec.encodeSubject(session.getSubject());
+            } catch (IOException e) {
+                throw new SSOSessionException("Can't serialize subject of session " + id + " : " + e.getMessage(), e);
+            }
+            if (subject.length > BlobArea.getMaxLength())
+                throw new SSOSessionException("Subject of session " + id + " larger than " + BlobArea.getMaxLength() + " bytes");
+        }
+
+        // May expire the session, do it before getting the lock
+        boolean valid = session.isValid();
+
+        boolean inserted = false;
+        _lock.writeLock().lock();
+        try {
+            int hash = OffHeapIndex.hash(id);
+            int pos = _ids.find(key, hash);
+            int slot;
+
+            if (pos == OffHeapIndex.NOT_FOUND) {
+                slot = _records.allocate();
+                _records.putId(slot, key);
+                _records.putUsername(slot, user);
+                _records.putInt(slot, SessionRecords.SUBJECT, BlobArea.NONE);
+                _ids.insert(hash, slot);
+                if (user != null)
+                    link(slot, username, user);
+                inserted = true;
+
+            } else {
+                slot = _ids.getSlot(pos);
+                String oldUsername = _records.getUsername(slot);
+                if (oldUsername == null ? username != null : !oldUsername.equals(username)) {
+                    if (oldUsername != null)
+                        unlink(slot, oldUsername);
+                    _records.putUsername(slot, user);
+                    if (user != null)
+                        link(slot, username, user);
+                }
+            }
+
+            _records.putByte(slot, SessionRecords.FLAGS, SessionRecords.USED | (valid ? SessionRecords.VALID : 0));
+            _records.putLong(slot, SessionRecords.CREATION_TIME, session.getCreationTime());
+            _records.putLong(slot, SessionRecords.LAST_ACCESS_TIME, session.getLastAccessTime());
+            _records.putLong(slot, SessionRecords.ACCESS_COUNT, session.getAccessCount());
+            _records.putInt(slot, SessionRecords.MAX_INACTIVE_INTERVAL, session.getMaxInactiveInterval());
+
+            freeSubject(slot);
+            if (subject != null)
+                _records.putInt(slot, SessionRecords.SUBJECT, _subjects.put(subject));
+
+        } finally {
+            _lock.writeLock().unlock();
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("[save(BaseSession." + id + ")] Session " + (inserted ? " inserted" : "") + " updated");
+    }
+
+    /**
+     * Off-heap memory reserved by this store, in bytes.
+     */
+    public long getOffHeapSize() throws SSOSessionException {
+        checkInit();
+        _lock.readLock().lock();
+        try {
+            return _records.getCapacityBytes() + _subjects.getCapacityBytes() +
+                    _ids.getCapacityBytes() + _usernames.getCapacityBytes();
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    // ----------------------------------------------------------------------------- Records
+
+    private BaseSession read(int slot) throws SSOSessionException {
+        MutableBaseSession session = new MutableBaseSession();
+        session.setId(_records.getId(slot));
+        session.setUsername(_records.getUsername(slot));
+        session.setCreationTime(_records.getLong(slot, SessionRecords.CREATION_TIME));
+        session.setLastAccessedTime(_records.getLong(slot, SessionRecords.LAST_ACCESS_TIME));
+        session.setAccessCount(_records.getLong(slot, SessionRecords.ACCESS_COUNT));
+
+        // Still invalid, so that setting the interval does not expire the session
+        session.setMaxInactiveInterval(_records.getInt(slot, SessionRecords.MAX_INACTIVE_INTERVAL));
+        session.setValid((_records.getByte(slot, SessionRecords.FLAGS) & SessionRecords.VALID) != 0);
+
+        int subject = _records.getInt(slot, SessionRecords.SUBJECT);
+        if (subject != BlobArea.NONE) {
+            try {
+                session.setSubject(_codec.decodeSubject(_subjects.get(subject)));
+            } catch (IOException e) {
+                throw new SSOSessionException("Can't read subject of session " + session.getId() + " : " + e.getMessage(), e);
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Releases the subject of a session, the caller must hold the write lock.
+     */
+    private void freeSubject(int slot) {
+        int subject = _records.getInt(slot, SessionRecords.SUBJECT);
+        if (subject != BlobArea.NONE) {
+            _subjects.free(subject);
+            _records.putInt(slot, SessionRecords.SUBJECT, BlobArea.NONE);
+        }
+    }
+
+    private boolean isValid(int slot, long now) {
+        if ((_records.getByte(slot, SessionRecords.FLAGS) & SessionRecords.VALID) == 0)
+            return false;
+
+        int maxInactiveInterval = _records.getInt(slot, SessionRecords.MAX_INACTIVE_INTERVAL);
+        if (maxInactiveInterval < 0)
+            return true;
+
+        long idle = (now - _records.getLong(slot, SessionRecords.LAST_ACCESS_TIME)) / 1000L;
+        return idle < maxInactiveInterval;
+    }
+
+    /**
+     * Removes a session, the caller must hold the write lock.
+     */
+    private boolean delete(String id, byte[] key) {
+        int pos = _ids.find(key, OffHeapIndex.hash(id));
+        if (pos == OffHeapIndex.NOT_FOUND)
+            return false;
+
+        int slot = _ids.getSlot(pos);
+        _ids.delete(pos);
+
+        String username = _records.getUsername(slot);
+        if (username != null)
+            unlink(slot, username);
+
+        freeSubject(slot);
+        _records.free(slot);
+        return true;
+    }
+
+    /**
+     * Appends the session to the user index, the caller must hold the write lock.
+     */
+    private void link(int slot, String username, byte[] user) {
+        _records.putInt(slot, SessionRecords.NEXT_BY_USER, SessionRecords.NONE);
+
+        int hash = OffHeapIndex.hash(username);
+        int pos = _usernames.find(user, hash);
+        if (pos == OffHeapIndex.NOT_FOUND) {
+            pos = _usernames.insert(hash, slot);
+            _records.putInt(slot, SessionRecords.PREV_BY_USER, SessionRecords.NONE);
+            _usernames.setPayload(pos, 0, slot);
+            _usernames.setPayload(pos, 1, 1);
+            return;
+        }
+
+        int tail = _usernames.getPayload(pos, 0);
+        _records.putInt(tail, SessionRecords.NEXT_BY_USER, slot);
+        _records.putInt(slot, SessionRecords.PREV_BY_USER, tail);
+        _usernames.setPayload(pos, 0, slot);
+        _usernames.setPayload(pos, 1, _usernames.getPayload(pos, 1) + 1);
+    }
+
+    /**
+     * Removes the session from the user index, the caller must hold the write lock.
+     */
+    private void unlink(int slot, String username) {
+        int pos = _usernames.find(_records.encodeUsername(username), OffHeapIndex.hash(username));
+        if (pos == OffHeapIndex.NOT_FOUND)
+            return;
+
+        int count = _usernames.getPayload(pos, 1) - 1;
+        if (count == 0) {
+            _usernames.delete(pos);
+            return;
+        }
+
+        int prev = _records.getInt(slot, SessionRecords.PREV_BY_USER);
+        int next = _records.getInt(slot, SessionRecords.NEXT_BY_USER);
+
+        if (prev != SessionRecords.NONE)
+            _records.putInt(prev, SessionRecords.NEXT_BY_USER, next);
+        else
+            _usernames.setSlot(pos, next);
+
+        if (next != SessionRecords.NONE)
+            _records.putInt(next, SessionRecords.PREV_BY_USER, prev);
+        else
+            _usernames.setPayload(pos, 0, prev);
+
+        _usernames.setPayload(pos, 1, count);
+    }
+
+    private void checkInit() {
+        // Avoid getting the lock if the store was already initialized
+        if (_initialized)
+            return;
+
+        init();
+    }
+
+    private synchronized void init() {
+        if (_initialized)
+            return;
+
+        _records = new SessionRecords(_maxIdLength, _maxUsernameLength, _segmentSize);
+        _subjects = new BlobArea();
+        _ids = new OffHeapIndex(_initialCapacity, 0) {
+            protected boolean matches(int slot, byte[] key) {
+                return _records.idEquals(slot, key);
+            }
+        };
+        _usernames = new OffHeapIndex(_initialCapacity / 4, 2) {
+            protected boolean matches(int slot, byte[] key) {
+                return _records.usernameEquals(slot, key);
+            }
+        };
+
+        logger.info("Off-heap session store initialized, max id length " + _maxIdLength +
+                ", max username length " + _maxUsernameLength);
+
+        _initialized = true;
+    }
+
+    // ----------------------------------------------------------------------------- Properties
+
+    public int getMaxIdLength() {
+        return _maxIdLength;
+    }
+
+    /**
+     * Max session id length, in UTF-8 bytes.
+     */
+    public void setMaxIdLength(int maxIdLength) {
+        _maxIdLength = maxIdLength;
+    }
+
+    public int getMaxUsernameLength() {
+        return _maxUsernameLength;
+    }
+
+    /**
+     * Max username length, in UTF-8 bytes. Every record reserves this space.
+     */
+    public void setMaxUsernameLength(int maxUsernameLength) {
+        _maxUsernameLength = maxUsernameLength;
+    }
+
+    public int getInitialCapacity() {
+        return _initialCapacity;
+    }
+
+    /**
+     * Expected number of sessions, indexes are sized for it and grow when needed.
+     */
+    public void setInitialCapacity(int initialCapacity) {
+        _initialCapacity = initialCapacity;
+    }
+
+    public int getSegmentSize() {
+        return _segmentSize;
+    }
+
+    /**
+     * Number of session records in each direct buffer allocated by the store.
+     */
+    public void setSegmentSize(int segmentSize) {
+        _segmentSize = segmentSize;
+    }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.offheap;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size session records in direct buffer segments, addressed by slot.
+ * <p/>
+ * Record layout :
+ * <pre>
+ * 0   flags                byte, USED and VALID
+ * 2   id length            short
+ * 4   username length      short, -1 for no username
+ * 8   creation time        long
+ * 16  last access time     long
+ * 24  access count         long
+ * 32  max inactive         int
+ * 36  previous user slot   int
+ * 40  next user slot       int, also links free slots
+ * 44  subject              int, blob handle, -1 for no subject
+ * 48  id                   UTF-8 bytes, up to the max id length
+ * ..  username             UTF-8 bytes, up to the max username length
+ * </pre>
+ * Freed slots are reused before the store grows, segments are never released. Not thread safe.
+ *
+ * @version $Id$
+ */
+final class SessionRecords {
+
+    static final int NONE = -1;
+
+    static final int USED = 0x01;
+
+    static final int VALID = 0x02;
+
+    static final int FLAGS = 0;
+
+    static final int ID_LENGTH = 2;
+
+    static final int USERNAME_LENGTH = 4;
+
+    static final int CREATION_TIME = 8;
+
+    static final int LAST_ACCESS_TIME = 16;
+
+    static final int ACCESS_COUNT = 24;
+
+    static final int MAX_INACTIVE_INTERVAL = 32;
+
+    static final int PREV_BY_USER = 36;
+
+    static final int NEXT_BY_USER = 40;
+
+    static final int SUBJECT = 44;
+
+    private static final int ID = 48;
+
+    private static final String UTF8 = "UTF-8";
+
+    private final int maxIdLength;
+
+    private final int maxUsernameLength;
+
+    private final int recordSize;
+
+    private final int segmentShift;
+
+    private final int segmentMask;
+
+    private ByteBuffer[] segments = new ByteBuffer[0];
+
+    // Slots above this one were never used
+    private int highWater;
+
+    private int freeHead = NONE;
+
+    private int size;
+
+    SessionRecords(int maxIdLength, int maxUsernameLength, int segmentRecords) {
+        if (maxIdLength > Short.MAX_VALUE || maxUsernameLength > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Max id and username lengths can't exceed " + Short.MAX_VALUE);
+
+        this.maxIdLength = maxIdLength;
+        this.maxUsernameLength = maxUsernameLength;
+        this.recordSize = (ID + maxIdLength + maxUsernameLength + 7) & ~7;
+
+        int shift = 0;
+        while ((1 << shift) < segmentRecords)
+            shift++;
+        if ((long) recordSize << shift > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segments can't exceed 2GB, reduce the records per segment");
+
+        this.segmentShift = shift;
+        this.segmentMask = (1 << shift) - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Slots in use are below this one.
+     */
+    int highWater() {
+        return highWater;
+    }
+
+    int allocate() {
+        int slot;
+        if (freeHead != NONE) {
+            slot = freeHead;
+            freeHead = getInt(slot, NEXT_BY_USER);
+        } else {
+            slot = highWater;
+            if ((slot >> segmentShift) == segments.length)
+                addSegment();
+            highWater++;
+        }
+
+        putByte(slot, FLAGS, USED);
+        size++;
+        return slot;
+    }
+
+    void free(int slot) {
+        putByte(slot, FLAGS, 0);
+        putInt(slot, NEXT_BY_USER, freeHead);
+        freeHead = slot;
+        size--;
+    }
+
+    /**
+     * Frees all slots, keeping the segments.
+     */
+    void clear() {
+        for (int slot = 0; slot < highWater; slot++)
+            putByte(slot, FLAGS, 0);
+        highWater = 0;
+        freeHead = NONE;
+        size = 0;
+    }
+
+    boolean isUsed(int slot) {
+        return (getByte(slot, FLAGS) & USED) != 0;
+    }
+
+    // ----------------------------------------------------------------------------- Fields
+
+    int getByte(int slot, int field) {
+        return segment(slot).get(offset(slot) + field);
+    }
+
+    void putByte(int slot, int field, int value) {
+        segment(slot).put(offset(slot) + field, (byte) value);
+    }
+
+    int getInt(int slot, int field) {
+        return segment(slot).getInt(offset(slot) + field);
+    }
+
+    void putInt(int slot, int field, int value) {
+        segment(slot).putInt(offset(slot) + field, value);
+    }
+
+    long getLong(int slot, int field) {
+        return segment(slot).getLong(offset(slot) + field);
+    }
+
+    void putLong(int slot, int field, long value) {
+        segment(slot).putLong(offset(slot) + field, value);
+    }
+
+    String getId(int slot) {
+        return getString(slot, ID, segment(slot).getShort(offset(slot) + ID_LENGTH));
+    }
+
+    void putId(int slot, byte[] id) {
+        putBytes(slot, ID_LENGTH, ID, id);
+    }
+
+    boolean idEquals(int slot, byte[] id) {
+        return bytesEqual(slot, ID_LENGTH, ID, id);
+    }
+
+    String getUsername(int slot) {
+        return getString(slot, ID + maxIdLength, segment(slot).getShort(offset(slot) + USERNAME_LENGTH));
+    }
+
+    void putUsername(int slot, byte[] username) {
+        putBytes(slot, USERNAME_LENGTH, ID + maxIdLength, username);
+    }
+
+    boolean usernameEquals(int slot, byte[] username) {
+        return bytesEqual(slot, USERNAME_LENGTH, ID + maxIdLength, username);
+    }
+
+    // ----------------------------------------------------------------------------- Strings
+
+    /**
+     * Encodes an id, null if it does not fit in a record.
+     */
+    byte[] encodeId(String id) {
+        byte[] b = encode(id);
+        return b.length <= maxIdLength ? b : null;
+    }
+
+    /**
+     * Encodes a username, null if it does not fit in a record.
+     */
+    byte[] encodeUsername(String username) {
+        byte[] b = encode(username);
+        return b.length <= maxUsernameLength ? b : null;
+    }
+
+    private byte[] encode(String s) {
+        try {
+            return s.getBytes(UTF8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private String getString(int slot, int field, int length) {
+        if (length < 0)
+            return null;
+
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot) + field;
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+            b[i] = segment.get(offset + i);
+
+        try {
+            return new String(b, UTF8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private void putBytes(int slot, int lengthField, int field, byte[] b) {
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        if (b == null) {
+            segment.putShort(offset + lengthField, (short) -1);
+            return;
+        }
+
+        segment.putShort(offset + lengthField, (short) b.length);
+        for (int i = 0; i < b.length; i++)
+            segment.put(offset + field + i, b[i]);
+    }
+
+    private boolean bytesEqual(int slot, int lengthField, int field, byte[] b) {
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        if (segment.getShort(offset + lengthField) != b.length)
+            return false;
+
+        for (int i = 0; i < b.length; i++) {
+            if (segment.get(offset + field + i) != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    // ----------------------------------------------------------------------------- Segments
+
+    /**
+     * Off-heap bytes used by the records.
+     */
+    long getCapacityBytes() {
+        return (long) segments.length * (segmentMask + 1) * recordSize;
+    }
+
+    private ByteBuffer segment(int slot) {
+        return segments[slot >>> segmentShift];
+    }
+
+    private int offset(int slot) {
+        return (slot & segmentMask) * recordSize;
+    }
+
+    private void addSegment() {
+        ByteBuffer[] grown = new ByteBuffer[segments.length + 1];
+        System.arraycopy(segments, 0, grown, 0, segments.length);
+        grown[segments.length] = ByteBuffer.allocateDirect((segmentMask + 1) * recordSize);
+        segments = grown;
+    }
+
+}
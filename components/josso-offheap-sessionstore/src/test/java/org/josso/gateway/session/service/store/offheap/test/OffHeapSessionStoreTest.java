@@ -0,0 +1,278 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.offheap.test;
+
+import org.josso.gateway.identity.service.BaseRoleImpl;
+import org.josso.gateway.identity.service.BaseUserImpl;
+import org.josso.gateway.session.exceptions.SSOSessionException;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.BaseSessionImpl;
+import org.josso.gateway.session.service.store.MemorySessionStore;
+import org.josso.gateway.session.service.store.offheap.OffHeapSessionStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * @version $Id$
+ */
+public class OffHeapSessionStoreTest {
+
+    private OffHeapSessionStore store;
+
+    @Before
+    public void setUp() {
+        store = new OffHeapSessionStore();
+        // Small sizes, so that indexes and segments grow
+        store.setInitialCapacity(4);
+        store.setSegmentSize(16);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        BaseSessionImpl session = newSession("session-1", "user1", 0);
+        session.access();
+        store.save(session);
+
+        BaseSession loaded = store.load("session-1");
+        assert loaded != session : "Sessions must be copied";
+        assert loaded.getId().equals("session-1") : "Invalid id";
+        assert loaded.getUsername().equals("user1") : "Invalid username";
+        assert loaded.getCreationTime() == session.getCreationTime() : "Invalid creation time";
+        assert loaded.getLastAccessTime() == session.getLastAccessTime() : "Invalid last access time";
+        assert loaded.getAccessCount() == 1 : "Invalid access count " + loaded.getAccessCount();
+        assert loaded.getMaxInactiveInterval() == 1800 : "Invalid max inactive interval";
+        assert loaded.isValid() : "Session not valid";
+
+        assert store.load("session-2") == null : "Unknown session found";
+        assert store.getSize() == 1 : "Invalid size";
+    }
+
+    @Test
+    public void testUserIndex() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            store.save(newSession("session-" + i, "user" + (i % 2), i));
+        }
+
+        assert store.countByUsername("user0") == 5 : "Invalid count " + store.countByUsername("user0");
+        assert store.loadByUsername("user1").length == 5 : "Invalid user sessions";
+        assert store.countByUsername("user2") == 0 : "Unknown user sessions found";
+
+        // Updates keep the position, removals unlink
+        store.save(newSession("session-0", "user0", 0));
+        store.remove("session-2");
+        BaseSession[] oldest = store.loadOldestByUsername("user0", 2);
+        assert oldest[0].getId().equals("session-0") && oldest[1].getId().equals("session-4") : "Invalid order";
+
+        // Username changes move the session to the new user
+        store.save(newSession("session-4", "user1", 4));
+        assert store.countByUsername("user0") == 3 : "Invalid count " + store.countByUsername("user0");
+        assert store.countByUsername("user1") == 6 : "Invalid count " + store.countByUsername("user1");
+        BaseSession[] user1 = store.loadByUsername("user1");
+        assert user1[user1.length - 1].getId().equals("session-4") : "Moved session not last";
+
+        BaseSession[] removed = store.removeByUsername("user1");
+        assert removed.length == 6 : "Invalid removed sessions " + removed.length;
+        assert store.getSize() == 3 : "Invalid size " + store.getSize();
+        assert store.load("session-1") == null : "Removed session found";
+        assert store.countByUsername("user1") == 0 : "User index not removed";
+
+        store.remove(new String[]{"session-0", "session-6", "unknown"});
+        assert ids(store.loadAll()).equals(set("session-8")) : "Invalid sessions " + ids(store.loadAll());
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+        long now = System.currentTimeMillis();
+
+        BaseSessionImpl idle = newSession("idle", "user1", 0);
+        idle.setCreationTime(now - 3600000L);
+        idle.setMaxInactiveInterval(7200);
+        store.save(idle);
+
+        BaseSessionImpl invalid = newSession("invalid", "user1", 0);
+        invalid.setValid(false);
+        store.save(invalid);
+
+        store.save(newSession("valid", "user2", 0));
+
+        BaseSessionImpl expiring = newSession("expiring", null, 0);
+        expiring.setCreationTime(now);
+        expiring.setMaxInactiveInterval(1);
+        store.save(expiring);
+
+        assert ids(store.loadByValid(true)).equals(set("idle", "valid", "expiring")) : "Invalid valid sessions";
+        assert ids(store.loadByValid(false)).equals(set("invalid")) : "Invalid invalid sessions";
+
+        // Sessions idle for longer than their max inactive interval are not valid
+        Thread.sleep(1100);
+        assert ids(store.loadByValid(false)).equals(set("invalid", "expiring")) : "Invalid expired sessions";
+        assert store.load("expiring").getUsername() == null : "Invalid username";
+        assert ids(store.loadByLastAccessTime(new Date(now - 60000L))).equals(set("idle")) : "Invalid idle sessions";
+        assert set(store.keys()).equals(set("idle", "invalid", "valid", "expiring")) : "Invalid keys";
+
+        store.clear();
+        assert store.getSize() == 0 && store.loadAll().length == 0 : "Store not cleared";
+        assert store.countByUsername("user1") == 0 : "User index not cleared";
+    }
+
+    @Test
+    public void testSubject() throws Exception {
+        BaseSessionImpl session = newSession("session-1", "user1", 0);
+        session.setSubject(newSubject("user1", 1));
+        store.save(session);
+        store.save(newSession("session-2", "user1", 1));
+
+        Subject subject = store.load("session-1").getSubject();
+        assert subject != null : "Subject not stored";
+        assert subject.getPrincipals().size() == 2 : "Invalid principals " + subject.getPrincipals();
+        BaseUserImpl user = subject.getPrincipals(BaseUserImpl.class).iterator().next();
+        assert user.getName().equals("user1") && user.getProperties().length == 1 : "Invalid user " + user;
+        assert store.load("session-2").getSubject() == null : "Subject not expected";
+
+        // Larger subjects replace the previous one
+        session.setSubject(newSubject("user1", 200));
+        store.save(session);
+        user = store.load("session-1").getSubject().getPrincipals(BaseUserImpl.class).iterator().next();
+        assert user.getProperties().length == 200 : "Subject not updated " + user.getProperties().length;
+        assert store.loadByUsername("user1")[0].getSubject() != null : "Subject not loaded by username";
+
+        session.setSubject(null);
+        store.save(session);
+        assert store.load("session-1").getSubject() == null : "Subject not removed";
+
+        // Freed subjects are reused
+        for (int i = 0; i < 100; i++) {
+            BaseSessionImpl s = newSession("session-" + (i % 10), "user" + i, i);
+            s.setSubject(newSubject("user" + i, i % 5));
+            store.save(s);
+            if (i % 3 == 0)
+                store.remove(s.getId());
+        }
+        for (int i = 90; i < 100; i++) {
+            BaseSession s = store.load("session-" + (i % 10));
+            if (i % 3 != 0) {
+                user = s.getSubject().getPrincipals(BaseUserImpl.class).iterator().next();
+                assert user.getName().equals("user" + i) : "Invalid subject " + user.getName();
+            }
+        }
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        store.setMaxUsernameLength(8);
+        store.save(newSession("session-1", "12345678", 0));
+        try {
+            store.save(newSession("session-2", "123456789", 0));
+            assert false : "Long username accepted";
+        } catch (SSOSessionException e) {
+            // Expected
+        }
+        assert store.getSize() == 1 : "Invalid size";
+        assert store.load(new String(new char[100])) == null : "Long id found";
+    }
+
+    /**
+     * Random operations, checked against a memory store.
+     */
+    @Test
+    public void testRandomOperations() throws Exception {
+        MemorySessionStore reference = new MemorySessionStore();
+
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            String id = "session-" + random.nextInt(500);
+            String username = "user" + random.nextInt(20);
+            switch (random.nextInt(10)) {
+                case 0:
+                case 1:
+                    store.remove(id);
+                    reference.remove(id);
+                    break;
+                case 2:
+                    if (random.nextInt(20) == 0) {
+                        assert ids(store.removeByUsername(username)).equals(ids(reference.removeByUsername(username))) :
+                                "Invalid removed sessions for " + username;
+                    }
+                    break;
+                default:
+                    BaseSessionImpl session = newSession(id, username, i);
+                    store.save(session);
+                    reference.save(session);
+            }
+        }
+
+        assert store.getSize() == reference.getSize() : "Invalid size " + store.getSize() + ", expected " + reference.getSize();
+        assert set(store.keys()).equals(set(reference.keys())) : "Invalid keys";
+        for (int u = 0; u < 20; u++) {
+            String username = "user" + u;
+            assert store.countByUsername(username) == reference.countByUsername(username) : "Invalid count for " + username;
+            assert Arrays.equals(idArray(store.loadByUsername(username)), idArray(reference.loadByUsername(username))) :
+                    "Invalid user sessions for " + username;
+        }
+    }
+
+    private BaseSessionImpl newSession(String id, String username, int age) {
+        long now = System.currentTimeMillis();
+        BaseSessionImpl session = new BaseSessionImpl();
+        session.setId(id);
+        session.setUsername(username);
+        session.setCreationTime(now - 60000 + age);
+        session.setMaxInactiveInterval(1800);
+        session.setValid(true);
+        return session;
+    }
+
+    private Subject newSubject(String username, int properties) {
+        BaseUserImpl user = new BaseUserImpl(username);
+        for (int i = 0; i < properties; i++) {
+            user.addProperty("property" + i, "value" + i);
+        }
+
+        Subject subject = new Subject();
+        subject.getPrincipals().add(user);
+        subject.getPrincipals().add(new BaseRoleImpl("role1"));
+        return subject;
+    }
+
+    private String[] idArray(BaseSession[] sessions) {
+        String[] ids = new String[sessions.length];
+        for (int i = 0; i < sessions.length; i++) {
+            ids[i] = sessions[i].getId();
+        }
+        return ids;
+    }
+
+    private Set<String> ids(BaseSession[] sessions) {
+        return set(idArray(sessions));
+    }
+
+    private Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
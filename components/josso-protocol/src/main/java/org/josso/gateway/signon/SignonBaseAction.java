@@ -42,6 +42,7 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpServletResponse;
+import java.net.URLEncoder;
 
 /**
  * This is the base action for all signon actions.
@@ -216,6 +217,15 @@ public abstract class SignonBaseAction extends Action implements org.josso.gatew
 
         back_to += (back_to.indexOf("?") >= 0 ? "&" : "?") + "josso_assertion_id=" + authAssertion.getId();
 
+        // Agents configured with the session token key validate the session locally while the token is valid
+        try {
+            String token = getSSOGateway().issueSessionToken(session.getId());
+            if (token != null)
+                back_to += "&josso_session_token=" + URLEncoder.encode(token, "UTF-8");
+        } catch (Exception e) {
+            logger.warn("Cannot issue session token for " + session.getId() + " : " + e.getMessage());
+        }
+
         return back_to;
     }
 
@@ -26,7 +26,12 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.josso.Lookup;
 import org.josso.gateway.MutableSSOContext;
+import org.josso.gateway.SSOContext;
 import org.josso.gateway.SSOGateway;
+import org.josso.gateway.session.SSOSession;
+import org.josso.gateway.session.exceptions.NoSuchSessionException;
+import org.josso.gateway.session.exceptions.SSOSessionException;
+import org.josso.gateway.session.service.SSOSessionManager;
 
 /**
  * @author <a href="mailto:sgonzalez@atricore.org">Sebastian Gonzalez Oyuela</a>
@@ -41,8 +46,9 @@ public class BaseSSOService {
      *
      * @param tokenType
      * @param tokenValue
+     * @return the new SSO Context, or null if it could not be created.
      */
-    protected void prepareCtx(String tokenType, String tokenValue) {
+    protected SSOContext prepareCtx(String tokenType, String tokenValue) {
         try {
 
             SSOGateway gwy = Lookup.getInstance().lookupSSOGateway();
@@ -57,27 +63,64 @@ public class BaseSSOService {
 
             ctx.setUserLocation("soap-client");
 
+            return ctx;
 
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
 
-
+        return null;
     }
 
     /**
      * This prepares a SSO Context based on the given security domain name
      * @param securityDomain
+     * @return the new SSO Context, or null if it could not be created.
      */
-    protected void prepareCtx(String securityDomain) {
+    protected SSOContext prepareCtx(String securityDomain) {
         try {
 
             MutableSSOContext ctx = (MutableSSOContext) Lookup.getInstance().lookupSSOGateway().prepareSSOContext(securityDomain);
             ctx.setUserLocation("soap-client");
 
+            return ctx;
+
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
 
+        return null;
+    }
+
+    /**
+     * Returns the session already resolved while preparing the SSO Context, if it matches the given id.
+     */
+    protected SSOSession getCtxSession(SSOContext ctx, String ssoSessionId) {
+        if (ctx == null || ssoSessionId == null)
+            return null;
+
+        SSOSession session = ctx.getSession();
+        if (session != null && ssoSessionId.equals(session.getId()))
+            return session;
+
+        return null;
+    }
+
+    /**
+     * Accesses the given session, reusing the session resolved while preparing the SSO Context when possible.
+     *
+     * @return the accessed session, or null if the session was not available in the context.
+     */
+    protected SSOSession accessSession(SSOContext ctx, String ssoSessionId) throws NoSuchSessionException, SSOSessionException {
+        SSOSessionManager sm = ctx.getSecurityDomain().getSessionManager();
+
+        SSOSession session = getCtxSession(ctx, ssoSessionId);
+        if (session != null) {
+            sm.accessSession(session);
+        } else {
+            sm.accessSession(ssoSessionId);
+        }
+
+        return session;
     }
 }
@@ -64,9 +64,9 @@ public class SSOIdentityManagerSOAPBindingImpl extends BaseSSOService implements
 
         // ----------------------- <PREPARE SSO CTX>
         String ssoSessionId = body.getSsoSessionId();
-        prepareCtx(SSOSessionManager.TOKEN_TYPE, ssoSessionId);
+        SSOContext ctx = prepareCtx(SSOSessionManager.TOKEN_TYPE, ssoSessionId);
         // ----------------------- <PREPARE SSO CTX>
-        SecurityDomain sd = SSOContext.getCurrent().getSecurityDomain();
+        SecurityDomain sd = ctx != null ? ctx.getSecurityDomain() : null;
 
         if (StringUtils.isBlank(ssoSessionId)) {
         	throw new InvalidSessionErrorType("SSOSessionId is empty!");
@@ -79,7 +79,7 @@ public class SSOIdentityManagerSOAPBindingImpl extends BaseSSOService implements
         try {
 
             // Always validate user session!
-            sd.getSessionManager().accessSession(ssoSessionId);
+            accessSession(ctx, ssoSessionId);
 
             SSOUser ssoUser = sd.getIdentityManager().findUserInSession(ssoSessionId);
 
@@ -133,9 +133,9 @@ public class SSOIdentityManagerSOAPBindingImpl extends BaseSSOService implements
 
         // ----------------------- <PREPARE SSO CTX>
         String ssoSessionId = body.getSsoSessionId();
-        prepareCtx(SSOSessionManager.TOKEN_TYPE, ssoSessionId);
+        SSOContext ctx = prepareCtx(SSOSessionManager.TOKEN_TYPE, ssoSessionId);
         // ----------------------- <PREPARE SSO CTX>
-        SecurityDomain sd = SSOContext.getCurrent().getSecurityDomain();
+        SecurityDomain sd = ctx != null ? ctx.getSecurityDomain() : null;
         if (StringUtils.isBlank(ssoSessionId)) {
         	throw new InvalidSessionErrorType("SSOSessionId is empty!");
         }
@@ -143,14 +143,14 @@ public class SSOIdentityManagerSOAPBindingImpl extends BaseSSOService implements
             // Assume that session id was invalid!
             throw new InvalidSessionErrorType(ssoSessionId);
         }
-        
+
         try {
 
             // Always validate user session!
-            sd.getSessionManager().accessSession(ssoSessionId);
-            
-            SSOUser user = sd.getIdentityManager().findUserInSession(ssoSessionId);
-            SSORole[] roles = sd.getIdentityManager().findRolesByUsername(user.getName());
+            accessSession(ctx, ssoSessionId);
+
+            // Roles are kept by the identity manager for the session life
+            SSORole[] roles = sd.getIdentityManager().findRolesBySSOSessionId(ssoSessionId);
 
             SSORoleType[] roleTypes = adaptRoles(roles);
 
@@ -147,7 +147,8 @@ public class SSOIdentityManagerSOAPBindingSkeleton implements org.josso.gateway.
     }
 
     public SSOIdentityManagerSOAPBindingSkeleton() {
-        this.impl = new org.josso.gateway.ws._1_2.wsdl.SSOIdentityManagerSOAPBindingImpl();
+        this.impl = SSOServiceStatsInterceptor.intercept(org.josso.gateway.ws._1_2.wsdl.SSOIdentityManager.class,
+                new org.josso.gateway.ws._1_2.wsdl.SSOIdentityManagerSOAPBindingImpl());
     }
 
     public SSOIdentityManagerSOAPBindingSkeleton(org.josso.gateway.ws._1_2.wsdl.SSOIdentityManager impl) {
@@ -112,7 +112,8 @@ public class SSOIdentityProviderSOAPBindingSkeleton implements org.josso.gateway
     }
 
     public SSOIdentityProviderSOAPBindingSkeleton() {
-        this.impl = new org.josso.gateway.ws._1_2.wsdl.SSOIdentityProviderSOAPBindingImpl();
+        this.impl = SSOServiceStatsInterceptor.intercept(org.josso.gateway.ws._1_2.wsdl.SSOIdentityProvider.class,
+                new org.josso.gateway.ws._1_2.wsdl.SSOIdentityProviderSOAPBindingImpl());
     }
 
     public SSOIdentityProviderSOAPBindingSkeleton(org.josso.gateway.ws._1_2.wsdl.SSOIdentityProvider impl) {
@@ -0,0 +1,144 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+package org.josso.gateway.ws._1_2.wsdl;
+
+import org.josso.gateway.stats.OperationStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency and throughput counters for the operations served by the SOAP bindings.
+ * Counters are shared by all binding instances and security domains, this class can be exported as an MBean to read
+ * them.  Per security domain counters are available in {@link org.josso.gateway.stats.SecurityDomainStats}.
+ *
+ * @version $Id$
+ */
+public class SSOServiceStats {
+
+    private static final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+
+    private static volatile long since = System.currentTimeMillis();
+
+    /**
+     * Gets the counters for the given operation, they are created the first time an operation is requested.
+     *
+     * @param operation the operation name, e.g. SSOSessionManager.accessSession
+     */
+    public static OperationStats getOperationStats(String operation) {
+        OperationStats stats = operations.get(operation);
+        if (stats == null) {
+            stats = new OperationStats(operation);
+            OperationStats existing = operations.putIfAbsent(operation, stats);
+            if (existing != null)
+                stats = existing;
+        }
+        return stats;
+    }
+
+    // ---------------------------------------------------------------
+    // Management interface
+    // ---------------------------------------------------------------
+
+    public String[] getOperationNames() {
+        List<String> names = new ArrayList<String>(operations.keySet());
+        Collections.sort(names);
+        return names.toArray(new String[names.size()]);
+    }
+
+    public long getInvocationCount(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getInvocations() : 0;
+    }
+
+    public long getErrorCount(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getErrors() : 0;
+    }
+
+    /**
+     * Average operation time, in milliseconds.
+     */
+    public double getAverageTime(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getAverageTime() : 0;
+    }
+
+    /**
+     * Max operation time, in milliseconds.
+     */
+    public double getMaxTime(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getMaxTime() : 0;
+    }
+
+    /**
+     * Operation time for the given percentile (0-100), in milliseconds.
+     */
+    public double getPercentileTime(String operation, double percentile) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getPercentileTime(percentile) : 0;
+    }
+
+    /**
+     * Invocations per second since counters were created or last reset.
+     */
+    public double getThroughput(String operation) {
+        OperationStats stats = operations.get(operation);
+        if (stats == null)
+            return 0;
+
+        long elapsed = System.currentTimeMillis() - since;
+        return elapsed > 0 ? stats.getInvocations() * 1000D / elapsed : 0;
+    }
+
+    /**
+     * One line per operation with all its counters.
+     */
+    public String[] listStats() {
+        String[] names = getOperationNames();
+        String[] lines = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            lines[i] = name +
+                    " invocations=" + getInvocationCount(name) +
+                    " errors=" + getErrorCount(name) +
+                    " avgMs=" + getAverageTime(name) +
+                    " p50Ms=" + getPercentileTime(name, 50) +
+                    " p99Ms=" + getPercentileTime(name, 99) +
+                    " maxMs=" + getMaxTime(name) +
+                    " perSec=" + getThroughput(name);
+        }
+        return lines;
+    }
+
+    public void reset() {
+        for (OperationStats stats : operations.values()) {
+            stats.reset();
+        }
+        since = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+package org.josso.gateway.ws._1_2.wsdl;
+
+import org.josso.gateway.stats.SecurityDomainStats;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Times the operations of a SOAP binding, recording them in the shared service statistics and in the statistics of
+ * the security domain that served them.  Operations are named after the port type and method,
+ * e.g. SSOSessionManager.accessSession, and count as errors when they throw.
+ *
+ * @version $Id$
+ */
+public class SSOServiceStatsInterceptor implements InvocationHandler {
+
+    private final String name;
+
+    private final Object target;
+
+    private SSOServiceStatsInterceptor(String name, Object target) {
+        this.name = name;
+        this.target = target;
+    }
+
+    /**
+     * Wraps the given binding so that all its operations are recorded.
+     *
+     * @param portType the port type implemented by the binding
+     */
+    public static <T> T intercept(Class<T> portType, T binding) {
+        return portType.cast(Proxy.newProxyInstance(portType.getClassLoader(), new Class[]{portType},
+                new SSOServiceStatsInterceptor(portType.getSimpleName(), binding)));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class)
+            return method.invoke(target, args);
+
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            Object result = method.invoke(target, args);
+            error = false;
+            return result;
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        } finally {
+            String operation = name + "." + method.getName();
+            long elapsed = System.nanoTime() - start;
+            SSOServiceStats.getOperationStats(operation).record(elapsed, error);
+            // The binding prepared the SSO Context of the served security domain, if any
+            SecurityDomainStats.getCurrent().getOperationStats(operation).record(elapsed, error);
+        }
+    }
+}
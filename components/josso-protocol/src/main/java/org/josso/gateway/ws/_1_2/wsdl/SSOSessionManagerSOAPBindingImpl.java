@@ -34,12 +34,13 @@ import java.rmi.RemoteException;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.josso.SecurityDomain;
 import org.josso.gateway.SSOContext;
 import org.josso.gateway.session.SSOSession;
 import org.josso.gateway.session.exceptions.NoSuchSessionException;
 import org.josso.gateway.ws._1_2.protocol.AccessSessionRequestType;
 import org.josso.gateway.ws._1_2.protocol.AccessSessionResponseType;
+import org.josso.gateway.ws._1_2.protocol.InvalidateUserSessionsRequestType;
+import org.josso.gateway.ws._1_2.protocol.InvalidateUserSessionsResponseType;
 import org.josso.gateway.ws._1_2.protocol.NoSuchSessionErrorType;
 import org.josso.gateway.ws._1_2.protocol.SSOSessionErrorType;
 import org.josso.gateway.ws._1_2.protocol.SSOSessionType;
@@ -55,19 +56,19 @@ public class SSOSessionManagerSOAPBindingImpl extends BaseSSOService implements
         try {
             // ----------------------- <PREPARE SSO CTX>
             String ssoSessionId = body.getSsoSessionId();
-            prepareCtx(org.josso.gateway.session.service.SSOSessionManager.TOKEN_TYPE, ssoSessionId);
+            SSOContext ctx = prepareCtx(org.josso.gateway.session.service.SSOSessionManager.TOKEN_TYPE, ssoSessionId);
             // ----------------------- <PREPARE SSO CTX>
 
             if (logger.isDebugEnabled())
                 logger.debug("About to access session");
 
             // If no context is present is because we could not resolve our session id!
-            if (SSOContext.getCurrent() == null) {
+            if (ctx == null) {
                 throw new NoSuchSessionErrorType(body.getSsoSessionId() != null && !"".equals(body.getSsoSessionId()) ? body.getSsoSessionId() : "[NULL]");
             }
 
-            SecurityDomain sd = SSOContext.getCurrent().getSecurityDomain();
-            sd.getSessionManager().accessSession(ssoSessionId);
+            // Reuse the session resolved for the context, if any
+            accessSession(ctx, ssoSessionId);
 
             if (logger.isDebugEnabled())
                 logger.debug("After access session");
@@ -92,13 +93,17 @@ public class SSOSessionManagerSOAPBindingImpl extends BaseSSOService implements
         try {
             // ----------------------- <PREPARE SSO CTX>
             String ssoSessionId = body.getSessionId();
-            prepareCtx(org.josso.gateway.session.service.SSOSessionManager.TOKEN_TYPE, ssoSessionId);
+            SSOContext ctx = prepareCtx(org.josso.gateway.session.service.SSOSessionManager.TOKEN_TYPE, ssoSessionId);
             // ----------------------- <PREPARE SSO CTX>
 
             if (StringUtils.isBlank(ssoSessionId)) {
             	throw new NoSuchSessionException("SSOSessionId is empty!");
             }
-            SSOSession s = SSOContext.getCurrent().getSecurityDomain().getSessionManager().getSession(ssoSessionId);
+
+            // The session was already loaded while preparing the context
+            SSOSession s = getCtxSession(ctx, ssoSessionId);
+            if (s == null)
+                s = SSOContext.getCurrent().getSecurityDomain().getSessionManager().getSession(ssoSessionId);
 
             SessionResponseType response = new SessionResponseType ();
             response.setSSOSession(adaptSession(s));
@@ -113,6 +118,44 @@ public class SSOSessionManagerSOAPBindingImpl extends BaseSSOService implements
         }
     }
 
+    public InvalidateUserSessionsResponseType invalidateUserSessions(InvalidateUserSessionsRequestType body) throws RemoteException, SSOSessionErrorType {
+        try {
+            // ----------------------- <PREPARE SSO CTX>
+            SSOContext ctx = prepareCtx(body.getSecurityDomain());
+            // ----------------------- <PREPARE SSO CTX>
+
+            if (ctx == null) {
+                throw new SSOSessionErrorType("SSOSessionManager error : unknown security domain " + body.getSecurityDomain());
+            }
+
+            // Any user can be logged out with this operation, only trusted requesters are allowed
+            if (!ctx.getSecurityDomain().getSessionManager().isRemoteInvalidationAuthorized(body.getRequester(), body.getSecret())) {
+                throw new SSOSessionErrorType("SSOSessionManager error : requester not authorized to invalidate user sessions");
+            }
+
+            String username = body.getUsername();
+            if (StringUtils.isBlank(username)) {
+                throw new SSOSessionErrorType("SSOSessionManager error : username is empty!");
+            }
+
+            int invalidated = ctx.getSecurityDomain().getSessionManager().invalidateUserSessions(username);
+
+            if (logger.isDebugEnabled())
+                logger.debug("Invalidated " + invalidated + " sessions for user " + username + ", requester " + body.getRequester());
+
+            InvalidateUserSessionsResponseType response = new InvalidateUserSessionsResponseType();
+            response.setInvalidatedSessions(invalidated);
+
+            return response;
+
+        } catch (SSOSessionErrorType e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            throw new SSOSessionErrorType ("SSOSessionManager error : " + e.getMessage());
+        }
+    }
+
     private SSOSessionType adaptSession(SSOSession s) {
         SSOSessionType st = new SSOSessionType ();
         st.setId(s.getId());
@@ -98,10 +98,28 @@ public class SSOSessionManagerSOAPBindingSkeleton implements org.josso.gateway.w
         _fault.setClassName("org.josso.gateway.ws._1_2.protocol.SSOSessionErrorType");
         _fault.setXmlType(new javax.xml.namespace.QName("urn:org:josso:gateway:ws:1.2:protocol", "SSOSessionErrorType"));
         _oper.addFault(_fault);
+        _params = new org.apache.axis.description.ParameterDesc [] {
+            new org.apache.axis.description.ParameterDesc(new javax.xml.namespace.QName("urn:org:josso:gateway:ws:1.2:protocol", "InvalidateUserSessionsRequest"), org.apache.axis.description.ParameterDesc.IN, new javax.xml.namespace.QName("urn:org:josso:gateway:ws:1.2:protocol", "InvalidateUserSessionsRequestType"), org.josso.gateway.ws._1_2.protocol.InvalidateUserSessionsRequestType.class, false, false), 
+        };
+        _oper = new org.apache.axis.description.OperationDesc("invalidateUserSessions", _params, new javax.xml.namespace.QName("urn:org:josso:gateway:ws:1.2:protocol", "InvalidateUserSessionsResponse"));
+        _oper.setReturnType(new javax.xml.namespace.QName("urn:org:josso:gateway:ws:1.2:protocol", "InvalidateUserSessionsResponseType"));
+        _oper.setElementQName(new javax.xml.namespace.QName("", "invalidateUserSessions"));
+        _myOperationsList.add(_oper);
+        if (_myOperations.get("invalidateUserSessions") == null) {
+            _myOperations.put("invalidateUserSessions", new java.util.ArrayList());
+        }
+        ((java.util.List)_myOperations.get("invalidateUserSessions")).add(_oper);
+        _fault = new org.apache.axis.description.FaultDesc();
+        _fault.setName("SSOSessionErrorFault");
+        _fault.setQName(new javax.xml.namespace.QName("urn:org:josso:gateway:ws:1.2:protocol", "SSOSessionError"));
+        _fault.setClassName("org.josso.gateway.ws._1_2.protocol.SSOSessionErrorType");
+        _fault.setXmlType(new javax.xml.namespace.QName("urn:org:josso:gateway:ws:1.2:protocol", "SSOSessionErrorType"));
+        _oper.addFault(_fault);
     }
 
     public SSOSessionManagerSOAPBindingSkeleton() {
-        this.impl = new org.josso.gateway.ws._1_2.wsdl.SSOSessionManagerSOAPBindingImpl();
+        this.impl = SSOServiceStatsInterceptor.intercept(org.josso.gateway.ws._1_2.wsdl.SSOSessionManager.class,
+                new org.josso.gateway.ws._1_2.wsdl.SSOSessionManagerSOAPBindingImpl());
     }
 
     public SSOSessionManagerSOAPBindingSkeleton(org.josso.gateway.ws._1_2.wsdl.SSOSessionManager impl) {
@@ -119,4 +137,10 @@ public class SSOSessionManagerSOAPBindingSkeleton implements org.josso.gateway.w
         return ret;
     }
 
+    public org.josso.gateway.ws._1_2.protocol.InvalidateUserSessionsResponseType invalidateUserSessions(org.josso.gateway.ws._1_2.protocol.InvalidateUserSessionsRequestType invalidateUserSessionsRequest) throws java.rmi.RemoteException, org.josso.gateway.ws._1_2.protocol.SSOSessionErrorType
+    {
+        org.josso.gateway.ws._1_2.protocol.InvalidateUserSessionsResponseType ret = impl.invalidateUserSessions(invalidateUserSessionsRequest);
+        return ret;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.ws._1_2.wsdl.test;
+
+import org.josso.gateway.stats.OperationStats;
+import org.josso.gateway.stats.SecurityDomainStats;
+import org.josso.gateway.ws._1_2.protocol.AccessSessionRequestType;
+import org.josso.gateway.ws._1_2.protocol.AccessSessionResponseType;
+import org.josso.gateway.ws._1_2.protocol.InvalidateUserSessionsRequestType;
+import org.josso.gateway.ws._1_2.protocol.InvalidateUserSessionsResponseType;
+import org.josso.gateway.ws._1_2.protocol.NoSuchSessionErrorType;
+import org.josso.gateway.ws._1_2.protocol.SSOSessionErrorType;
+import org.josso.gateway.ws._1_2.protocol.SessionRequestType;
+import org.josso.gateway.ws._1_2.protocol.SessionResponseType;
+import org.josso.gateway.ws._1_2.wsdl.SSOServiceStats;
+import org.josso.gateway.ws._1_2.wsdl.SSOServiceStatsInterceptor;
+import org.josso.gateway.ws._1_2.wsdl.SSOSessionManager;
+import org.junit.Test;
+
+import java.rmi.RemoteException;
+
+/**
+ * @version $Id$
+ */
+public class SSOServiceStatsInterceptorTest {
+
+    private static final String ACCESS_SESSION = "SSOSessionManager.accessSession";
+
+    @Test
+    public void testOperationStats() throws Exception {
+        SSOSessionManager sm = SSOServiceStatsInterceptor.intercept(SSOSessionManager.class, new TestSSOSessionManager());
+
+        OperationStats serviceStats = SSOServiceStats.getOperationStats(ACCESS_SESSION);
+        OperationStats domainStats = SecurityDomainStats.getCurrent().getOperationStats(ACCESS_SESSION);
+        long invocations = serviceStats.getInvocations();
+        long errors = serviceStats.getErrors();
+        long domainInvocations = domainStats.getInvocations();
+
+        AccessSessionRequestType request = new AccessSessionRequestType();
+        request.setSsoSessionId("session1");
+        assert sm.accessSession(request).getSsoSessionId().equals("session1") : "Wrong response";
+        assert sm.accessSession(request).getSsoSessionId().equals("session1") : "Wrong response";
+
+        // Binding faults are thrown as declared and counted as errors
+        request.setSsoSessionId("invalid");
+        try {
+            sm.accessSession(request);
+            assert false : "Fault not thrown";
+        } catch (NoSuchSessionErrorType e) {
+            // Expected
+        }
+
+        assert serviceStats.getInvocations() - invocations == 3 : "Expected 3 invocations, found " + (serviceStats.getInvocations() - invocations);
+        assert serviceStats.getErrors() - errors == 1 : "Expected 1 error, found " + (serviceStats.getErrors() - errors);
+
+        // No SSO Context, calls are recorded for the default domain
+        assert domainStats.getInvocations() - domainInvocations == 3 : "Domain invocations not recorded";
+        assert SSOServiceStats.getOperationStats("SSOSessionManager.getSession").getInvocations() == 0 : "Unknown operation recorded";
+    }
+
+    private static class TestSSOSessionManager implements SSOSessionManager {
+
+        public AccessSessionResponseType accessSession(AccessSessionRequestType body) throws RemoteException,
+                NoSuchSessionErrorType, SSOSessionErrorType {
+            if (body.getSsoSessionId().equals("invalid"))
+                throw new NoSuchSessionErrorType(body.getSsoSessionId());
+
+            AccessSessionResponseType response = new AccessSessionResponseType();
+            response.setSsoSessionId(body.getSsoSessionId());
+            return response;
+        }
+
+        public SessionResponseType getSession(SessionRequestType body) throws RemoteException,
+                NoSuchSessionErrorType, SSOSessionErrorType {
+            throw new UnsupportedOperationException();
+        }
+
+        public InvalidateUserSessionsResponseType invalidateUserSessions(InvalidateUserSessionsRequestType body)
+                throws RemoteException, SSOSessionErrorType {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
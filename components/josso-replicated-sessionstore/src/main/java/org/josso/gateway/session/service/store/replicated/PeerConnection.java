@@ -0,0 +1,199 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.replicated;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.josso.gateway.session.exceptions.SSOSessionException;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.store.SessionCodec;
+import org.josso.util.codec.BinaryDecoder;
+import org.josso.util.codec.BinaryEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+
+/**
+ * Receives the changes sent by one peer, and applies them to the local store.
+ *
+ * @version $Id$
+ */
+class PeerConnection implements Runnable {
+
+    private static final Log logger = LogFactory.getLog(PeerConnection.class);
+
+    private final ReplicatedSessionStore store;
+
+    private final Socket socket;
+
+    private final SessionCodec codec = new SessionCodec();
+
+    private String peerId;
+
+    private long peerEpoch;
+
+    PeerConnection(ReplicatedSessionStore store, Socket socket) {
+        this.store = store;
+        this.socket = socket;
+    }
+
+    public void run() {
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            hello(in, socket.getOutputStream());
+
+            // Idle peers send an empty batch every heartbeat interval, one that stays silent longer is gone
+            socket.setSoTimeout(store.getPeerTimeout());
+
+            while (!store.isStopped()) {
+                int type = in.read();
+                if (type < 0)
+                    break;
+
+                switch (type) {
+                    case ReplicationProtocol.STATE:
+                        receiveState(in);
+                        break;
+                    case ReplicationProtocol.BATCH:
+                        receiveBatch(in);
+                        break;
+                    default:
+                        throw new StreamCorruptedException("Unknown message type " + type);
+                }
+            }
+
+        } catch (EOFException e) {
+            if (logger.isDebugEnabled())
+                logger.debug("Connection closed by peer " + getPeer());
+        } catch (Exception e) {
+            if (!store.isStopped())
+                logger.warn("Replication from peer " + getPeer() + " failed : " + e.getMessage(), e);
+        } finally {
+            close();
+            store.connectionClosed(this);
+        }
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    String getPeer() {
+        return peerId != null ? peerId : String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    protected void hello(DataInputStream in, OutputStream out) throws IOException {
+        byte[] challenge = ReplicationProtocol.newNonce();
+
+        BinaryEncoder enc = new BinaryEncoder(out);
+        enc.writeInt(ReplicationProtocol.MAGIC);
+        enc.writeByte(ReplicationProtocol.VERSION);
+        enc.writeBytes(challenge);
+        enc.flush();
+
+        BinaryDecoder dec = new BinaryDecoder(in);
+        int magic = dec.readInt();
+        if (magic != ReplicationProtocol.MAGIC)
+            throw new StreamCorruptedException("Not a replication stream : " + Integer.toHexString(magic));
+
+        int version = dec.readByte();
+        if (version != ReplicationProtocol.VERSION)
+            throw new StreamCorruptedException("Unsupported replication protocol version " + version);
+
+        String nodeId = dec.readString();
+        long epoch = dec.readVarLong();
+        long sequence = dec.readVarLong();
+        byte[] nonce = ReplicationProtocol.readNonce(dec);
+
+        ReplicationProtocol.verify(ReplicationProtocol.proof(store.getSecretBytes(), ReplicationProtocol.CONNECTING_NODE,
+                challenge, nonce, nodeId, epoch, sequence), dec.readBytes(), getPeer());
+
+        peerId = nodeId;
+        peerEpoch = epoch;
+
+        // Changes are only continued if this node saw everything the peer sent up to now, in the peer's
+        // current life.
+        boolean needState = !store.isPeerInSync(peerId, peerEpoch, sequence);
+        enc.writeByte(needState ? 1 : 0);
+        enc.writeBytes(ReplicationProtocol.proof(store.getSecretBytes(), ReplicationProtocol.ACCEPTING_NODE,
+                nonce, challenge, peerId, peerEpoch, needState ? 1 : 0));
+        enc.flush();
+
+        if (logger.isDebugEnabled())
+            logger.debug("Peer " + peerId + " connected, epoch " + peerEpoch + ", sequence " + sequence +
+                    (needState ? ", state transfer requested" : ""));
+
+        // Our own replicator may have given up on this peer while it was down
+        store.wakeReplicators();
+    }
+
+    protected void receiveState(DataInputStream in) throws IOException, SSOSessionException {
+        long sequence = new BinaryDecoder(in).readVarLong();
+        BaseSession[] sessions = codec.readSessions(in);
+
+        store.applyState(sessions);
+        store.peerSequence(peerId, peerEpoch, sequence);
+
+        logger.info("Received " + sessions.length + " sessions from peer " + peerId);
+    }
+
+    protected void receiveBatch(DataInputStream in) throws IOException, SSOSessionException {
+        BinaryDecoder dec = new BinaryDecoder(in);
+        long sequence = dec.readVarLong();
+        long expected = store.getPeerSequence(peerId, peerEpoch) + 1;
+        if (sequence != expected)
+            throw new StreamCorruptedException("Batch " + sequence + " out of sequence, expected " + expected);
+
+        long count = dec.readVarLong();
+        for (long i = 0; i < count; i++) {
+            int op = dec.readByte();
+            switch (op) {
+                case ReplicationProtocol.SAVE:
+                    store.applySave(codec.fromBytes(dec.readBytes()));
+                    break;
+                case ReplicationProtocol.REMOVE:
+                    store.applyRemove(dec.readString());
+                    break;
+                case ReplicationProtocol.CLEAR:
+                    store.applyClear();
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unknown replication operation " + op);
+            }
+        }
+
+        store.peerSequence(peerId, peerEpoch, sequence);
+    }
+
+}
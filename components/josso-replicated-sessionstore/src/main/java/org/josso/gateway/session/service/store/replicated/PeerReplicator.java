@@ -0,0 +1,296 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.replicated;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.store.SessionCodec;
+import org.josso.util.codec.BinaryDecoder;
+import org.josso.util.codec.BinaryEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the local changes of a store to one peer, queued changes are sent in batches.
+ * <p/>
+ * While the peer is not reachable changes are kept up to the configured queue size, when they don't fit or the
+ * peer lost track of them, the whole store is sent again.
+ *
+ * @version $Id$
+ */
+class PeerReplicator implements Runnable {
+
+    private static final Log logger = LogFactory.getLog(PeerReplicator.class);
+
+    private final ReplicatedSessionStore store;
+
+    private final String host;
+
+    private final int port;
+
+    private final LinkedBlockingQueue<ReplicationProtocol.Operation> queue;
+
+    private final SessionCodec codec = new SessionCodec();
+
+    private final Object wakeLock = new Object();
+
+    // Changes were dropped, the peer needs the whole store
+    private volatile boolean overflow;
+
+    private volatile boolean stopped;
+
+    private volatile boolean connected;
+
+    private boolean firstAttempt = true;
+
+    // Last sequence sent to the peer
+    private long sequence;
+
+    private Socket socket;
+
+    private Thread thread;
+
+    PeerReplicator(ReplicatedSessionStore store, String host, int port) {
+        this.store = store;
+        this.host = host;
+        this.port = port;
+        this.queue = new LinkedBlockingQueue<ReplicationProtocol.Operation>(store.getMaxQueueSize());
+    }
+
+    void start() {
+        thread = new Thread(this, "JOSSOSessionReplicator[" + getPeer() + "]");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+        close();
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    void enqueue(ReplicationProtocol.Operation op) {
+        if (!queue.offer(op)) {
+            if (!overflow)
+                logger.warn("Replication queue full for peer " + getPeer() + ", whole store will be sent");
+            overflow = true;
+            queue.clear();
+        }
+    }
+
+    /**
+     * Retries a connection to the peer now, if it is not connected.
+     */
+    void wake() {
+        synchronized (wakeLock) {
+            wakeLock.notifyAll();
+        }
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    String getPeer() {
+        return host + ":" + port;
+    }
+
+    public void run() {
+        while (!stopped) {
+            try {
+                DataOutputStream out = connect();
+                connected = true;
+                logger.info("Replicating sessions to peer " + getPeer());
+
+                while (!stopped) {
+                    if (overflow) {
+                        sendState(out);
+                        continue;
+                    }
+
+                    List<ReplicationProtocol.Operation> batch = new ArrayList<ReplicationProtocol.Operation>();
+                    ReplicationProtocol.Operation op = queue.poll(ReplicationProtocol.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (op != null) {
+                        batch.add(op);
+                        queue.drainTo(batch, store.getBatchSize() - 1);
+                    }
+
+                    // Empty batches while idle, so that a peer that went away is noticed
+                    sendBatch(out, batch);
+                }
+
+            } catch (InterruptedException e) {
+                // Stopped
+            } catch (Exception e) {
+                if (!stopped) {
+                    if (connected || firstAttempt)
+                        logger.warn("Can't replicate sessions to peer " + getPeer() + " : " + e.getMessage());
+                    else if (logger.isDebugEnabled())
+                        logger.debug("Can't replicate sessions to peer " + getPeer() + " : " + e.getMessage());
+                }
+            } finally {
+                close();
+                connected = false;
+            }
+
+            if (firstAttempt) {
+                firstAttempt = false;
+                store.peerUnreachable(this);
+            }
+
+            // Wait before reconnecting, unless woken up
+            synchronized (wakeLock) {
+                try {
+                    if (!stopped)
+                        wakeLock.wait(store.getReconnectInterval());
+                } catch (InterruptedException e) {
+                    // Stopped
+                }
+            }
+        }
+    }
+
+    /**
+     * Connects and says hello, the whole store is sent if the peer asks for it.
+     */
+    protected DataOutputStream connect() throws IOException {
+        Socket s = new Socket();
+        synchronized (this) {
+            socket = s;
+        }
+        if (stopped)
+            throw new EOFException("Stopped");
+
+        s.connect(new InetSocketAddress(host, port), store.getConnectTimeout());
+        s.setTcpNoDelay(true);
+        s.setKeepAlive(true);
+        s.setSoTimeout(store.getConnectTimeout());
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        InputStream in = new BufferedInputStream(s.getInputStream());
+
+        BinaryDecoder dec = new BinaryDecoder(in);
+        int magic = dec.readInt();
+        if (magic != ReplicationProtocol.MAGIC)
+            throw new StreamCorruptedException("Not a replication peer : " + Integer.toHexString(magic));
+
+        int version = dec.readByte();
+        if (version != ReplicationProtocol.VERSION)
+            throw new StreamCorruptedException("Unsupported replication protocol version " + version);
+
+        byte[] challenge = ReplicationProtocol.readNonce(dec);
+        byte[] nonce = ReplicationProtocol.newNonce();
+
+        BinaryEncoder enc = new BinaryEncoder(out);
+        enc.writeInt(ReplicationProtocol.MAGIC);
+        enc.writeByte(ReplicationProtocol.VERSION);
+        enc.writeString(store.getNodeId());
+        enc.writeVarLong(store.getEpoch());
+        enc.writeVarLong(sequence);
+        enc.writeBytes(nonce);
+        enc.writeBytes(ReplicationProtocol.proof(store.getSecretBytes(), ReplicationProtocol.CONNECTING_NODE,
+                challenge, nonce, store.getNodeId(), store.getEpoch(), sequence));
+        enc.flush();
+
+        int needState = dec.readByte();
+        ReplicationProtocol.verify(ReplicationProtocol.proof(store.getSecretBytes(), ReplicationProtocol.ACCEPTING_NODE,
+                nonce, challenge, store.getNodeId(), store.getEpoch(), needState), dec.readBytes(), getPeer());
+
+        if (needState == 1 || overflow)
+            sendState(out);
+
+        return out;
+    }
+
+    protected void sendState(DataOutputStream out) throws IOException {
+        // Queued changes are part of the snapshot, later changes are queued after it
+        BaseSession[] sessions;
+        synchronized (store.getReplicationLock()) {
+            overflow = false;
+            queue.clear();
+            sessions = store.localSessions();
+        }
+
+        sequence++;
+        out.write(ReplicationProtocol.STATE);
+        BinaryEncoder enc = new BinaryEncoder(out);
+        enc.writeVarLong(sequence);
+        codec.writeSessions(sessions, out);
+        out.flush();
+
+        if (logger.isDebugEnabled())
+            logger.debug("Sent whole store to peer " + getPeer() + ", sequence " + sequence);
+    }
+
+    protected void sendBatch(DataOutputStream out, List<ReplicationProtocol.Operation> batch) throws IOException {
+        sequence++;
+        out.write(ReplicationProtocol.BATCH);
+        BinaryEncoder enc = new BinaryEncoder(out);
+        enc.writeVarLong(sequence);
+        enc.writeVarLong(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            ReplicationProtocol.Operation op = batch.get(i);
+            enc.writeByte(op.type);
+            switch (op.type) {
+                case ReplicationProtocol.SAVE:
+                    enc.writeBytes(op.session);
+                    break;
+                case ReplicationProtocol.REMOVE:
+                    enc.writeString(op.id);
+                    break;
+                default:
+                    break;
+            }
+        }
+        out.flush();
+    }
+
+    private synchronized void close() {
+        if (socket == null)
+            return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        socket = null;
+    }
+
+}
@@ -0,0 +1,729 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.replicated;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.josso.gateway.session.exceptions.SSOSessionException;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.store.MemorySessionStore;
+import org.josso.gateway.session.service.store.SessionCodec;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory based session store replicated to other gateways.
+ * <p/>
+ * Reads are served from local memory, local changes are sent asynchronously and in batches to every
+ * configured peer over TCP. Each peer receives batches with consecutive sequence numbers, when it misses
+ * changes (i.e. it was restarted or the queue for it overflowed) the whole store is sent again. When the
+ * store starts, it waits for the state of one of its peers, if any is reachable.
+ * <p/>
+ * All gateways in the cluster must list each other as peers and share the same secret, i.e.
+ * <pre>
+ * &lt;replicated-store bindAddress="gw1.mydomain.com" port="9123" secret="..."
+ *                   peers="gw2.mydomain.com:9123,gw3.mydomain.com:9123"/&gt;
+ * </pre>
+ * Connections from hosts that are not configured peers are closed, and peers must prove they know the secret
+ * before anything they send is read. The store listens on loopback unless a bind address is set.
+ * Replication is eventually consistent, a removal that does not reach a peer is only applied
+ * there when the session expires.
+ *
+ * @version $Id$
+ *
+ * @org.apache.xbean.XBean element="replicated-store"
+ */
+public class ReplicatedSessionStore extends MemorySessionStore {
+
+    private static final Log logger = LogFactory.getLog(ReplicatedSessionStore.class);
+
+    private final SessionCodec _codec = new SessionCodec();
+
+    private String _bindAddress = "127.0.0.1";
+
+    private int _port = 9123;
+
+    private String _peers;
+
+    private String _nodeId;
+
+    private String _secret;
+
+    private byte[] _secretBytes;
+
+    private int _maxConnections = 16;
+
+    private int _batchSize = 256;
+
+    private int _maxQueueSize = 100000;
+
+    private long _reconnectInterval = 5000;
+
+    private int _connectTimeout = 5000;
+
+    private int _peerTimeout = ReplicationProtocol.PEER_TIMEOUT;
+
+    private long _stateTransferTimeout = 10000;
+
+    private long _epoch;
+
+    private volatile boolean _started;
+
+    private volatile boolean _stopped;
+
+    private ServerSocket _serverSocket;
+
+    private Thread _acceptor;
+
+    private ThreadPoolExecutor _receivers;
+
+    private PeerReplicator[] _replicators = new PeerReplicator[0];
+
+    private final Set<PeerConnection> _connections = new HashSet<PeerConnection>();
+
+    // Peer node id -> {epoch, last received sequence}
+    private final Map<String, long[]> _peerSequences = new HashMap<String, long[]>();
+
+    // Guards the initial state transfer
+    private final Object _stateLock = new Object();
+
+    private boolean _stateReceived;
+
+    private int _unreachablePeers;
+
+    // Local changes are applied and queued for peers in the same order
+    private final Object _replicationLock = new Object();
+
+    public ReplicatedSessionStore() {
+        super();
+    }
+
+    // ---------------------------------------------------------------------------------------- Local operations
+
+    public int getSize() throws SSOSessionException {
+        checkStarted();
+        return super.getSize();
+    }
+
+    public String[] keys() throws SSOSessionException {
+        checkStarted();
+        return super.keys();
+    }
+
+    public BaseSession[] loadAll() throws SSOSessionException {
+        checkStarted();
+        return super.loadAll();
+    }
+
+    public BaseSession load(String id) throws SSOSessionException {
+        checkStarted();
+        return super.load(id);
+    }
+
+    public BaseSession[] loadByUsername(String name) throws SSOSessionException {
+        checkStarted();
+        return super.loadByUsername(name);
+    }
+
+    public int countByUsername(String name) throws SSOSessionException {
+        checkStarted();
+        return super.countByUsername(name);
+    }
+
+    /**
+     * Replicated sessions are not received in creation order, so user sessions are sorted here.
+     */
+    public BaseSession[] loadOldestByUsername(String name, int count) throws SSOSessionException {
+        checkStarted();
+        BaseSession[] sessions = super.loadByUsername(name);
+        if (count <= 0)
+            return new BaseSession[0];
+
+        Arrays.sort(sessions, CREATION_TIME_ORDER);
+        if (sessions.length <= count)
+            return sessions;
+
+        BaseSession[] oldest = new BaseSession[count];
+        System.arraycopy(sessions, 0, oldest, 0, count);
+        return oldest;
+    }
+
+    public BaseSession[] loadByLastAccessTime(Date time) throws SSOSessionException {
+        checkStarted();
+        return super.loadByLastAccessTime(time);
+    }
+
+    public BaseSession[] loadByValid(boolean valid) throws SSOSessionException {
+        checkStarted();
+        return super.loadByValid(valid);
+    }
+
+    public void save(BaseSession session) throws SSOSessionException {
+        checkStarted();
+        synchronized (_replicationLock) {
+            super.save(session);
+
+            try {
+                replicate(new ReplicationProtocol.Operation(ReplicationProtocol.SAVE, session.getId(),
+                        _codec.toBytes(session)));
+            } catch (IOException e) {
+                throw new SSOSessionException("Can't replicate session " + session.getId() + " : " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public void remove(String id) throws SSOSessionException {
+        checkStarted();
+        synchronized (_replicationLock) {
+            super.remove(id);
+            replicate(new ReplicationProtocol.Operation(ReplicationProtocol.REMOVE, id, null));
+        }
+    }
+
+    public void remove(String[] ids) throws SSOSessionException {
+        checkStarted();
+        synchronized (_replicationLock) {
+            super.remove(ids);
+            for (int i = 0; i < ids.length; i++) {
+                replicate(new ReplicationProtocol.Operation(ReplicationProtocol.REMOVE, ids[i], null));
+            }
+        }
+    }
+
+    public BaseSession[] removeByUsername(String name) throws SSOSessionException {
+        checkStarted();
+        synchronized (_replicationLock) {
+            BaseSession[] removed = super.removeByUsername(name);
+            // Peers remove exactly the sessions removed here
+            for (int i = 0; i < removed.length; i++) {
+                replicate(new ReplicationProtocol.Operation(ReplicationProtocol.REMOVE, removed[i].getId(), null));
+            }
+            return removed;
+        }
+    }
+
+    public void clear() throws SSOSessionException {
+        checkStarted();
+        synchronized (_replicationLock) {
+            super.clear();
+            replicate(new ReplicationProtocol.Operation(ReplicationProtocol.CLEAR, null, null));
+        }
+    }
+
+    /**
+     * Queues a local change for all peers, must be called holding the replication lock.
+     */
+    protected void replicate(ReplicationProtocol.Operation op) {
+        PeerReplicator[] replicators = _replicators;
+        for (int i = 0; i < replicators.length; i++) {
+            replicators[i].enqueue(op);
+        }
+    }
+
+    /**
+     * Held while local changes are applied and queued, and while a snapshot for a peer is taken.
+     */
+    Object getReplicationLock() {
+        return _replicationLock;
+    }
+
+    // ---------------------------------------------------------------------------------------- Remote operations
+
+    void applySave(BaseSession session) throws SSOSessionException {
+        super.save(session);
+    }
+
+    void applyRemove(String id) throws SSOSessionException {
+        super.remove(id);
+    }
+
+    void applyClear() throws SSOSessionException {
+        super.clear();
+    }
+
+    /**
+     * Applies the whole store of a peer. Sessions are upserted, local sessions not known by the peer are kept.
+     */
+    void applyState(BaseSession[] sessions) throws SSOSessionException {
+        for (int i = 0; i < sessions.length; i++) {
+            super.save(sessions[i]);
+        }
+
+        synchronized (_stateLock) {
+            _stateReceived = true;
+            _stateLock.notifyAll();
+        }
+    }
+
+    /**
+     * Snapshot of the local store, sent to peers that need a state transfer.
+     */
+    BaseSession[] localSessions() {
+        try {
+            return super.loadAll();
+        } catch (SSOSessionException e) {
+            // Memory store does not fail
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------- Peer state
+
+    boolean isPeerInSync(String peerId, long epoch, long sequence) {
+        synchronized (_peerSequences) {
+            long[] s = _peerSequences.get(peerId);
+            return s != null && s[0] == epoch && s[1] == sequence;
+        }
+    }
+
+    long getPeerSequence(String peerId, long epoch) {
+        synchronized (_peerSequences) {
+            long[] s = _peerSequences.get(peerId);
+            return s != null && s[0] == epoch ? s[1] : -1;
+        }
+    }
+
+    void peerSequence(String peerId, long epoch, long sequence) {
+        synchronized (_peerSequences) {
+            _peerSequences.put(peerId, new long[]{epoch, sequence});
+        }
+    }
+
+    void peerUnreachable(PeerReplicator replicator) {
+        synchronized (_stateLock) {
+            _unreachablePeers++;
+            _stateLock.notifyAll();
+        }
+    }
+
+    void wakeReplicators() {
+        PeerReplicator[] replicators = _replicators;
+        for (int i = 0; i < replicators.length; i++) {
+            if (!replicators[i].isConnected())
+                replicators[i].wake();
+        }
+    }
+
+    void connectionClosed(PeerConnection connection) {
+        synchronized (_connections) {
+            _connections.remove(connection);
+        }
+    }
+
+    boolean isStopped() {
+        return _stopped;
+    }
+
+    // ---------------------------------------------------------------------------------------- Lifecycle
+
+    private void checkStarted() throws SSOSessionException {
+        // Avoid getting the lock if the store was already started
+        if (_started)
+            return;
+
+        start();
+    }
+
+    /**
+     * Starts listening for peers and replicating to them, waits for the state of a peer if any is reachable.
+     */
+    public synchronized void start() throws SSOSessionException {
+        if (_started)
+            return;
+
+        if (_secret == null || _secret.length() == 0)
+            throw new SSOSessionException("A replication secret, shared by all peers, must be configured");
+
+        List<PeerReplicator> replicators = new ArrayList<PeerReplicator>();
+        if (_peers != null) {
+            StringTokenizer st = new StringTokenizer(_peers, ", ", false);
+            while (st.hasMoreTokens()) {
+                String peer = st.nextToken();
+                int split = peer.lastIndexOf(':');
+                if (split < 0)
+                    throw new SSOSessionException("Invalid replication peer, host:port expected : " + peer);
+
+                try {
+                    replicators.add(new PeerReplicator(this, peer.substring(0, split),
+                            Integer.parseInt(peer.substring(split + 1))));
+                } catch (NumberFormatException e) {
+                    throw new SSOSessionException("Invalid replication peer port : " + peer);
+                }
+            }
+        }
+
+        _stopped = false;
+        _epoch = System.currentTimeMillis();
+        synchronized (_stateLock) {
+            _stateReceived = false;
+            _unreachablePeers = 0;
+        }
+
+        try {
+            _serverSocket = new ServerSocket();
+            _serverSocket.setReuseAddress(true);
+            InetAddress address = _bindAddress != null ? InetAddress.getByName(_bindAddress) : null;
+            _serverSocket.bind(new InetSocketAddress(address, _port));
+        } catch (IOException e) {
+            throw new SSOSessionException("Can't listen for replication peers on port " + _port + " : " + e.getMessage(), e);
+        }
+
+        if (_nodeId == null)
+            _nodeId = getLocalHostName() + ":" + _serverSocket.getLocalPort();
+
+        logger.info("Replicated session store " + _nodeId + " listening on port " + _serverSocket.getLocalPort());
+
+        _receivers = new ThreadPoolExecutor(0, _maxConnections, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "JOSSOSessionReplicationReceiver-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+        // Peers must be known before accepting connections
+        _replicators = replicators.toArray(new PeerReplicator[replicators.size()]);
+
+        final ServerSocket serverSocket = _serverSocket;
+        _acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept(serverSocket);
+            }
+        }, "JOSSOSessionReplicationAcceptor[" + serverSocket.getLocalPort() + "]");
+        _acceptor.setDaemon(true);
+        _acceptor.start();
+
+        for (int i = 0; i < _replicators.length; i++) {
+            _replicators[i].start();
+        }
+
+        waitForState();
+
+        _started = true;
+    }
+
+    /**
+     * Stops replication, sessions are kept in memory.
+     */
+    public synchronized void stop() {
+        if (!_started)
+            return;
+
+        _stopped = true;
+        _started = false;
+
+        for (int i = 0; i < _replicators.length; i++) {
+            _replicators[i].stop();
+        }
+        _replicators = new PeerReplicator[0];
+
+        try {
+            _serverSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        _receivers.shutdownNow();
+
+        PeerConnection[] connections;
+        synchronized (_connections) {
+            connections = _connections.toArray(new PeerConnection[_connections.size()]);
+        }
+        for (int i = 0; i < connections.length; i++) {
+            connections[i].close();
+        }
+
+        logger.info("Replicated session store " + _nodeId + " stopped");
+    }
+
+    protected void waitForState() {
+        if (_replicators.length == 0)
+            return;
+
+        long deadline = System.currentTimeMillis() + _stateTransferTimeout;
+        synchronized (_stateLock) {
+            while (!_stateReceived && _unreachablePeers < _replicators.length) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    logger.warn("No session state received from peers after " + _stateTransferTimeout + " ms");
+                    return;
+                }
+
+                try {
+                    _stateLock.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    protected void accept(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            Socket socket = null;
+            try {
+                socket = serverSocket.accept();
+                if (!isPeer(socket.getInetAddress())) {
+                    logger.warn("Rejected replication connection from " + socket.getInetAddress() +
+                            ", not a configured peer");
+                    close(socket);
+                    continue;
+                }
+
+                socket.setSoTimeout(_connectTimeout);
+
+                PeerConnection connection = new PeerConnection(this, socket);
+                synchronized (_connections) {
+                    _connections.add(connection);
+                }
+
+                try {
+                    _receivers.execute(connection);
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Rejected replication connection from " + socket.getInetAddress() +
+                            ", " + _maxConnections + " connections already open");
+                    connectionClosed(connection);
+                    close(socket);
+                }
+
+            } catch (IOException e) {
+                close(socket);
+                if (!serverSocket.isClosed())
+                    logger.error("Can't accept replication peer : " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * True if the address belongs to one of the configured peers, host names are resolved every time.
+     */
+    protected boolean isPeer(InetAddress address) {
+        PeerReplicator[] replicators = _replicators;
+        for (int i = 0; i < replicators.length; i++) {
+            try {
+                InetAddress[] addresses = InetAddress.getAllByName(replicators[i].getHost());
+                for (int j = 0; j < addresses.length; j++) {
+                    if (addresses[j].equals(address))
+                        return true;
+                }
+            } catch (UnknownHostException e) {
+                if (logger.isDebugEnabled())
+                    logger.debug("Can't resolve replication peer " + replicators[i].getPeer());
+            }
+        }
+        return false;
+    }
+
+    private void close(Socket socket) {
+        if (socket == null)
+            return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private String getLocalHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "localhost";
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------- Properties
+
+    public String getBindAddress() {
+        return _bindAddress;
+    }
+
+    /**
+     * Address to listen on for peers, loopback by default. Use an address of an internal network, peers
+     * are only authenticated, the replicated sessions are not encrypted.
+     */
+    public void setBindAddress(String bindAddress) {
+        _bindAddress = bindAddress;
+    }
+
+    public int getPort() {
+        return _port;
+    }
+
+    public void setPort(int port) {
+        _port = port;
+    }
+
+    /**
+     * Actual listening port, once started.
+     */
+    public int getLocalPort() {
+        return _serverSocket != null ? _serverSocket.getLocalPort() : -1;
+    }
+
+    public String getPeers() {
+        return _peers;
+    }
+
+    /**
+     * Comma separated list of host:port of the other gateways.
+     */
+    public void setPeers(String peers) {
+        _peers = peers;
+    }
+
+    public String getNodeId() {
+        return _nodeId;
+    }
+
+    /**
+     * Unique node name in the cluster, host:port by default.
+     */
+    public void setNodeId(String nodeId) {
+        _nodeId = nodeId;
+    }
+
+    public String getSecret() {
+        return _secret;
+    }
+
+    /**
+     * Shared secret used to authenticate peers, all the nodes in the cluster must use the same one. Required.
+     */
+    public void setSecret(String secret) {
+        _secret = secret;
+        try {
+            _secretBytes = secret != null ? secret.getBytes("UTF-8") : null;
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    byte[] getSecretBytes() {
+        return _secretBytes;
+    }
+
+    public int getMaxConnections() {
+        return _maxConnections;
+    }
+
+    /**
+     * Maximum number of peer connections received at the same time.
+     */
+    public void setMaxConnections(int maxConnections) {
+        _maxConnections = maxConnections;
+    }
+
+    public int getBatchSize() {
+        return _batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        _batchSize = batchSize;
+    }
+
+    public int getMaxQueueSize() {
+        return _maxQueueSize;
+    }
+
+    /**
+     * Changes kept for each unreachable peer, the whole store is sent when they don't fit.
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        _maxQueueSize = maxQueueSize;
+    }
+
+    public long getReconnectInterval() {
+        return _reconnectInterval;
+    }
+
+    public void setReconnectInterval(long reconnectInterval) {
+        _reconnectInterval = reconnectInterval;
+    }
+
+    public int getConnectTimeout() {
+        return _connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        _connectTimeout = connectTimeout;
+    }
+
+    public int getPeerTimeout() {
+        return _peerTimeout;
+    }
+
+    /**
+     * Time in milliseconds a peer connection may stay silent before it is closed. Idle peers send a
+     * heartbeat every second, so this must span a few of them.
+     */
+    public void setPeerTimeout(int peerTimeout) {
+        _peerTimeout = peerTimeout;
+    }
+
+    /**
+     * @return the number of peer connections currently received.
+     */
+    public int getConnectionCount() {
+        synchronized (_connections) {
+            return _connections.size();
+        }
+    }
+
+    public long getStateTransferTimeout() {
+        return _stateTransferTimeout;
+    }
+
+    public void setStateTransferTimeout(long stateTransferTimeout) {
+        _stateTransferTimeout = stateTransferTimeout;
+    }
+
+    long getEpoch() {
+        return _epoch;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.replicated;
+
+import org.josso.util.codec.BinaryDecoder;
+import org.josso.util.codec.BinaryEncoder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Session replication wire protocol, version 2.
+ * <p/>
+ * A node opens one connection to each of its peers and only writes its own changes to it :
+ * <pre>
+ * CHALLENGE  sent by the accepting node : magic int, version byte, nonce bytes
+ * HELLO      magic int, version byte, nodeId string, epoch varint, last sent sequence varint, nonce bytes,
+ *            proof bytes
+ *            answered by the accepting node with one byte, 1 if it needs a state transfer, and its proof bytes
+ * STATE      type byte, sequence varint, all sessions as a SessionCodec stream
+ * BATCH      type byte, sequence varint, operation count varint, operations
+ *
+ * SAVE       op byte, session as SessionCodec bytes
+ * REMOVE     op byte, session id string
+ * CLEAR      op byte
+ * </pre>
+ * Both nodes prove they know the shared secret with an HMAC-SHA256 of both nonces and the HELLO values, see
+ * {@link #proof}, nothing else is read from a peer that fails to do so.
+ * <p/>
+ * Batch sequences follow the STATE sequence without gaps, a peer that misses a batch closes the connection
+ * and asks for a state transfer when the node reconnects. Idle connections carry an empty BATCH every
+ * {@link #HEARTBEAT_INTERVAL} milliseconds, the receiving node closes a connection that stays silent for
+ * the store peer timeout, a few heartbeat intervals.
+ *
+ * @version $Id$
+ */
+final class ReplicationProtocol {
+
+    /**
+     * 'JRPL'
+     */
+    static final int MAGIC = 0x4A52504C;
+
+    static final int VERSION = 2;
+
+    static final int STATE = 2;
+
+    static final int BATCH = 3;
+
+    static final int SAVE = 1;
+
+    static final int REMOVE = 2;
+
+    static final int CLEAR = 3;
+
+    static final long HEARTBEAT_INTERVAL = 1000;
+
+    static final int PEER_TIMEOUT = (int) (5 * HEARTBEAT_INTERVAL);
+
+    static final int NONCE_LENGTH = 16;
+
+    static final int CONNECTING_NODE = 1;
+
+    static final int ACCEPTING_NODE = 2;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private ReplicationProtocol() {
+    }
+
+    static byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * HMAC of the handshake values, the role keeps a node from sending back the proof it received.
+     */
+    static byte[] proof(byte[] secret, int role, byte[] challenge, byte[] nonce,
+                        String nodeId, long epoch, long value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        BinaryEncoder enc = new BinaryEncoder(bytes);
+        enc.writeByte(role);
+        enc.writeBytes(challenge);
+        enc.writeBytes(nonce);
+        enc.writeString(nodeId);
+        enc.writeVarLong(epoch);
+        enc.writeVarLong(value);
+        enc.flush();
+
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+            return mac.doFinal(bytes.toByteArray());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Can't compute " + MAC_ALGORITHM + " : " + e.getMessage());
+        }
+    }
+
+    static void verify(byte[] expected, byte[] proof, String peer) throws IOException {
+        if (proof == null || !MessageDigest.isEqual(expected, proof))
+            throw new IOException("Peer " + peer + " failed to authenticate, check the replication secret");
+    }
+
+    static byte[] readNonce(BinaryDecoder dec) throws IOException {
+        byte[] nonce = dec.readBytes();
+        if (nonce == null || nonce.length != NONCE_LENGTH)
+            throw new StreamCorruptedException("Invalid replication nonce");
+        return nonce;
+    }
+
+    /**
+     * A local change, sent as is to all peers.
+     */
+    static final class Operation {
+
+        final int type;
+
+        final String id;
+
+        final byte[] session;
+
+        Operation(int type, String id, byte[] session) {
+            this.type = type;
+            this.id = id;
+            this.session = session;
+        }
+    }
+}
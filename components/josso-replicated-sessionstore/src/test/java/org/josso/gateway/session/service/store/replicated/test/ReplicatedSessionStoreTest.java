@@ -0,0 +1,329 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.replicated.test;
+
+import org.josso.gateway.session.exceptions.SSOSessionException;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.BaseSessionImpl;
+import org.josso.gateway.session.service.store.replicated.ReplicatedSessionStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs several replicated stores in this JVM, on loopback ports.
+ *
+ * @version $Id$
+ */
+public class ReplicatedSessionStoreTest {
+
+    private static final int NODES = 3;
+
+    private static final long TIMEOUT = 10000;
+
+    private static final String SECRET = "replication-secret";
+
+    private int[] ports;
+
+    private ReplicatedSessionStore[] stores;
+
+    @Before
+    public void setUp() throws Exception {
+        ports = new int[NODES];
+        for (int i = 0; i < NODES; i++) {
+            ServerSocket s = new ServerSocket(0);
+            ports[i] = s.getLocalPort();
+            s.close();
+        }
+        stores = new ReplicatedSessionStore[NODES];
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (int i = 0; i < NODES; i++) {
+            if (stores[i] != null)
+                stores[i].stop();
+        }
+    }
+
+    @Test
+    public void testReplication() throws Exception {
+        for (int i = 0; i < NODES; i++) {
+            stores[i] = startStore(i);
+        }
+
+        stores[0].save(newSession("session-1", "user1", 1));
+        stores[1].save(newSession("session-2", "user1", 2));
+        stores[2].save(newSession("session-3", "user2", 3));
+
+        for (int i = 0; i < NODES; i++) {
+            waitForSize(stores[i], 3);
+            assert stores[i].countByUsername("user1") == 2 : "Invalid user sessions in node " + i;
+            assert stores[i].loadOldestByUsername("user1", 1)[0].getId().equals("session-1") : "Invalid order";
+        }
+
+        // Updates
+        BaseSessionImpl session = newSession("session-3", "user2", 3);
+        session.setValid(false);
+        stores[2].save(session);
+        for (int i = 0; i < NODES; i++) {
+            waitForInvalid(stores[i], "session-3");
+        }
+
+        stores[0].remove("session-3");
+        stores[1].removeByUsername("user1");
+        for (int i = 0; i < NODES; i++) {
+            waitForSize(stores[i], 0);
+        }
+    }
+
+    @Test
+    public void testStateTransferOnJoin() throws Exception {
+        stores[0] = startStore(0);
+        stores[1] = startStore(1);
+
+        for (int i = 0; i < 100; i++) {
+            stores[i % 2].save(newSession("session-" + i, "user" + (i % 10), i));
+        }
+        waitForSize(stores[0], 100);
+        waitForSize(stores[1], 100);
+
+        // Sessions are already there when the new node is started
+        stores[2] = startStore(2);
+        assert stores[2].getSize() == 100 : "State not transferred, size " + stores[2].getSize();
+        assert stores[2].countByUsername("user3") == 10 : "Invalid user sessions " + stores[2].countByUsername("user3");
+
+        // And it keeps receiving changes
+        stores[0].save(newSession("session-100", "user0", 100));
+        waitForSize(stores[2], 101);
+
+        stores[2].save(newSession("session-101", "user0", 101));
+        waitForSize(stores[0], 102);
+        waitForSize(stores[1], 102);
+    }
+
+    @Test
+    public void testPeerRestart() throws Exception {
+        for (int i = 0; i < NODES; i++) {
+            stores[i] = startStore(i);
+        }
+
+        stores[0].save(newSession("session-1", "user1", 1));
+        waitForSize(stores[2], 1);
+
+        stores[2].stop();
+        stores[2] = null;
+
+        // Changes made while the node is down
+        stores[0].save(newSession("session-2", "user1", 2));
+        stores[1].save(newSession("session-3", "user2", 3));
+        waitForSize(stores[1], 3);
+
+        stores[2] = startStore(2);
+        waitForSize(stores[2], 3);
+
+        stores[2].remove("session-1");
+        waitForSize(stores[0], 2);
+        waitForSize(stores[1], 2);
+    }
+
+    @Test
+    public void testInvalidSecret() throws Exception {
+        stores[0] = startStore(0);
+        stores[1] = startStore(1, "other-secret");
+
+        stores[0].save(newSession("session-1", "user1", 1));
+        stores[1].save(newSession("session-2", "user1", 2));
+        Thread.sleep(1000);
+
+        assert stores[0].getSize() == 1 : "Changes accepted from a peer with another secret";
+        assert stores[1].getSize() == 1 : "Changes accepted from a peer with another secret";
+    }
+
+    @Test
+    public void testSecretRequired() throws Exception {
+        ReplicatedSessionStore store = new ReplicatedSessionStore();
+        store.setPort(ports[0]);
+        try {
+            store.start();
+            assert false : "Store started without a replication secret";
+        } catch (SSOSessionException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSilentPeer() throws Exception {
+        // node0 replicates to node1 through a link that can be cut without closing the sockets
+        ServerSocket link = new ServerSocket(0);
+        final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+        final boolean[] cut = new boolean[1];
+        startLink(link, ports[1], sockets, cut);
+
+        try {
+            stores[0] = startStore(0, SECRET, "127.0.0.1:" + link.getLocalPort());
+            stores[1] = startStore(1, SECRET, "127.0.0.1:" + ports[0]);
+            stores[1].setPeerTimeout(1500);
+
+            stores[0].save(newSession("session-1", "user1", 1));
+            waitForSize(stores[1], 1);
+            assert stores[1].getConnectionCount() == 1 : "Invalid connections " + stores[1].getConnectionCount();
+
+            // Heartbeats stop, as they would through a half-open connection
+            synchronized (cut) {
+                cut[0] = true;
+            }
+
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (stores[1].getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assert stores[1].getConnectionCount() == 0 : "Silent peer connection kept open";
+
+        } finally {
+            link.close();
+            synchronized (sockets) {
+                for (Socket socket : sockets)
+                    socket.close();
+            }
+        }
+    }
+
+    /**
+     * Forwards connections to the given port until cut, then stops forwarding but keeps the sockets open.
+     */
+    private void startLink(final ServerSocket link, final int port, final List<Socket> sockets, final boolean[] cut) {
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        Socket in = link.accept();
+                        sockets.add(in);
+                        try {
+                            Socket out = new Socket("127.0.0.1", port);
+                            sockets.add(out);
+                            forward(in, out, cut);
+                            forward(out, in, cut);
+                        } catch (IOException e) {
+                            // Not started yet
+                            in.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    // Link closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void forward(final Socket from, final Socket to, final boolean[] cut) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    InputStream in = from.getInputStream();
+                    OutputStream out = to.getOutputStream();
+                    byte[] buf = new byte[4096];
+                    int read;
+                    while ((read = in.read(buf)) >= 0) {
+                        synchronized (cut) {
+                            if (cut[0])
+                                return;
+                        }
+                        out.write(buf, 0, read);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private ReplicatedSessionStore startStore(int node) throws Exception {
+        return startStore(node, SECRET);
+    }
+
+    private ReplicatedSessionStore startStore(int node, String secret) throws Exception {
+        StringBuilder peers = new StringBuilder();
+        for (int i = 0; i < NODES; i++) {
+            if (i == node)
+                continue;
+            if (peers.length() > 0)
+                peers.append(',');
+            peers.append("127.0.0.1:").append(ports[i]);
+        }
+        return startStore(node, secret, peers.toString());
+    }
+
+    private ReplicatedSessionStore startStore(int node, String secret, String peers) throws Exception {
+        ReplicatedSessionStore store = new ReplicatedSessionStore();
+        store.setSecret(secret);
+        store.setPort(ports[node]);
+        store.setPeers(peers);
+        store.setNodeId("node" + node);
+        store.setReconnectInterval(200);
+        store.setConnectTimeout(1000);
+        store.setStateTransferTimeout(TIMEOUT);
+        store.start();
+        return store;
+    }
+
+    private void waitForSize(ReplicatedSessionStore store, int size) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (store.getSize() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assert store.getSize() == size : "Invalid size in " + store.getNodeId() + " : " + store.getSize() + ", expected " + size;
+    }
+
+    private void waitForInvalid(ReplicatedSessionStore store, String id) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (store.load(id).isValid() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assert !store.load(id).isValid() : "Session update not replicated to " + store.getNodeId();
+    }
+
+    private BaseSessionImpl newSession(String id, String username, int age) {
+        long now = System.currentTimeMillis();
+        BaseSessionImpl session = new BaseSessionImpl();
+        session.setId(id);
+        session.setUsername(username);
+        session.setCreationTime(now - 60000 + age);
+        session.setMaxInactiveInterval(1800);
+        session.setValid(true);
+        return session;
+    }
+}
@@ -0,0 +1,89 @@
+package org.josso.atlassian.seraph;
+
+import com.atlassian.crowd.embedded.api.Directory;
+import com.atlassian.crowd.embedded.impl.ImmutableUser;
+import org.josso.gateway.SSONameValuePair;
+import org.josso.gateway.identity.SSOUser;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.Serializable;
+import java.security.Principal;
+
+/**
+ * Adapts SSO users to Crowd users, keeping the adapted user in the HTTP session for the current SSO session so that
+ * authenticators do not adapt it again on every request.
+ *
+ * @version $Id$
+ */
+public class CrowdUserAdapter {
+
+    public static final String SSO_SESSION_ID_ATTRIBUTE = "org.josso.agent.ssoSessionid";
+
+    public static final String CROWD_USER_ATTRIBUTE = "org.josso.atlassian.seraph.crowdUser";
+
+    /**
+     * @return the user adapted for the current SSO session, null if the user was not adapted yet.
+     */
+    public static Principal getCachedUser(HttpServletRequest request, SSOUser ssoUser) {
+        String ssoSessionId = (String) request.getAttribute(SSO_SESSION_ID_ATTRIBUTE);
+        HttpSession session = request.getSession(false);
+        if (ssoSessionId == null || session == null)
+            return null;
+
+        Object cached = session.getAttribute(CROWD_USER_ATTRIBUTE);
+        if (!(cached instanceof CachedUser))
+            return null;
+
+        CachedUser c = (CachedUser) cached;
+        if (c.user == null || !ssoSessionId.equals(c.ssoSessionId) || !ssoUser.getName().equals(c.user.getName()))
+            return null;
+
+        return c.user;
+    }
+
+    /**
+     * Keeps the adapted user for the current SSO session.
+     */
+    public static void cacheUser(HttpServletRequest request, Principal user) {
+        String ssoSessionId = (String) request.getAttribute(SSO_SESSION_ID_ATTRIBUTE);
+        if (ssoSessionId == null)
+            return;
+
+        request.getSession().setAttribute(CROWD_USER_ATTRIBUTE, new CachedUser(ssoSessionId, user));
+    }
+
+    /**
+     * Builds a Crowd user out of the SSO user properties.
+     */
+    public static ImmutableUser toCrowdUser(SSOUser ssoUser, Directory dir) {
+        String email = null;
+        String displayName = ssoUser.getName();
+
+        for (SSONameValuePair ssoProp : ssoUser.getProperties()) {
+            if (ssoProp.getName().contains("email"))
+                email = ssoProp.getValue();
+            if (ssoProp.getName().equals("displayName"))
+                displayName = ssoProp.getValue();
+        }
+
+        return new ImmutableUser(dir.getId(), ssoUser.getName(), displayName, email, true);
+    }
+
+    /**
+     * Crowd users are not guaranteed to be serializable, a replicated or passivated session adapts the user again.
+     */
+    private static class CachedUser implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String ssoSessionId;
+
+        final transient Principal user;
+
+        CachedUser(String ssoSessionId, Principal user) {
+            this.ssoSessionId = ssoSessionId;
+            this.user = user;
+        }
+    }
+}
@@ -9,16 +9,31 @@ import org.josso.gateway.identity.SSOUser;
 import java.util.*;
 
 /**
+ * Selects the Crowd directory based on the user DN, configured base DNs are matched as DN suffixes.
+ * <p/>
+ * Base DNs are resolved to Crowd directories in an index, rebuilt when it is older than the configured
+ * 'directory.refresh.interval' (milliseconds) or when a configured directory is not found.
+ *
  * @author <a href=mailto:sgonzalez@atricore.org>Sebastian Gonzalez Oyuela</a>
  */
 public class DnBasedCrowdDirectorySelector extends AbstractCrowdDirectorySelectorStrategy {
 
     private static final Logger logger = Logger.getLogger(DnBasedCrowdDirectorySelector.class);
 
+    // Missing directories trigger a refresh, but not more than once in this period.
+    private static final long MIN_REFRESH_INTERVAL = 5000;
+
     private String dnUserProperty;
 
     private Map<String, String> dirsByDn = new HashMap<String, String>();
 
+    private long refreshInterval = 60000;
+
+    // Normalized base DN -> Directory, replaced as a whole on refresh.
+    private volatile Map<String, Directory> index = Collections.emptyMap();
+
+    private volatile long lastRefresh;
+
     public DnBasedCrowdDirectorySelector(Map<String, String> initParams, CrowdDirectoryService directoryService) {
         super(initParams, directoryService);
         String str = initParams.get("directory.dn.map");
@@ -26,6 +41,15 @@ public class DnBasedCrowdDirectorySelector extends AbstractCrowdDirectorySelecto
         if (dnUserProperty == null)
             dnUserProperty = "josso_user_dn";
 
+        String refreshStr = initParams.get("directory.refresh.interval");
+        if (refreshStr != null) {
+            try {
+                refreshInterval = Long.parseLong(refreshStr);
+            } catch (NumberFormatException e) {
+                logger.error("Invalid configured directory refresh interval [" + refreshStr + "], using default " + refreshInterval);
+            }
+        }
+
         StringTokenizer st = new StringTokenizer(str, ";", false);
 
         while (st.hasMoreTokens()) {
@@ -38,58 +62,106 @@ public class DnBasedCrowdDirectorySelector extends AbstractCrowdDirectorySelecto
 
             logger.info("Configuring base DN ["+dn+"] for Directory ["+dirName+"]");
 
-            dirsByDn.put(dn, dirName);
+            dirsByDn.put(normalize(dn), dirName);
         }
 
     }
 
     public Directory lookupDirectory(SSOUser user) {
-        String directoryName = getDirectoryNameForUser(user);
+        String dn = getUserDn(user);
+        if (dn == null)
+            return null;
 
-        List<Directory> all = getDirectoryService().findAllDirectories();
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh > refreshInterval)
+            refresh(now, refreshInterval);
 
-        for (int i = 0; i < all.size(); i++) {
-            Directory directory = all.get(i);
-            if (directoryName.equals(directory.getName())) {
-                logger.debug("Crowd User Directory ["+directory.getId()+"/"+directory.getName()+"] found for ["+user.getName()+"]");
-                return directory;
-            }
+        Directory directory = lookupIndex(dn);
+        if (directory == null && now - lastRefresh > MIN_REFRESH_INTERVAL) {
+            // Directories may have been added or renamed since the last refresh
+            refresh(now, MIN_REFRESH_INTERVAL);
+            directory = lookupIndex(dn);
+        }
+
+        if (directory == null) {
+            logger.error("No Crowd User Directory found for ["+user.getName()+"], DN ["+dn+"]");
+            return null;
         }
 
-        logger.error("No Crowd User Directory found for ["+user.getName()+"]");
+        if (logger.isDebugEnabled())
+            logger.debug("Crowd User Directory ["+directory.getId()+"/"+directory.getName()+"] found for ["+user.getName()+"]");
 
-        return null;
+        return directory;
     }
 
-    protected String getDirectoryNameForUser(SSOUser user) {
-        SSONameValuePair[] props = user.getProperties();
-        String dn = null;
-        for (SSONameValuePair prop : props) {
-            if (prop.getName().equalsIgnoreCase(dnUserProperty)) {
-                dn = prop.getValue();
-                break;
-            }
+    /**
+     * Rebuilds the base DN index from the current Crowd directories, unless it is not older than maxAge.
+     * Threads finding a stale index wait for a single refresh instead of each listing the Crowd directories again.
+     */
+    protected synchronized void refresh(long now, long maxAge) {
+        if (now - lastRefresh <= maxAge)
+            return;
+
+        Map<String, Directory> byName = new HashMap<String, Directory>();
+        for (Directory directory : getDirectoryService().findAllDirectories()) {
+            byName.put(directory.getName(), directory);
         }
 
-        if (dn == null) {
-            logger.error("SSOUser does not have property " + dnUserProperty);
-            return null;
+        Map<String, Directory> newIndex = new HashMap<String, Directory>();
+        for (Map.Entry<String, String> e : dirsByDn.entrySet()) {
+            Directory directory = byName.get(e.getValue());
+            if (directory != null)
+                newIndex.put(e.getKey(), directory);
+            else
+                logger.warn("No Crowd User Directory [" + e.getValue() + "] configured for base DN [" + e.getKey() + "]");
         }
 
-        // Match DN with dir name, i.e. dc=my-domain,dc=com:dirname;
-        for (String baseDn : dirsByDn.keySet()) {
+        index = newIndex;
+        lastRefresh = now;
 
-            logger.error("[" + dn + "] ["+baseDn+"]");
-            if (dn.endsWith(baseDn)) {
-                String dirName = dirsByDn.get(baseDn);
-                logger.error("Found configured base DN ["+baseDn+"]for user ["+user.getName()+"], using directory ["+dirName+"]");
-                return dirName;
-            }
+        if (logger.isDebugEnabled())
+            logger.debug("Indexed " + newIndex.size() + " base DNs");
+    }
+
+    /**
+     * Looks up the user DN and then each of its parent DNs, so the most specific base DN wins.
+     */
+    protected Directory lookupIndex(String dn) {
+        Map<String, Directory> idx = index;
+        String suffix = normalize(dn);
+        while (suffix != null) {
+            Directory directory = idx.get(suffix);
+            if (directory != null)
+                return directory;
+
+            int comma = suffix.indexOf(',');
+            suffix = comma >= 0 ? suffix.substring(comma + 1) : null;
         }
+        return null;
+    }
 
-        logger.error("No based DN found for user DN ["+dn+"]");
+    protected String getUserDn(SSOUser user) {
+        SSONameValuePair[] props = user.getProperties();
+        for (SSONameValuePair prop : props) {
+            if (prop.getName().equalsIgnoreCase(dnUserProperty))
+                return prop.getValue();
+        }
 
+        logger.error("SSOUser does not have property " + dnUserProperty);
         return null;
+    }
 
+    /**
+     * DNs are compared ignoring case and blanks around RDNs, i.e. 'ou=People, dc=my-domain,dc=com'
+     */
+    protected static String normalize(String dn) {
+        StringBuilder sb = new StringBuilder(dn.length());
+        StringTokenizer st = new StringTokenizer(dn, ",", false);
+        while (st.hasMoreTokens()) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(st.nextToken().trim().toLowerCase());
+        }
+        return sb.toString();
     }
 }
@@ -12,7 +12,6 @@ import com.atlassian.spring.container.ContainerManager;
 import com.atlassian.user.EntityException;
 import com.atlassian.user.UserManager;
 import org.apache.log4j.Logger;
-import org.josso.gateway.SSONameValuePair;
 import org.josso.gateway.identity.SSOUser;
 
 import javax.servlet.http.HttpServletRequest;
@@ -70,28 +69,24 @@ public class JOSSOConfluenceAuthenticator extends DefaultAuthenticator {
 
             SSOUser ssoUser = (SSOUser) httpServletRequest.getUserPrincipal();
 
-            // Addapt SSO User to Crowd user
-
-            String email = null;
-            String displayName = ssoUser.getName();
-
-            for (SSONameValuePair ssoProp : ssoUser.getProperties()) {
-                if (ssoProp.getName().contains("email"))
-                    email = ssoProp.getValue();
-                if (ssoProp.getName().equals("displayName"))
-                    displayName = ssoProp.getValue();
-            }
+            // Already adapted for this SSO session
+            Principal cached = CrowdUserAdapter.getCachedUser(httpServletRequest, ssoUser);
+            if (cached != null)
+                return cached;
 
             // Lookup proper user directory
             Directory dir = getDirSelector().lookupDirectory(ssoUser);
 
-            ImmutableUser crowdUser = new ImmutableUser(dir.getId(), ssoUser.getName(), displayName, email, true);
+            // Addapt SSO User to Crowd user
+            ImmutableUser crowdUser = CrowdUserAdapter.toCrowdUser(ssoUser, dir);
 
             String remoteIP = httpServletRequest.getRemoteAddr();
             String remoteHost = httpServletRequest.getRemoteHost();
 
+            // Login event is published once per SSO session
             getEventManager().publishEvent(new LoginEvent(this, ssoUser.getName(), httpServletRequest.getSession().getId(), remoteHost, remoteIP));
 
+            CrowdUserAdapter.cacheUser(httpServletRequest, crowdUser);
             user = crowdUser;
 
         } else {
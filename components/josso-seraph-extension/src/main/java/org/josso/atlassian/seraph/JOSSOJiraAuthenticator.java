@@ -10,7 +10,6 @@ import com.atlassian.seraph.auth.DefaultAuthenticator;
 import com.atlassian.seraph.config.SecurityConfig;
 import com.atlassian.crowd.embedded.api.Directory;
 import org.apache.log4j.Logger;
-import org.josso.gateway.SSONameValuePair;
 import org.josso.gateway.identity.SSOUser;
 
 import javax.servlet.http.HttpServletRequest;
@@ -63,25 +62,24 @@ public class JOSSOJiraAuthenticator extends DefaultAuthenticator {
         if (user instanceof SSOUser ) {
 
             SSOUser ssoUser = (SSOUser) httpServletRequest.getUserPrincipal();
-            // Addapt SSO User to Crowd user
-
-            String email = null;
-            String displayName = ssoUser.getName();
 
-            for (SSONameValuePair ssoProp : ssoUser.getProperties()) {
-                if (ssoProp.getName().contains("email"))
-                    email = ssoProp.getValue();
-                if (ssoProp.getName().equals("displayName"))
-                    displayName = ssoProp.getValue();
-            }
+            // Already adapted, and the session established, for this SSO session
+            Principal cached = CrowdUserAdapter.getCachedUser(httpServletRequest, ssoUser);
+            if (cached != null)
+                return cached;
 
             // Lookup proper user directory
             Directory dir = getDirSelector().lookupDirectory(ssoUser);
 
-            ImmutableUser crowdUser = new ImmutableUser(dir.getId(), ssoUser.getName(), displayName, email, true);
+            // Addapt SSO User to Crowd user
+            ImmutableUser crowdUser = CrowdUserAdapter.toCrowdUser(ssoUser, dir);
+
             user = OSUserConverter.convertToOSUser(crowdUser);
+
             authoriseUserAndEstablishSession(httpServletRequest, httpServletResponse, user);
 
+            CrowdUserAdapter.cacheUser(httpServletRequest, user);
+
         } else {
             // If we don't have a valid SSO Session, return NULL!!!
             String ssoSessionId = (String) httpServletRequest.getAttribute("org.josso.agent.ssoSessionid");
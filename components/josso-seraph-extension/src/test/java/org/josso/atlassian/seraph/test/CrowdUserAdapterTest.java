@@ -0,0 +1,117 @@
+package org.josso.atlassian.seraph.test;
+
+import org.josso.atlassian.seraph.CrowdUserAdapter;
+import org.josso.gateway.identity.service.BaseUserImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @version $Id$
+ */
+public class CrowdUserAdapterTest {
+
+    private Map<String, Object> requestAttributes;
+
+    private Map<String, Object> sessionAttributes;
+
+    private HttpServletRequest request;
+
+    @Before
+    public void setUp() {
+        requestAttributes = new HashMap<String, Object>();
+        sessionAttributes = new HashMap<String, Object>();
+        request = newRequest();
+        requestAttributes.put(CrowdUserAdapter.SSO_SESSION_ID_ATTRIBUTE, "sso1");
+    }
+
+    @Test
+    public void testCachedUser() {
+        Principal user = new TestPrincipal("user1");
+
+        assert CrowdUserAdapter.getCachedUser(request, new BaseUserImpl("user1")) == null : "Unexpected cached user";
+
+        CrowdUserAdapter.cacheUser(request, user);
+        assert CrowdUserAdapter.getCachedUser(request, new BaseUserImpl("user1")) == user : "User not cached";
+
+        // Cached users belong to a single SSO session and user
+        assert CrowdUserAdapter.getCachedUser(request, new BaseUserImpl("user2")) == null : "Cached user returned for other user";
+
+        requestAttributes.put(CrowdUserAdapter.SSO_SESSION_ID_ATTRIBUTE, "sso2");
+        assert CrowdUserAdapter.getCachedUser(request, new BaseUserImpl("user1")) == null : "Cached user returned for other SSO session";
+
+        requestAttributes.remove(CrowdUserAdapter.SSO_SESSION_ID_ATTRIBUTE);
+        assert CrowdUserAdapter.getCachedUser(request, new BaseUserImpl("user1")) == null : "Cached user returned without SSO session";
+    }
+
+    @Test
+    public void testSerializedSession() throws Exception {
+        CrowdUserAdapter.cacheUser(request, new TestPrincipal("user1"));
+
+        Object cached = sessionAttributes.get(CrowdUserAdapter.CROWD_USER_ATTRIBUTE);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(cached);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        sessionAttributes.put(CrowdUserAdapter.CROWD_USER_ATTRIBUTE, in.readObject());
+
+        // The user is not serialized with the session, it will be adapted again
+        assert CrowdUserAdapter.getCachedUser(request, new BaseUserImpl("user1")) == null : "Serialized user returned";
+    }
+
+    private HttpServletRequest newRequest() {
+        final HttpSession session = (HttpSession) newProxy(HttpSession.class, sessionAttributes, null);
+        return (HttpServletRequest) newProxy(HttpServletRequest.class, requestAttributes, session);
+    }
+
+    /**
+     * Request or session backed by a map of attributes, only the methods used by the adapter are supported.
+     */
+    private static Object newProxy(Class type, final Map<String, Object> attributes, final HttpSession session) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getAttribute"))
+                    return attributes.get(args[0]);
+                if (name.equals("setAttribute"))
+                    return attributes.put((String) args[0], args[1]);
+                if (name.equals("removeAttribute"))
+                    return attributes.remove(args[0]);
+                if (name.equals("getSession"))
+                    return session;
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    /**
+     * Not serializable, like most Crowd users.
+     */
+    private static class TestPrincipal implements Principal {
+
+        private final String name;
+
+        TestPrincipal(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
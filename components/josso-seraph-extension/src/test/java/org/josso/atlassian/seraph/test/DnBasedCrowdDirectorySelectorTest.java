@@ -0,0 +1,144 @@
+package org.josso.atlassian.seraph.test;
+
+import com.atlassian.crowd.embedded.api.CrowdDirectoryService;
+import com.atlassian.crowd.embedded.api.Directory;
+import org.josso.atlassian.seraph.DnBasedCrowdDirectorySelector;
+import org.josso.gateway.identity.service.BaseUserImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @version $Id$
+ */
+public class DnBasedCrowdDirectorySelectorTest {
+
+    private static final int THREADS = 8;
+
+    private List<Directory> directories;
+
+    private AtomicInteger listings;
+
+    private CountDownLatch listing;
+
+    private CountDownLatch release;
+
+    private DnBasedCrowdDirectorySelector selector;
+
+    @Before
+    public void setUp() {
+        directories = new ArrayList<Directory>();
+        directories.add(newDirectory(1L, "Company"));
+        directories.add(newDirectory(2L, "Partners"));
+        listings = new AtomicInteger();
+
+        Map<String, String> initParams = new HashMap<String, String>();
+        initParams.put("directory.dn.map", "dc=my-domain,dc=com:Company;ou=Partners, dc=my-domain,dc=com:Partners;" +
+                "ou=Customers,dc=my-domain,dc=com:Customers");
+        selector = new DnBasedCrowdDirectorySelector(initParams, newDirectoryService());
+    }
+
+    @Test
+    public void testLookupDirectory() {
+        assert lookup("uid=user1,ou=People,dc=my-domain,dc=com").getName().equals("Company") : "Wrong directory";
+
+        // The most specific base DN wins, blanks and case are ignored
+        assert lookup("uid=user2, OU=Partners,dc=my-domain,DC=com").getName().equals("Partners") : "Wrong directory";
+
+        assert lookup("uid=user3,dc=other,dc=com") == null : "Directory found for unknown base DN";
+        assert listings.get() == 1 : "Expected a single directory listing, found " + listings.get();
+    }
+
+    @Test
+    public void testMissingDirectory() {
+        // Customers are found in the Company directory until their own directory shows up
+        assert lookup("uid=user1,ou=Customers,dc=my-domain,dc=com").getName().equals("Company") : "Wrong directory";
+
+        directories.add(newDirectory(3L, "Customers"));
+
+        // Not refreshed right after the last listing
+        assert lookup("uid=user1,ou=Customers,dc=my-domain,dc=com").getName().equals("Company") : "Wrong directory";
+        assert lookup("uid=user1,dc=other,dc=com") == null : "Directory found for unknown base DN";
+        assert listings.get() == 1 : "Expected a single directory listing, found " + listings.get();
+    }
+
+    @Test
+    public void testConcurrentRefresh() throws Exception {
+        listing = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicInteger found = new AtomicInteger();
+        for (int i = 0; i < THREADS; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        if (lookup("uid=user1,ou=People,dc=my-domain,dc=com") != null)
+                            found.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        // Let the other threads reach the stale index while the first refresh lists the directories
+        assert listing.await(10, TimeUnit.SECONDS) : "Directories not listed";
+        Thread.sleep(200);
+        release.countDown();
+
+        assert done.await(10, TimeUnit.SECONDS) : "Lookups not completed";
+        assert found.get() == THREADS : "Expected " + THREADS + " directories, found " + found.get();
+        assert listings.get() == 1 : "Expected a single directory listing, found " + listings.get();
+    }
+
+    private Directory lookup(String dn) {
+        BaseUserImpl user = new BaseUserImpl("user");
+        user.addProperty("josso_user_dn", dn);
+        return selector.lookupDirectory(user);
+    }
+
+    private CrowdDirectoryService newDirectoryService() {
+        return (CrowdDirectoryService) Proxy.newProxyInstance(CrowdDirectoryService.class.getClassLoader(),
+                new Class[]{CrowdDirectoryService.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (!method.getName().equals("findAllDirectories"))
+                            throw new UnsupportedOperationException(method.getName());
+
+                        listings.incrementAndGet();
+                        if (listing != null) {
+                            listing.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                        }
+                        return new ArrayList<Directory>(directories);
+                    }
+                });
+    }
+
+    private static Directory newDirectory(final Long id, final String name) {
+        return (Directory) Proxy.newProxyInstance(Directory.class.getClassLoader(), new Class[]{Directory.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getId"))
+                            return id;
+                        if (method.getName().equals("getName"))
+                            return name;
+                        if (method.getName().equals("hashCode"))
+                            return System.identityHashCode(proxy);
+                        if (method.getName().equals("equals"))
+                            return proxy == args[0];
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -27,14 +27,17 @@ import org.josso.gateway.session.exceptions.SSOSessionException;
 import org.josso.gateway.session.service.BaseSession;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Map;
 
 /**
- * Session Store implementation which uses Java Serialization to persist Single Sign-On
- * user sessions.
- * It allows to reconstruct the session state after a system shutdown.
+ * Session Store implementation which persists Single Sign-On user sessions to a file, using
+ * the {@link SessionCodec} binary format.
+ * It allows to reconstruct the session state after a system shutdown.  Files written with Java
+ * Serialization by previous versions are still read, and rewritten in the binary format on the
+ * next change.
  *
  * @author <a href="mailto:gbrigand@josso.org">Gianluca Brigandi</a>
  * @version $Id: SerializedSessionStore.java 543 2008-03-18 21:34:58Z sgonzalez $
@@ -51,6 +54,8 @@ public class SerializedSessionStore extends MemorySessionStore {
 
     private String _serializedFile = "sso_sessions.josso";
 
+    private final SessionCodec _codec = new SessionCodec();
+
     public SerializedSessionStore() {
         super();
         _loaded = false;
@@ -82,6 +87,16 @@ public class SerializedSessionStore extends MemorySessionStore {
         return super.loadByUsername(name);
     }
 
+    public int countByUsername(String name) throws SSOSessionException {
+        checkLoad();
+        return super.countByUsername(name);
+    }
+
+    public BaseSession[] loadOldestByUsername(String name, int count) throws SSOSessionException {
+        checkLoad();
+        return super.loadOldestByUsername(name, count);
+    }
+
     public BaseSession[] loadByLastAccessTime(Date time) throws SSOSessionException {
         checkLoad();
         return super.loadByLastAccessTime(time);
@@ -102,6 +117,30 @@ public class SerializedSessionStore extends MemorySessionStore {
         saveSerializedSessions();
     }
 
+    public void remove(String[] ids) throws SSOSessionException {
+        checkLoad();
+        super.remove(ids);
+        synchronized (this) {
+            for (int i = 0; i < ids.length; i++) {
+                _sessions.remove(ids[i]);
+            }
+        }
+        // Sessions file is written once for the whole batch
+        saveSerializedSessions();
+    }
+
+    public BaseSession[] removeByUsername(String name) throws SSOSessionException {
+        checkLoad();
+        BaseSession[] removed = super.removeByUsername(name);
+        synchronized (this) {
+            for (int i = 0; i < removed.length; i++) {
+                _sessions.remove(removed[i].getId());
+            }
+        }
+        saveSerializedSessions();
+        return removed;
+    }
+
     public void clear() throws SSOSessionException {
         checkLoad();
         super.clear();
@@ -125,16 +164,15 @@ public class SerializedSessionStore extends MemorySessionStore {
         // If this is too slow, we may save session information only once a second or something like that ...
         try {
 
-            FileOutputStream out = new FileOutputStream(getSerializedFile());
-            ObjectOutputStream s = new ObjectOutputStream(out);
-
-            synchronized (this) {
-                s.writeObject(_sessions);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(getSerializedFile()));
+            try {
+                synchronized (this) {
+                    BaseSession[] sessions = (BaseSession[]) _sessions.values().toArray(new BaseSession[_sessions.size()]);
+                    _codec.writeSessions(sessions, out);
+                }
+            } finally {
+                out.close();
             }
-
-            s.flush();
-            s.close();
-            out.close();
         } catch (IOException e) {
             throw new SSOSessionException(e.getMessage(), e);
         }
@@ -157,22 +195,23 @@ public class SerializedSessionStore extends MemorySessionStore {
         if (_loaded)
             return;
 
-        FileInputStream in = null;
-        ObjectInputStream s = null;
-
+        InputStream in = null;
 
         logger.info("Loading serialized sessions from file : " + getSerializedFile());
 
         try {
-            in = new FileInputStream(getSerializedFile());
-            s = new ObjectInputStream(in);
+            in = new BufferedInputStream(new FileInputStream(getSerializedFile()));
+            BaseSession[] sessions = readSessions(in);
 
-            _sessions = (HashMap) s.readObject();
+            _sessions = new HashMap();
+            for (int i = 0; i < sessions.length; i++) {
+                _sessions.put(sessions[i].getId(), sessions[i]);
+            }
 
-            Iterator i = _sessions.values().iterator();
-            while (i.hasNext()) {
-                BaseSession ssoSession = (BaseSession) i.next();
-                super.save(ssoSession);
+            // Sessions are restored in creation order, as the user index expects
+            Arrays.sort(sessions, CREATION_TIME_ORDER);
+            for (int i = 0; i < sessions.length; i++) {
+                super.save(sessions[i]);
             }
 
         } catch (FileNotFoundException e) {
@@ -206,6 +245,24 @@ public class SerializedSessionStore extends MemorySessionStore {
         }
     }
 
+    /**
+     * Reads sessions in the binary format, or in the Java Serialization format used by previous versions.
+     */
+    protected BaseSession[] readSessions(InputStream in) throws IOException, ClassNotFoundException {
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+
+        if (((b1 << 8) | b2) != (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF))
+            return _codec.readSessions(in);
+
+        logger.info("Reading serialized sessions in legacy format from file : " + getSerializedFile());
+
+        Map sessions = (Map) new ObjectInputStream(in).readObject();
+        return (BaseSession[]) sessions.values().toArray(new BaseSession[sessions.size()]);
+    }
+
     public void setSerializedFile(String serializedFile) {
         _serializedFile = serializedFile;
     }
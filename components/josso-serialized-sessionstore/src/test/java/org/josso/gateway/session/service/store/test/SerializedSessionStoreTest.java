@@ -0,0 +1,120 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store.test;
+
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.BaseSessionImpl;
+import org.josso.gateway.session.service.store.SerializedSessionStore;
+import org.josso.gateway.session.service.store.SessionCodec;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+/**
+ * @version $Id$
+ */
+public class SerializedSessionStoreTest {
+
+    @Test
+    public void testRestart() throws Exception {
+        File file = newFile();
+
+        SerializedSessionStore store = newStore(file);
+        for (int i = 0; i < 10; i++) {
+            store.save(newSession("session-" + i, "user" + (i % 2), i));
+        }
+        store.remove("session-0");
+
+        assert readMagic(file) == SessionCodec.STREAM_MAGIC : "Sessions not written in binary format";
+
+        store = newStore(file);
+        assert store.getSize() == 9 : "Invalid size " + store.getSize();
+        assert store.countByUsername("user0") == 4 : "Invalid user sessions " + store.countByUsername("user0");
+        assert store.load("session-5").getUsername().equals("user1") : "Invalid session";
+
+        // Oldest first, as saved
+        BaseSession[] oldest = store.loadOldestByUsername("user1", 2);
+        assert oldest[0].getId().equals("session-1") && oldest[1].getId().equals("session-3") : "Invalid order";
+    }
+
+    @Test
+    public void testLegacyFile() throws Exception {
+        File file = newFile();
+
+        // Written by previous versions
+        HashMap sessions = new HashMap();
+        for (int i = 0; i < 3; i++) {
+            BaseSession session = newSession("session-" + i, "user1", i);
+            sessions.put(session.getId(), session);
+        }
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+        out.writeObject(sessions);
+        out.close();
+
+        SerializedSessionStore store = newStore(file);
+        assert store.getSize() == 3 : "Legacy sessions not loaded " + store.getSize();
+        assert store.loadOldestByUsername("user1", 1)[0].getId().equals("session-0") : "Invalid order";
+
+        // Rewritten in the binary format on change
+        store.remove("session-2");
+        assert readMagic(file) == SessionCodec.STREAM_MAGIC : "Sessions not written in binary format";
+        assert newStore(file).getSize() == 2 : "Invalid size";
+    }
+
+    private SerializedSessionStore newStore(File file) {
+        SerializedSessionStore store = new SerializedSessionStore();
+        store.setSerializedFile(file.getAbsolutePath());
+        return store;
+    }
+
+    private BaseSession newSession(String id, String username, int age) {
+        long now = System.currentTimeMillis();
+        BaseSessionImpl session = new BaseSessionImpl();
+        session.setId(id);
+        session.setUsername(username);
+        session.setCreationTime(now - 60000 + age);
+        session.setMaxInactiveInterval(1800);
+        session.setValid(true);
+        return session;
+    }
+
+    private File newFile() throws Exception {
+        File file = File.createTempFile("sso_sessions", ".josso");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private int readMagic(File file) throws Exception {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+}
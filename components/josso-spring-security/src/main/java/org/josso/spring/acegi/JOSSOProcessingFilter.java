@@ -62,6 +62,8 @@ public class JOSSOProcessingFilter implements Filter, InitializingBean, Applicat
 
     private LogoutHandler[] handlers;
 
+    private UserDetailsCache userDetailsCache = new UserDetailsCache();
+
 
     public void afterPropertiesSet() throws Exception {
         // Nothing to do yet.
@@ -117,6 +119,9 @@ public class JOSSOProcessingFilter implements Filter, InitializingBean, Applicat
                     handlers[i].logout(request, response, authentication);
                 }
 
+                if (authentication instanceof JOSSOAuthenticationToken && userDetailsCache != null)
+                    userDetailsCache.evict(((JOSSOAuthenticationToken) authentication).getJossoSessionId());
+
             }
 
             chain.doFilter(request, response);
@@ -135,8 +140,8 @@ public class JOSSOProcessingFilter implements Filter, InitializingBean, Applicat
                 logger.debug("Redirecting to original resource " + savedRequest.getFullRequestUrl());
 
 
-            UserDetails userDetails = userDetailsService.loadUserByUsername(principal.getName());
             String jossoSessionId = (String) request.getAttribute("org.josso.agent.ssoSessionid");
+            UserDetails userDetails = loadUserDetails(jossoSessionId, principal);
 
             // New authenticated autentication instance.
             Authentication jossoAuth = new JOSSOAuthenticationToken(jossoSessionId, userDetails, userDetails.getAuthorities());
@@ -171,6 +176,38 @@ public class JOSSOProcessingFilter implements Filter, InitializingBean, Applicat
     }
 
 
+    /**
+     * Gets user details for the given JOSSO session, from the cache when possible.
+     */
+    protected UserDetails loadUserDetails(String jossoSessionId, Principal principal) {
+        UserDetails userDetails = userDetailsCache != null ? userDetailsCache.get(jossoSessionId) : null;
+
+        // Cached details must belong to the current principal
+        if (userDetails != null && userDetails.getUsername().equals(principal.getName()))
+            return userDetails;
+
+        if (jossoSessionId != null && userDetailsService instanceof JOSSOUserDetailsService)
+            userDetails = ((JOSSOUserDetailsService) userDetailsService).loadUserBySSOSessionId(jossoSessionId);
+        else
+            userDetails = userDetailsService.loadUserByUsername(principal.getName());
+
+        if (userDetailsCache != null)
+            userDetailsCache.put(jossoSessionId, userDetails);
+
+        return userDetails;
+    }
+
+    public UserDetailsCache getUserDetailsCache() {
+        return userDetailsCache;
+    }
+
+    /**
+     * User details cache, keyed by JOSSO session id.  Set it to null to disable caching.
+     */
+    public void setUserDetailsCache(UserDetailsCache userDetailsCache) {
+        this.userDetailsCache = userDetailsCache;
+    }
+
     public UserDetailsService getUserDetailsService() {
         return userDetailsService;
     }
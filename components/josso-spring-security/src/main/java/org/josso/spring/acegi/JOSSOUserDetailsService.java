@@ -70,6 +70,22 @@ public class JOSSOUserDetailsService implements UserDetailsService {
         }
     }
 
+    /**
+     * Retrieves the user and roles associated with the given JOSSO session, in a single step.
+     * Unlike loadUserByUsername, roles are looked up using the session id, as expected by the identity manager.
+     */
+    public UserDetails loadUserBySSOSessionId(String jossoSessionId) throws UsernameNotFoundException, org.springframework.dao.DataAccessException {
+        try {
+            SSOIdentityManagerService im = getIdentityManager();
+            SSOUser user = im.findUserInSession(null, jossoSessionId);
+            SSORole[] roles = im.findRolesBySSOSessionId(null, jossoSessionId);
+            return toUserDetails(user, roles);
+        } catch (SSOIdentityException e) {
+            logger.error(e.getMessage(), e);
+            throw new UsernameNotFoundException(e.getMessage(), e);
+        }
+    }
+
 
     /**
      * This addapts JOSSO user informatio to ACEGI user details.
@@ -0,0 +1,149 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.spring.acegi;
+
+import org.acegisecurity.userdetails.UserDetails;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of user details keyed by JOSSO session id, so that identity information is not requested to the gateway
+ * every time the ACEGI security context is empty (i.e. stateless security contexts).
+ * <p/>
+ * Entries expire after a time to live, and the least recently used entries are dropped when the cache is full.
+ *
+ * @version $Id$
+ */
+public class UserDetailsCache {
+
+    private long timeToLive = 60000;
+
+    private int maxEntries = 1000;
+
+    private long hits;
+
+    private long misses;
+
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    /**
+     * @return the cached details for the given session, null if they are not cached or expired.
+     */
+    public UserDetails get(String jossoSessionId) {
+        if (jossoSessionId == null)
+            return null;
+
+        synchronized (entries) {
+            CacheEntry entry = entries.get(jossoSessionId);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(jossoSessionId);
+                entry = null;
+            }
+
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+
+            hits++;
+            return entry.userDetails;
+        }
+    }
+
+    public void put(String jossoSessionId, UserDetails userDetails) {
+        if (jossoSessionId == null || userDetails == null || maxEntries == 0)
+            return;
+
+        synchronized (entries) {
+            entries.put(jossoSessionId, new CacheEntry(userDetails, System.currentTimeMillis() + timeToLive));
+        }
+    }
+
+    public void evict(String jossoSessionId) {
+        if (jossoSessionId == null)
+            return;
+
+        synchronized (entries) {
+            entries.remove(jossoSessionId);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Time, in milliseconds, user details are cached for a session.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    private static class CacheEntry {
+
+        final UserDetails userDetails;
+
+        final long expiresAt;
+
+        CacheEntry(UserDetails userDetails, long expiresAt) {
+            this.userDetails = userDetails;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.spring.acegi.test;
+
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.userdetails.User;
+import org.acegisecurity.userdetails.UserDetails;
+import org.josso.spring.acegi.UserDetailsCache;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @version $Id$
+ */
+public class UserDetailsCacheTest {
+
+    private UserDetailsCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new UserDetailsCache();
+    }
+
+    @Test
+    public void testGetAndPut() {
+        UserDetails user1 = newUser("user1");
+
+        assert cache.get("session1") == null : "Unexpected cached details";
+        cache.put("session1", user1);
+
+        assert cache.get("session1") == user1 : "Details not cached";
+        assert cache.get("session2") == null : "Details cached for other session";
+        assert cache.get(null) == null : "Details cached for null session";
+
+        assert cache.getHits() == 1 : "Expected 1 hit, found " + cache.getHits();
+        assert cache.getMisses() == 2 : "Expected 2 misses, found " + cache.getMisses();
+
+        cache.evict("session1");
+        assert cache.get("session1") == null : "Details not evicted";
+        assert cache.getSize() == 0 : "Expected empty cache, found " + cache.getSize();
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        cache.setTimeToLive(50);
+        cache.put("session1", newUser("user1"));
+        assert cache.get("session1") != null : "Details not cached";
+
+        Thread.sleep(100);
+
+        assert cache.get("session1") == null : "Expired details returned";
+        assert cache.getSize() == 0 : "Expired details kept";
+    }
+
+    @Test
+    public void testMaxEntries() {
+        cache.setMaxEntries(2);
+        cache.put("session1", newUser("user1"));
+        cache.put("session2", newUser("user2"));
+
+        // Touch the first session, so that the second one is the least recently used
+        cache.get("session1");
+        cache.put("session3", newUser("user3"));
+
+        assert cache.getSize() == 2 : "Expected 2 entries, found " + cache.getSize();
+        assert cache.get("session1") != null : "Recently used details evicted";
+        assert cache.get("session2") == null : "Least recently used details not evicted";
+        assert cache.get("session3") != null : "Latest details evicted";
+    }
+
+    @Test
+    public void testDisabled() {
+        cache.setMaxEntries(0);
+        cache.put("session1", newUser("user1"));
+
+        assert cache.get("session1") == null : "Details cached with no entries allowed";
+        assert cache.getSize() == 0 : "Expected empty cache, found " + cache.getSize();
+    }
+
+    private UserDetails newUser(String username) {
+        return new User(username, "NOT AVAILABLE UNDER JOSSO", true, true, true, true, new GrantedAuthority[0]);
+    }
+}
@@ -28,14 +28,15 @@ import org.josso.auth.Credential;
 import org.josso.auth.CredentialProvider;
 import org.josso.auth.exceptions.SSOAuthenticationException;
 import org.josso.auth.scheme.validation.X509CertificateValidationException;
+import org.josso.auth.scheme.validation.X509CertificateValidationPipeline;
 import org.josso.auth.scheme.validation.X509CertificateValidator;
+import org.josso.auth.scheme.validation.X509Certificates;
 
 import sun.security.util.DerValue;
 
 import java.io.ByteArrayInputStream;
 import java.security.Principal;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -64,6 +65,9 @@ public class X509CertificateAuthScheme extends AbstractAuthenticationScheme {
 
     /* X509 Certificate validators */
     private List<X509CertificateValidator> _validators;
+
+    /* Runs the configured validators, shared by all clones of this scheme */
+    private X509CertificateValidationPipeline _pipeline = new X509CertificateValidationPipeline();
     
     public X509CertificateAuthScheme() {
         this.setName("strong-authentication");
@@ -91,46 +95,35 @@ public class X509CertificateAuthScheme extends AbstractAuthenticationScheme {
         }
 
         // validate certificate
-        if (_validators != null) {
-        	for (X509CertificateValidator validator : _validators) {
-        		try {
-        			validator.validate(x509Certificate);
-        		} catch (X509CertificateValidationException e) {
-        			logger.error("Certificate is not valid!", e);
-        			return false;
-        		}
-        	}
+        try {
+            _pipeline.validate(x509Certificate);
+        } catch (X509CertificateValidationException e) {
+            logger.error("Certificate is not valid!", e);
+            return false;
         }
         
         List<X509Certificate> knownX509Certificates = getX509Certificates(getKnownCredentials());
 
-        StringBuffer buf = new StringBuffer("\n\tSupplied Credential: ");
-        buf.append(x509Certificate.getSerialNumber().toString(16));
-        buf.append("\n\t\t");
-        buf.append(x509Certificate.getSubjectX500Principal().getName());
-        buf.append("\n\n\tExisting Credentials: ");
-        for (int i=0; i<knownX509Certificates.size(); i++) {
-        	X509Certificate knownX509Certificate = knownX509Certificates.get(i);
-        	buf.append(i+1);
-        	buf.append("\n\t\t");
-        	buf.append(knownX509Certificate.getSerialNumber().toString(16));
+        if (logger.isDebugEnabled()) {
+            StringBuffer buf = new StringBuffer("\n\tSupplied Credential: ");
+            buf.append(x509Certificate.getSerialNumber().toString(16));
             buf.append("\n\t\t");
-            buf.append(knownX509Certificate.getSubjectX500Principal().getName());
-            buf.append("\n");
+            buf.append(x509Certificate.getSubjectX500Principal().getName());
+            buf.append("\n\n\tExisting Credentials: ");
+            for (int i=0; i<knownX509Certificates.size(); i++) {
+                X509Certificate knownX509Certificate = knownX509Certificates.get(i);
+                buf.append(i+1);
+                buf.append("\n\t\t");
+                buf.append(knownX509Certificate.getSerialNumber().toString(16));
+                buf.append("\n\t\t");
+                buf.append(knownX509Certificate.getSubjectX500Principal().getName());
+                buf.append("\n");
+            }
+            logger.debug(buf.toString());
         }
 
-        logger.debug(buf.toString());
-
         // Validate user identity ...
-        boolean valid = false;
-        X509Certificate validCertificate = null;
-        for (X509Certificate knownX509Certificate : knownX509Certificates) {
-	        if (validateX509Certificate(x509Certificate, knownX509Certificate)) {
-	        	validCertificate = knownX509Certificate;
-	            break;
-	        }
-        }
-
+        X509Certificate validCertificate = findKnownX509Certificate(x509Certificate, knownX509Certificates);
         if (validCertificate == null) {
         	return false;
         }
@@ -167,10 +160,7 @@ public class X509CertificateAuthScheme extends AbstractAuthenticationScheme {
 
         try {
             ByteArrayInputStream bais = new ByteArrayInputStream(binaryCert);
-            CertificateFactory cf =
-                    CertificateFactory.getInstance("X.509");
-
-            cert = (X509Certificate) cf.generateCertificate(bais);
+            cert = X509Certificates.generateCertificate(bais);
 
             if (logger.isDebugEnabled())
                 logger.debug("Building X.509 certificate result :\n " + cert);
@@ -331,6 +321,25 @@ public class X509CertificateAuthScheme extends AbstractAuthenticationScheme {
         return certs;
     }
     
+    /**
+     * Finds the known certificate matching the input one. Known credentials are loaded from the store on
+     * each authentication, so they are scanned rather than indexed.
+     *
+     * @param inputX509Certificate   the X.509 Certificate supplied on authentication.
+     * @param knownX509Certificates  the X.509 Certificates from the store.
+     * @return the matching known certificate, or null.
+     */
+    protected X509Certificate findKnownX509Certificate(X509Certificate inputX509Certificate,
+                                                       List<X509Certificate> knownX509Certificates) {
+
+        for (X509Certificate knownX509Certificate : knownX509Certificates) {
+            if (validateX509Certificate(inputX509Certificate, knownX509Certificate)) {
+                return knownX509Certificate;
+            }
+        }
+        return null;
+    }
+
     /**
      * This method validates the input x509 certificate agaist the expected x509 certificate.
      *
@@ -485,6 +494,35 @@ public class X509CertificateAuthScheme extends AbstractAuthenticationScheme {
 
     public void setValidators(List<X509CertificateValidator> validators) {
         _validators = validators;
+        _pipeline.setValidators(validators);
+    }
+
+    /**
+     * @return true if validators run concurrently
+     */
+    public boolean isParallelValidation() {
+        return _pipeline.isParallel();
+    }
+
+    /**
+     * Run validators concurrently, the certificate is rejected on the first validator failure.
+     */
+    public void setParallelValidation(boolean parallelValidation) {
+        _pipeline.setParallel(parallelValidation);
+    }
+
+    /**
+     * @return the overall time in milliseconds allowed for certificate validation, 0 means no limit.
+     */
+    public long getValidationTimeout() {
+        return _pipeline.getValidationTimeout();
+    }
+
+    /**
+     * Sets the overall time in milliseconds allowed for certificate validation, 0 means no limit.
+     */
+    public void setValidationTimeout(long validationTimeout) {
+        _pipeline.setValidationTimeout(validationTimeout);
     }
 
 }
@@ -21,15 +21,21 @@
  */
 package org.josso.auth.scheme.validation;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.cert.CertPath;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -45,6 +51,16 @@ public abstract class AbstractX509CertificateValidator implements X509Certificat
 	private static final Log log = LogFactory
 			.getLog(AbstractX509CertificateValidator.class);
 
+	/*
+	 * Revocation checking is configured for each validation through its own PKIXRevocationChecker,
+	 * not through JVM wide properties, so concurrent validations share no settings.
+	 * The PKIX validator fetches OCSP responses and CRLs in the validating thread, through URL
+	 * connections that ask the default proxy selector for a proxy. The selector installed here
+	 * answers with the proxy of the validation running in that thread.
+	 */
+	private static final ThreadLocal<Proxy> _validationProxy = new ThreadLocal<Proxy>();
+	private static ValidationProxySelector _proxySelector;
+
 	protected String _url;
 	protected String _httpProxyHost;
 	protected String _httpProxyPort;
@@ -128,8 +144,76 @@ public abstract class AbstractX509CertificateValidator implements X509Certificat
 		List<X509Certificate> certs = new ArrayList<X509Certificate>();
 		certs.add(clientCertificate);
 		certs.addAll(_caCerts);
-		CertificateFactory cf = CertificateFactory.getInstance("X.509");
-		return cf.generateCertPath(certs);
+		return X509Certificates.generateCertPath(certs);
+	}
+
+	/**
+	 * @return the configured HTTP proxy, or null if none is configured
+	 */
+	protected Proxy getHttpProxy() {
+		if (_httpProxyHost == null || _httpProxyPort == null) {
+			return null;
+		}
+		return new Proxy(Proxy.Type.HTTP,
+				new InetSocketAddress(_httpProxyHost, Integer.parseInt(_httpProxyPort)));
+	}
+
+	/**
+	 * Routes the HTTP connections opened by the calling thread through the configured proxy,
+	 * until {@link #endHttpProxy()} is called. Without a configured proxy, the JVM defaults apply.
+	 */
+	protected void beginHttpProxy() {
+		Proxy proxy = getHttpProxy();
+		if (proxy == null) {
+			return;
+		}
+		installProxySelector();
+		_validationProxy.set(proxy);
+	}
+
+	/**
+	 * Restores the JVM default proxies for the calling thread.
+	 */
+	protected void endHttpProxy() {
+		_validationProxy.remove();
+	}
+
+	private static synchronized void installProxySelector() {
+		ProxySelector current = ProxySelector.getDefault();
+		if (_proxySelector == null || current != _proxySelector) {
+			_proxySelector = new ValidationProxySelector(current);
+			ProxySelector.setDefault(_proxySelector);
+		}
+	}
+
+	/**
+	 * Answers with the proxy of the validation running in the calling thread, if any,
+	 * and leaves other connections to the previous default selector.
+	 */
+	private static class ValidationProxySelector extends ProxySelector {
+
+		private final ProxySelector _defaultSelector;
+
+		public ValidationProxySelector(ProxySelector defaultSelector) {
+			_defaultSelector = defaultSelector;
+		}
+
+		public List<Proxy> select(URI uri) {
+			Proxy proxy = _validationProxy.get();
+			if (proxy != null && "http".equalsIgnoreCase(uri.getScheme())) {
+				return Collections.singletonList(proxy);
+			}
+			if (_defaultSelector != null) {
+				return _defaultSelector.select(uri);
+			}
+			return Collections.singletonList(Proxy.NO_PROXY);
+		}
+
+		public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+			if (_defaultSelector != null) {
+				_defaultSelector.connectFailed(uri, sa, ioe);
+			}
+		}
 	}
 
 	/**
@@ -22,21 +22,23 @@
 package org.josso.auth.scheme.validation;
 
 import java.io.DataInputStream;
+import java.net.Proxy;
 import java.net.URL;
 import java.net.URLConnection;
-import java.security.Security;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
 import java.security.cert.CertPathValidatorException;
 import java.security.cert.CertStore;
-import java.security.cert.CertificateFactory;
 import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.PKIXCertPathValidatorResult;
 import java.security.cert.PKIXParameters;
+import java.security.cert.PKIXRevocationChecker;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -44,6 +46,11 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * CRL X509 Certificate validator.
+ * <p/>
+ * A CRL downloaded from the configured url is reused until its next update time, or for
+ * 'crlRefreshInterval' milliseconds when the CRL does not state one. CRLs for certificates it
+ * does not cover, or all of them when no url is configured, are fetched from the CRL distribution
+ * points named in the certificates.
  * 
  * @org.apache.xbean.XBean element="crl-validator"
  */
@@ -52,27 +59,30 @@ public class CRLX509CertificateValidator extends AbstractX509CertificateValidato
 	private static final Log log = LogFactory
 			.getLog(CRLX509CertificateValidator.class);
 
+	private long _crlRefreshInterval = 60 * 60 * 1000;
+
+	private X509CRL _crl;
+	private long _crlExpires;
+
 	public void validate(X509Certificate certificate)
 			throws X509CertificateValidationException {
 
-		try {
-			URL crlUrl = null;
-			if (_url != null) {
-				crlUrl = new URL(_url);
-				log.debug("Using the CRL server at: " + _url);
-			} else {
-				log.debug("Using the CRL server specified in the certificate.");
-				System.setProperty("com.sun.security.enableCRLDP", "true");
-			}
-			
-			 // configure the proxy
-			if (_httpProxyHost != null && _httpProxyPort != null) {
-				System.setProperty("http.proxyHost", _httpProxyHost);
-				System.setProperty("http.proxyPort", _httpProxyPort);
-			} else {
-				System.clearProperty("http.proxyHost");
-				System.clearProperty("http.proxyPort");
+		X509CRL crl = null;
+		if (_url != null) {
+			log.debug("Using the CRL server at: " + _url);
+			try {
+				crl = getCRL();
+			} catch (Exception e) {
+				log.error(e, e);
+				throw new X509CertificateValidationException(e);
 			}
+		} else {
+			log.debug("Using the CRL server specified in the certificate.");
+		}
+
+		try {
+			// configure the proxy
+			beginHttpProxy();
 
 			// get certificate path
 			CertPath cp = generateCertificatePath(certificate);
@@ -83,29 +93,25 @@ public class CRLX509CertificateValidator extends AbstractX509CertificateValidato
 			// init PKIX parameters
 			PKIXParameters params = new PKIXParameters(trustedCertsSet);
 			
-			// activate certificate revocation checking
-			params.setRevocationEnabled(true);
-			
-			// disable OCSP
-			Security.setProperty("ocsp.enable", "false");
-			
-			// get a certificate revocation list
-			if (crlUrl != null) {
-				URLConnection connection = crlUrl.openConnection();
-				connection.setDoInput(true);
-				connection.setUseCaches(false);
-				DataInputStream inStream =
-				    new DataInputStream(connection.getInputStream());
-				CertificateFactory cf = CertificateFactory.getInstance("X.509");
-				X509CRL crl = (X509CRL)cf.generateCRL(inStream);
-				inStream.close();
+			// use the certificate revocation list
+			if (crl != null) {
 		        params.addCertStore(CertStore.getInstance("Collection",
 		        		new CollectionCertStoreParameters(
 		        				Collections.singletonList(crl))));
 			}
 
-			// perform validation
 			CertPathValidator cpv = CertPathValidator.getInstance("PKIX");
+
+			// check CRLs only, OCSP is disabled for this validation
+			PKIXRevocationChecker revocationChecker = (PKIXRevocationChecker) cpv.getRevocationChecker();
+			revocationChecker.setOptions(EnumSet.of(PKIXRevocationChecker.Option.PREFER_CRLS,
+					PKIXRevocationChecker.Option.NO_FALLBACK));
+			params.addCertPathChecker(revocationChecker);
+
+			// activate certificate revocation checking
+			params.setRevocationEnabled(true);
+
+			// perform validation
 			PKIXCertPathValidatorResult cpvResult = (PKIXCertPathValidatorResult) cpv
 					.validate(cp, params);
 			X509Certificate trustedCert = (X509Certificate) cpvResult
@@ -123,7 +129,58 @@ public class CRLX509CertificateValidator extends AbstractX509CertificateValidato
 		} catch (Exception e) {
 			log.error(e, e);
 			throw new X509CertificateValidationException(e);
+		} finally {
+			endHttpProxy();
 		}
 		log.debug("CERTIFICATE VALIDATION SUCCEEDED");
 	}
+
+	/**
+	 * Gets the certificate revocation list, downloading it if the cached one is out of date.
+	 */
+	protected synchronized X509CRL getCRL() throws Exception {
+		long now = System.currentTimeMillis();
+		if (_crl != null && now < _crlExpires)
+			return _crl;
+
+		if (log.isDebugEnabled())
+			log.debug("Downloading CRL from : " + _url);
+
+		URL crlUrl = new URL(_url);
+		URLConnection connection;
+		Proxy proxy = getHttpProxy();
+		if (proxy != null) {
+			connection = crlUrl.openConnection(proxy);
+		} else {
+			connection = crlUrl.openConnection();
+		}
+		connection.setDoInput(true);
+		connection.setUseCaches(false);
+		DataInputStream inStream =
+		    new DataInputStream(connection.getInputStream());
+		try {
+			_crl = X509Certificates.generateCRL(inStream);
+		} finally {
+			inStream.close();
+		}
+
+		Date nextUpdate = _crl.getNextUpdate();
+		_crlExpires = nextUpdate != null ? nextUpdate.getTime() : now + _crlRefreshInterval;
+
+		return _crl;
+	}
+
+	/**
+	 * @return the time in milliseconds a CRL without next update time is used before downloading it again
+	 */
+	public long getCrlRefreshInterval() {
+		return _crlRefreshInterval;
+	}
+
+	/**
+	 * @param crlRefreshInterval the time in milliseconds a CRL without next update time is used
+	 */
+	public void setCrlRefreshInterval(long crlRefreshInterval) {
+		_crlRefreshInterval = crlRefreshInterval;
+	}
 }
@@ -21,7 +21,7 @@
  */
 package org.josso.auth.scheme.validation;
 
-import java.security.Security;
+import java.net.URI;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
 import java.security.cert.CertPathValidatorException;
@@ -30,8 +30,10 @@ import java.security.cert.CertStoreParameters;
 import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.PKIXCertPathValidatorResult;
 import java.security.cert.PKIXParameters;
+import java.security.cert.PKIXRevocationChecker;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -54,24 +56,17 @@ public class OCSPX509CertificateValidator extends AbstractX509CertificateValidat
 	public void validate(X509Certificate certificate)
 			throws X509CertificateValidationException {
 
+		if (_url != null) {
+			log.debug("Using the OCSP server at: " + _url);
+		} else {
+			log.debug("Using the OCSP server specified in the " +
+					"Authority Info Access (AIA) extension " +
+					"of the certificate");
+		}
+
 		try {
-			if (_url != null) {
-				log.debug("Using the OCSP server at: " + _url);
-				Security.setProperty("ocsp.responderURL", _url);
-			} else {
-				log.debug("Using the OCSP server specified in the " +
-						"Authority Info Access (AIA) extension " +
-						"of the certificate");
-			}
-			
-			 // configure the proxy
-			if (_httpProxyHost != null && _httpProxyPort != null) {
-				System.setProperty("http.proxyHost", _httpProxyHost);
-				System.setProperty("http.proxyPort", _httpProxyPort);
-			} else {
-				System.clearProperty("http.proxyHost");
-				System.clearProperty("http.proxyPort");
-			}
+			// configure the proxy
+			beginHttpProxy();
 
 			// get certificate path
 			CertPath cp = generateCertificatePath(certificate);
@@ -93,18 +88,25 @@ public class OCSPX509CertificateValidator extends AbstractX509CertificateValidat
 						certSet);
 				CertStore store = CertStore.getInstance("Collection", storeParams);
 				params.addCertStore(store);
-				Security.setProperty("ocsp.responderCertSubjectName", _ocspCert
-						.getSubjectX500Principal().getName());
 			}
 			
+			CertPathValidator cpv = CertPathValidator.getInstance("PKIX");
+
+			// activate OCSP, for this validation only
+			PKIXRevocationChecker revocationChecker = (PKIXRevocationChecker) cpv.getRevocationChecker();
+			revocationChecker.setOptions(EnumSet.of(PKIXRevocationChecker.Option.NO_FALLBACK));
+			if (_url != null) {
+				revocationChecker.setOcspResponder(new URI(_url));
+			}
+			if (_ocspCert != null) {
+				revocationChecker.setOcspResponderCert(_ocspCert);
+			}
+			params.addCertPathChecker(revocationChecker);
+
 			// activate certificate revocation checking
 			params.setRevocationEnabled(true);
 
-			// activate OCSP
-	        Security.setProperty("ocsp.enable", "true");
-
 			// perform validation
-			CertPathValidator cpv = CertPathValidator.getInstance("PKIX");
 			PKIXCertPathValidatorResult cpvResult = (PKIXCertPathValidatorResult) cpv
 					.validate(cp, params);
 			X509Certificate trustedCert = (X509Certificate) cpvResult
@@ -122,6 +124,8 @@ public class OCSPX509CertificateValidator extends AbstractX509CertificateValidat
 		} catch (Exception e) {
 			log.error(e, e);
 			throw new X509CertificateValidationException(e);
+		} finally {
+			endHttpProxy();
 		}
 		log.debug("CERTIFICATE VALIDATION SUCCEEDED");
 	}
@@ -0,0 +1,274 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.auth.scheme.validation;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs a set of X509 Certificate validators as a single one.
+ * <p/>
+ * When parallel, validators run concurrently so that CRL downloads and OCSP requests overlap,
+ * the certificate is rejected as soon as one of them fails or when the validation timeout
+ * (milliseconds, 0 for none) expires, and the remaining validators are cancelled.
+ * Otherwise validators run in order, stopping at the first failure.
+ * <p/>
+ * At most 'maxThreads' validators run at once, idle threads stop after a minute. When all of them
+ * are busy, up to 'maxQueuedValidations' validators wait for a thread, within the validation timeout.
+ * Beyond that the certificate is rejected instead of running validators in the calling thread,
+ * where neither the timeout nor the short-circuit would apply.
+ *
+ * @org.apache.xbean.XBean element="validation-pipeline"
+ */
+public class X509CertificateValidationPipeline implements X509CertificateValidator {
+
+	private static final Log log = LogFactory
+			.getLog(X509CertificateValidationPipeline.class);
+
+	private static final AtomicInteger poolCount = new AtomicInteger();
+
+	private List<X509CertificateValidator> _validators = new ArrayList<X509CertificateValidator>();
+	private boolean _parallel = true;
+	private long _validationTimeout = 0;
+	private int _maxThreads = 50;
+	private int _maxQueuedValidations = 100;
+
+	private ExecutorService _executor;
+
+	public X509CertificateValidationPipeline() {
+	}
+
+	public X509CertificateValidationPipeline(List<X509CertificateValidator> validators) {
+		setValidators(validators);
+	}
+
+	public void validate(final X509Certificate certificate)
+			throws X509CertificateValidationException {
+
+		List<X509CertificateValidator> validators = _validators;
+
+		if (!_parallel || validators.size() < 2) {
+			for (X509CertificateValidator validator : validators) {
+				validator.validate(certificate);
+			}
+			return;
+		}
+
+		long deadline = _validationTimeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_validationTimeout) : 0;
+
+		ExecutorService executor = getExecutor();
+		CompletionService<Object> cs = new ExecutorCompletionService<Object>(executor);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>(validators.size());
+		try {
+			for (final X509CertificateValidator validator : validators) {
+				futures.add(cs.submit(new Runnable() {
+					public void run() {
+						try {
+							validator.validate(certificate);
+						} catch (X509CertificateValidationException e) {
+							throw new ValidationFailure(e);
+						}
+					}
+				}, null));
+			}
+		} catch (RejectedExecutionException e) {
+			cancel(executor, futures);
+			throw new X509CertificateValidationException("Too many concurrent certificate validations, "
+					+ _maxThreads + " running and " + _maxQueuedValidations + " waiting");
+		}
+
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				Future<Object> done;
+				if (deadline == 0) {
+					done = cs.take();
+				} else {
+					long left = deadline - System.nanoTime();
+					done = left > 0 ? cs.poll(left, TimeUnit.NANOSECONDS) : null;
+					if (done == null)
+						throw new X509CertificateValidationException("Certificate validation timed out after " + _validationTimeout + " ms");
+				}
+
+				try {
+					done.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof ValidationFailure)
+						throw ((ValidationFailure) e.getCause()).getFailure();
+					throw new X509CertificateValidationException(e.getCause());
+				}
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new X509CertificateValidationException(e);
+		} finally {
+			// Short-circuit : nothing left to wait for once the outcome is known
+			cancel(executor, futures);
+		}
+
+		if (log.isDebugEnabled())
+			log.debug("Certificate validated by " + validators.size() + " validators");
+	}
+
+	private void cancel(ExecutorService executor, List<Future<Object>> futures) {
+		boolean cancelled = false;
+		for (Future<Object> f : futures) {
+			cancelled |= f.cancel(true);
+		}
+		// Free the queue slots of validators that were still waiting
+		if (cancelled && executor instanceof ThreadPoolExecutor) {
+			((ThreadPoolExecutor) executor).purge();
+		}
+	}
+
+	protected synchronized ExecutorService getExecutor() {
+		if (_executor == null) {
+			final String prefix = "josso-x509-validation-" + poolCount.incrementAndGet() + "-";
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(_maxThreads, _maxThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(Math.max(1, _maxQueuedValidations)), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, prefix + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			_executor = executor;
+		}
+		return _executor;
+	}
+
+	/**
+	 * Stops validation threads, pending validations are cancelled.
+	 */
+	public synchronized void shutdown() {
+		if (_executor != null) {
+			_executor.shutdownNow();
+			_executor = null;
+		}
+	}
+
+	/**
+	 * @return the validators
+	 */
+	public List<X509CertificateValidator> getValidators() {
+		return _validators;
+	}
+
+	/**
+	 * @param validators the validators to set
+	 */
+	public void setValidators(List<X509CertificateValidator> validators) {
+		_validators = validators != null ? new ArrayList<X509CertificateValidator>(validators) :
+				new ArrayList<X509CertificateValidator>();
+	}
+
+	/**
+	 * @return true if validators run concurrently
+	 */
+	public boolean isParallel() {
+		return _parallel;
+	}
+
+	/**
+	 * @param parallel true if validators should run concurrently
+	 */
+	public void setParallel(boolean parallel) {
+		_parallel = parallel;
+	}
+
+	/**
+	 * @return the validation timeout in milliseconds, 0 means no timeout
+	 */
+	public long getValidationTimeout() {
+		return _validationTimeout;
+	}
+
+	/**
+	 * @param validationTimeout the validation timeout in milliseconds, 0 means no timeout
+	 */
+	public void setValidationTimeout(long validationTimeout) {
+		_validationTimeout = validationTimeout;
+	}
+
+	/**
+	 * @return the maximum number of validation threads
+	 */
+	public int getMaxThreads() {
+		return _maxThreads;
+	}
+
+	/**
+	 * @param maxThreads the maximum number of validation threads, used when the first parallel validation runs
+	 */
+	public void setMaxThreads(int maxThreads) {
+		_maxThreads = maxThreads;
+	}
+
+	/**
+	 * @return the maximum number of validators waiting for a validation thread
+	 */
+	public int getMaxQueuedValidations() {
+		return _maxQueuedValidations;
+	}
+
+	/**
+	 * @param maxQueuedValidations the maximum number of validators waiting for a validation thread,
+	 * used when the first parallel validation runs
+	 */
+	public void setMaxQueuedValidations(int maxQueuedValidations) {
+		_maxQueuedValidations = maxQueuedValidations;
+	}
+
+	/**
+	 * Carries a validator failure out of the worker thread.
+	 */
+	private static class ValidationFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public ValidationFailure(X509CertificateValidationException failure) {
+			super(failure);
+		}
+
+		public X509CertificateValidationException getFailure() {
+			return (X509CertificateValidationException) getCause();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.auth.scheme.validation;
+
+import java.io.InputStream;
+import java.security.cert.CRLException;
+import java.security.cert.CertPath;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Shared X.509 certificate factory, so that it's not looked up on every authentication.
+ * <p/>
+ * Factories are not guaranteed to be thread safe, access is synchronized.
+ */
+public class X509Certificates {
+
+	private static CertificateFactory factory;
+
+	private X509Certificates() {
+	}
+
+	public static X509Certificate generateCertificate(InputStream in) throws CertificateException {
+		CertificateFactory cf = getFactory();
+		synchronized (cf) {
+			return (X509Certificate) cf.generateCertificate(in);
+		}
+	}
+
+	public static CertPath generateCertPath(List<X509Certificate> certificates) throws CertificateException {
+		CertificateFactory cf = getFactory();
+		synchronized (cf) {
+			return cf.generateCertPath(certificates);
+		}
+	}
+
+	public static X509CRL generateCRL(InputStream in) throws CertificateException, CRLException {
+		CertificateFactory cf = getFactory();
+		synchronized (cf) {
+			return (X509CRL) cf.generateCRL(in);
+		}
+	}
+
+	private static synchronized CertificateFactory getFactory() throws CertificateException {
+		if (factory == null)
+			factory = CertificateFactory.getInstance("X.509");
+		return factory;
+	}
+}
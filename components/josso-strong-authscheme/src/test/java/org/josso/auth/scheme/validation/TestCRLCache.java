@@ -0,0 +1,156 @@
+package org.josso.auth.scheme.validation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.cert.X509CRL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * CRL download tests against a local CRL distribution point.
+ */
+public class TestCRLCache {
+
+	protected HttpServer server;
+
+	protected AtomicInteger downloads = new AtomicInteger();
+
+	protected volatile byte[] crl;
+
+	protected CRLX509CertificateValidator validator;
+
+	@Before
+	public void startDistributionPoint() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/test.crl", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				downloads.incrementAndGet();
+				exchange.sendResponseHeaders(200, crl.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(crl);
+				out.close();
+			}
+		});
+		server.start();
+
+		validator = new CRLX509CertificateValidator();
+		validator.setUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/test.crl");
+	}
+
+	@After
+	public void stopDistributionPoint() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testCRLReusedUntilNextUpdate() throws Exception {
+		crl = buildCRL(new Date(System.currentTimeMillis() + 60000));
+
+		X509CRL first = validator.getCRL();
+		X509CRL second = validator.getCRL();
+
+		Assert.assertEquals(1, downloads.get());
+		Assert.assertSame(first, second);
+	}
+
+	@Test
+	public void testCRLDownloadedWhenOutdated() throws Exception {
+		crl = buildCRL(new Date(System.currentTimeMillis() - 1000));
+
+		validator.getCRL();
+		validator.getCRL();
+
+		Assert.assertEquals(2, downloads.get());
+	}
+
+	@Test
+	public void testCRLWithoutNextUpdate() throws Exception {
+		crl = buildCRL(null);
+		validator.setCrlRefreshInterval(60000);
+
+		validator.getCRL();
+		validator.getCRL();
+
+		Assert.assertEquals(1, downloads.get());
+	}
+
+	/**
+	 * Builds an empty, signed, version 1 CRL.
+	 */
+	private byte[] buildCRL(Date nextUpdate) throws Exception {
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+		kpg.initialize(1024);
+		KeyPair kp = kpg.generateKeyPair();
+
+		// sha256WithRSAEncryption
+		byte[] algorithm = der(0x30, concat(
+				new byte[] {0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x0b},
+				new byte[] {0x05, 0x00}));
+
+		ByteArrayOutputStream tbs = new ByteArrayOutputStream();
+		tbs.write(algorithm);
+		tbs.write(new X500Principal("CN=JOSSO Test CA").getEncoded());
+		tbs.write(utcTime(new Date()));
+		if (nextUpdate != null)
+			tbs.write(utcTime(nextUpdate));
+		byte[] tbsCertList = der(0x30, tbs.toByteArray());
+
+		Signature signature = Signature.getInstance("SHA256withRSA");
+		signature.initSign(kp.getPrivate());
+		signature.update(tbsCertList);
+
+		// No unused bits in the signature bit string
+		byte[] signatureValue = der(0x03, concat(new byte[] {0}, signature.sign()));
+
+		return der(0x30, concat(concat(tbsCertList, algorithm), signatureValue));
+	}
+
+	private byte[] utcTime(Date date) throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmmss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return der(0x17, format.format(date).getBytes("US-ASCII"));
+	}
+
+	private byte[] der(int tag, byte[] content) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(tag);
+		int length = content.length;
+		if (length < 0x80) {
+			out.write(length);
+		} else if (length < 0x100) {
+			out.write(0x81);
+			out.write(length);
+		} else {
+			out.write(0x82);
+			out.write(length >> 8);
+			out.write(length & 0xff);
+		}
+		out.write(content, 0, length);
+		return out.toByteArray();
+	}
+
+	private byte[] concat(byte[] a, byte[] b) {
+		byte[] r = new byte[a.length + b.length];
+		System.arraycopy(a, 0, r, 0, a.length);
+		System.arraycopy(b, 0, r, a.length, b.length);
+		return r;
+	}
+}
@@ -0,0 +1,88 @@
+package org.josso.auth.scheme.validation;
+
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that revocation fetches use the proxy of the validation running in their thread,
+ * without changing the proxies used by other threads.
+ */
+public class TestHttpProxy {
+
+	@Test
+	public void testProxyPerThread() throws Exception {
+		URI responder = new URI("http://ocsp.josso.org/");
+		final ProxyValidator validator = new ProxyValidator("proxy.josso.org", "3128");
+
+		validator.beginHttpProxy();
+		try {
+			List<Proxy> proxies = ProxySelector.getDefault().select(responder);
+			Assert.assertEquals(1, proxies.size());
+			Assert.assertEquals(validator.getHttpProxy(), proxies.get(0));
+
+			// Other threads keep the JVM defaults
+			final AtomicReference<List<Proxy>> other = new AtomicReference<List<Proxy>>();
+			Thread t = new Thread() {
+				public void run() {
+					other.set(ProxySelector.getDefault().select(URI.create("http://ocsp.josso.org/")));
+				}
+			};
+			t.start();
+			t.join();
+			Assert.assertFalse(other.get().contains(validator.getHttpProxy()));
+		} finally {
+			validator.endHttpProxy();
+		}
+
+		Assert.assertFalse(ProxySelector.getDefault().select(responder).contains(validator.getHttpProxy()));
+	}
+
+	@Test
+	public void testNoProxyConfigured() throws Exception {
+		URI responder = new URI("http://ocsp.josso.org/");
+		List<Proxy> before = ProxySelector.getDefault().select(responder);
+
+		ProxyValidator validator = new ProxyValidator(null, null);
+		Assert.assertNull(validator.getHttpProxy());
+
+		validator.beginHttpProxy();
+		try {
+			Assert.assertEquals(before, ProxySelector.getDefault().select(responder));
+		} finally {
+			validator.endHttpProxy();
+		}
+	}
+
+	/**
+	 * Only sets up the proxy.
+	 */
+	public static class ProxyValidator extends AbstractX509CertificateValidator {
+
+		public ProxyValidator(String host, String port) {
+			setHttpProxyHost(host);
+			setHttpProxyPort(port);
+		}
+
+		public void validate(X509Certificate certificate) throws X509CertificateValidationException {
+		}
+
+		public Proxy getHttpProxy() {
+			return super.getHttpProxy();
+		}
+
+		public void beginHttpProxy() {
+			super.beginHttpProxy();
+		}
+
+		public void endHttpProxy() {
+			super.endHttpProxy();
+		}
+	}
+}
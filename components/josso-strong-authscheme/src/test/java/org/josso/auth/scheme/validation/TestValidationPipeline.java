@@ -0,0 +1,230 @@
+package org.josso.auth.scheme.validation;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Validation pipeline tests, revocation checks are replaced by local stand-ins that
+ * answer after a given delay, like an OCSP responder or CRL distribution point would.
+ */
+public class TestValidationPipeline {
+
+	protected X509CertificateValidationPipeline pipeline;
+
+	protected X509Certificate certificate;
+
+	@Before
+	public void initPipeline() throws Exception {
+		pipeline = new X509CertificateValidationPipeline();
+		certificate = X509Certificates.generateCertificate(getClass().getResourceAsStream("certs/valid.cer"));
+	}
+
+	@After
+	public void shutdownPipeline() {
+		pipeline.shutdown();
+	}
+
+	@Test
+	public void testValidatorsRunConcurrently() throws Exception {
+		StandInValidator ocsp = new StandInValidator(300, false);
+		StandInValidator crl = new StandInValidator(300, false);
+		pipeline.setValidators(list(ocsp, crl));
+
+		long start = System.currentTimeMillis();
+		pipeline.validate(certificate);
+		long elapsed = System.currentTimeMillis() - start;
+
+		Assert.assertEquals(1, ocsp.getInvocations());
+		Assert.assertEquals(1, crl.getInvocations());
+		Assert.assertTrue("Validators did not overlap, took " + elapsed + " ms", elapsed < 550);
+	}
+
+	@Test
+	public void testFailureShortCircuits() throws Exception {
+		StandInValidator revoked = new StandInValidator(50, true);
+		StandInValidator slow = new StandInValidator(5000, false);
+		pipeline.setValidators(list(slow, revoked));
+
+		long start = System.currentTimeMillis();
+		boolean valid = true;
+		try {
+			pipeline.validate(certificate);
+		} catch (X509CertificateValidationException e) {
+			valid = false;
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		Assert.assertEquals(false, valid);
+		Assert.assertTrue("Failure was not reported until " + elapsed + " ms", elapsed < 2000);
+
+		// The slow validator is cancelled
+		Thread.sleep(200);
+		Assert.assertEquals(true, slow.isInterrupted());
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		pipeline.setValidators(list(new StandInValidator(10, false), new StandInValidator(5000, false)));
+		pipeline.setValidationTimeout(200);
+
+		long start = System.currentTimeMillis();
+		boolean valid = true;
+		try {
+			pipeline.validate(certificate);
+		} catch (X509CertificateValidationException e) {
+			valid = false;
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		Assert.assertEquals(false, valid);
+		Assert.assertTrue("Deadline not honored, took " + elapsed + " ms", elapsed < 2000);
+	}
+
+	@Test
+	public void testSequentialStopsOnFailure() throws Exception {
+		StandInValidator revoked = new StandInValidator(0, true);
+		StandInValidator next = new StandInValidator(0, false);
+		pipeline.setValidators(list(revoked, next));
+		pipeline.setParallel(false);
+
+		boolean valid = true;
+		try {
+			pipeline.validate(certificate);
+		} catch (X509CertificateValidationException e) {
+			valid = false;
+		}
+
+		Assert.assertEquals(false, valid);
+		Assert.assertEquals(1, revoked.getInvocations());
+		Assert.assertEquals(0, next.getInvocations());
+	}
+
+	@Test
+	public void testValidatorsWaitForThreads() throws Exception {
+		StandInValidator first = new StandInValidator(200, false);
+		StandInValidator second = new StandInValidator(200, false);
+		pipeline.setValidators(list(first, second));
+		pipeline.setMaxThreads(1);
+
+		long start = System.currentTimeMillis();
+		pipeline.validate(certificate);
+		long elapsed = System.currentTimeMillis() - start;
+
+		Assert.assertEquals(1, first.getInvocations());
+		Assert.assertEquals(1, second.getInvocations());
+
+		// The second waits for the only pool thread, none runs in the calling thread
+		Assert.assertTrue(first.getThread() != Thread.currentThread());
+		Assert.assertTrue(second.getThread() != Thread.currentThread());
+		Assert.assertTrue("Validators overlapped, took " + elapsed + " ms", elapsed >= 390);
+	}
+
+	@Test
+	public void testSaturatedPoolRejects() throws Exception {
+		StandInValidator first = new StandInValidator(5000, false);
+		StandInValidator second = new StandInValidator(5000, false);
+		StandInValidator third = new StandInValidator(5000, false);
+		pipeline.setValidators(list(first, second, third));
+		pipeline.setMaxThreads(1);
+		pipeline.setMaxQueuedValidations(1);
+
+		long start = System.currentTimeMillis();
+		boolean valid = true;
+		try {
+			pipeline.validate(certificate);
+		} catch (X509CertificateValidationException e) {
+			valid = false;
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		Assert.assertEquals(false, valid);
+		Assert.assertTrue("Saturated pool did not reject at once, took " + elapsed + " ms", elapsed < 2000);
+
+		// Nothing ran in the calling thread, the running validator is cancelled and the queued one never runs
+		Thread.sleep(200);
+		Assert.assertEquals(0, third.getInvocations());
+		Assert.assertEquals(0, second.getInvocations());
+		Assert.assertEquals(true, first.isInterrupted());
+	}
+
+	@Test
+	public void testQueuedValidatorsHonorDeadline() throws Exception {
+		StandInValidator first = new StandInValidator(5000, false);
+		StandInValidator second = new StandInValidator(10, false);
+		pipeline.setValidators(list(first, second));
+		pipeline.setMaxThreads(1);
+		pipeline.setValidationTimeout(200);
+
+		long start = System.currentTimeMillis();
+		boolean valid = true;
+		try {
+			pipeline.validate(certificate);
+		} catch (X509CertificateValidationException e) {
+			valid = false;
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		Assert.assertEquals(false, valid);
+		Assert.assertTrue("Deadline not honored, took " + elapsed + " ms", elapsed < 2000);
+
+		// The queued validator is cancelled before it gets a thread
+		Thread.sleep(200);
+		Assert.assertEquals(0, second.getInvocations());
+	}
+
+	private List<X509CertificateValidator> list(X509CertificateValidator... validators) {
+		List<X509CertificateValidator> l = new ArrayList<X509CertificateValidator>();
+		for (X509CertificateValidator v : validators)
+			l.add(v);
+		return l;
+	}
+
+	/**
+	 * Answers after a delay, rejecting the certificate if configured as revoked.
+	 */
+	public static class StandInValidator implements X509CertificateValidator {
+
+		private long delay;
+		private boolean revoked;
+		private AtomicInteger invocations = new AtomicInteger();
+		private volatile boolean interrupted;
+		private volatile Thread thread;
+
+		public StandInValidator(long delay, boolean revoked) {
+			this.delay = delay;
+			this.revoked = revoked;
+		}
+
+		public void validate(X509Certificate certificate) throws X509CertificateValidationException {
+			invocations.incrementAndGet();
+			thread = Thread.currentThread();
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				interrupted = true;
+				throw new X509CertificateValidationException(e);
+			}
+			if (revoked)
+				throw new X509CertificateValidationException("Certificate revoked : " + certificate.getSerialNumber());
+		}
+
+		public int getInvocations() {
+			return invocations.get();
+		}
+
+		public boolean isInterrupted() {
+			return interrupted;
+		}
+
+		public Thread getThread() {
+			return thread;
+		}
+	}
+}
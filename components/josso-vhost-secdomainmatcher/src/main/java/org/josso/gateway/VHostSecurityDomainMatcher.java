@@ -25,8 +25,8 @@ package org.josso.gateway;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 /**
@@ -37,19 +37,27 @@ import java.util.StringTokenizer;
  * @author <a href="mailto:sgonzalez@atricore.org">Sebastian Gonzalez Oyuela</a>
  * @version $Rev: 603 $ $Date: 2008-08-21 10:53:53 -0300 (Thu, 21 Aug 2008) $
  */
-public class VHostSecurityDomainMatcher implements SecurityDomainMatcher {
+public class VHostSecurityDomainMatcher implements KeyedSecurityDomainMatcher {
 
     private static Log logger = LogFactory.getLog(VHostSecurityDomainMatcher.class);
 
-    private List<String> vhosts = new ArrayList<String>();
+    private Set<String> vhosts = new HashSet<String>();
 
     public void init() {
         if (vhosts.isEmpty())
             logger.warn("No Virtual hosts defined for this matcher.  Check JOSSO configuration!");
     }
 
+    public String getParameterName() {
+        return org.josso.gateway.signon.Constants.PARAM_JOSSO_PARTNERAPP_HOST;
+    }
+
+    public Set<String> getKeys() {
+        return vhosts;
+    }
+
     public boolean match(SSORequest req) {
-        String vhost = req.getParameter(org.josso.gateway.signon.Constants.PARAM_JOSSO_PARTNERAPP_HOST);
+        String vhost = req.getParameter(getParameterName());
         boolean match = vhost != null && vhosts.contains(vhost.toLowerCase());
 
         if (logger.isDebugEnabled())
@@ -25,6 +25,8 @@ import org.josso.gateway.GatewayServiceLocator;
 import org.josso.gateway.assertion.exceptions.AssertionNotValidException;
 import org.josso.gateway.identity.service.SSOIdentityManagerService;
 import org.josso.gateway.identity.service.SSOIdentityProviderService;
+import org.josso.gateway.session.SessionToken;
+import org.josso.gateway.session.SessionTokenSigner;
 import org.josso.gateway.session.exceptions.FatalSSOSessionException;
 import org.josso.gateway.session.exceptions.NoSuchSessionException;
 import org.josso.gateway.session.exceptions.SSOSessionException;
@@ -32,6 +34,7 @@ import org.josso.gateway.session.service.SSOSessionManagerService;
 
 import java.io.IOException;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -56,6 +59,8 @@ public abstract class AbstractSSOAgent implements SSOAgent {
 
     public static final long DEFAULT_SESSION_ACCESS_MIN_INTERVAL = 1000;
 
+    public static final long DEFAULT_SESSION_TOKEN_REFRESH_MARGIN = 30000;
+
     public static final ThreadLocal<SSOAgentRequest> _currentRequest = new ThreadLocal<SSOAgentRequest>();
 
     // ----------------------------------------------------- Instance Variables
@@ -101,11 +106,21 @@ public abstract class AbstractSSOAgent implements SSOAgent {
     private long _sessionAccessMinInterval = DEFAULT_SESSION_ACCESS_MIN_INTERVAL;
 
     private boolean _isStateOnClient = false;
+
+    private boolean _partnerAppContextPrefixMatch = false;
+
+    private String _sessionTokenKey;
+
+    private SessionTokenSigner _sessionTokenSigner;
+
+    private long _sessionTokenRefreshMargin = DEFAULT_SESSION_TOKEN_REFRESH_MARGIN;
     
     // --------- <Some statistical information, exposed through MBeans >
     private long _requestCount;
     private long _l1CacheHits;
     private long _l2CacheHits;
+    private long _pushedInvalidations;
+    private long _sessionTokenHits;
 
 
     // ----------------------------------------------------- Properties
@@ -234,6 +249,34 @@ public abstract class AbstractSSOAgent implements SSOAgent {
         _sessionAccessMinInterval = sessionAccessMinInterval;
     }
 
+    /**
+     * Base 64 encoded key shared with the gateway to verify signed session tokens.  While a session has a valid
+     * token the agent does not access the session in the gateway.  Tokens are ignored when no key is configured.
+     */
+    public String getSessionTokenKey() {
+        return _sessionTokenKey;
+    }
+
+    public void setSessionTokenKey(String sessionTokenKey) {
+        try {
+            _sessionTokenSigner = sessionTokenKey != null ? new SessionTokenSigner(sessionTokenKey) : null;
+            _sessionTokenKey = sessionTokenKey;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid session token key : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Time, in milliseconds, before the token expiration when the agent goes back to access the session in the gateway.
+     */
+    public long getSessionTokenRefreshMargin() {
+        return _sessionTokenRefreshMargin;
+    }
+
+    public void setSessionTokenRefreshMargin(long sessionTokenRefreshMargin) {
+        _sessionTokenRefreshMargin = sessionTokenRefreshMargin;
+    }
+
     /**
      * Single Point of Access to the SSO infrastructure. Useful when working in N-Tier mode behind a reverse proxy or
      * load balancer
@@ -269,21 +312,28 @@ public abstract class AbstractSSOAgent implements SSOAgent {
      */
     public SSOPartnerAppConfig getPartnerAppConfig(String vhost, String contextPath) {
 
-        List<SSOPartnerAppConfig> papps = _cfg.getSsoPartnerApps();
+        SSOPartnerAppConfigIndex index = _cfg.getSsoPartnerAppIndex();
 
-        if (contextPath == null || "".equals(contextPath))
-            contextPath = "/";
+        SSOPartnerAppConfig ssoPartnerAppConfig = _partnerAppContextPrefixMatch ?
+                index.lookupLongestPrefix(vhost, contextPath) : index.lookup(vhost, contextPath);
 
-        for (SSOPartnerAppConfig ssoPartnerAppConfig : papps) {
+        if (ssoPartnerAppConfig == null)
+            log("No partner application configured for '"+vhost+"' and '"+contextPath+"'");
 
-            if ((ssoPartnerAppConfig.getVhost() == null || ssoPartnerAppConfig.getVhost().equals(vhost)) &&
-                    contextPath.equals(ssoPartnerAppConfig.getContext()))
-                return ssoPartnerAppConfig;
-        }
+        return ssoPartnerAppConfig;
 
-        log("No partner application configured for '"+vhost+"' and '"+contextPath+"'");
-        return null;
+    }
+
+    /**
+     * When enabled, a request context that is not configured is handled by the partner application configured
+     * for its longest parent path (i.e. /portal for /portal/admin).  Disabled by default, contexts must match exactly.
+     */
+    public boolean isPartnerAppContextPrefixMatch() {
+        return _partnerAppContextPrefixMatch;
+    }
 
+    public void setPartnerAppContextPrefixMatch(boolean partnerAppContextPrefixMatch) {
+        _partnerAppContextPrefixMatch = partnerAppContextPrefixMatch;
     }
 
     /**
@@ -388,6 +438,7 @@ public abstract class AbstractSSOAgent implements SSOAgent {
                 // Count the cache hit.
                 _l1CacheHits++;
 
+                applySessionToken(request, entry);
                 entry = accessSession(request.getRequester(), entry, jossoSessionId, request.getNodeId());
 
                 if (entry != null) {
@@ -425,6 +476,7 @@ public abstract class AbstractSSOAgent implements SSOAgent {
 
                 register(jossoSessionId, ssoUserPrincipal, "JOSSO");
                 entry = lookup(jossoSessionId);
+                applySessionToken(request, entry);
                 entry = accessSession(request.getRequester(), entry, jossoSessionId, request.getNodeId());
 
                 if (entry != null)
@@ -510,8 +562,18 @@ public abstract class AbstractSSOAgent implements SSOAgent {
         if (entry == null)
             return entry;
 
-        // Do not access server more than once in a second ...
+        // A signed session token stands for the gateway until it is about to expire
         long now = System.currentTimeMillis();
+        SessionToken token = entry.token;
+        if (token != null) {
+            if (!token.expiresWithin(now, _sessionTokenRefreshMargin)) {
+                _sessionTokenHits++;
+                return entry;
+            }
+            entry.token = null;
+        }
+
+        // Do not access server more than once in a second ...
         if ((now - entry.lastAccessTime) < getSessionAccessMinInterval()) {
             _l2CacheHits++;
             return entry;
@@ -605,6 +667,38 @@ public abstract class AbstractSSOAgent implements SSOAgent {
 
     }
     
+    /**
+     * Attaches the signed session token received with the request to the entry, if it is valid for the entry session.
+     */
+    protected void applySessionToken(SSOAgentRequest request, SingleSignOnEntry entry) {
+
+        SessionTokenSigner signer = _sessionTokenSigner;
+        if (signer == null || entry == null)
+            return;
+
+        String text = getSessionToken(request);
+        if (text == null)
+            return;
+
+        SessionToken token = signer.verify(text);
+        if (token == null || !entry.ssoId.equals(token.getSessionId()) || token.isExpired(System.currentTimeMillis())) {
+            log("Ignoring invalid session token for SSO Session '" + entry.ssoId + "'");
+            return;
+        }
+
+        if (debug > 0)
+            log("Using session token for SSO Session '" + entry.ssoId + "' until " + token.getExpiresAt());
+
+        entry.token = token;
+    }
+
+    /**
+     * Template method used to obtain the signed session token sent by the gateway with the request, if any.
+     */
+    protected String getSessionToken(SSOAgentRequest request) {
+        return null;
+    }
+
     abstract protected void sendCustomAuthentication(SSOAgentRequest request) throws IOException;
 
     /**
@@ -690,6 +784,10 @@ public abstract class AbstractSSOAgent implements SSOAgent {
         if (ssoId == null)
             return;
 
+        SingleSignOnEntry sso = lookup(ssoId);
+        if (sso != null)
+            sso.removeSession(session);
+
         // Deregister this single sso session id, invalidating associated sessions
         deregister(ssoId);
 
@@ -732,6 +830,48 @@ public abstract class AbstractSSOAgent implements SSOAgent {
     }
 
 
+    /**
+     * Drops the given SSO sessions, pushed by the gateway when they were destroyed.  Cached entries are removed and
+     * their local sessions invalidated, so the agent does not have to wait for a session access to fail.  When the
+     * gateway pushes destroyed sessions, sessionAccessMinInterval can be raised accordingly (i.e. 10 times).
+     *
+     * @param ssoIds destroyed SSO session identifiers
+     * @return the number of cached SSO sessions that were dropped
+     */
+    public int invalidateSessions(String[] ssoIds) {
+
+        List<SingleSignOnEntry> entries = new ArrayList<SingleSignOnEntry>(ssoIds.length);
+        synchronized (cache) {
+            for (int i = 0; i < ssoIds.length; i++) {
+                SingleSignOnEntry sso = cache.remove(ssoIds[i]);
+                if (sso != null)
+                    entries.add(sso);
+            }
+        }
+
+        // Local sessions are invalidated without holding the cache lock, containers fire events back to the agent
+        for (SingleSignOnEntry sso : entries) {
+            LocalSession[] sessions = sso.findSessions();
+            for (int i = 0; i < sessions.length; i++) {
+                synchronized (reverse) {
+                    reverse.remove(sessions[i]);
+                }
+                try {
+                    sessions[i].invalidate();
+                } catch (IllegalStateException e) {
+                    // Already invalidated by the container
+                }
+            }
+        }
+
+        _pushedInvalidations += entries.size();
+
+        if (debug > 0)
+            log("Invalidated " + entries.size() + " of " + ssoIds.length + " SSO sessions pushed by the gateway");
+
+        return entries.size();
+    }
+
     /**
      * Register the specified Principal as being associated with the specified
      * value for the single sign on identifier.
@@ -781,6 +921,28 @@ public abstract class AbstractSSOAgent implements SSOAgent {
         return _l2CacheHits;
     }
 
+    public long getPushedInvalidations() {
+        return _pushedInvalidations;
+    }
+
+    public long getSessionTokenHits() {
+        return _sessionTokenHits;
+    }
+
+    /**
+     * Number of cached SSO sessions.
+     */
+    public int getCachedSessionCount() {
+        return cache.size();
+    }
+
+    /**
+     * Number of local sessions associated with cached SSO sessions.
+     */
+    public int getLocalSessionCount() {
+        return reverse.size();
+    }
+
 	public boolean isStateOnClient() {
 		return _isStateOnClient;
 	}
@@ -34,6 +34,8 @@ public class Constants {
 
     public static final String JOSSO_ASSERTION_ID_PARAMETER = "josso_assertion_id";
 
+    public static final String JOSSO_SESSION_TOKEN_PARAMETER = "josso_session_token";
+
     public static final String JOSSO_APP_ID_PARAMETER = "josso_application_id";
     
     public static final String JOSSO_SPLASH_RESOURCE_PARAMETER = "josso_splash_resource";
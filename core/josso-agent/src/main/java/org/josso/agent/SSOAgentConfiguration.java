@@ -61,7 +61,7 @@ public interface SSOAgentConfiguration {
     void removeSSOPartnerApp(String appWebCtx);
 
     /**
-     * Lists all configurations
+     * Lists all configurations, the returned list can't be modified.  Use the add and remove methods instead.
      */
     List<SSOPartnerAppConfig> getSsoPartnerApps();
 
@@ -70,5 +70,10 @@ public interface SSOAgentConfiguration {
      */
     void setSsoPartnerApps(List<SSOPartnerAppConfig> apps);
 
+    /**
+     * Index of the current configurations by vhost and context, a new index is built when configurations are added or removed.
+     */
+    SSOPartnerAppConfigIndex getSsoPartnerAppIndex();
+
 
 }
@@ -22,6 +22,7 @@
 package org.josso.agent;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -35,19 +36,22 @@ public class SSOAgentConfigurationImpl implements SSOAgentConfiguration {
 
     private List<SSOPartnerAppConfig> _cfgs;
 
+    private volatile SSOPartnerAppConfigIndex _index;
+
     public SSOAgentConfigurationImpl() {
         _cfgs = new ArrayList<SSOPartnerAppConfig>();
     }
 
-    public void addSSOPartnerApp(String id, String context, String[] ignoredWebResources) {
+    public synchronized void addSSOPartnerApp(String id, String context, String[] ignoredWebResources) {
         SSOPartnerAppConfig cfg = new SSOPartnerAppConfig();
         cfg.setId(id);
         cfg.setContext(context);
         cfg.setIgnoredWebResources(ignoredWebResources);
         _cfgs.add(cfg);
+        _index = null;
     }
 
-    public void addSSOPartnerApp(String id, String vhost, String context, String[] ignoredWebResources, SecurityContextPropagationConfig secCtxPropCfg) {
+    public synchronized void addSSOPartnerApp(String id, String vhost, String context, String[] ignoredWebResources, SecurityContextPropagationConfig secCtxPropCfg) {
 
         SSOPartnerAppConfig cfg = new SSOPartnerAppConfig();
         cfg.setId(id);
@@ -57,17 +61,20 @@ public class SSOAgentConfigurationImpl implements SSOAgentConfiguration {
         cfg.setSecurityContextPropagationConfig(secCtxPropCfg);
 
         _cfgs.add(cfg);
+        _index = null;
     }
 
-    public void addSSOPartnerApp(SSOPartnerAppConfig cfg) {
+    public synchronized void addSSOPartnerApp(SSOPartnerAppConfig cfg) {
         _cfgs.add(cfg);
+        _index = null;
     }
 
-    public void removeSSOPartnerApp(String c) {
+    public synchronized void removeSSOPartnerApp(String c) {
         for (int i = 0; i < _cfgs.size(); i++) {
             SSOPartnerAppConfig cfg = (SSOPartnerAppConfig) _cfgs.get(i);
             if (cfg.getContext().equals(c)) {
                 _cfgs.remove(cfg);
+                _index = null;
                 return;
             }
         }
@@ -77,12 +84,26 @@ public class SSOAgentConfigurationImpl implements SSOAgentConfiguration {
      * @org.apache.xbean.Property alias="partner-apps" nestedType="org.josso.agent.SSOPartnerAppConfig"
      * @return
      */
-    public List<SSOPartnerAppConfig> getSsoPartnerApps() {
-        return _cfgs;
+    public synchronized List<SSOPartnerAppConfig> getSsoPartnerApps() {
+        // A snapshot, changes must go through this configuration so that the index is rebuilt
+        return Collections.unmodifiableList(new ArrayList<SSOPartnerAppConfig>(_cfgs));
+    }
+
+    public synchronized void setSsoPartnerApps(List<SSOPartnerAppConfig> apps) {
+        this._cfgs = new ArrayList<SSOPartnerAppConfig>(apps);
+        this._index = null;
     }
 
-    public void setSsoPartnerApps(List<SSOPartnerAppConfig> apps) {
-        this._cfgs = apps;
+    public SSOPartnerAppConfigIndex getSsoPartnerAppIndex() {
+        SSOPartnerAppConfigIndex index = _index;
+        if (index == null) {
+            synchronized (this) {
+                if (_index == null)
+                    _index = new SSOPartnerAppConfigIndex(_cfgs);
+                index = _index;
+            }
+        }
+        return index;
     }
 
 }
@@ -21,7 +21,12 @@
  */
 package org.josso.agent;
 
+import org.josso.agent.http.IgnoredUrlMatcher;
+
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * @org.apache.xbean.XBean element="partner-app"
@@ -58,6 +63,11 @@ public class SSOPartnerAppConfig implements Serializable {
 
     private SecurityContextPropagationConfig _securityContextPropagationConfig;
 
+    // Compiled forms of the ignore configuration, built on first use and dropped when it changes.
+    private transient volatile IgnoredUrlMatcher _ignoredUrlMatcher;
+
+    private transient volatile Set<String> _ignoredWebResourceNames;
+
     /**
      * Stores the received context as part of this Partner App. configuration.
      * The context may have a starting slash : "/partnerapp" or "partnerapp".
@@ -134,6 +144,7 @@ public class SSOPartnerAppConfig implements Serializable {
      */
     public void setIgnoredWebResources(String[] _ignoredWebResources) {
         this._ignoredWebResources = _ignoredWebResources;
+        this._ignoredWebResourceNames = null;
     }
 
     /**
@@ -142,6 +153,7 @@ public class SSOPartnerAppConfig implements Serializable {
      */
     public void setIgnoredUrlPatterns(String[] _ignoredUrlPatterns) {
         this._ignoredUrlPatterns = _ignoredUrlPatterns;
+        this._ignoredUrlMatcher = null;
     }
     
     public void setSecurityContextPropagationConfig(SecurityContextPropagationConfig _securityContextPropagationConfig) {
@@ -195,6 +207,35 @@ public class SSOPartnerAppConfig implements Serializable {
         return _ignoredUrlPatterns;
     }
 
+    /**
+     * The ignored url patterns compiled into a matcher, built once and rebuilt when the patterns are set again.
+     */
+    public IgnoredUrlMatcher getIgnoredUrlMatcher() {
+        IgnoredUrlMatcher m = _ignoredUrlMatcher;
+        if (m == null) {
+            m = new IgnoredUrlMatcher(_ignoredUrlPatterns);
+            _ignoredUrlMatcher = m;
+        }
+        return m;
+    }
+
+    /**
+     * The ignored web resource names as a set, built once and rebuilt when the names are set again.
+     */
+    public Set<String> getIgnoredWebResourceNames() {
+        Set<String> names = _ignoredWebResourceNames;
+        if (names == null) {
+            names = new HashSet<String>();
+            if (_ignoredWebResources != null) {
+                for (int i = 0; i < _ignoredWebResources.length; i++)
+                    names.add(_ignoredWebResources[i]);
+            }
+            names = Collections.unmodifiableSet(names);
+            _ignoredWebResourceNames = names;
+        }
+        return names;
+    }
+
     public String getAppLoginUrl() {
         return _appLoginUrl;
     }
@@ -0,0 +1,140 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.agent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable (vhost, context) index of partner application configurations.
+ * <p/>
+ * Configurations without a virtual host apply to any host. When both a host specific and a generic
+ * configuration exist for the same context, the one declared first wins, as it did when the list
+ * was scanned sequentially.
+ * <p/>
+ * Instances are built from a snapshot of the configuration list, a new index must be built when the list changes.
+ *
+ * @version $Id$
+ */
+public class SSOPartnerAppConfigIndex {
+
+    // vhost -> context -> entry
+    private final Map<String, Map<String, Entry>> byVhost = new HashMap<String, Map<String, Entry>>();
+
+    // context -> entry, for configurations that do not declare a vhost
+    private final Map<String, Entry> anyVhost = new HashMap<String, Entry>();
+
+    private final int size;
+
+    public SSOPartnerAppConfigIndex(List<SSOPartnerAppConfig> cfgs) {
+        int order = 0;
+        for (SSOPartnerAppConfig cfg : cfgs) {
+            if (cfg.getContext() == null)
+                continue;
+
+            Map<String, Entry> contexts = anyVhost;
+            if (cfg.getVhost() != null) {
+                contexts = byVhost.get(cfg.getVhost());
+                if (contexts == null) {
+                    contexts = new HashMap<String, Entry>();
+                    byVhost.put(cfg.getVhost(), contexts);
+                }
+            }
+
+            // Keep the first declaration for each key
+            if (!contexts.containsKey(cfg.getContext()))
+                contexts.put(cfg.getContext(), new Entry(cfg, order));
+
+            order++;
+        }
+        size = order;
+    }
+
+    /**
+     * @return the number of indexed configurations.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the configuration associated with the given host and context, the context must match exactly.
+     *
+     * @return the configuration or null if there is none.
+     */
+    public SSOPartnerAppConfig lookup(String vhost, String contextPath) {
+        Entry e = find(vhost, normalize(contextPath));
+        return e != null ? e.cfg : null;
+    }
+
+    /**
+     * Finds the configuration associated with the given host and the longest configured context that
+     * is equal to the given one or is one of its parent paths, i.e. /portal for /portal/admin.
+     *
+     * @return the configuration or null if there is none.
+     */
+    public SSOPartnerAppConfig lookupLongestPrefix(String vhost, String contextPath) {
+        String ctx = normalize(contextPath);
+        while (true) {
+            Entry e = find(vhost, ctx);
+            if (e != null)
+                return e.cfg;
+
+            if (ctx.equals("/"))
+                return null;
+
+            int slash = ctx.lastIndexOf('/');
+            ctx = slash > 0 ? ctx.substring(0, slash) : "/";
+        }
+    }
+
+    protected Entry find(String vhost, String ctx) {
+        Entry generic = anyVhost.get(ctx);
+
+        Map<String, Entry> contexts = vhost != null ? byVhost.get(vhost) : null;
+        Entry specific = contexts != null ? contexts.get(ctx) : null;
+
+        if (specific == null)
+            return generic;
+        if (generic == null)
+            return specific;
+
+        return specific.order < generic.order ? specific : generic;
+    }
+
+    protected String normalize(String contextPath) {
+        return contextPath == null || contextPath.length() == 0 ? "/" : contextPath;
+    }
+
+    protected static class Entry {
+
+        private final SSOPartnerAppConfig cfg;
+
+        private final int order;
+
+        Entry(SSOPartnerAppConfig cfg, int order) {
+            this.cfg = cfg;
+            this.order = order;
+        }
+    }
+}
@@ -21,7 +21,11 @@
  */
 package org.josso.agent;
 
+import org.josso.gateway.session.SessionToken;
+
 import java.security.Principal;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A class representing entries in the cache of authenticated users.
@@ -34,9 +38,11 @@ public class SingleSignOnEntry {
     public String authType = null;
     public String password = null;
     public Principal principal = null;
-    public LocalSession sessions[] = new LocalSession[0];
+    // Concurrent set of local sessions, keyed by identity.
+    private final ConcurrentHashMap<LocalSession, Boolean> sessions = new ConcurrentHashMap<LocalSession, Boolean>();
     public String ssoId = null;
     public long lastAccessTime;
+    public SessionToken token = null;
 
     public SingleSignOnEntry(String ssoId, Principal principal,
                              String authType) {
@@ -52,22 +58,29 @@ public class SingleSignOnEntry {
      *
      * @param localSession the local session to be associated with the single sign-on session.
      */
-    public synchronized void addSession(LocalSession localSession) {
-        for (int i = 0; i < sessions.length; i++) {
-            if (localSession == sessions[i])
-                return;
-        }
-        LocalSession results[] = new LocalSession[sessions.length + 1];
-        System.arraycopy(sessions, 0, results, 0, sessions.length);
-        results[sessions.length] = localSession;
-        sessions = results;
+    public void addSession(LocalSession localSession) {
+        sessions.putIfAbsent(localSession, Boolean.TRUE);
+    }
+
+    /**
+     * Disassociates a Local Session from the Single Sign-On Session.
+     *
+     * @param localSession the local session to be removed.
+     */
+    public void removeSession(LocalSession localSession) {
+        sessions.remove(localSession);
     }
 
     /**
      * Provides the list of local sessions associated with the Single Sign-on Session.
      */
-    public synchronized LocalSession[] findSessions() {
-        return (this.sessions);
+    public LocalSession[] findSessions() {
+        Set<LocalSession> s = sessions.keySet();
+        return s.toArray(new LocalSession[s.size()]);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
     }
 
     public synchronized void updatePrincipal(Principal p) {
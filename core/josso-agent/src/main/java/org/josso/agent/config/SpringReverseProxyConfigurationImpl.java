@@ -23,6 +23,7 @@
 package org.josso.agent.config;
 
 import org.josso.agent.reverseproxy.ProxyContextConfig;
+import org.josso.agent.reverseproxy.ProxyContextMapper;
 import org.josso.agent.reverseproxy.ReverseProxyConfiguration;
 
 import java.util.ArrayList;
@@ -37,20 +38,36 @@ import java.util.List;
 public class SpringReverseProxyConfigurationImpl implements ReverseProxyConfiguration {
     private List _pcl;
 
+    private volatile ProxyContextMapper _mapper;
+
     public SpringReverseProxyConfigurationImpl() {
         _pcl = new ArrayList();
     }
 
-    public void addProxyContext(String name, String context, String forwardHost, String forwardUri) {
+    public synchronized void addProxyContext(String name, String context, String forwardHost, String forwardUri) {
         _pcl.add(new ProxyContextConfig(name, context, forwardHost, forwardUri));
+        _mapper = null;
     }
 
-    public ProxyContextConfig[] getProxyContexts() {
+    public synchronized ProxyContextConfig[] getProxyContexts() {
         return (ProxyContextConfig[]) _pcl.toArray(new ProxyContextConfig[_pcl.size()]);
     }
 
-    public void setProxyContexts(List proxyContexts) {
+    public synchronized void setProxyContexts(List proxyContexts) {
         _pcl = proxyContexts;
+        _mapper = null;
+    }
+
+    public ProxyContextMapper getProxyContextMapper() {
+        ProxyContextMapper mapper = _mapper;
+        if (mapper == null) {
+            synchronized (this) {
+                if (_mapper == null)
+                    _mapper = new ProxyContextMapper(getProxyContexts());
+                mapper = _mapper;
+            }
+        }
+        return mapper;
     }
 
 }
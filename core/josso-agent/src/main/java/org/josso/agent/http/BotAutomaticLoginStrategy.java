@@ -23,11 +23,17 @@
 package org.josso.agent.http;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -37,6 +43,11 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * This will not require an automatic login when a bot is crawling the site.
+ * <p/>
+ * Robots are loaded when the agent starts.  Besides the exact user agents listed in the file, robot names
+ * (i.e. 'Googlebot', 'msnbot') are compiled into a {@link UserAgentMatcher} that finds them inside the
+ * User-Agent header, so versioned crawler strings are recognized too.  Recent verdicts are kept in a small LRU cache, and when the robots
+ * file is a plain file it is reloaded once it changes.
  *
  * @org.apache.xbean.XBean element="bot-automaticlogin-strategy"
  * 
@@ -47,10 +58,23 @@ public class BotAutomaticLoginStrategy extends AbstractAutomaticLoginStrategy {
 
 	private static final Log log = LogFactory.getLog(BotAutomaticLoginStrategy.class);
 
+    // Robot names shorter than this, or found in the list below, are too generic to be searched inside a User-Agent
+    private static final int MIN_PATTERN_LENGTH = 4;
+
+    private static final String[] GENERIC_NAMES = {"http", "https", "mozilla", "none", "not available", "root", "user-agent"};
+
 	private String file = "/bots.properties";
-	
-	private Map<String, Robot> bots;
-	
+
+    private int verdictCacheSize = 512;
+
+    private long reloadInterval = 60000;
+
+    private volatile Robots robots;
+
+    private volatile Map<String, Boolean> verdicts;
+
+    private final AtomicLong nextReloadCheck = new AtomicLong();
+
     public BotAutomaticLoginStrategy() {
         super();
     }
@@ -58,7 +82,16 @@ public class BotAutomaticLoginStrategy extends AbstractAutomaticLoginStrategy {
     public BotAutomaticLoginStrategy(String mode) {
         super(mode);
     }
-    
+
+    /**
+     * Robots are loaded as soon as the strategy is attached to an agent.
+     */
+    @Override
+    public void setAgent(HttpSSOAgent agent) {
+        super.setAgent(agent);
+        loadRobots();
+    }
+
     /**
      * Components must evaluate if automatic login is required for the received request.
      *
@@ -66,28 +99,97 @@ public class BotAutomaticLoginStrategy extends AbstractAutomaticLoginStrategy {
      */
     @Override
     public boolean isAutomaticLoginRequired(HttpServletRequest hreq, HttpServletResponse hres) {
-    	if (bots == null) {
-    		loadRobots();
-    	}
-    	String userAgent = hreq.getHeader("User-Agent");
-    	if (bots.get(userAgent) != null) {
-    		log.debug("Autologin not required for bot: " + userAgent);
-    		return false;
-    	}
-    	return true;
+        String userAgent = hreq.getHeader("User-Agent");
+        if (userAgent == null)
+            return true;
+
+        // Checks for changes in the bots file, a reload also drops the cached verdicts
+        Robots r = getRobots();
+
+        Map<String, Boolean> cache = verdicts;
+        if (cache != null) {
+            Boolean required;
+            synchronized (cache) {
+                required = cache.get(userAgent);
+            }
+            if (required != null)
+                return required.booleanValue();
+        }
+
+        Robot robot = findRobot(r, userAgent);
+
+        boolean required = robot == null;
+        if (!required && log.isDebugEnabled())
+            log.debug("Autologin not required for bot: " + userAgent + " [" + robot.getName() + "]");
+
+        if (cache != null) {
+            synchronized (cache) {
+                cache.put(userAgent, Boolean.valueOf(required));
+            }
+        }
+
+        return required;
     }
-    
+
+    /**
+     * Finds the robot with the given user agent, or whose name is found inside it.
+     *
+     * @return the robot or null if the user agent does not belong to a known robot.
+     */
+    protected Robot findRobot(Robots r, String userAgent) {
+        Robot robot = r.byUserAgent.get(userAgent);
+        if (robot == null) {
+            String name = r.matcher.match(userAgent);
+            if (name != null)
+                robot = r.byName.get(name);
+        }
+        return robot;
+    }
+
+    /**
+     * Current robots, loading them the first time and reloading them if the file has changed.
+     */
+    protected Robots getRobots() {
+        Robots r = robots;
+        if (r == null)
+            return loadRobots();
+
+        if (reloadInterval > 0 && r.source != null) {
+            long now = System.currentTimeMillis();
+            long next = nextReloadCheck.get();
+            // Only one thread checks the file on each interval
+            if (now >= next && nextReloadCheck.compareAndSet(next, now + reloadInterval)) {
+                if (r.source.lastModified() != r.lastModified) {
+                    log.info("Bots file changed, reloading : " + r.source);
+                    return loadRobots();
+                }
+            }
+        }
+
+        return r;
+    }
+
     /**
-     * Loads bots from the file.
+     * Loads bots from the file and replaces the current matcher.
      */
-    private void loadRobots() {
-    	bots = new HashMap<String, Robot>();
+    protected synchronized Robots loadRobots() {
+        Map<String, Robot> byUserAgent = new HashMap<String, Robot>();
+        Map<String, Robot> byName = new HashMap<String, Robot>();
+        File source = null;
+        long lastModified = 0;
+
         InputStream is = null;
         try {
-            is = this.getClass().getResourceAsStream(file);
-            if (is == null)
+            URL url = this.getClass().getResource(file);
+            if (url == null)
                 throw new IOException("Cannot find resource: " + file + ". Make sure this file is installed with JOSSO Agent!");
 
+            if ("file".equals(url.getProtocol())) {
+                source = new File(URLDecoder.decode(url.getFile(), "UTF-8"));
+                lastModified = source.lastModified();
+            }
+
+            is = url.openStream();
             BufferedReader br = new BufferedReader(new InputStreamReader(is));
             
             String line = null;
@@ -105,20 +207,90 @@ public class BotAutomaticLoginStrategy extends AbstractAutomaticLoginStrategy {
             			setRobotProperty(robot, name, line, true);
             		}
             	} else {
-            		bots.put(robot.getUserAgent(), robot);
+            		addRobot(byUserAgent, byName, robot);
             		robot = new Robot();
             		name = null;
             		value = null;
             	}
             }
-            
-            log.info("Loaded bots file: " + file);
+            addRobot(byUserAgent, byName, robot);
+
+            log.info("Loaded bots file: " + file + " [" + byUserAgent.size() + " user agents, " + byName.size() + " names]");
         } catch (IOException e) {
             log.error("Cannot load bot properties from " + file + " : " + e.getMessage(), e);
-            bots = null;
+            byUserAgent.clear();
+            byName.clear();
         } finally  {
             if (is != null) try { is.close(); } catch (IOException e) { /**/}
         }
+
+        Robots r = new Robots(byUserAgent, byName, source, lastModified);
+        robots = r;
+        nextReloadCheck.set(System.currentTimeMillis() + reloadInterval);
+
+        // Previous verdicts may no longer apply
+        verdicts = verdictCacheSize > 0 ? new VerdictCache(verdictCacheSize) : null;
+
+        return r;
+    }
+
+    /**
+     * Registers the robot under its exact user agent and under its name (the product token of the user agent).
+     */
+    protected void addRobot(Map<String, Robot> byUserAgent, Map<String, Robot> byName, Robot robot) {
+        String userAgent = robot.getUserAgent();
+        if (userAgent == null)
+            return;
+
+        byUserAgent.put(userAgent, robot);
+
+        String name = getRobotName(userAgent.trim());
+        if (name != null && isSpecific(name) && !byName.containsKey(name))
+            byName.put(name, robot);
+    }
+
+    /**
+     * Extracts the robot name from its user agent, i.e. 'Googlebot' from 'Mozilla/5.0 (compatible; Googlebot/2.1; ...)'
+     * or 'msnbot' from 'msnbot/1.1 (+http://search.msn.com/msnbot.htm)'.
+     *
+     * @return the robot name or null if it cannot be extracted.
+     */
+    protected String getRobotName(String userAgent) {
+        String ua = userAgent;
+        if (ua.toLowerCase().startsWith("mozilla/")) {
+            int compatible = ua.toLowerCase().indexOf("compatible;");
+            if (compatible < 0)
+                return null;
+            ua = ua.substring(compatible + "compatible;".length());
+        }
+
+        int end = ua.length();
+        for (int i = 0; i < ua.length(); i++) {
+            char c = ua.charAt(i);
+            if (c == '/' || c == ';' || c == '(' || c == ')' || c == '+' || c == ',' || c == '*' || c == '&') {
+                end = i;
+                break;
+            }
+        }
+
+        String name = ua.substring(0, end).trim();
+        return name.length() > 0 ? name : null;
+    }
+
+    /**
+     * Tells if the given robot name is specific enough to be searched inside User-Agent headers.
+     */
+    protected boolean isSpecific(String pattern) {
+        if (pattern.length() < MIN_PATTERN_LENGTH)
+            return false;
+
+        for (int i = 0; i < GENERIC_NAMES.length; i++) {
+            if (GENERIC_NAMES[i].equalsIgnoreCase(pattern))
+                return false;
+        }
+
+        // Skip HTML escaped entries and descriptions found instead of user agents
+        return !pattern.startsWith("&#") && !pattern.toLowerCase().startsWith("due to ");
     }
     
     /**
@@ -208,4 +380,67 @@ public class BotAutomaticLoginStrategy extends AbstractAutomaticLoginStrategy {
 	public void setFile(String file) {
 		this.file = file;
 	}
+
+    /**
+     * Number of User-Agent verdicts to remember, 0 disables the cache.
+     */
+    public int getVerdictCacheSize() {
+        return verdictCacheSize;
+    }
+
+    public void setVerdictCacheSize(int verdictCacheSize) {
+        this.verdictCacheSize = verdictCacheSize;
+    }
+
+    /**
+     * Milliseconds between checks for changes in the bots file, 0 disables reloading.
+     */
+    public long getReloadInterval() {
+        return reloadInterval;
+    }
+
+    public void setReloadInterval(long reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    /**
+     * Loaded robots, replaced as a whole when the file is reloaded.
+     */
+    protected static class Robots {
+
+        private final Map<String, Robot> byUserAgent;
+
+        private final Map<String, Robot> byName;
+
+        private final UserAgentMatcher matcher;
+
+        private final File source;
+
+        private final long lastModified;
+
+        Robots(Map<String, Robot> byUserAgent, Map<String, Robot> byName, File source, long lastModified) {
+            this.byUserAgent = Collections.unmodifiableMap(byUserAgent);
+            this.byName = Collections.unmodifiableMap(byName);
+            this.matcher = new UserAgentMatcher(byName.keySet());
+            this.source = source;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Least recently used User-Agent verdicts, access must be synchronized on the cache.
+     */
+    private static class VerdictCache extends LinkedHashMap<String, Boolean> {
+
+        private final int maxSize;
+
+        VerdictCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > maxSize;
+        }
+    }
 }
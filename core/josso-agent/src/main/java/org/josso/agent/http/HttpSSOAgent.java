@@ -26,6 +26,7 @@ import org.josso.agent.AbstractSSOAgent;
 import org.josso.agent.Lookup;
 import org.josso.agent.SSOAgentRequest;
 import org.josso.agent.SSOPartnerAppConfig;
+import org.josso.agent.SSOPartnerAppConfigIndex;
 import org.josso.agent.Constants;
 import org.josso.auth.util.CipherUtil;
 import org.josso.gateway.SSONameValuePair;
@@ -39,6 +40,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpUtils;
 import javax.servlet.http.Cookie;
+import java.security.MessageDigest;
 import java.security.Principal;
 import java.util.*;
 import java.io.IOException;
@@ -59,12 +61,17 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
     private static final String DEFAULT_JOSSO_SECURITY_CHECK_URI = "/josso_security_check";
     private static final String DEFAULT_JOSSO_LOGOUT_URI = "/josso_logout/";
     private static final String DEFAULT_JOSSO_AUTHENTICATION_URI = "/josso_authentication/";
+    private static final String DEFAULT_JOSSO_SESSION_INVALIDATION_URI = "/josso_session_invalidation";
+
+    private static final String PARTNER_APP_CONFIG_ATTR = "org.josso.agent.http.PARTNER_APP_CONFIG";
 
     private String _jossoLoginUri = DEFAULT_JOSSO_LOGIN_URI;
     private String _jossoUserLoginUri = DEFAULT_JOSSO_USER_LOGIN_URI;
     private String _jossoSecurityCheckUri = DEFAULT_JOSSO_SECURITY_CHECK_URI;
     private String _jossoLogoutUri = DEFAULT_JOSSO_LOGOUT_URI;
     private String _jossoAuthenticationUri = DEFAULT_JOSSO_AUTHENTICATION_URI;
+    private String _jossoSessionInvalidationUri = DEFAULT_JOSSO_SESSION_INVALIDATION_URI;
+    private String _sessionInvalidationSecret;
 
     private List<FrontChannelParametersBuilder> _builders = new ArrayList<FrontChannelParametersBuilder>();
 
@@ -85,6 +92,17 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
         }
     }
 
+    /**
+     * The gateway sends the session token with the assertion, when it issues them.
+     */
+    protected String getSessionToken(SSOAgentRequest request) {
+        if (!(request instanceof HttpSSOAgentRequest))
+            return null;
+
+        HttpServletRequest hreq = ((HttpSSOAgentRequest) request).getRequest();
+        return hreq != null ? hreq.getParameter(Constants.JOSSO_SESSION_TOKEN_PARAMETER) : null;
+    }
+
     /**
      * By default we do not require to authenticate all requests.
      */
@@ -96,15 +114,7 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
         HttpSSOAgentRequest servletSSOAgentRequest = (HttpSSOAgentRequest) request;
         SSOPartnerAppConfig partnerAppConfig;
 
-        String contextPath = servletSSOAgentRequest.getRequest().getContextPath();
-
-        // In catalina, the empty context is considered the root context
-        if ("".equals(contextPath))
-            contextPath = "/";
-
-        partnerAppConfig = getPartnerAppConfig(servletSSOAgentRequest.getRequest().getServerName(),
-                contextPath
-        );
+        partnerAppConfig = getPartnerAppConfig(servletSSOAgentRequest.getRequest());
 
         if (partnerAppConfig.getSecurityContextPropagationConfig() == null) {
             // No security propagation configuration found, ignore this.
@@ -333,7 +343,7 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
     public String buildLoginUrl(HttpServletRequest hreq) {
 
         // Support specifying an external form for each application.
-        SSOPartnerAppConfig appCfg = getPartnerAppConfig(hreq.getServerName(), hreq.getContextPath());
+        SSOPartnerAppConfig appCfg = getPartnerAppConfig(hreq);
         if (appCfg != null && appCfg.getAppLoginUrl() != null) {
             return appCfg.getAppLoginUrl();
         }
@@ -471,7 +481,7 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
      */
     protected String buildLoginUrlParams(HttpServletRequest hreq) {
 
-        SSOPartnerAppConfig cfg = super.getPartnerAppConfig(hreq.getServerName(), hreq.getContextPath());
+        SSOPartnerAppConfig cfg = getPartnerAppConfig(hreq);
 
         String urlParams = "";
         for (FrontChannelParametersBuilder builder : _builders) {
@@ -495,7 +505,7 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
     protected String buildLogoutUrlParams(HttpServletRequest hreq) {
 
 
-        SSOPartnerAppConfig cfg = super.getPartnerAppConfig(hreq.getServerName(), hreq.getContextPath());
+        SSOPartnerAppConfig cfg = getPartnerAppConfig(hreq);
 
         String urlParams = "";
         for (FrontChannelParametersBuilder builder : _builders) {
@@ -516,7 +526,7 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
     	HttpServletResponse hres = ((HttpSSOAgentRequest) request).getResponse();
     	prepareNonCacheResponse(hres);
     	
-    	SSOPartnerAppConfig cfg = this.getPartnerAppConfig(hreq.getServerName(), hreq.getContextPath());
+    	SSOPartnerAppConfig cfg = getPartnerAppConfig(hreq);
     	
         String splash_resource = null;
         /* If this is an authentication request, our splash resource will be one of the following (in the given order):
@@ -616,6 +626,32 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
     	response.setHeader("Expires", "0");
     }
 
+    /**
+     * Returns the partner application configuration associated with the request host and context.
+     * The result is kept as a request attribute, so the configuration index is queried only once
+     * per request, no matter how many components need it.
+     *
+     * @param hreq http request
+     * @return the partner application configuration, or null if the context is not a partner application
+     */
+    public SSOPartnerAppConfig getPartnerAppConfig(HttpServletRequest hreq) {
+        String vhost = hreq.getServerName();
+        String contextPath = hreq.getContextPath();
+        SSOPartnerAppConfigIndex index = getConfiguration().getSsoPartnerAppIndex();
+
+        Object attr = hreq.getAttribute(PARTNER_APP_CONFIG_ATTR);
+        if (attr instanceof RequestPartnerAppConfig) {
+            // The same request may be dispatched to other contexts, make sure the cached value still applies
+            RequestPartnerAppConfig cached = (RequestPartnerAppConfig) attr;
+            if (cached.matches(index, vhost, contextPath))
+                return cached.cfg;
+        }
+
+        SSOPartnerAppConfig cfg = getPartnerAppConfig(vhost, contextPath);
+        hreq.setAttribute(PARTNER_APP_CONFIG_ATTR, new RequestPartnerAppConfig(index, vhost, contextPath, cfg));
+        return cfg;
+    }
+
     /**
      * Checks if the requested resource is subject to SSO protection 
      * (it compares the request path against configured <ignore-url-patterns>).
@@ -625,39 +661,35 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
      * @return true if requested resource should be ignored, false otherwise
      */
     public boolean isResourceIgnored(SSOPartnerAppConfig cfg, HttpServletRequest request) {
-        // There are some url-patterns to ignore
-        String[] ignoredUrlPatterns = cfg.getIgnoredUrlPatterns();
+        // There are some url-patterns to ignore, they are compiled once per partner application.
+        IgnoredUrlMatcher ignoredUrls = cfg.getIgnoredUrlMatcher();
 
         if (debug >= 1)
-            log("Found [" +  (ignoredUrlPatterns!= null ? ignoredUrlPatterns.length+"" : "no") + "] ignored url patterns ");
+            log("Found [" +  (!ignoredUrls.isEmpty() ? ignoredUrls.getPatterns().length+"" : "no") + "] ignored url patterns ");
+
+        if (!ignoredUrls.isEmpty()) {
 
-        if (ignoredUrlPatterns != null && ignoredUrlPatterns.length > 0) {
-            
         	String requestPath = request.getServletPath();
-        	
+
             // Add the path info, if there is any
             String pathInfo = request.getPathInfo();
             if (pathInfo != null) {
                 requestPath += pathInfo;
             }
-            
-        	for (int i=0; i<ignoredUrlPatterns.length; i++) {
-	        	String ignoredUrlPattern = ignoredUrlPatterns[i];
-	        	
-	        	if (matchPattern(requestPath, ignoredUrlPattern)) {
-	        		
-	        		// We should ignore this URI, it's not subject to SSO protection
-	        		if (debug >= 1)
-	                    log("Not subject to SSO protection :  url-pattern:" + ignoredUrlPattern);
-	                
-	        		return true;
-	        	}
-        	}
+
+            if (ignoredUrls.matches(requestPath)) {
+
+                // We should ignore this URI, it's not subject to SSO protection
+                if (debug >= 1)
+                    log("Not subject to SSO protection :  url-patterns:" + ignoredUrls);
+
+                return true;
+            }
         }
 
         return false;
     }
-    
+
     /**
      * Does the specified request path match the specified URL pattern?
      * This method follows the same rules (in the same order) as those used
@@ -783,6 +815,69 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
         _jossoAuthenticationUri = jossoAuthenticationUri;
     }
 
+    public String getJossoSessionInvalidationUri() {
+        return _jossoSessionInvalidationUri;
+    }
+
+    public void setJossoSessionInvalidationUri(String jossoSessionInvalidationUri) {
+        _jossoSessionInvalidationUri = jossoSessionInvalidationUri;
+    }
+
+    /**
+     * Secret the gateway must send when pushing destroyed sessions.  Session invalidation requests are refused
+     * while no secret is configured.
+     */
+    public String getSessionInvalidationSecret() {
+        return _sessionInvalidationSecret;
+    }
+
+    public void setSessionInvalidationSecret(String sessionInvalidationSecret) {
+        _sessionInvalidationSecret = sessionInvalidationSecret;
+    }
+
+    /**
+     * True if the request is the gateway pushing destroyed sessions to this agent.
+     */
+    public boolean isSessionInvalidationRequest(HttpServletRequest hreq) {
+        return hreq.getRequestURI().endsWith(_jossoSessionInvalidationUri);
+    }
+
+    /**
+     * Handles a session invalidation request sent by the gateway : a POST with the comma separated
+     * josso_session_ids parameter and the josso_secret parameter.
+     */
+    public void processSessionInvalidationRequest(HttpServletRequest hreq, HttpServletResponse hres) throws IOException {
+
+        if (!"POST".equals(hreq.getMethod())) {
+            hres.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        String secret = hreq.getParameter("josso_secret");
+        if (_sessionInvalidationSecret == null || secret == null ||
+                !MessageDigest.isEqual(_sessionInvalidationSecret.getBytes("UTF-8"), secret.getBytes("UTF-8"))) {
+            log("Refusing session invalidation request from " + hreq.getRemoteAddr());
+            hres.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        List<String> ssoIds = new ArrayList<String>();
+        String[] values = hreq.getParameterValues("josso_session_ids");
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                StringTokenizer st = new StringTokenizer(values[i], ",");
+                while (st.hasMoreTokens()) {
+                    String ssoId = st.nextToken().trim();
+                    if (ssoId.length() > 0)
+                        ssoIds.add(ssoId);
+                }
+            }
+        }
+
+        invalidateSessions(ssoIds.toArray(new String[ssoIds.size()]));
+        hres.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
     // --------------------------- Spring friendly
 
     public void setParametersBuilders(List<FrontChannelParametersBuilder> builders) {
@@ -954,4 +1049,31 @@ public abstract class HttpSSOAgent extends AbstractSSOAgent {
         this._automaticStrategies = _automaticStrategies;
     }
 
+
+    /**
+     * Partner application configuration resolved for a request.
+     */
+    private static class RequestPartnerAppConfig {
+
+        private final SSOPartnerAppConfigIndex index;
+
+        private final String vhost;
+
+        private final String contextPath;
+
+        private final SSOPartnerAppConfig cfg;
+
+        RequestPartnerAppConfig(SSOPartnerAppConfigIndex index, String vhost, String contextPath, SSOPartnerAppConfig cfg) {
+            this.index = index;
+            this.vhost = vhost;
+            this.contextPath = contextPath;
+            this.cfg = cfg;
+        }
+
+        boolean matches(SSOPartnerAppConfigIndex index, String vhost, String contextPath) {
+            return this.index == index &&
+                    (this.vhost == null ? vhost == null : this.vhost.equals(vhost)) &&
+                    (this.contextPath == null ? contextPath == null : this.contextPath.equals(contextPath));
+        }
+    }
 }
@@ -0,0 +1,230 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.agent.http;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compiled form of a partner application <code>ignore-url-patterns</code> list.
+ * <p/>
+ * Patterns are classified once, following the servlet mapping rules used by
+ * {@link HttpSSOAgent#matchPattern(String, String)} :
+ * <ul>
+ * <li>exact paths are kept in a hash set.</li>
+ * <li>path prefixes (<code>/path/*</code>) are kept in a character trie, matched on segment boundaries.</li>
+ * <li>extensions (<code>*.ext</code>) are kept in a trie of reversed suffixes.</li>
+ * <li>universal mappings (<code>/</code> and <code>/*</code>) are folded into a single flag.</li>
+ * </ul>
+ * Matching walks the request path once per kind of pattern and does not allocate.
+ * Instances are immutable and can be shared by all request threads.
+ *
+ * @version $Id$
+ */
+public class IgnoredUrlMatcher {
+
+    private final String[] patterns;
+
+    private final boolean matchAll;
+
+    private final Set<String> exactPaths = new HashSet<String>();
+
+    private final Node prefixes = new Node();
+
+    private final Node suffixes = new Node();
+
+    private boolean hasPrefixes;
+
+    private boolean hasSuffixes;
+
+    public IgnoredUrlMatcher(String[] patterns) {
+        this.patterns = patterns != null ? patterns : new String[0];
+
+        boolean all = false;
+        for (int i = 0; i < this.patterns.length; i++) {
+            String pattern = this.patterns[i];
+            if (pattern == null || pattern.length() == 0)
+                pattern = "/";
+
+            if (pattern.equals("/") || pattern.equals("/*")) {
+                all = true;
+
+            } else if (pattern.startsWith("/") && pattern.endsWith("/*")) {
+                String prefix = pattern.substring(0, pattern.length() - 2);
+                Node n = prefixes;
+                for (int j = 0; j < prefix.length(); j++)
+                    n = n.add(prefix.charAt(j));
+                n.terminal = true;
+                hasPrefixes = true;
+                // The pattern itself is also a valid exact path
+                exactPaths.add(pattern);
+
+            } else if (pattern.startsWith("*.")) {
+                Node n = suffixes;
+                for (int j = pattern.length() - 1; j > 0; j--)
+                    n = n.add(pattern.charAt(j));
+                n.terminal = true;
+                hasSuffixes = true;
+                // As with prefixes, the pattern itself is also an exact path
+                exactPaths.add(pattern);
+
+            } else {
+                exactPaths.add(pattern);
+            }
+        }
+        matchAll = all;
+    }
+
+    /**
+     * @return the patterns this matcher was compiled from.
+     */
+    public String[] getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * @return true if there are no patterns to match.
+     */
+    public boolean isEmpty() {
+        return patterns.length == 0;
+    }
+
+    /**
+     * Does the specified context-relative request path match any of the ignored url patterns ?
+     *
+     * @param path request path (servlet path plus path info), must start with '/'
+     */
+    public boolean matches(String path) {
+        if (matchAll)
+            return true;
+
+        if (path == null || path.length() == 0)
+            path = "/";
+
+        if (exactPaths.contains(path))
+            return true;
+
+        if (hasPrefixes && matchPrefix(path))
+            return true;
+
+        return hasSuffixes && matchSuffix(path);
+    }
+
+    /**
+     * A prefix matches when the path is equal to it, or continues it with a '/'.
+     */
+    protected boolean matchPrefix(String path) {
+        Node n = prefixes;
+        int len = path.length();
+        for (int i = 0; i < len; i++) {
+            char c = path.charAt(i);
+            if (c == '/' && n.terminal && i > 0)
+                return true;
+            n = n.get(c);
+            if (n == null)
+                return false;
+        }
+        return n.terminal;
+    }
+
+    /**
+     * A suffix matches when the path ends with it and the last segment has an extension.
+     */
+    protected boolean matchSuffix(String path) {
+        int slash = path.lastIndexOf('/');
+        int period = path.lastIndexOf('.');
+        if (slash < 0 || period <= slash)
+            return false;
+
+        Node n = suffixes;
+        for (int i = path.length() - 1; i >= 0; i--) {
+            n = n.get(path.charAt(i));
+            if (n == null)
+                return false;
+            if (n.terminal)
+                return true;
+        }
+        return false;
+    }
+
+    public String toString() {
+        StringBuffer sb = new StringBuffer("IgnoredUrlMatcher[");
+        for (int i = 0; i < patterns.length; i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append(patterns[i]);
+        }
+        return sb.append("]").toString();
+    }
+
+    /**
+     * Trie node, children are kept in parallel arrays sorted by character.
+     */
+    private static class Node {
+
+        private char[] keys = new char[0];
+
+        private Node[] children = new Node[0];
+
+        private boolean terminal;
+
+        Node get(char c) {
+            int lo = 0;
+            int hi = keys.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char k = keys[mid];
+                if (k < c)
+                    lo = mid + 1;
+                else if (k > c)
+                    hi = mid - 1;
+                else
+                    return children[mid];
+            }
+            return null;
+        }
+
+        Node add(char c) {
+            Node n = get(c);
+            if (n != null)
+                return n;
+
+            int pos = 0;
+            while (pos < keys.length && keys[pos] < c)
+                pos++;
+
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            System.arraycopy(keys, pos, newKeys, pos + 1, keys.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+
+            n = new Node();
+            newKeys[pos] = c;
+            newChildren[pos] = n;
+            keys = newKeys;
+            children = newChildren;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.agent.http;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * Aho-Corasick automaton that finds any of a set of patterns inside a User-Agent header in a single pass.
+ * <p/>
+ * Matching is case insensitive and a pattern only matches whole words : the characters around the match,
+ * if any, must not be letters or digits.  This way 'Googlebot' matches 'Mozilla/5.0 (compatible; Googlebot/2.1)'
+ * but 'Motor' does not match 'Motorola'.
+ * <p/>
+ * Instances are immutable once built and can be shared by all request threads.
+ *
+ * @version $Id$
+ */
+public class UserAgentMatcher {
+
+    private final Node root = new Node(0);
+
+    private final int size;
+
+    public UserAgentMatcher(Collection<String> patterns) {
+        int count = 0;
+        for (String pattern : patterns) {
+            if (pattern == null || pattern.length() == 0)
+                continue;
+
+            Node n = root;
+            for (int i = 0; i < pattern.length(); i++)
+                n = n.add(Character.toLowerCase(pattern.charAt(i)));
+
+            if (n.pattern == null) {
+                n.pattern = pattern;
+                count++;
+            }
+        }
+        size = count;
+        buildFailureLinks();
+    }
+
+    /**
+     * @return number of distinct patterns in this automaton.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds a pattern contained in the given User-Agent.
+     *
+     * @return the first pattern found, null if there is none.
+     */
+    public String match(String userAgent) {
+        if (userAgent == null || size == 0)
+            return null;
+
+        Node n = root;
+        int len = userAgent.length();
+        for (int i = 0; i < len; i++) {
+            char c = Character.toLowerCase(userAgent.charAt(i));
+
+            Node next = n.get(c);
+            while (next == null && n != root) {
+                n = n.fail;
+                next = n.get(c);
+            }
+            n = next != null ? next : root;
+
+            // Check this node and every shorter pattern ending at the same position
+            for (Node t = n.pattern != null ? n : n.output; t != null; t = t.output) {
+                int start = i - t.depth + 1;
+                if ((start == 0 || !Character.isLetterOrDigit(userAgent.charAt(start - 1))) &&
+                        (i + 1 == len || !Character.isLetterOrDigit(userAgent.charAt(i + 1))))
+                    return t.pattern;
+            }
+        }
+        return null;
+    }
+
+    protected void buildFailureLinks() {
+        LinkedList<Node> queue = new LinkedList<Node>();
+
+        for (int i = 0; i < root.children.length; i++) {
+            Node child = root.children[i];
+            child.fail = root;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            Node n = queue.removeFirst();
+            for (int i = 0; i < n.children.length; i++) {
+                char c = n.keys[i];
+                Node child = n.children[i];
+
+                Node f = n.fail;
+                Node target = f.get(c);
+                while (target == null && f != root) {
+                    f = f.fail;
+                    target = f.get(c);
+                }
+                child.fail = target != null ? target : root;
+
+                // Closest pattern reachable through failure links
+                child.output = child.fail.pattern != null ? child.fail : child.fail.output;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Automaton state, children are kept in parallel arrays sorted by character.
+     */
+    private static class Node {
+
+        private final int depth;
+
+        private char[] keys = new char[0];
+
+        private Node[] children = new Node[0];
+
+        private Node fail;
+
+        private Node output;
+
+        private String pattern;
+
+        Node(int depth) {
+            this.depth = depth;
+        }
+
+        Node get(char c) {
+            int lo = 0;
+            int hi = keys.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char k = keys[mid];
+                if (k < c)
+                    lo = mid + 1;
+                else if (k > c)
+                    hi = mid - 1;
+                else
+                    return children[mid];
+            }
+            return null;
+        }
+
+        Node add(char c) {
+            Node n = get(c);
+            if (n != null)
+                return n;
+
+            int pos = 0;
+            while (pos < keys.length && keys[pos] < c)
+                pos++;
+
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            System.arraycopy(keys, pos, newKeys, pos + 1, keys.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+
+            n = new Node(depth + 1);
+            newKeys[pos] = c;
+            newChildren[pos] = n;
+            keys = newKeys;
+            children = newChildren;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.agent.reverseproxy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Maps request URIs to reverse proxy contexts using the longest matching context path.
+ * Contexts are stored in a trie of path segments, so a lookup costs one map access per URI segment
+ * no matter how many contexts are configured.  Instances are immutable once built.
+ *
+ * @version $Id$
+ */
+public final class ProxyContextMapper {
+
+    private final Node root = new Node();
+
+    private final int size;
+
+    public ProxyContextMapper(ProxyContextConfig[] contexts) {
+        for (int i = 0; i < contexts.length; i++) {
+            Node node = root;
+            String[] segments = split(contexts[i].getContext());
+            for (int j = 0; j < segments.length; j++) {
+                node = node.getOrCreateChild(segments[j]);
+            }
+
+            // Keep the first configured context for duplicated paths
+            if (node.config == null)
+                node.config = contexts[i];
+        }
+        size = contexts.length;
+    }
+
+    /**
+     * Number of contexts used to build this mapper.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the context with the longest path matching the given URI, only whole path segments are matched.
+     * A root context ("/") only matches the root URI, like the previous first segment lookup did, so that
+     * unmapped URIs keep going to the next valve.
+     *
+     * @return the matching context, or null if no context matches the URI.
+     */
+    public ProxyContextConfig map(String uri) {
+        if (uri == null)
+            return null;
+
+        Node node = root;
+        ProxyContextConfig match = null;
+        boolean segments = false;
+
+        int start = 0;
+        int length = uri.length();
+        while (start < length) {
+            if (uri.charAt(start) == '/') {
+                start++;
+                continue;
+            }
+
+            int end = uri.indexOf('/', start);
+            if (end < 0)
+                end = length;
+
+            segments = true;
+            node = node.getChild(uri.substring(start, end));
+            if (node == null)
+                break;
+
+            if (node.config != null)
+                match = node.config;
+
+            start = end;
+        }
+
+        return segments ? match : root.config;
+    }
+
+    private static String[] split(String path) {
+        if (path == null)
+            return new String[0];
+
+        List<String> segments = new ArrayList<String>();
+        StringTokenizer st = new StringTokenizer(path, "/");
+        while (st.hasMoreTokens()) {
+            segments.add(st.nextToken());
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    private static class Node {
+
+        private Map<String, Node> children;
+
+        private ProxyContextConfig config;
+
+        Node getChild(String segment) {
+            return children != null ? children.get(segment) : null;
+        }
+
+        Node getOrCreateChild(String segment) {
+            if (children == null)
+                children = new HashMap<String, Node>();
+
+            Node child = children.get(segment);
+            if (child == null) {
+                child = new Node();
+                children.put(segment, child);
+            }
+            return child;
+        }
+    }
+}
@@ -30,4 +30,9 @@ public interface ReverseProxyConfiguration {
     void addProxyContext(String name, String context, String forwardHost, String forwardUri);
 
     ProxyContextConfig[] getProxyContexts();
+
+    /**
+     * Mapper for the configured proxy contexts, it is rebuilt when contexts are added.
+     */
+    ProxyContextMapper getProxyContextMapper();
 }
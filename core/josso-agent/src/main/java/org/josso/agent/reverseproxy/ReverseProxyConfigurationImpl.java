@@ -32,20 +32,35 @@ import java.util.List;
 public final class ReverseProxyConfigurationImpl implements ReverseProxyConfiguration {
     private List _pcl = new ArrayList();
 
+    private volatile ProxyContextMapper _mapper;
+
     public ReverseProxyConfigurationImpl() {
     }
 
-    public void addProxyContext(String name, String context, String forwardHost, String forwardUri) {
+    public synchronized void addProxyContext(String name, String context, String forwardHost, String forwardUri) {
         _pcl.add(
                 new ProxyContextConfig(
                         name, context, forwardHost, forwardUri
                 )
         );
+        _mapper = null;
     }
 
-    public ProxyContextConfig[] getProxyContexts() {
+    public synchronized ProxyContextConfig[] getProxyContexts() {
         return (ProxyContextConfig[]) _pcl.toArray(new ProxyContextConfig[_pcl.size()]);
     }
 
+    public ProxyContextMapper getProxyContextMapper() {
+        ProxyContextMapper mapper = _mapper;
+        if (mapper == null) {
+            synchronized (this) {
+                if (_mapper == null)
+                    _mapper = new ProxyContextMapper(getProxyContexts());
+                mapper = _mapper;
+            }
+        }
+        return mapper;
+    }
+
 
 }
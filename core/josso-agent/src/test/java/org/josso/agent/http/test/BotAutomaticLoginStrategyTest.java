@@ -0,0 +1,200 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.agent.http.test;
+
+import org.josso.agent.http.BotAutomaticLoginStrategy;
+import org.josso.agent.http.Robot;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @version $Id$
+ */
+public class BotAutomaticLoginStrategyTest {
+
+    private static final String[] BROWSERS = {
+            "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:40.0) Gecko/20100101 Firefox/40.1",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0.3538.102 Safari/537.36",
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 12_0 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/12.0 Mobile/15E148 Safari/604.1",
+            "Mozilla/5.0 (compatible; MSIE 9.0; Windows NT 6.1; Trident/5.0)",
+            "Mozilla/5.0 (Linux; Android 8.0.0; SM-G960F Build/R16NW) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/62.0.3202.84 Mobile Safari/537.36",
+            "Opera/9.80 (X11; Linux i686; Ubuntu/14.10) Presto/2.12.388 Version/12.16",
+            "MOT-V3/0E.40.3CR MIB/2.2.1 Profile/MIDP-2.0 Configuration/CLDC-1.1",
+    };
+
+    @Test
+    public void testListedUserAgents() throws Exception {
+        BotAutomaticLoginStrategy strategy = new BotAutomaticLoginStrategy();
+
+        // Every user agent in the bots file is still recognized, as with the exact lookup
+        List<String> userAgents = listedUserAgents("/bots.properties");
+        assert userAgents.size() > 100 : "Bots file not read " + userAgents.size();
+        for (String userAgent : userAgents) {
+            assert !strategy.isAutomaticLoginRequired(request(userAgent), null) : "Bot not recognized : " + userAgent;
+        }
+
+        for (String userAgent : BROWSERS) {
+            assert strategy.isAutomaticLoginRequired(request(userAgent), null) : "Browser taken for a bot : " + userAgent;
+        }
+        assert strategy.isAutomaticLoginRequired(request(null), null) : "Missing User-Agent taken for a bot";
+    }
+
+    @Test
+    public void testVersionedUserAgents() throws Exception {
+        BotAutomaticLoginStrategy strategy = new BotAutomaticLoginStrategy();
+
+        assert !strategy.isAutomaticLoginRequired(request("Mozilla/5.0 (compatible; Googlebot/2.2; +http://www.google.com/bot.html)"), null) :
+                "New Googlebot version not recognized";
+        assert !strategy.isAutomaticLoginRequired(request("msnbot/2.0b (+http://search.msn.com/msnbot.htm)"), null) :
+                "New msnbot version not recognized";
+    }
+
+    @Test
+    public void testVerdictCache() throws Exception {
+        CountingStrategy strategy = new CountingStrategy();
+        strategy.setVerdictCacheSize(2);
+
+        String a = BROWSERS[0], b = BROWSERS[1], c = BROWSERS[2];
+
+        strategy.isAutomaticLoginRequired(request(a), null);
+        strategy.isAutomaticLoginRequired(request(b), null);
+        strategy.isAutomaticLoginRequired(request(a), null);
+        assert strategy.lookups == 2 : "Verdict not cached " + strategy.lookups;
+
+        // b is the least recently used one
+        strategy.isAutomaticLoginRequired(request(c), null);
+        strategy.isAutomaticLoginRequired(request(a), null);
+        assert strategy.lookups == 3 : "Recently used verdict evicted " + strategy.lookups;
+
+        strategy.isAutomaticLoginRequired(request(b), null);
+        assert strategy.lookups == 4 : "Least recently used verdict kept " + strategy.lookups;
+
+        // No cache
+        strategy = new CountingStrategy();
+        strategy.setVerdictCacheSize(0);
+        strategy.isAutomaticLoginRequired(request(a), null);
+        strategy.isAutomaticLoginRequired(request(a), null);
+        assert strategy.lookups == 2 : "Verdict cached " + strategy.lookups;
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        File bots = new File(new File(getClass().getResource("/").toURI()), "reload-bots.properties");
+        writeBots(bots, new String[] {"TestBot/1.0 (+http://www.josso.org/bot.html)"});
+
+        BotAutomaticLoginStrategy strategy = new BotAutomaticLoginStrategy();
+        strategy.setFile("/reload-bots.properties");
+        strategy.setReloadInterval(1);
+
+        String otherBot = "Mozilla/5.0 (compatible; OtherBot/2.0)";
+        assert !strategy.isAutomaticLoginRequired(request("TestBot/1.1"), null) : "Bot not recognized";
+        assert strategy.isAutomaticLoginRequired(request(otherBot), null) : "Unknown bot recognized";
+
+        long lastModified = bots.lastModified();
+        writeBots(bots, new String[] {"TestBot/1.0 (+http://www.josso.org/bot.html)", "OtherBot/1.0"});
+        bots.setLastModified(lastModified + 2000);
+        Thread.sleep(20);
+
+        // The cached verdict is dropped with the old robots
+        assert !strategy.isAutomaticLoginRequired(request(otherBot), null) : "Bots file not reloaded";
+
+        // Without reloading, changes are ignored
+        strategy = new BotAutomaticLoginStrategy();
+        strategy.setFile("/reload-bots.properties");
+        strategy.setReloadInterval(0);
+        assert !strategy.isAutomaticLoginRequired(request(otherBot), null) : "Bot not recognized";
+
+        writeBots(bots, new String[] {"TestBot/1.0 (+http://www.josso.org/bot.html)"});
+        bots.setLastModified(lastModified + 4000);
+        Thread.sleep(20);
+        assert !strategy.isAutomaticLoginRequired(request(otherBot), null) : "Bots file reloaded";
+
+        bots.delete();
+    }
+
+    private List<String> listedUserAgents(String resource) throws Exception {
+        List<String> userAgents = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream(resource)));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("robot-useragent:")) {
+                    String userAgent = line.substring(line.indexOf(':') + 1).trim();
+                    if (userAgent.length() > 0)
+                        userAgents.add(userAgent);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return userAgents;
+    }
+
+    private void writeBots(File file, String[] userAgents) throws Exception {
+        Writer out = new FileWriter(file);
+        try {
+            for (int i = 0; i < userAgents.length; i++) {
+                out.write("robot-id: bot" + i + "\n");
+                out.write("robot-name: bot" + i + "\n");
+                out.write("robot-useragent: " + userAgents[i] + "\n");
+                out.write("\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private HttpServletRequest request(final String userAgent) {
+        return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {HttpServletRequest.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getHeader") && "User-Agent".equals(args[0]))
+                            return userAgent;
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Counts robot lookups that were not answered by the verdict cache.
+     */
+    private static class CountingStrategy extends BotAutomaticLoginStrategy {
+
+        private int lookups;
+
+        protected Robot findRobot(Robots r, String userAgent) {
+            lookups++;
+            return super.findRobot(r, userAgent);
+        }
+    }
+}
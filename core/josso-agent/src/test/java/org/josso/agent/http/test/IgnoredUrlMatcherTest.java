@@ -0,0 +1,111 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.agent.http.test;
+
+import org.josso.agent.http.IgnoredUrlMatcher;
+import org.josso.agent.http.NativeHttpSSOAgent;
+import org.junit.Test;
+
+/**
+ * Checks that the compiled ignore-url-patterns return the same results as matching every pattern
+ * with {@link org.josso.agent.http.HttpSSOAgent#matchPattern(String, String)}.
+ *
+ * @version $Id$
+ */
+public class IgnoredUrlMatcherTest {
+
+    private static final String[] PATHS = {
+            null, "", "/", "/index.jsp", "/index.jspx", "/images", "/images/", "/images/logo.gif",
+            "/images/icons/logo.GIF", "/imagesx/logo.gif", "/image", "/static/css/site.css", "/static/css",
+            "/static", "/staticfiles/site.css", "/app/admin", "/app/admin/", "/app/admin/users",
+            "/app/administrator", "/logo.gif", "/dir.d/file", "/dir.d/file.", "/a.b.c", "/favicon.ico",
+            "/js/app.min.js", "/js/app.js/", "/health", "/health/check", "/*", "/images/*", "*.gif"
+    };
+
+    @Test
+    public void testExactPatterns() throws Exception {
+        assertSameResults(new String[] {"/index.jsp", "/health", "/images/"});
+    }
+
+    @Test
+    public void testPrefixPatterns() throws Exception {
+        assertSameResults(new String[] {"/images/*", "/static/css/*", "/app/admin/*"});
+        // Nested prefixes
+        assertSameResults(new String[] {"/app/*", "/app/admin/*", "/static/*"});
+    }
+
+    @Test
+    public void testSuffixPatterns() throws Exception {
+        assertSameResults(new String[] {"*.gif", "*.css", "*.min.js", "*.ico"});
+        // A suffix that ends another one
+        assertSameResults(new String[] {"*.js", "*.min.js"});
+    }
+
+    @Test
+    public void testWildcardPatterns() throws Exception {
+        assertSameResults(new String[] {"/*"});
+        assertSameResults(new String[] {"/"});
+        assertSameResults(new String[] {""});
+        assertSameResults(new String[] {"/images/*", "/*"});
+    }
+
+    @Test
+    public void testMixedPatterns() throws Exception {
+        assertSameResults(new String[] {"/health", "/images/*", "*.css", "/app/admin/*", "*.ico", "/dir.d/*"});
+        assertSameResults(new String[0]);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assert new IgnoredUrlMatcher(null).isEmpty() : "Null patterns not empty";
+        assert new IgnoredUrlMatcher(new String[0]).isEmpty() : "No patterns not empty";
+        assert !new IgnoredUrlMatcher(new String[] {"*.gif"}).isEmpty() : "Patterns empty";
+    }
+
+    private void assertSameResults(String[] patterns) {
+        IgnoredUrlMatcher matcher = new IgnoredUrlMatcher(patterns);
+        BaselineAgent baseline = new BaselineAgent();
+
+        for (String path : PATHS) {
+            boolean expected = false;
+            for (String pattern : patterns) {
+                if (baseline.matchPattern(path, pattern)) {
+                    expected = true;
+                    break;
+                }
+            }
+
+            assert matcher.matches(path) == expected :
+                    "Path " + path + " should " + (expected ? "" : "not ") + "match " + matcher;
+        }
+    }
+
+    /**
+     * Exposes the pattern matching used before patterns were compiled.
+     */
+    private static class BaselineAgent extends NativeHttpSSOAgent {
+
+        public boolean matchPattern(String path, String pattern) {
+            return super.matchPattern(path, pattern);
+        }
+    }
+}
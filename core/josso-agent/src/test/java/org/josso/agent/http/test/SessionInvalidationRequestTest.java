@@ -0,0 +1,152 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.agent.http.test;
+
+import org.josso.agent.http.NativeHttpSSOAgent;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Session invalidation requests pushed by the gateway.
+ *
+ * @version $Id$
+ */
+public class SessionInvalidationRequestTest {
+
+    private static final String SECRET = "changeit";
+
+    @Test
+    public void testInvalidation() throws Exception {
+        InvalidatingAgent agent = newAgent(SECRET);
+        Response response = new Response();
+
+        agent.processSessionInvalidationRequest(request("POST", " id1,id2,, id3", SECRET), response.proxy());
+
+        assert response.status == HttpServletResponse.SC_NO_CONTENT : "Invalid status " + response.status;
+        assert Arrays.equals(agent.invalidated, new String[] {"id1", "id2", "id3"}) :
+                "Invalid sessions " + Arrays.toString(agent.invalidated);
+    }
+
+    @Test
+    public void testBadSecret() throws Exception {
+        assertRefused(newAgent(SECRET), request("POST", "id1", "wrong"), HttpServletResponse.SC_FORBIDDEN);
+        assertRefused(newAgent(SECRET), request("POST", "id1", SECRET + "x"), HttpServletResponse.SC_FORBIDDEN);
+        assertRefused(newAgent(SECRET), request("POST", "id1", null), HttpServletResponse.SC_FORBIDDEN);
+        assertRefused(newAgent(SECRET), request("POST", "id1", ""), HttpServletResponse.SC_FORBIDDEN);
+
+        // Without a configured secret every request is refused
+        assertRefused(newAgent(null), request("POST", "id1", null), HttpServletResponse.SC_FORBIDDEN);
+        assertRefused(newAgent(null), request("POST", "id1", "any"), HttpServletResponse.SC_FORBIDDEN);
+    }
+
+    @Test
+    public void testMethod() throws Exception {
+        assertRefused(newAgent(SECRET), request("GET", "id1", SECRET), HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+    }
+
+    @Test
+    public void testUri() throws Exception {
+        InvalidatingAgent agent = newAgent(SECRET);
+        assert agent.isSessionInvalidationRequest(request("POST", null, null)) : "Invalidation URI not recognized";
+    }
+
+    private void assertRefused(InvalidatingAgent agent, HttpServletRequest request, int status) throws Exception {
+        Response response = new Response();
+        agent.processSessionInvalidationRequest(request, response.proxy());
+
+        assert response.error == status : "Invalid error " + response.error;
+        assert agent.invalidated == null : "Sessions invalidated " + Arrays.toString(agent.invalidated);
+    }
+
+    private InvalidatingAgent newAgent(String secret) {
+        InvalidatingAgent agent = new InvalidatingAgent();
+        agent.setSessionInvalidationSecret(secret);
+        return agent;
+    }
+
+    private HttpServletRequest request(final String method, String sessionIds, String secret) {
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put("josso_session_ids", sessionIds);
+        params.put("josso_secret", secret);
+
+        return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {HttpServletRequest.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                        if (m.getName().equals("getMethod"))
+                            return method;
+                        if (m.getName().equals("getParameter"))
+                            return params.get(args[0]);
+                        if (m.getName().equals("getParameterValues"))
+                            return params.get(args[0]) != null ? new String[] {params.get(args[0])} : null;
+                        if (m.getName().equals("getRequestURI"))
+                            return "/partnerapp/josso_session_invalidation";
+                        if (m.getName().equals("getRemoteAddr"))
+                            return "127.0.0.1";
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Records the response status.
+     */
+    private static class Response implements InvocationHandler {
+
+        private int status;
+
+        private int error;
+
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            if (m.getName().equals("setStatus"))
+                status = (Integer) args[0];
+            if (m.getName().equals("sendError"))
+                error = (Integer) args[0];
+            return null;
+        }
+
+        HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {HttpServletResponse.class}, this);
+        }
+    }
+
+    /**
+     * Records the invalidated sessions instead of looking them up.
+     */
+    private static class InvalidatingAgent extends NativeHttpSSOAgent {
+
+        private String[] invalidated;
+
+        public int invalidateSessions(String[] ssoIds) {
+            invalidated = ssoIds;
+            return ssoIds.length;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.agent.http.test;
+
+import org.josso.agent.http.UserAgentMatcher;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @version $Id$
+ */
+public class UserAgentMatcherTest {
+
+    @Test
+    public void testInputBoundaries() throws Exception {
+        UserAgentMatcher matcher = new UserAgentMatcher(Arrays.asList("Googlebot", "msnbot"));
+
+        assert "Googlebot".equals(matcher.match("Googlebot")) : "Whole input not matched";
+        assert "Googlebot".equals(matcher.match("Googlebot/2.1")) : "Match at the start not found";
+        assert "Googlebot".equals(matcher.match("Mozilla/5.0 (compatible; Googlebot")) : "Match at the end not found";
+        assert "Googlebot".equals(matcher.match("Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)")) :
+                "Match inside not found";
+        assert "msnbot".equals(matcher.match("MSNBOT/1.1")) : "Match is case sensitive";
+
+        assert matcher.match("Googlebo") == null : "Truncated input matched";
+        assert matcher.match("oglebot") == null : "Truncated input matched";
+        assert matcher.match("") == null : "Empty input matched";
+        assert matcher.match(null) == null : "Null input matched";
+    }
+
+    @Test
+    public void testWordBoundaries() throws Exception {
+        UserAgentMatcher matcher = new UserAgentMatcher(Arrays.asList("Motor", "slurp"));
+
+        assert matcher.match("Motorola-V3") == null : "Pattern matched inside a word";
+        assert matcher.match("xMotor") == null : "Pattern matched inside a word";
+        assert matcher.match("Motor2") == null : "Pattern matched before a digit";
+        assert "Motor".equals(matcher.match("(Motor)")) : "Pattern between punctuation not found";
+        assert "slurp".equals(matcher.match("Yahoo! Slurp;")) : "Pattern after a space not found";
+        // A later occurrence is found when the first one is inside a word
+        assert "slurp".equals(matcher.match("slurpy slurp")) : "Second occurrence not found";
+    }
+
+    @Test
+    public void testOverlappingPatterns() throws Exception {
+        // Failure links must lead from a longer partial match to the shorter pattern
+        UserAgentMatcher matcher = new UserAgentMatcher(Arrays.asList("webcrawler-x", "crawler", "bot"));
+
+        assert "crawler".equals(matcher.match("web crawler-y")) : "Pattern behind a failed prefix not found";
+        assert matcher.match("webcrawler-y") == null : "Pattern matched inside a word";
+        assert "webcrawler-x".equals(matcher.match("webcrawler-x")) : "Longest pattern not found";
+        assert "bot".equals(matcher.match("robot bot")) : "Suffix pattern not found";
+
+        assert matcher.size() == 3 : "Invalid size " + matcher.size();
+        assert new UserAgentMatcher(Arrays.asList("bot", "BOT", "", null)).size() == 1 : "Duplicates counted";
+    }
+
+    @Test
+    public void testSameResultsAsScan() throws Exception {
+        List<String> patterns = Arrays.asList("abc", "bcd", "abcd", "cab", "dd", "bc-d", "a.b");
+        UserAgentMatcher matcher = new UserAgentMatcher(patterns);
+
+        Random random = new Random(42);
+        char[] alphabet = {'a', 'b', 'c', 'd', 'A', 'B', ' ', '-', '.', '/', '1'};
+        for (int i = 0; i < 20000; i++) {
+            char[] text = new char[random.nextInt(12)];
+            for (int j = 0; j < text.length; j++)
+                text[j] = alphabet[random.nextInt(alphabet.length)];
+            String userAgent = new String(text);
+
+            List<String> expected = scan(patterns, userAgent);
+            String found = matcher.match(userAgent);
+            assert expected.isEmpty() ? found == null : expected.contains(found) :
+                    "Found " + found + " in '" + userAgent + "', expected " + expected;
+        }
+    }
+
+    /**
+     * Patterns found as whole words in the given user agent, checking every position.
+     */
+    private List<String> scan(List<String> patterns, String userAgent) {
+        List<String> found = new ArrayList<String>();
+        String ua = userAgent.toLowerCase();
+        for (String pattern : patterns) {
+            String p = pattern.toLowerCase();
+            for (int start = ua.indexOf(p); start >= 0; start = ua.indexOf(p, start + 1)) {
+                int end = start + p.length();
+                if ((start == 0 || !Character.isLetterOrDigit(ua.charAt(start - 1))) &&
+                        (end == ua.length() || !Character.isLetterOrDigit(ua.charAt(end)))) {
+                    found.add(pattern);
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+}
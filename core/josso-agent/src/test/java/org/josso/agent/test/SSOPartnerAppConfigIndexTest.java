@@ -0,0 +1,164 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.agent.test;
+
+import org.josso.agent.SSOAgentConfigurationImpl;
+import org.josso.agent.SSOPartnerAppConfig;
+import org.josso.agent.SSOPartnerAppConfigIndex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the partner application index resolves the same configurations as scanning the
+ * configuration list in declaration order.
+ *
+ * @version $Id$
+ */
+public class SSOPartnerAppConfigIndexTest {
+
+    private static final String[] VHOSTS = {null, "www.josso.org", "admin.josso.org", "other.josso.org"};
+
+    private static final String[] CONTEXTS = {null, "", "/", "/portal", "/portal/admin", "/partnerapp",
+            "/partnerapp2", "/unknown", "portal"};
+
+    @Test
+    public void testContexts() throws Exception {
+        List<SSOPartnerAppConfig> cfgs = new ArrayList<SSOPartnerAppConfig>();
+        cfgs.add(newConfig("root", null, "/"));
+        cfgs.add(newConfig("portal", null, "/portal"));
+        cfgs.add(newConfig("partnerapp", null, "/partnerapp"));
+        cfgs.add(newConfig("relative", null, "portal"));
+        cfgs.add(newConfig("no-context", null, null));
+
+        assertSameConfigs(cfgs);
+    }
+
+    @Test
+    public void testVhostPrecedence() throws Exception {
+        List<SSOPartnerAppConfig> cfgs = new ArrayList<SSOPartnerAppConfig>();
+        // Host specific before generic : the host specific one wins for that host
+        cfgs.add(newConfig("www-portal", "www.josso.org", "/portal"));
+        cfgs.add(newConfig("portal", null, "/portal"));
+        // Generic before host specific : the generic one wins for every host
+        cfgs.add(newConfig("partnerapp", null, "/partnerapp"));
+        cfgs.add(newConfig("admin-partnerapp", "admin.josso.org", "/partnerapp"));
+        // Host specific only
+        cfgs.add(newConfig("admin-portal-admin", "admin.josso.org", "/portal/admin"));
+        // Duplicates : the first declaration wins
+        cfgs.add(newConfig("www-portal-2", "www.josso.org", "/portal"));
+        cfgs.add(newConfig("partnerapp2", null, "/partnerapp2"));
+        cfgs.add(newConfig("partnerapp2-dup", null, "/partnerapp2"));
+
+        assertSameConfigs(cfgs);
+
+        SSOPartnerAppConfigIndex index = new SSOPartnerAppConfigIndex(cfgs);
+        assert index.lookup("www.josso.org", "/portal").getId().equals("www-portal") : "Host specific config not found";
+        assert index.lookup("other.josso.org", "/portal").getId().equals("portal") : "Generic config not found";
+        assert index.lookup("admin.josso.org", "/partnerapp").getId().equals("partnerapp") : "Generic config not first";
+        assert index.lookup("www.josso.org", "/portal/admin") == null : "Config of another host found";
+    }
+
+    @Test
+    public void testLongestPrefix() throws Exception {
+        List<SSOPartnerAppConfig> cfgs = new ArrayList<SSOPartnerAppConfig>();
+        cfgs.add(newConfig("portal", null, "/portal"));
+        cfgs.add(newConfig("admin-portal-admin", "admin.josso.org", "/portal/admin"));
+
+        SSOPartnerAppConfigIndex index = new SSOPartnerAppConfigIndex(cfgs);
+        assert index.lookupLongestPrefix("www.josso.org", "/portal/admin/users").getId().equals("portal") :
+                "Parent context not found";
+        assert index.lookupLongestPrefix("admin.josso.org", "/portal/admin/users").getId().equals("admin-portal-admin") :
+                "Longest context not found";
+        assert index.lookupLongestPrefix("www.josso.org", "/portalx") == null : "Context matched a partial segment";
+        assert index.lookupLongestPrefix("www.josso.org", "/") == null : "Root context found";
+
+        // A root partner application claims every other context
+        cfgs.add(newConfig("root", null, "/"));
+        index = new SSOPartnerAppConfigIndex(cfgs);
+        assert index.lookupLongestPrefix("www.josso.org", "/unknown/path").getId().equals("root") : "Root context not found";
+    }
+
+    @Test
+    public void testConfigurationChanges() throws Exception {
+        SSOAgentConfigurationImpl cfg = new SSOAgentConfigurationImpl();
+        cfg.addSSOPartnerApp("portal", "/portal", null);
+
+        SSOPartnerAppConfigIndex index = cfg.getSsoPartnerAppIndex();
+        assert index == cfg.getSsoPartnerAppIndex() : "Index built twice";
+        assert index.lookup("www.josso.org", "/partnerapp") == null : "Unknown context found";
+
+        cfg.addSSOPartnerApp("partnerapp", "/partnerapp", null);
+        assert cfg.getSsoPartnerAppIndex().lookup("www.josso.org", "/partnerapp") != null : "Added context not found";
+
+        cfg.removeSSOPartnerApp("/portal");
+        assert cfg.getSsoPartnerAppIndex().lookup("www.josso.org", "/portal") == null : "Removed context found";
+        assert cfg.getSsoPartnerAppIndex().size() == 1 : "Invalid size " + cfg.getSsoPartnerAppIndex().size();
+
+        // Listed configurations can't be changed behind the index
+        try {
+            cfg.getSsoPartnerApps().add(newConfig("portal", null, "/portal"));
+            assert false : "Configuration list modified";
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        List<SSOPartnerAppConfig> cfgs = new ArrayList<SSOPartnerAppConfig>();
+        cfgs.add(newConfig("portal", null, "/portal"));
+        cfg.setSsoPartnerApps(cfgs);
+        cfgs.clear();
+        assert cfg.getSsoPartnerAppIndex().lookup("www.josso.org", "/portal") != null : "Set context not found";
+        assert cfg.getSsoPartnerApps().size() == 1 : "Invalid size " + cfg.getSsoPartnerApps().size();
+    }
+
+    private void assertSameConfigs(List<SSOPartnerAppConfig> cfgs) {
+        SSOPartnerAppConfigIndex index = new SSOPartnerAppConfigIndex(cfgs);
+        for (String vhost : VHOSTS) {
+            for (String context : CONTEXTS) {
+                SSOPartnerAppConfig expected = scan(cfgs, vhost, context);
+                SSOPartnerAppConfig found = index.lookup(vhost, context);
+                assert found == expected : "Invalid config for " + vhost + context + " : " +
+                        (found != null ? found.getId() : null) + ", expected " +
+                        (expected != null ? expected.getId() : null);
+            }
+        }
+    }
+
+    /**
+     * Sequential lookup, as done before configurations were indexed.
+     */
+    private SSOPartnerAppConfig scan(List<SSOPartnerAppConfig> cfgs, String vhost, String contextPath) {
+        if (contextPath == null || "".equals(contextPath))
+            contextPath = "/";
+
+        for (SSOPartnerAppConfig cfg : cfgs) {
+            if ((cfg.getVhost() == null || cfg.getVhost().equals(vhost)) && contextPath.equals(cfg.getContext()))
+                return cfg;
+        }
+        return null;
+    }
+
+    private SSOPartnerAppConfig newConfig(String id, String vhost, String context) {
+        return new SSOPartnerAppConfig(id, vhost, context, null, null, null);
+    }
+}
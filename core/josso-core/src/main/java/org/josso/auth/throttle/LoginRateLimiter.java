@@ -0,0 +1,225 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.auth.throttle;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits failed logins by username and by user location (the client address), so that brute force attempts are
+ * rejected before the authentication scheme hashes a password or reaches a credential store.
+ * <p/>
+ * Each key allows <code>maxUsernameFailures</code> (or <code>maxLocationFailures</code>) failures in a burst, and one
+ * more every <code>window / maxFailures</code> milliseconds after that.  The limit is a generic cell rate
+ * algorithm : the whole state of a key is the time its next failure is due, updated with compare-and-set, so it
+ * can live in any {@link RateLimitStore}, including one shared by clustered gateways.
+ * <p/>
+ * Authenticators call {@link #tryAcquire} before checking the credentials, which counts the attempt as a failure
+ * up front, and {@link #release} once it succeeds.  Checking with {@link #isBlocked} and recording afterwards would
+ * let any number of parallel guesses through before the first one is recorded.
+ * <p/>
+ * A successful login clears the username failures, location failures are kept.
+ *
+ * @org.apache.xbean.XBean element="login-rate-limiter"
+ *
+ * @version $Id$
+ */
+public class LoginRateLimiter {
+
+    private static final Log logger = LogFactory.getLog(LoginRateLimiter.class);
+
+    private static final String USERNAME_KEY = "u:";
+
+    private static final String LOCATION_KEY = "l:";
+
+    private RateLimitStore store = new MemoryRateLimitStore();
+
+    private int maxUsernameFailures = 10;
+
+    private int maxLocationFailures = 100;
+
+    private long window = 5 * 60 * 1000;
+
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Checks, without recording anything, if a login attempt has to be rejected.
+     *
+     * @param username the username, null if unknown.
+     * @param location the user location, null if unknown.
+     */
+    public boolean isBlocked(String username, String location) {
+        long now = System.currentTimeMillis();
+        boolean blocked = isBlocked(USERNAME_KEY, username, maxUsernameFailures, now) ||
+                isBlocked(LOCATION_KEY, location, maxLocationFailures, now);
+
+        if (blocked) {
+            rejections.incrementAndGet();
+            if (logger.isDebugEnabled())
+                logger.debug("Login rejected for [" + username + "] from [" + location + "]");
+        }
+
+        return blocked;
+    }
+
+    /**
+     * Reserves a failure for a login attempt about to be checked, unless the attempt has to be rejected.
+     *
+     * @param username the username, null if unknown.
+     * @param location the user location, null if unknown.
+     * @return false if the attempt has to be rejected, nothing is reserved then.
+     */
+    public boolean tryAcquire(String username, String location) {
+        long now = System.currentTimeMillis();
+        boolean acquired = tryAcquire(USERNAME_KEY, username, maxUsernameFailures, now);
+        if (acquired && !tryAcquire(LOCATION_KEY, location, maxLocationFailures, now)) {
+            refund(USERNAME_KEY, username, maxUsernameFailures);
+            acquired = false;
+        }
+
+        if (!acquired) {
+            rejections.incrementAndGet();
+            if (logger.isDebugEnabled())
+                logger.debug("Login rejected for [" + username + "] from [" + location + "]");
+        }
+
+        return acquired;
+    }
+
+    /**
+     * Gives back the failure reserved by {@link #tryAcquire} for a successful login.
+     */
+    public void release(String username, String location) {
+        recordSuccess(username);
+        refund(LOCATION_KEY, location, maxLocationFailures);
+    }
+
+    public void recordFailure(String username, String location) {
+        long now = System.currentTimeMillis();
+        recordFailure(USERNAME_KEY, username, maxUsernameFailures, now);
+        recordFailure(LOCATION_KEY, location, maxLocationFailures, now);
+    }
+
+    public void recordSuccess(String username) {
+        if (username != null && maxUsernameFailures > 0)
+            store.remove(USERNAME_KEY + username);
+    }
+
+    protected boolean isBlocked(String prefix, String key, int maxFailures, long now) {
+        if (key == null || maxFailures <= 0)
+            return false;
+
+        long due = store.get(prefix + key);
+        // Next failure would be due later than a full window from now
+        return due - now > window - window / maxFailures;
+    }
+
+    protected boolean tryAcquire(String prefix, String key, int maxFailures, long now) {
+        if (key == null || maxFailures <= 0)
+            return true;
+
+        String k = prefix + key;
+        long interval = window / maxFailures;
+        for (; ;) {
+            long due = store.get(k);
+            if (due - now > window - interval)
+                return false;
+            if (store.compareAndSet(k, due, Math.max(due, now) + interval))
+                return true;
+        }
+    }
+
+    protected void refund(String prefix, String key, int maxFailures) {
+        if (key == null || maxFailures <= 0)
+            return;
+
+        String k = prefix + key;
+        long interval = window / maxFailures;
+        for (; ;) {
+            long due = store.get(k);
+            // Expired or not tracked, nothing to give back
+            if (due == 0 || store.compareAndSet(k, due, due - interval))
+                return;
+        }
+    }
+
+    protected void recordFailure(String prefix, String key, int maxFailures, long now) {
+        if (key == null || maxFailures <= 0)
+            return;
+
+        String k = prefix + key;
+        long interval = window / maxFailures;
+        for (; ;) {
+            long due = store.get(k);
+            long update = Math.max(due, now) + interval;
+            if (store.compareAndSet(k, due, update))
+                return;
+        }
+    }
+
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    public RateLimitStore getStore() {
+        return store;
+    }
+
+    public void setStore(RateLimitStore store) {
+        this.store = store;
+    }
+
+    public int getMaxUsernameFailures() {
+        return maxUsernameFailures;
+    }
+
+    /**
+     * Failures allowed per username in a window, 0 disables the username limit.
+     */
+    public void setMaxUsernameFailures(int maxUsernameFailures) {
+        this.maxUsernameFailures = maxUsernameFailures;
+    }
+
+    public int getMaxLocationFailures() {
+        return maxLocationFailures;
+    }
+
+    /**
+     * Failures allowed per user location in a window, 0 disables the location limit.
+     */
+    public void setMaxLocationFailures(int maxLocationFailures) {
+        this.maxLocationFailures = maxLocationFailures;
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Window length in milliseconds.
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+}
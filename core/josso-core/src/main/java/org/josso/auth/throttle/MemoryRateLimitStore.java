@@ -0,0 +1,212 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.auth.throttle;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process rate limit store, values are kept in a ConcurrentHashMap, whose lock stripes are set with
+ * <code>concurrencyLevel</code>, and updated with compare-and-set.
+ * <p/>
+ * Memory is bounded : values in the past are swept every <code>sweepInterval</code> milliseconds, or as soon as
+ * the store holds <code>maxEntries</code> keys.  When the store is still full new keys are not tracked, they are
+ * counted as overflows and a warning is logged.  Sweeps forced by a full store run at most once every
+ * <code>forcedSweepInterval</code> milliseconds, so a flood of new keys does not scan the whole store on every
+ * call.
+ *
+ * @org.apache.xbean.XBean element="memory-rate-limit-store"
+ *
+ * @version $Id$
+ */
+public class MemoryRateLimitStore implements RateLimitStore {
+
+    private static final Log logger = LogFactory.getLog(MemoryRateLimitStore.class);
+
+    private int maxEntries = 100000;
+
+    private long sweepInterval = 60000;
+
+    private long forcedSweepInterval = 1000;
+
+    private int concurrencyLevel = 64;
+
+    private volatile ConcurrentHashMap<String, AtomicLong> entries;
+
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    private final AtomicLong nextForcedSweep = new AtomicLong();
+
+    private final AtomicLong forcedSweeps = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    public long get(String key) {
+        AtomicLong value = getEntries().get(key);
+        return value != null ? value.get() : 0;
+    }
+
+    public boolean compareAndSet(String key, long expect, long update) {
+        ConcurrentHashMap<String, AtomicLong> entries = getEntries();
+        long now = System.currentTimeMillis();
+        if (now >= nextSweep.get())
+            sweep(now, false);
+
+        AtomicLong value = entries.get(key);
+        if (value != null)
+            return value.compareAndSet(expect, update);
+
+        if (expect != 0)
+            return false;
+
+        if (entries.size() >= maxEntries) {
+            boolean swept = forceSweep(now);
+            if (entries.size() >= maxEntries) {
+                long overflowed = overflows.incrementAndGet();
+                // At most one warning per forced sweep
+                if (swept)
+                    logger.warn("Rate limit store is full (" + maxEntries + " entries), new keys are not tracked. " +
+                            "Overflows so far : " + overflowed);
+                return true;
+            }
+        }
+
+        return entries.putIfAbsent(key, new AtomicLong(update)) == null;
+    }
+
+    public void remove(String key) {
+        getEntries().remove(key);
+    }
+
+    /**
+     * Sweeps the store, unless another forced sweep ran less than <code>forcedSweepInterval</code> milliseconds ago.
+     *
+     * @return true if this call swept the store
+     */
+    protected boolean forceSweep(long now) {
+        long next = nextForcedSweep.get();
+        if (now < next || !nextForcedSweep.compareAndSet(next, now + forcedSweepInterval))
+            return false;
+
+        forcedSweeps.incrementAndGet();
+        sweep(now, true);
+        return true;
+    }
+
+    /**
+     * Removes values in the past.  A concurrent update of a removed value is lost, which at most forgives one
+     * failure for a key whose limit had already expired.
+     */
+    protected void sweep(long now, boolean force) {
+        long next = nextSweep.get();
+        if (!force && (now < next || !nextSweep.compareAndSet(next, now + sweepInterval)))
+            return;
+
+        int removed = 0;
+        for (Iterator<Map.Entry<String, AtomicLong>> it = getEntries().entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, AtomicLong> e = it.next();
+            if (e.getValue().get() <= now) {
+                it.remove();
+                removed++;
+            }
+        }
+        evictions.addAndGet(removed);
+
+        if (logger.isDebugEnabled())
+            logger.debug("Swept " + removed + " rate limit entries");
+    }
+
+    protected ConcurrentHashMap<String, AtomicLong> getEntries() {
+        ConcurrentHashMap<String, AtomicLong> entries = this.entries;
+        if (entries == null) {
+            synchronized (this) {
+                entries = this.entries;
+                if (entries == null) {
+                    entries = new ConcurrentHashMap<String, AtomicLong>(1024, 0.75f, concurrencyLevel);
+                    this.entries = entries;
+                }
+            }
+        }
+        return entries;
+    }
+
+    public int getSize() {
+        return getEntries().size();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    public long getForcedSweepCount() {
+        return forcedSweeps.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getSweepInterval() {
+        return sweepInterval;
+    }
+
+    public void setSweepInterval(long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    public long getForcedSweepInterval() {
+        return forcedSweepInterval;
+    }
+
+    /**
+     * Minimum time between two sweeps forced by a full store, in milliseconds.
+     */
+    public void setForcedSweepInterval(long forcedSweepInterval) {
+        this.forcedSweepInterval = forcedSweepInterval;
+    }
+
+    public int getConcurrencyLevel() {
+        return concurrencyLevel;
+    }
+
+    /**
+     * Number of lock stripes, only used before the first access.
+     */
+    public void setConcurrencyLevel(int concurrencyLevel) {
+        this.concurrencyLevel = concurrencyLevel;
+    }
+}
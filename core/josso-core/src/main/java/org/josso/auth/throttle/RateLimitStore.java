@@ -0,0 +1,53 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.auth.throttle;
+
+/**
+ * Holds the login rate limiter state, one long per key.
+ * <p/>
+ * Values are times in milliseconds (System.currentTimeMillis()), a value in the past holds no state so stores
+ * may drop it at any time.  Implementations shared by several gateways only need an atomic compare-and-set on a
+ * single value.
+ *
+ * @version $Id$
+ */
+public interface RateLimitStore {
+
+    /**
+     * @return the value stored for the key, 0 if there is none.
+     */
+    long get(String key);
+
+    /**
+     * Stores the update value only if the current value is the expected one.
+     *
+     * @param expect the expected value, 0 if no value is expected.
+     * @return true if the value was updated.
+     */
+    boolean compareAndSet(String key, long expect, long update);
+
+    /**
+     * Removes the value stored for the key, if any.
+     */
+    void remove(String key);
+
+}
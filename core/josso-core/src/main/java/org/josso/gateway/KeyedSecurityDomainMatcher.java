@@ -0,0 +1,45 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+package org.josso.gateway;
+
+import java.util.Set;
+
+/**
+ * A matcher that accepts a request when the value of a single request parameter is one of a fixed set of keys.
+ * Domain selectors can index these matchers by key instead of invoking them for every request.
+ *
+ * @version $Rev$ $Date$
+ */
+public interface KeyedSecurityDomainMatcher extends SecurityDomainMatcher {
+
+    /**
+     * @return the name of the request parameter whose value is matched.
+     */
+    String getParameterName();
+
+    /**
+     * @return the accepted parameter values, in lower case.
+     */
+    Set<String> getKeys();
+
+}
@@ -137,6 +137,15 @@ public interface SSOGateway {
     SSOSession findSession(String jossoSessionId)
             throws SSOException, NoSuchSessionException;
 
+    /**
+     * Issues a signed session token for the given session, so that agents can validate it without calling
+     * the gateway.
+     *
+     * @return the signed token, or null if session tokens are not enabled.
+     */
+    String issueSessionToken(String jossoSessionId)
+            throws SSOException, NoSuchSessionException;
+
     /**
      * Initializes this gateway.
      */
@@ -31,6 +31,7 @@ import org.josso.auth.exceptions.AuthenticationFailureException;
 import org.josso.auth.exceptions.SSOAuthenticationException;
 import org.josso.gateway.assertion.AuthenticationAssertion;
 import org.josso.gateway.assertion.AssertionManager;
+import org.josso.gateway.event.SSOEventListener;
 import org.josso.gateway.event.security.SSOSecurityEventManager;
 import org.josso.gateway.identity.SSORole;
 import org.josso.gateway.identity.SSOUser;
@@ -39,13 +40,17 @@ import org.josso.gateway.identity.exceptions.SSOIdentityException;
 import org.josso.gateway.identity.service.SSOIdentityManager;
 import org.josso.gateway.identity.service.SSOIdentityProvider;
 import org.josso.gateway.session.SSOSession;
+import org.josso.gateway.session.SessionToken;
+import org.josso.gateway.session.SessionTokenSigner;
 import org.josso.gateway.session.exceptions.NoSuchSessionException;
 import org.josso.gateway.session.exceptions.SSOSessionException;
 import org.josso.gateway.session.service.SSOSessionManager;
 
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This is the default SSO Gateway implementation.
@@ -64,10 +69,19 @@ public class SSOGatewayImpl implements SSOGateway {
 
     private List<SecurityDomain> securityDomains = new ArrayList<SecurityDomain>();
 
+    // Security domains by name, rebuilt when domains are set or the gateway is initialized.
+    private volatile Map<String, SecurityDomain> securityDomainsByName = new HashMap<String, SecurityDomain>();
+
     private SSOSecurityDomainSelector securityDomainSelector;
 
     private SecurityDomainRegistry securityDomainRegistry;
 
+    private volatile SessionTokenSigner sessionTokenSigner;
+
+    private String sessionTokenKey;
+
+    private long sessionTokenTimeToLive = 300;
+
     public SSOGatewayImpl() {
 
     }
@@ -178,10 +192,14 @@ public class SSOGatewayImpl implements SSOGateway {
 
             logger.info("Initializing [" + name + " ] SSOIdentityManager ...");
             sd.getIdentityManager().initialize();
+            if (sd.getIdentityManager() instanceof SSOEventListener)
+                sd.getEventManager().registerListener((SSOEventListener) sd.getIdentityManager());
             logger.info("Initializing [" + name + " ] SSOIdentityManager ... DONE");
 
             logger.info("Initializing [" + name + " ] SSOSessionManager ...");
             sd.getSessionManager().setSecurityDomainName(name);
+            if (sd.getEventManager() instanceof SSOSecurityEventManager)
+                sd.getSessionManager().setSecurityEventManager((SSOSecurityEventManager) sd.getEventManager());
             sd.getSessionManager().initialize();
             logger.info("Initializing [" + name + " ] SSOSessionManager ... DONE");
 
@@ -210,6 +228,8 @@ public class SSOGatewayImpl implements SSOGateway {
             }
         }
 
+        indexSecurityDomains();
+
         _initialized = true;
     }
 
@@ -306,6 +326,11 @@ public class SSOGatewayImpl implements SSOGateway {
 
 
     public SecurityDomain getSecurityDomain(String name) throws NoSuchDomainException {
+        SecurityDomain sd = securityDomainsByName.get(name);
+        if (sd != null)
+            return sd;
+
+        // Domain may have been added to the list after it was indexed
         for (int i = 0; i < securityDomains.size(); i++) {
             SecurityDomain securityDomain = securityDomains.get(i);
             if (securityDomain.getName().equals(name))
@@ -523,6 +548,33 @@ public class SSOGatewayImpl implements SSOGateway {
         }
     }
 
+    public String issueSessionToken(String jossoSessionId) throws SSOException, NoSuchSessionException {
+        SessionTokenSigner signer = sessionTokenSigner;
+        if (signer == null)
+            return null;
+
+        SSOSession session = findSession(jossoSessionId);
+        SSORole[] roles;
+        try {
+            roles = Lookup.getInstance().lookupSecurityDomain().getIdentityManager().findRolesBySSOSessionId(session.getId());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            throw new SSOException(e.getMessage(), e);
+        }
+
+        String[] roleNames = new String[roles.length];
+        for (int i = 0; i < roles.length; i++)
+            roleNames[i] = roles[i].getName();
+
+        try {
+            return signer.sign(new SessionToken(session.getId(), session.getUsername(), roleNames,
+                    System.currentTimeMillis() + sessionTokenTimeToLive * 1000L));
+        } catch (Exception e) {
+            logger.error("Can't sign session token : " + e.getMessage(), e);
+            throw new SSOException(e.getMessage(), e);
+        }
+    }
+
     protected void notifyLoginFailed(SSOContext ctx, Credential[] credentials, String scheme, Throwable error) {
         try {
             // We expect a spetial Event Manager ...
@@ -595,8 +647,37 @@ public class SSOGatewayImpl implements SSOGateway {
         this.securityDomainRegistry = securityDomainRegistry;
     }
 
+    /**
+     * Base 64 encoded HMAC-SHA256 key used to sign session tokens, agents must be configured with the same key.
+     * Session tokens are not issued when no key is configured.
+     */
+    public String getSessionTokenKey() {
+        return sessionTokenKey;
+    }
+
+    public void setSessionTokenKey(String sessionTokenKey) {
+        try {
+            sessionTokenSigner = sessionTokenKey != null ? new SessionTokenSigner(sessionTokenKey) : null;
+            this.sessionTokenKey = sessionTokenKey;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid session token key : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Session token time to live, in seconds.
+     */
+    public long getSessionTokenTimeToLive() {
+        return sessionTokenTimeToLive;
+    }
+
+    public void setSessionTokenTimeToLive(long sessionTokenTimeToLive) {
+        this.sessionTokenTimeToLive = sessionTokenTimeToLive;
+    }
+
     public void setSecurityDomains(List<SecurityDomain> sds) {
         securityDomains = sds;
+        indexSecurityDomains();
 
         if (_initialized) {
             for (SecurityDomain sd : sds) {
@@ -613,6 +694,16 @@ public class SSOGatewayImpl implements SSOGateway {
         return securityDomains;
     }
 
+    protected void indexSecurityDomains() {
+        Map<String, SecurityDomain> byName = new HashMap<String, SecurityDomain>();
+        for (int i = securityDomains.size() - 1; i >= 0; i--) {
+            // Keep the first domain for duplicated names, as a linear scan would do
+            SecurityDomain sd = securityDomains.get(i);
+            byName.put(sd.getName(), sd);
+        }
+        securityDomainsByName = byName;
+    }
+
     protected Class loadClass(String fqcn) throws ClassNotFoundException {
 
         Class c = null;
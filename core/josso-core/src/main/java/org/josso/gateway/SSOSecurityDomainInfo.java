@@ -26,8 +26,7 @@ import org.apache.commons.logging.LogFactory;
 import org.josso.SecurityDomain;
 import org.josso.gateway.identity.exceptions.NoSuchUserException;
 import org.josso.gateway.session.SSOSession;
-import org.josso.gateway.session.exceptions.NoSuchSessionException;
-import org.josso.gateway.session.service.SSOSessionManager;
+import org.josso.gateway.session.service.IdleSessionFilter;
 
 import javax.management.MBeanException;
 import javax.management.RuntimeOperationsException;
@@ -35,7 +34,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.Properties;
 
 /**
@@ -94,21 +92,26 @@ public class SSOSecurityDomainInfo {
         }
     }
 
-    public void invalidateUserSessions(String username) {
+    public int invalidateUserSessions(String username) {
         try {
-            SSOSessionManager sm = domain.getSessionManager();
-            Collection sessions = sm.getUserSessions(username);
-            for (Iterator iterator = sessions.iterator(); iterator.hasNext();) {
-                SSOSession session = (SSOSession) iterator.next();
-                try {
-                    sm.invalidate(session.getId());
-                } catch (NoSuchSessionException e) {
-                    logger.warn("Alrady invalidated : " + session.getId());
-                }
-            }
+            return domain.getSessionManager().invalidateUserSessions(username);
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
+        return 0;
+    }
+
+    /**
+     * Invalidates all sessions that were not accessed during the given number of minutes.
+     */
+    public int invalidateIdleSessions(int minutes) {
+        long lastAccess = System.currentTimeMillis() - minutes * 60L * 1000L;
+        try {
+            return domain.getSessionManager().invalidateSessions(new IdleSessionFilter(lastAccess));
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+        return 0;
     }
 
     public void invalidateSession(String sessionId) {
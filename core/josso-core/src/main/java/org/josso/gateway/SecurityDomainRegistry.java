@@ -40,4 +40,6 @@ public interface SecurityDomainRegistry {
 
     void unregisterToken(String securityDomainName, String tokenType, String token);
 
+    void unregisterTokens(String securityDomainName, String tokenType, String[] tokens);
+
 }
@@ -0,0 +1,94 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.assertion.service.store;
+
+import org.josso.gateway.assertion.AuthenticationAssertion;
+import org.josso.gateway.assertion.AuthenticationAssertionImpl;
+import org.josso.gateway.assertion.MutableAuthenticationAssertion;
+import org.josso.util.codec.BinaryDecoder;
+import org.josso.util.codec.BinaryEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Binary format for authentication assertions, version 1 :
+ * <pre>
+ * version              byte
+ * flags                byte, 0x01 valid
+ * id                   string
+ * ssoSessionId         string
+ * securityDomainName   shared string
+ * creationTime         varint
+ * </pre>
+ * Assertions are decoded as {@link MutableAuthenticationAssertion} instances.
+ *
+ * @version $Id$
+ */
+public class AssertionCodec {
+
+    public static final int VERSION = 1;
+
+    private static final int VALID = 0x01;
+
+    public void encode(AuthenticationAssertion assertion, BinaryEncoder out) throws IOException {
+        String securityDomainName = assertion instanceof AuthenticationAssertionImpl ?
+                ((AuthenticationAssertionImpl) assertion).getSecurityDomainName() : null;
+
+        out.writeByte(VERSION);
+        out.writeByte(assertion.isValid() ? VALID : 0);
+        out.writeString(assertion.getId());
+        out.writeString(assertion.getSSOSessionId());
+        out.writeSharedString(securityDomainName);
+        out.writeVarLong(assertion.getCreationTime());
+    }
+
+    public AuthenticationAssertion decode(BinaryDecoder in) throws IOException {
+        int version = in.readByte();
+        if (version != VERSION)
+            throw new StreamCorruptedException("Unsupported assertion format version " + version);
+
+        int flags = in.readByte();
+
+        MutableAuthenticationAssertion assertion = new MutableAuthenticationAssertion(in.readString(), in.readString());
+        assertion.setSecurityDomainName(in.readSharedString());
+        assertion.setCreationTime(in.readVarLong());
+        assertion.setValid((flags & VALID) != 0);
+
+        return assertion;
+    }
+
+    public byte[] toBytes(AuthenticationAssertion assertion) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        BinaryEncoder out = new BinaryEncoder(bytes);
+        encode(assertion, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public AuthenticationAssertion fromBytes(byte[] bytes) throws IOException {
+        return decode(new BinaryDecoder(new ByteArrayInputStream(bytes)));
+    }
+
+}
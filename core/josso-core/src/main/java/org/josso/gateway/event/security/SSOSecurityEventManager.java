@@ -42,6 +42,12 @@ public interface SSOSecurityEventManager extends SSOEventManager {
 
     void fireSessionEvent(String username, String sessionId, String type, Object data);
 
+    /**
+     * Fires the same session event type for a group of sessions as a single {@link SSOSessionsEvent}, usernames and
+     * session ids are matched by position.  Listeners tracking sessions must handle both event classes.
+     */
+    void fireSessionEvents(String[] usernames, String[] sessionIds, String type, Object data);
+
     void fireSessionFailureEvent(String username, String sessionId, String type, Throwable error);
 
 }
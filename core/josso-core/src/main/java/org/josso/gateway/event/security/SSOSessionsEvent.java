@@ -0,0 +1,82 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.event.security;
+
+import org.josso.gateway.event.BaseSSOEvent;
+
+/**
+ * Event for notifying the same change on a group of SSO Sessions, sent once for bulk operations like session
+ * monitor sweeps or bulk invalidations.  Usernames and session ids are matched by position.
+ *
+ * @version $Id$
+ */
+public class SSOSessionsEvent extends BaseSSOEvent {
+
+    /**
+     * The data associated with this event.
+     */
+    private Object data;
+
+    private String[] usernames;
+
+    public SSOSessionsEvent(String[] usernames, String[] sessionIds, String type, Object data) {
+        super(type, sessionIds);
+        this.usernames = usernames;
+        this.data = data;
+    }
+
+    /**
+     * Return the event data of this event.
+     */
+    public Object getData() {
+        return data;
+    }
+
+    /**
+     * Return the Sessions on which this event occurred.
+     */
+    public String[] getSessionIds() {
+        return (String[]) getSource();
+    }
+
+    /**
+     * Returns the usernames associated to the sessions.
+     */
+    public String[] getUsernames() {
+        return usernames;
+    }
+
+    /**
+     * Number of sessions on which this event occurred.
+     */
+    public int size() {
+        return getSessionIds().length;
+    }
+
+    /**
+     * Return a string representation of this event.
+     */
+    public String toString() {
+        return ("SSOSessionsEvent[" + size() + " sessions,'" + getType() + "']");
+    }
+
+}
@@ -74,6 +74,16 @@ public interface SSOIdentityManager {
     SSORole[] findRolesByUsername(String username)
             throws SSOIdentityException;
 
+    /**
+     * Finds an array of roles for the user associated to a sso session.
+     *
+     * @param sessionId the sso session identifier
+     * @throws org.josso.gateway.identity.exceptions.SSOIdentityException
+     *          if no user is associated to this session id.
+     */
+    SSORole[] findRolesBySSOSessionId(String sessionId)
+            throws SSOIdentityException;
+
     /**
      * This method validates that the received username matchs an existing user
      *
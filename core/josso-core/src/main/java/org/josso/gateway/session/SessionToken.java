@@ -0,0 +1,80 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session;
+
+/**
+ * Self-contained view of an SSO session, signed by the gateway with a {@link SessionTokenSigner} so that agents
+ * can check it without calling the gateway.
+ *
+ * @version $Id$
+ */
+public class SessionToken {
+
+    private final String sessionId;
+
+    private final String username;
+
+    private final String[] roles;
+
+    private final long expiresAt;
+
+    /**
+     * @param expiresAt expiration time, in milliseconds since the epoch.
+     */
+    public SessionToken(String sessionId, String username, String[] roles, long expiresAt) {
+        this.sessionId = sessionId;
+        this.username = username;
+        this.roles = roles != null ? roles.clone() : new String[0];
+        this.expiresAt = expiresAt;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String[] getRoles() {
+        return roles.clone();
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * True if the token is expired or will expire in less than <code>margin</code> milliseconds.
+     */
+    public boolean expiresWithin(long now, long margin) {
+        return now + margin >= expiresAt;
+    }
+
+    public String toString() {
+        return "SessionToken['" + sessionId + "','" + username + "'," + expiresAt + "]";
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session;
+
+import org.josso.auth.util.CipherUtil;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Signs and verifies {@link SessionToken} instances with HMAC-SHA256.  The gateway and its agents share the key.
+ * <p/>
+ * The token text is the base 64 encoded payload and the base 64 encoded signature, separated by a period.  The
+ * payload holds the URL encoded session id, username, expiration time and roles.  Instances are thread safe.
+ *
+ * @version $Id$
+ */
+public class SessionTokenSigner {
+
+    public static final String ALGORITHM = "HmacSHA256";
+
+    private static final String CHARSET = "UTF-8";
+
+    private final SecretKeySpec key;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+    /**
+     * @param base64Key the shared key, base 64 encoded.  See {@link #generateKey()}.
+     */
+    public SessionTokenSigner(String base64Key) throws GeneralSecurityException {
+        try {
+            byte[] bytes = CipherUtil.decodeBase64(base64Key);
+            if (bytes.length < 16)
+                throw new GeneralSecurityException("Session token key must be at least 128 bits long");
+            key = new SecretKeySpec(bytes, ALGORITHM);
+        } catch (UnsupportedEncodingException e) {
+            throw new GeneralSecurityException(e.getMessage());
+        }
+        // Fail now if the algorithm is not available
+        getMac();
+    }
+
+    /**
+     * Generates a new random 256 bits key, base 64 encoded.
+     */
+    public static String generateKey() throws GeneralSecurityException {
+        KeyGenerator kgen = KeyGenerator.getInstance(ALGORITHM);
+        kgen.init(256);
+        try {
+            return CipherUtil.encodeBase64(kgen.generateKey().getEncoded());
+        } catch (UnsupportedEncodingException e) {
+            throw new GeneralSecurityException(e.getMessage());
+        }
+    }
+
+    public String sign(SessionToken token) throws GeneralSecurityException {
+        try {
+            StringBuffer payload = new StringBuffer();
+            payload.append(encode(token.getSessionId())).append('&');
+            payload.append(encode(token.getUsername())).append('&');
+            payload.append(token.getExpiresAt()).append('&');
+
+            String[] roles = token.getRoles();
+            for (int i = 0; i < roles.length; i++) {
+                if (i > 0)
+                    payload.append(',');
+                payload.append(encode(roles[i]));
+            }
+
+            byte[] bytes = payload.toString().getBytes(CHARSET);
+            return CipherUtil.encodeBase64(bytes) + "." + CipherUtil.encodeBase64(getMac().doFinal(bytes));
+
+        } catch (UnsupportedEncodingException e) {
+            throw new GeneralSecurityException(e.getMessage());
+        }
+    }
+
+    /**
+     * Verifies the token signature.  Expiration is not checked, see {@link SessionToken#isExpired(long)}.
+     *
+     * @return the token, or null if the token is malformed or its signature is not valid.
+     */
+    public SessionToken verify(String text) {
+        if (text == null)
+            return null;
+
+        int dot = text.indexOf('.');
+        if (dot <= 0 || dot == text.length() - 1)
+            return null;
+
+        try {
+            byte[] payload = CipherUtil.decodeBase64(text.substring(0, dot));
+            byte[] signature = CipherUtil.decodeBase64(text.substring(dot + 1));
+
+            if (!MessageDigest.isEqual(signature, getMac().doFinal(payload)))
+                return null;
+
+            String[] fields = split(new String(payload, CHARSET), '&');
+            if (fields.length != 4)
+                return null;
+
+            String[] roles = fields[3].length() > 0 ? split(fields[3], ',') : new String[0];
+            for (int i = 0; i < roles.length; i++)
+                roles[i] = decode(roles[i]);
+
+            return new SessionToken(decode(fields[0]), decode(fields[1]), roles, Long.parseLong(fields[2]));
+
+        } catch (Exception e) {
+            // Malformed token
+            return null;
+        }
+    }
+
+    protected Mac getMac() throws GeneralSecurityException {
+        Mac mac = macs.get();
+        if (mac == null) {
+            mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            macs.set(mac);
+        }
+        return mac;
+    }
+
+    private static String[] split(String text, char separator) {
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == separator) {
+                parts.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts.toArray(new String[parts.size()]);
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return value != null ? URLEncoder.encode(value, CHARSET) : "";
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value, CHARSET);
+    }
+}
@@ -24,6 +24,7 @@ package org.josso.gateway.session.service;
 
 import javax.security.auth.Subject;
 
+import org.josso.gateway.event.security.SSOSecurityEventManager;
 import org.josso.gateway.session.SSOSession;
 
 /**
@@ -46,6 +47,14 @@ public interface BaseSession extends SSOSession {
      */
     void expire();
 
+    /**
+     * Expires this session like {@link #expire()}, without notifying listeners.  Used when the caller sends
+     * the session destroyed event itself, together with the events of other sessions.
+     *
+     * @return true if the session was valid until now.
+     */
+    boolean expireQuietly();
+
     /**
      * Set the id of this session, used when initializing new sessions.
      * Used while building or recycling a session.
@@ -80,4 +89,14 @@ public interface BaseSession extends SSOSession {
      * Setter for the Subject associated to this session.
      */
     void setSubject(Subject subject);
+
+    /**
+     * Setter for the event manager of the security domain owning this session.
+     */
+    void setSecurityEventManager(SSOSecurityEventManager eventManager);
+
+    /**
+     * Getter for the event manager of the security domain owning this session, if any.
+     */
+    SSOSecurityEventManager getSecurityEventManager();
 }
@@ -64,6 +64,9 @@ public class BaseSessionImpl implements BaseSession {
     
     protected Subject _subject;
 
+    // Event manager of the security domain owning this session, not serialized with the session.
+    protected transient SSOSecurityEventManager _eventManager;
+
     public BaseSessionImpl() {
     }
 
@@ -185,6 +188,24 @@ public class BaseSessionImpl implements BaseSession {
 
     }
 
+    /**
+     * Expires this session like {@link #expire()}, without notifying listeners.
+     *
+     * @return true if the session was valid until now.
+     */
+    public boolean expireQuietly() {
+
+        synchronized (this) {
+
+            boolean valid = _valid;
+            _accessCount = 0;
+            setValid(false);
+
+            return valid;
+        }
+
+    }
+
     // -----------------------------------------------------------------------
     // Package utils
     // -----------------------------------------------------------------------
@@ -231,8 +252,12 @@ public class BaseSessionImpl implements BaseSession {
     public void fireSessionEvent(String type, Object data) {
 
         try {
-            Lookup.getInstance().lookupSSOGateway().prepareSSOContext(SSOSessionManager.TOKEN_TYPE, this.getId());
-            SSOSecurityEventManager em = (SSOSecurityEventManager) Lookup.getInstance().lookupSecurityDomain().getEventManager();
+            SSOSecurityEventManager em = _eventManager;
+            if (em == null) {
+                // Session was not bound to its security domain, resolve the event manager from the current context.
+                Lookup.getInstance().lookupSSOGateway().prepareSSOContext(SSOSessionManager.TOKEN_TYPE, this.getId());
+                em = (SSOSecurityEventManager) Lookup.getInstance().lookupSecurityDomain().getEventManager();
+            }
             em.fireSessionEvent(this.getUsername(), getId(), type, data);
         } catch (Exception e) {
             logger.error("Can't send session event : " + e.getMessage(), e);
@@ -266,6 +291,21 @@ public class BaseSessionImpl implements BaseSession {
     public void setSubject(Subject subject) {
 		_subject = subject;
 	}
+
+    /**
+     * Getter for the event manager used to notify session events, if any
+     */
+    public SSOSecurityEventManager getSecurityEventManager() {
+        return _eventManager;
+    }
+
+    /**
+     * Setter for the event manager used to notify session events.
+     * When set, events are sent directly without building an SSOContext for this session.
+     */
+    public void setSecurityEventManager(SSOSecurityEventManager eventManager) {
+        _eventManager = eventManager;
+    }
     
     public String toString() {
         return _id + " [" + _username + "] " + new java.util.Date(_creationTime);
@@ -0,0 +1,54 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service;
+
+import org.josso.gateway.session.SSOSession;
+
+import java.util.Date;
+
+/**
+ * Selects the sessions last accessed before a given time.  Session managers can ask the store for these
+ * sessions directly, see {@link org.josso.gateway.session.service.store.SessionStore#loadByLastAccessTime(Date)},
+ * instead of loading every session to filter them.
+ *
+ * @version $Id$
+ */
+public class IdleSessionFilter implements SessionFilter {
+
+    private final long lastAccessTime;
+
+    /**
+     * @param lastAccessTime sessions last accessed before this time, in milliseconds, are selected.
+     */
+    public IdleSessionFilter(long lastAccessTime) {
+        this.lastAccessTime = lastAccessTime;
+    }
+
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    public boolean accept(SSOSession session) {
+        return session.getLastAccessTime() < lastAccessTime;
+    }
+
+}
@@ -21,6 +21,7 @@
  */
 package org.josso.gateway.session.service;
 
+import org.josso.gateway.event.security.SSOSecurityEventManager;
 import org.josso.gateway.session.SSOSession;
 import org.josso.gateway.session.exceptions.NoSuchSessionException;
 import org.josso.gateway.session.exceptions.SSOSessionException;
@@ -45,6 +46,12 @@ public interface SSOSessionManager extends java.io.Serializable {
      */
     void setSecurityDomainName(String securityDomainName);
 
+    /**
+     * The event manager of the security domain where this SSO Session Manager is configured.
+     * Sessions handled by this manager use it to notify their events.
+     */
+    void setSecurityEventManager(SSOSecurityEventManager eventManager);
+
     /**
      * Initiates a new session. The session id is returned.
      *
@@ -64,6 +71,16 @@ public interface SSOSessionManager extends java.io.Serializable {
     void accessSession(String sessionId)
             throws NoSuchSessionException, SSOSessionException;
 
+    /**
+     * This method accesss the given session, previously obtained from this manager.
+     * It avoids loading the session again when the caller already resolved it.
+     *
+     * @param session the session previously returned by getSession.
+     * @throws NoSuchSessionException if the session is not valid.
+     */
+    void accessSession(SSOSession session)
+            throws NoSuchSessionException, SSOSessionException;
+
     /**
      * Gets an SSO session based on its id.
      *
@@ -96,6 +113,35 @@ public interface SSOSessionManager extends java.io.Serializable {
     void invalidateAll()
             throws SSOSessionException;
 
+    /**
+     * Invalidates all sessions associated to the given user in a single batch.
+     *
+     * @param username the username used when initiating the sessions.
+     * @return the number of invalidated sessions.
+     */
+    int invalidateUserSessions(String username)
+            throws SSOSessionException;
+
+    /**
+     * Tells if a remote requester, i.e. a SOAP client, may invalidate the sessions of any user.
+     * Remote invalidation is disabled unless a shared secret is configured, which the requester must present.
+     *
+     * @param requester the requester name, used for logging only.
+     * @param secret    the secret presented by the requester.
+     */
+    boolean isRemoteInvalidationAuthorized(String requester, String secret);
+
+    /**
+     * Invalidates all sessions accepted by the given filter in a single batch.
+     * <p/>
+     * Stores can't evaluate arbitrary filters, so every session in the store is loaded and checked.  An
+     * {@link IdleSessionFilter} only loads the sessions it selects.
+     *
+     * @return the number of invalidated sessions.
+     */
+    int invalidateSessions(SessionFilter filter)
+            throws SSOSessionException;
+
     /**
      * Invalidates a session.
      *
@@ -23,6 +23,11 @@ package org.josso.gateway.session.service.store;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.josso.gateway.session.exceptions.SSOSessionException;
+import org.josso.gateway.session.service.BaseSession;
+
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  * This is a base store with common functionallity to all store implementations.
@@ -35,5 +40,65 @@ public abstract class AbstractSessionStore implements SessionStore {
 
     private static final Log logger = LogFactory.getLog(AbstractSessionStore.class);
 
+    /**
+     * Orders sessions by creation time, oldest first.
+     */
+    protected static final Comparator<BaseSession> CREATION_TIME_ORDER = new Comparator<BaseSession>() {
+        public int compare(BaseSession s1, BaseSession s2) {
+            long t1 = s1.getCreationTime();
+            long t2 = s2.getCreationTime();
+            return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+        }
+    };
+
+    /**
+     * Loads the user sessions to count them, stores able to count sessions without loading them should override this.
+     */
+    public int countByUsername(String name) throws SSOSessionException {
+        return loadByUsername(name).length;
+    }
+
+    /**
+     * Loads the user sessions and sorts them by creation time, stores keeping sessions in creation order should
+     * override this.
+     */
+    public BaseSession[] loadOldestByUsername(String name, int count) throws SSOSessionException {
+        BaseSession[] sessions = loadByUsername(name);
+        Arrays.sort(sessions, CREATION_TIME_ORDER);
+
+        if (sessions.length <= count)
+            return sessions;
+
+        BaseSession[] oldest = new BaseSession[Math.max(count, 0)];
+        System.arraycopy(sessions, 0, oldest, 0, oldest.length);
+        return oldest;
+    }
+
+    /**
+     * Removes sessions one by one, stores supporting batch operations should override this.
+     */
+    public void remove(String[] ids) throws SSOSessionException {
+        for (int i = 0; i < ids.length; i++) {
+            remove(ids[i]);
+        }
+    }
+
+    /**
+     * Loads the user sessions and removes them using {@link #remove(String[])}.
+     */
+    public BaseSession[] removeByUsername(String name) throws SSOSessionException {
+        BaseSession[] sessions = loadByUsername(name);
+
+        String[] ids = new String[sessions.length];
+        for (int i = 0; i < sessions.length; i++) {
+            ids[i] = sessions[i].getId();
+        }
+        remove(ids);
+
+        if (logger.isDebugEnabled())
+            logger.debug("[removeByUsername(" + name + ")] Sessions removed = " + ids.length);
+
+        return sessions;
+    }
 
 }
@@ -0,0 +1,240 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.service.store;
+
+import org.josso.gateway.SSONameValuePair;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.MutableBaseSession;
+import org.josso.util.codec.BinaryDecoder;
+import org.josso.util.codec.BinaryEncoder;
+
+import javax.security.auth.Subject;
+import java.io.*;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Binary format for SSO sessions, used by stores that write sessions to files or to other gateways.
+ * <p/>
+ * Each session is written as a record with a fixed field layout, version 1 :
+ * <pre>
+ * version              byte
+ * flags                byte, 0x01 valid, 0x02 subject present
+ * id                   string
+ * username             shared string
+ * creationTime         varint
+ * lastAccessTime       zig-zag varint, relative to creationTime
+ * accessCount          varint
+ * maxInactiveInterval  zig-zag varint
+ * subject              bytes, java serialized, only if present
+ * </pre>
+ * A stream of sessions starts with the {@link #STREAM_MAGIC} number and the number of sessions.
+ * <p/>
+ * Only the BaseSession state is encoded, sessions are decoded as {@link MutableBaseSession} instances.
+ * Subjects may come from other gateways, so only subjects holding principals, name value pairs, strings and
+ * basic collections are deserialized, any other class is rejected.
+ *
+ * @version $Id$
+ */
+public class SessionCodec {
+
+    public static final int VERSION = 1;
+
+    /**
+     * 'JSES'
+     */
+    public static final int STREAM_MAGIC = 0x4A534553;
+
+    private static final int VALID = 0x01;
+
+    private static final int SUBJECT = 0x02;
+
+    public void encode(BaseSession session, BinaryEncoder out) throws IOException {
+        Subject subject = session.getSubject();
+
+        int flags = 0;
+        if (session.isValid())
+            flags |= VALID;
+        if (subject != null)
+            flags |= SUBJECT;
+
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        out.writeString(session.getId());
+        out.writeSharedString(session.getUsername());
+        out.writeVarLong(session.getCreationTime());
+        out.writeSignedVarLong(session.getLastAccessTime() - session.getCreationTime());
+        out.writeVarLong(session.getAccessCount());
+        out.writeSignedVarLong(session.getMaxInactiveInterval());
+
+        if (subject != null)
+            out.writeBytes(encodeSubject(subject));
+    }
+
+    public BaseSession decode(BinaryDecoder in) throws IOException {
+        int version = in.readByte();
+        if (version != VERSION)
+            throw new StreamCorruptedException("Unsupported session format version " + version);
+
+        int flags = in.readByte();
+
+        MutableBaseSession session = new MutableBaseSession();
+        session.setId(in.readString());
+        session.setUsername(in.readSharedString());
+        long creationTime = in.readVarLong();
+        session.setCreationTime(creationTime);
+        session.setLastAccessedTime(creationTime + in.readSignedVarLong());
+        session.setAccessCount(in.readVarLong());
+
+        // Still invalid, so that setting the interval does not expire the session
+        session.setMaxInactiveInterval((int) in.readSignedVarLong());
+        session.setValid((flags & VALID) != 0);
+
+        if ((flags & SUBJECT) != 0)
+            session.setSubject(decodeSubject(in.readBytes()));
+
+        return session;
+    }
+
+    public byte[] toBytes(BaseSession session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        BinaryEncoder out = new BinaryEncoder(bytes);
+        encode(session, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public BaseSession fromBytes(byte[] bytes) throws IOException {
+        return decode(new BinaryDecoder(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Writes a stream of sessions, repeated usernames are written only once.
+     */
+    public void writeSessions(BaseSession[] sessions, OutputStream os) throws IOException {
+        BinaryEncoder out = new BinaryEncoder(os);
+        out.writeInt(STREAM_MAGIC);
+        out.writeVarLong(sessions.length);
+        for (int i = 0; i < sessions.length; i++) {
+            encode(sessions[i], out);
+        }
+        out.flush();
+    }
+
+    public BaseSession[] readSessions(InputStream is) throws IOException {
+        BinaryDecoder in = new BinaryDecoder(is);
+        int magic = in.readInt();
+        if (magic != STREAM_MAGIC)
+            throw new StreamCorruptedException("Not a session stream : " + Integer.toHexString(magic));
+
+        long count = in.readVarLong();
+        if (count > Integer.MAX_VALUE)
+            throw new StreamCorruptedException("Invalid session count " + count);
+
+        BaseSession[] sessions = new BaseSession[(int) count];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = decode(in);
+        }
+        return sessions;
+    }
+
+    public byte[] encodeSubject(Subject subject) throws IOException {
+        return serialize(subject);
+    }
+
+    public Subject decodeSubject(byte[] bytes) throws IOException {
+        Object o = deserialize(bytes);
+        if (!(o instanceof Subject))
+            throw new InvalidClassException("Not a subject : " + o.getClass().getName());
+        return (Subject) o;
+    }
+
+    protected byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    protected Object deserialize(byte[] bytes) throws IOException {
+        ObjectInputStream in = new SubjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Only resolves the classes a subject is made of.
+     */
+    private static class SubjectInputStream extends ObjectInputStream {
+
+        private static final Set<String> ALLOWED = new HashSet<String>(Arrays.asList(new String[]{
+                Subject.class.getName(),
+                Subject.class.getName() + "$SecureSet",
+                SSONameValuePair.class.getName(),
+                "java.lang.String",
+                "java.lang.Boolean",
+                "java.lang.Number",
+                "java.lang.Integer",
+                "java.lang.Long",
+                "java.util.ArrayList",
+                "java.util.LinkedList",
+                "java.util.HashMap",
+                "java.util.HashSet",
+                "java.util.LinkedHashMap",
+                "java.util.LinkedHashSet",
+                "java.util.Collections$SynchronizedCollection",
+                "java.util.Collections$SynchronizedSet",
+                "java.util.Collections$UnmodifiableCollection",
+                "java.util.Collections$UnmodifiableSet"
+        }));
+
+        SubjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            Class<?> c = super.resolveClass(desc);
+
+            Class<?> type = c;
+            while (type.isArray())
+                type = type.getComponentType();
+
+            if (!type.isPrimitive() && !ALLOWED.contains(type.getName()) && !Principal.class.isAssignableFrom(type))
+                throw new InvalidClassException(c.getName(), "Class not allowed in session subjects");
+
+            return c;
+        }
+
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("Proxies not allowed in session subjects");
+        }
+    }
+
+}
@@ -75,6 +75,23 @@ public interface SessionStore {
     BaseSession[] loadByUsername(String name)
             throws SSOSessionException;
 
+    /**
+     * Return the number of BaseSessions associated with the specified username.
+     *
+     * @param name username of the sessions to count
+     */
+    int countByUsername(String name) throws SSOSessionException;
+
+    /**
+     * Load and return the oldest BaseSessions, by creation time, associated with the
+     * specified username, oldest first.  At most count sessions are returned, if there
+     * are no such sessions a zero-length array is returned.
+     *
+     * @param name  username of the sessions to load
+     * @param count max number of sessions to load
+     */
+    BaseSession[] loadOldestByUsername(String name, int count) throws SSOSessionException;
+
     /**
      * Load and return the BaseSessions whose last access time is less than the received time
      */
@@ -94,6 +111,24 @@ public interface SessionStore {
      */
     void remove(String id) throws SSOSessionException;
 
+    /**
+     * Remove the BaseSessions with the specified session identifiers from
+     * this Store, if present.  Stores should remove all sessions in a single
+     * batch when possible.
+     *
+     * @param ids BaseSession identifiers of the BaseSessions to be removed
+     */
+    void remove(String[] ids) throws SSOSessionException;
+
+    /**
+     * Remove all BaseSessions associated with the specified username from
+     * this Store.  The removed sessions are returned, if there are no
+     * such sessions a zero-length array is returned.
+     *
+     * @param name username of the sessions to remove
+     */
+    BaseSession[] removeByUsername(String name) throws SSOSessionException;
+
 
     /**
      * Remove all Sessions from this Store.
@@ -0,0 +1,120 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with bounded relative error, in the spirit of HDR histograms.
+ * <p/>
+ * Values are recorded in microseconds into log-linear buckets : each power of two is split in 32 sub-buckets, so
+ * percentiles are reported with an error of about 3%.  Recording a value is a single atomic increment.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Up to 2^40 microseconds, longer values go to the last bucket.
+    private static final int MAGNITUDES = 40 - SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAGNITUDES + 1) * SUB_BUCKETS);
+
+    /**
+     * @param elapsedNanos the value to record, in nanoseconds.
+     */
+    public void record(long elapsedNanos) {
+        counts.incrementAndGet(bucket(elapsedNanos / 1000));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the value below which the given fraction of the recorded values fall.
+     *
+     * @param fraction a value between 0 and 1, e.g. 0.99
+     * @return the value in milliseconds, 0 if nothing was recorded.
+     */
+    public double getPercentile(double fraction) {
+        // Take a snapshot first, concurrent updates may be going on.
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+
+        if (count == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target)
+                return upperBound(i) / 1000D;
+        }
+
+        return upperBound(snapshot.length - 1) / 1000D;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS)
+            return micros < 0 ? 0 : (int) micros;
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+        int magnitude = highestBit - SUB_BUCKET_BITS + 1;
+        if (magnitude > MAGNITUDES)
+            return (MAGNITUDES + 1) * SUB_BUCKETS - 1;
+
+        int subBucket = (int) (micros >>> (magnitude - 1)) - SUB_BUCKETS;
+        return magnitude * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Highest value, in microseconds, recorded in the given bucket.
+     */
+    static long upperBound(int bucket) {
+        int magnitude = bucket / SUB_BUCKETS;
+        int subBucket = bucket % SUB_BUCKETS;
+        if (magnitude == 0)
+            return subBucket;
+
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (magnitude - 1)) - 1;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput counters and latency histogram for a single instrumented operation.
+ *
+ * @version $Id$
+ */
+public class OperationStats {
+
+    private final String name;
+
+    private final AtomicLong invocations = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    public OperationStats(String name) {
+        this.name = name;
+    }
+
+    public void record(long elapsedNanos, boolean error) {
+        invocations.incrementAndGet();
+        if (error)
+            errors.incrementAndGet();
+        totalNanos.addAndGet(elapsedNanos);
+        histogram.record(elapsedNanos);
+
+        long max = maxNanos.get();
+        while (elapsedNanos > max && !maxNanos.compareAndSet(max, elapsedNanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getInvocations() {
+        return invocations.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Average operation time, in milliseconds.
+     */
+    public double getAverageTime() {
+        long count = invocations.get();
+        return count > 0 ? totalNanos.get() / (count * 1000000D) : 0;
+    }
+
+    /**
+     * Max operation time, in milliseconds.
+     */
+    public double getMaxTime() {
+        return maxNanos.get() / 1000000D;
+    }
+
+    /**
+     * Operation time below which the given percentage of invocations fall, in milliseconds.
+     *
+     * @param percentile a value between 0 and 100, e.g. 99.9
+     */
+    public double getPercentileTime(double percentile) {
+        return Math.min(histogram.getPercentile(percentile / 100D), getMaxTime());
+    }
+
+    public void reset() {
+        invocations.set(0);
+        errors.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        histogram.reset();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.stats;
+
+import org.josso.SecurityDomain;
+import org.josso.gateway.SSOContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency and throughput statistics for the components of a security domain : identity and session stores,
+ * authentication schemes, assertion handling and SOAP operations.
+ * <p/>
+ * Components time their calls with {@link System#nanoTime()} and record them here, recording is lock-free.
+ * Components that do not know their security domain use {@link #getCurrent()}, based on the current SSO Context.
+ * There is one instance per security domain, this class can be exported as an MBean to read them.
+ *
+ * @version $Id$
+ */
+public class SecurityDomainStats {
+
+    /**
+     * Name used for calls made outside a security domain, like background tasks.
+     */
+    public static final String DEFAULT_DOMAIN = "default";
+
+    private static final ConcurrentMap<String, SecurityDomainStats> domains = new ConcurrentHashMap<String, SecurityDomainStats>();
+
+    private final String securityDomainName;
+
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+
+    private volatile long since = System.currentTimeMillis();
+
+    protected SecurityDomainStats(String securityDomainName) {
+        this.securityDomainName = securityDomainName;
+    }
+
+    /**
+     * Gets the statistics for the given security domain, they are created the first time a domain is requested.
+     */
+    public static SecurityDomainStats getDomainStats(String securityDomainName) {
+        if (securityDomainName == null)
+            securityDomainName = DEFAULT_DOMAIN;
+
+        SecurityDomainStats stats = domains.get(securityDomainName);
+        if (stats == null) {
+            stats = new SecurityDomainStats(securityDomainName);
+            SecurityDomainStats existing = domains.putIfAbsent(securityDomainName, stats);
+            if (existing != null)
+                stats = existing;
+        }
+        return stats;
+    }
+
+    /**
+     * Gets the statistics for the security domain of the current SSO Context.
+     */
+    public static SecurityDomainStats getCurrent() {
+        SSOContext ctx = SSOContext.getCurrent();
+        SecurityDomain sd = ctx != null ? ctx.getSecurityDomain() : null;
+        return getDomainStats(sd != null ? sd.getName() : null);
+    }
+
+    /**
+     * Gets the counters for the given operation, they are created the first time an operation is requested.
+     *
+     * @param operation the operation name, e.g. SessionStore.load
+     */
+    public OperationStats getOperationStats(String operation) {
+        OperationStats stats = operations.get(operation);
+        if (stats == null) {
+            stats = new OperationStats(operation);
+            OperationStats existing = operations.putIfAbsent(operation, stats);
+            if (existing != null)
+                stats = existing;
+        }
+        return stats;
+    }
+
+    /**
+     * Records a finished operation.
+     *
+     * @param startNanos the {@link System#nanoTime()} value taken when the operation started.
+     */
+    public void record(String operation, long startNanos, boolean error) {
+        getOperationStats(operation).record(System.nanoTime() - startNanos, error);
+    }
+
+    // ---------------------------------------------------------------
+    // Management interface
+    // ---------------------------------------------------------------
+
+    public String getSecurityDomainName() {
+        return securityDomainName;
+    }
+
+    public String[] getOperationNames() {
+        List<String> names = new ArrayList<String>(operations.keySet());
+        Collections.sort(names);
+        return names.toArray(new String[names.size()]);
+    }
+
+    public long getInvocationCount(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getInvocations() : 0;
+    }
+
+    public long getErrorCount(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getErrors() : 0;
+    }
+
+    /**
+     * Average operation time, in milliseconds.
+     */
+    public double getAverageTime(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getAverageTime() : 0;
+    }
+
+    /**
+     * Max operation time, in milliseconds.
+     */
+    public double getMaxTime(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getMaxTime() : 0;
+    }
+
+    /**
+     * Operation time for the given percentile (0-100), in milliseconds.
+     */
+    public double getPercentileTime(String operation, double percentile) {
+        OperationStats stats = operations.get(operation);
+        return stats != null ? stats.getPercentileTime(percentile) : 0;
+    }
+
+    /**
+     * Invocations per second since counters were created or last reset.
+     */
+    public double getThroughput(String operation) {
+        OperationStats stats = operations.get(operation);
+        if (stats == null)
+            return 0;
+
+        long elapsed = System.currentTimeMillis() - since;
+        return elapsed > 0 ? stats.getInvocations() * 1000D / elapsed : 0;
+    }
+
+    /**
+     * One line per operation with all its counters.
+     */
+    public String[] listStats() {
+        String[] names = getOperationNames();
+        String[] lines = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            lines[i] = format(names[i]);
+        }
+        return lines;
+    }
+
+    public void reset() {
+        for (OperationStats stats : operations.values()) {
+            stats.reset();
+        }
+        since = System.currentTimeMillis();
+    }
+
+    protected String format(String name) {
+        return name +
+                " invocations=" + getInvocationCount(name) +
+                " errors=" + getErrorCount(name) +
+                " avgMs=" + getAverageTime(name) +
+                " p50Ms=" + getPercentileTime(name, 50) +
+                " p99Ms=" + getPercentileTime(name, 99) +
+                " maxMs=" + getMaxTime(name) +
+                " perSec=" + getThroughput(name);
+    }
+}
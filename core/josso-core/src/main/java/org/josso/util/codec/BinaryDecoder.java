@@ -0,0 +1,150 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.util.codec;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the values written by a {@link BinaryEncoder}.
+ * <p/>
+ * Shared strings are interned in a bounded pool, so that the many sessions of a user, or all assertions of a
+ * security domain, point to the same String instance once decoded.
+ *
+ * @version $Id$
+ */
+public class BinaryDecoder {
+
+    private static final String UTF8 = "UTF-8";
+
+    // Strings and byte arrays larger than this are considered corrupt data
+    private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    private static final int MAX_INTERNED = 100000;
+
+    private static final ConcurrentHashMap<String, String> interned = new ConcurrentHashMap<String, String>();
+
+    private final DataInputStream in;
+
+    // Shared strings, by position in this stream
+    private List<String> strings;
+
+    public BinaryDecoder(InputStream in) {
+        this.in = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in);
+    }
+
+    public int readByte() throws IOException {
+        return in.readUnsignedByte();
+    }
+
+    public int readInt() throws IOException {
+        return in.readInt();
+    }
+
+    public long readVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException();
+
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public String readString() throws IOException {
+        int length = readLength();
+        if (length < 0)
+            return null;
+
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, UTF8);
+    }
+
+    public String readSharedString() throws IOException {
+        long ref = readVarLong();
+        if (ref == 0)
+            return null;
+
+        if (strings == null)
+            strings = new ArrayList<String>();
+
+        if (ref == 1) {
+            String s = intern(readString());
+            strings.add(s);
+            return s;
+        }
+
+        if (ref - 2 >= strings.size())
+            throw new StreamCorruptedException("Unknown string reference " + ref);
+
+        return strings.get((int) (ref - 2));
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readLength();
+        if (length < 0)
+            return null;
+
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
+
+    protected int readLength() throws IOException {
+        long length = readVarLong() - 1;
+        if (length < -1 || length > MAX_LENGTH)
+            throw new StreamCorruptedException("Invalid length " + length);
+        return (int) length;
+    }
+
+    protected static String intern(String s) {
+        if (s == null)
+            return null;
+
+        String i = interned.get(s);
+        if (i != null)
+            return i;
+
+        if (interned.size() >= MAX_INTERNED)
+            return s;
+
+        i = interned.putIfAbsent(s, s);
+        return i != null ? i : s;
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.util.codec;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the primitive values used by JOSSO binary formats : unsigned and zig-zag encoded varints, length
+ * prefixed UTF-8 strings and byte arrays.
+ * <p/>
+ * Shared strings, like usernames or security domain names, are written once per encoder and referenced by
+ * position afterwards, a {@link BinaryDecoder} reading the same stream resolves the references.
+ *
+ * @version $Id$
+ */
+public class BinaryEncoder {
+
+    private static final String UTF8 = "UTF-8";
+
+    private final DataOutputStream out;
+
+    // Shared string -> position in this stream
+    private Map<String, Integer> strings;
+
+    public BinaryEncoder(OutputStream out) {
+        this.out = out instanceof DataOutputStream ? (DataOutputStream) out : new DataOutputStream(out);
+    }
+
+    public void writeByte(int b) throws IOException {
+        out.write(b);
+    }
+
+    public void writeInt(int i) throws IOException {
+        out.writeInt(i);
+    }
+
+    /**
+     * Unsigned varint, 7 bits per byte, least significant group first.
+     */
+    public void writeVarLong(long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /**
+     * Zig-zag encoded varint, small negative values take a single byte.
+     */
+    public void writeSignedVarLong(long v) throws IOException {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    /**
+     * Length prefixed UTF-8 string, null values are allowed.
+     */
+    public void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarLong(0);
+            return;
+        }
+
+        byte[] b = s.getBytes(UTF8);
+        writeVarLong(b.length + 1);
+        out.write(b);
+    }
+
+    /**
+     * Writes the string the first time it is seen by this encoder, and a reference to it afterwards.
+     */
+    public void writeSharedString(String s) throws IOException {
+        if (s == null) {
+            writeVarLong(0);
+            return;
+        }
+
+        if (strings == null)
+            strings = new HashMap<String, Integer>();
+
+        Integer ref = strings.get(s);
+        if (ref != null) {
+            writeVarLong(ref.intValue() + 2);
+            return;
+        }
+
+        strings.put(s, strings.size());
+        writeVarLong(1);
+        writeString(s);
+    }
+
+    /**
+     * Length prefixed byte array, null values are allowed.
+     */
+    public void writeBytes(byte[] b) throws IOException {
+        if (b == null) {
+            writeVarLong(0);
+            return;
+        }
+
+        writeVarLong(b.length + 1L);
+        out.write(b);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+}
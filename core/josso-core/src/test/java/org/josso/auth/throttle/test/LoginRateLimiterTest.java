@@ -0,0 +1,239 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.auth.throttle.test;
+
+import org.josso.auth.throttle.LoginRateLimiter;
+import org.josso.auth.throttle.MemoryRateLimitStore;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @version $Id$
+ */
+public class LoginRateLimiterTest {
+
+    @Test
+    public void testUsernameLimit() throws Exception {
+        LoginRateLimiter limiter = newLimiter(new MemoryRateLimitStore());
+
+        for (int i = 0; i < 5; i++) {
+            assert !limiter.isBlocked("user1", "10.0.0." + i) : "Blocked after " + i + " failures";
+            limiter.recordFailure("user1", "10.0.0." + i);
+        }
+
+        assert limiter.isBlocked("user1", "10.0.0.100") : "Not blocked after 5 failures";
+        assert !limiter.isBlocked("user2", "10.0.0.100") : "Other user blocked";
+        assert limiter.getRejectionCount() == 1 : "Invalid rejections " + limiter.getRejectionCount();
+
+        limiter.recordSuccess("user1");
+        assert !limiter.isBlocked("user1", "10.0.0.100") : "Blocked after success";
+    }
+
+    @Test
+    public void testLocationLimit() throws Exception {
+        LoginRateLimiter limiter = newLimiter(new MemoryRateLimitStore());
+
+        for (int i = 0; i < 20; i++) {
+            limiter.recordFailure("user" + i, "10.0.0.1");
+        }
+
+        assert limiter.isBlocked("other", "10.0.0.1") : "Location not blocked";
+        assert !limiter.isBlocked("other", "10.0.0.2") : "Other location blocked";
+        assert !limiter.isBlocked(null, null) : "Unknown user and location blocked";
+
+        // Successful logins do not forgive a location
+        limiter.recordSuccess("user0");
+        assert limiter.isBlocked("other", "10.0.0.1") : "Location forgiven";
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        LoginRateLimiter limiter = newLimiter(new MemoryRateLimitStore());
+        limiter.setWindow(1000);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.recordFailure("user1", null);
+        }
+        assert limiter.isBlocked("user1", null) : "Not blocked";
+
+        // One failure is allowed again every window / maxFailures
+        Thread.sleep(250);
+        assert !limiter.isBlocked("user1", null) : "Still blocked";
+        limiter.recordFailure("user1", null);
+        assert limiter.isBlocked("user1", null) : "Not blocked again";
+    }
+
+    @Test
+    public void testConcurrentFailures() throws Exception {
+        final LoginRateLimiter limiter = newLimiter(new MemoryRateLimitStore());
+        limiter.setMaxUsernameFailures(1000);
+        limiter.setWindow(1000000);
+
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 100; i++) {
+                            limiter.recordFailure("user1", null);
+                        }
+                    } catch (InterruptedException e) {
+                        // Done
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+
+        // 800 failures recorded, none lost : 199 more are still allowed
+        for (int i = 0; i < 199; i++) {
+            limiter.recordFailure("user1", null);
+        }
+        assert !limiter.isBlocked("user1", null) : "Failures over counted";
+        limiter.recordFailure("user1", null);
+        assert limiter.isBlocked("user1", null) : "Failures lost";
+    }
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        LoginRateLimiter limiter = newLimiter(new MemoryRateLimitStore());
+
+        for (int i = 0; i < 5; i++) {
+            assert limiter.tryAcquire("user1", "10.0.0.1") : "Rejected after " + i + " attempts";
+        }
+        assert !limiter.tryAcquire("user1", "10.0.0.1") : "Not rejected after 5 attempts";
+        assert limiter.getRejectionCount() == 1 : "Invalid rejections " + limiter.getRejectionCount();
+
+        // A success clears the username and gives the location its attempt back
+        limiter.release("user1", "10.0.0.1");
+        assert !limiter.isBlocked("user1", "10.0.0.1") : "Blocked after success";
+        for (int i = 0; i < 16; i++) {
+            assert limiter.tryAcquire("user" + (i + 2), "10.0.0.1") : "Location rejected after " + (i + 4) + " attempts";
+        }
+        assert !limiter.tryAcquire("other", "10.0.0.1") : "Location not rejected";
+
+        // A location rejection does not use a username attempt
+        for (int i = 0; i < 5; i++) {
+            assert limiter.tryAcquire("other", "10.0.0.2") : "Username attempt lost";
+        }
+    }
+
+    @Test
+    public void testConcurrentAttempts() throws Exception {
+        final LoginRateLimiter limiter = newLimiter(new MemoryRateLimitStore());
+
+        final int threads = 8;
+        final AtomicInteger acquired = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 100; i++) {
+                            if (limiter.tryAcquire("user1", null))
+                                acquired.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        // Done
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+
+        // Parallel guesses get exactly the allowed attempts
+        assert acquired.get() == 5 : "Attempts allowed " + acquired.get();
+    }
+
+    @Test
+    public void testBoundedStore() throws Exception {
+        MemoryRateLimitStore store = new MemoryRateLimitStore();
+        store.setMaxEntries(10);
+        store.setForcedSweepInterval(100);
+        LoginRateLimiter limiter = newLimiter(store);
+        limiter.setWindow(200);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.recordFailure("user" + i, null);
+        }
+        assert store.getSize() == 10 : "Invalid size " + store.getSize();
+        assert store.getOverflowCount() == 10 : "Invalid overflows " + store.getOverflowCount();
+
+        // Expired entries are swept to make room
+        Thread.sleep(250);
+        limiter.recordFailure("new-user", null);
+        assert store.getSize() == 1 : "Expired entries not swept " + store.getSize();
+        assert store.getEvictionCount() == 10 : "Invalid evictions " + store.getEvictionCount();
+    }
+
+    @Test
+    public void testFullStore() throws Exception {
+        MemoryRateLimitStore store = new MemoryRateLimitStore();
+        store.setMaxEntries(1000);
+        store.setForcedSweepInterval(60000);
+        LoginRateLimiter limiter = newLimiter(store);
+
+        for (int i = 0; i < 1000; i++) {
+            limiter.recordFailure("user" + i, null);
+        }
+        assert store.getSize() == 1000 : "Invalid size " + store.getSize();
+        assert store.getForcedSweepCount() == 0 : "Swept before the store was full";
+
+        // Nothing has expired, the store stays full and is swept only once
+        for (int i = 0; i < 10000; i++) {
+            limiter.recordFailure("other" + i, null);
+        }
+        assert store.getSize() == 1000 : "Invalid size " + store.getSize();
+        assert store.getOverflowCount() == 10000 : "Invalid overflows " + store.getOverflowCount();
+        assert store.getForcedSweepCount() == 1 : "Invalid forced sweeps " + store.getForcedSweepCount();
+        assert store.getEvictionCount() == 0 : "Invalid evictions " + store.getEvictionCount();
+
+        // Tracked keys are still limited
+        for (int i = 0; i < 4; i++) {
+            limiter.recordFailure("user0", null);
+        }
+        assert limiter.isBlocked("user0", null) : "Tracked key not blocked";
+    }
+
+    private LoginRateLimiter newLimiter(MemoryRateLimitStore store) {
+        LoginRateLimiter limiter = new LoginRateLimiter();
+        limiter.setStore(store);
+        limiter.setMaxUsernameFailures(5);
+        limiter.setMaxLocationFailures(20);
+        limiter.setWindow(60000);
+        return limiter;
+    }
+}
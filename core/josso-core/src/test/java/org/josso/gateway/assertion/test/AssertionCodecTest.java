@@ -0,0 +1,77 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.assertion.test;
+
+import org.josso.gateway.assertion.AuthenticationAssertion;
+import org.josso.gateway.assertion.MutableAuthenticationAssertion;
+import org.josso.gateway.assertion.service.store.AssertionCodec;
+import org.josso.util.codec.BinaryDecoder;
+import org.josso.util.codec.BinaryEncoder;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * @version $Id$
+ */
+public class AssertionCodecTest {
+
+    private AssertionCodec codec = new AssertionCodec();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        MutableAuthenticationAssertion assertion = new MutableAuthenticationAssertion("assertion-1", "session-1");
+        assertion.setSecurityDomainName("josso");
+
+        MutableAuthenticationAssertion decoded = (MutableAuthenticationAssertion) codec.fromBytes(codec.toBytes(assertion));
+
+        assert decoded.getId().equals("assertion-1") : "Invalid id " + decoded.getId();
+        assert decoded.getSSOSessionId().equals("session-1") : "Invalid session id " + decoded.getSSOSessionId();
+        assert decoded.getSecurityDomainName().equals("josso") : "Invalid domain " + decoded.getSecurityDomainName();
+        assert decoded.getCreationTime() == assertion.getCreationTime() : "Invalid creation time";
+        assert decoded.isValid() : "Assertion not valid";
+
+        assertion.setValid(false);
+        assert !codec.fromBytes(codec.toBytes(assertion)).isValid() : "Assertion valid";
+    }
+
+    @Test
+    public void testSharedDomain() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryEncoder out = new BinaryEncoder(bytes);
+        for (int i = 0; i < 2; i++) {
+            MutableAuthenticationAssertion assertion = new MutableAuthenticationAssertion("assertion-" + i, "session-" + i);
+            assertion.setSecurityDomainName("josso");
+            codec.encode(assertion, out);
+        }
+        out.flush();
+
+        BinaryDecoder in = new BinaryDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+        AuthenticationAssertion a1 = codec.decode(in);
+        AuthenticationAssertion a2 = codec.decode(in);
+
+        assert a1.getId().equals("assertion-0") && a2.getId().equals("assertion-1") : "Invalid assertions";
+        assert ((MutableAuthenticationAssertion) a1).getSecurityDomainName() ==
+                ((MutableAuthenticationAssertion) a2).getSecurityDomainName() : "Domain not shared";
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.test;
+
+import org.josso.gateway.identity.service.BaseRoleImpl;
+import org.josso.gateway.identity.service.BaseUserImpl;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.MutableBaseSession;
+import org.josso.gateway.session.service.store.SessionCodec;
+import org.josso.util.codec.BinaryDecoder;
+import org.josso.util.codec.BinaryEncoder;
+import org.junit.Test;
+
+import javax.security.auth.Subject;
+import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * @version $Id$
+ */
+public class SessionCodecTest {
+
+    private SessionCodec codec = new SessionCodec();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        MutableBaseSession session = newSession("session-1", "user1");
+
+        Subject subject = new Subject();
+        subject.getPrincipals().add(new X500Principal("CN=user1, O=JOSSO"));
+        session.setSubject(subject);
+
+        BaseSession decoded = codec.fromBytes(codec.toBytes(session));
+
+        assertSame(session, decoded);
+        assert decoded.isValid() : "Session not valid";
+        assert decoded.getSubject().getPrincipals().equals(subject.getPrincipals()) : "Invalid principals";
+    }
+
+    @Test
+    public void testInvalidSession() throws Exception {
+        MutableBaseSession session = newSession("session-1", null);
+        session.setMaxInactiveInterval(-1);
+        session.setValid(false);
+
+        BaseSession decoded = codec.fromBytes(codec.toBytes(session));
+
+        assertSame(session, decoded);
+        assert !decoded.isValid() : "Session valid";
+        assert decoded.getSubject() == null : "Subject not expected";
+    }
+
+    /**
+     * Version 1 layout must not change, files and other gateways depend on it.
+     */
+    @Test
+    public void testVersion1Layout() throws Exception {
+        byte[] v1 = new byte[] {
+                1,                      // version
+                0,                      // flags
+                3, 's', '1',            // id
+                1, 3, 'u', '1',         // new shared username
+                (byte) 0xE8, 0x07,      // creationTime 1000
+                (byte) 0xE8, 0x07,      // lastAccessTime 1000 + 500
+                2,                      // accessCount
+                1                       // maxInactiveInterval -1
+        };
+
+        MutableBaseSession session = new MutableBaseSession();
+        session.setId("s1");
+        session.setUsername("u1");
+        session.setCreationTime(1000);
+        session.setLastAccessedTime(1500);
+        session.setAccessCount(2);
+        session.setMaxInactiveInterval(-1);
+
+        assert Arrays.equals(codec.toBytes(session), v1) : "Version 1 layout changed";
+        assertSame(session, codec.fromBytes(v1));
+    }
+
+    @Test
+    public void testUnsupportedVersion() throws Exception {
+        byte[] bytes = codec.toBytes(newSession("session-1", "user1"));
+        bytes[0] = 2;
+        try {
+            codec.fromBytes(bytes);
+            assert false : "Unsupported version accepted";
+        } catch (StreamCorruptedException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        BaseSession[] sessions = new BaseSession[100];
+        HashMap serialized = new HashMap();
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = newSession("session-" + i, "user" + (i % 10));
+            serialized.put(sessions[i].getId(), sessions[i]);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.writeSessions(sessions, bytes);
+        BaseSession[] decoded = codec.readSessions(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assert decoded.length == sessions.length : "Invalid sessions " + decoded.length;
+        for (int i = 0; i < sessions.length; i++) {
+            assertSame(sessions[i], decoded[i]);
+        }
+
+        // Usernames are shared once decoded
+        assert decoded[0].getUsername() == decoded[10].getUsername() : "Username not shared";
+
+        ByteArrayOutputStream java = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(java);
+        out.writeObject(serialized);
+        out.close();
+        assert bytes.size() * 2 < java.size() : "Binary " + bytes.size() + " bytes, serialized " + java.size();
+    }
+
+    @Test
+    public void testVarints() throws Exception {
+        long[] values = new long[] {0, 1, -1, 63, 64, 127, 128, 16383, 16384,
+                System.currentTimeMillis(), Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryEncoder out = new BinaryEncoder(bytes);
+        for (int i = 0; i < values.length; i++) {
+            out.writeVarLong(values[i]);
+            out.writeSignedVarLong(values[i]);
+        }
+        out.flush();
+
+        BinaryDecoder in = new BinaryDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int i = 0; i < values.length; i++) {
+            assert in.readVarLong() == values[i] : "Invalid varint " + values[i];
+            assert in.readSignedVarLong() == values[i] : "Invalid signed varint " + values[i];
+        }
+    }
+
+    @Test
+    public void testUserSubject() throws Exception {
+        BaseUserImpl user = new BaseUserImpl("user1");
+        user.addProperty("email", "user1@josso.org");
+
+        Subject subject = new Subject();
+        subject.getPrincipals().add(user);
+        subject.getPrincipals().add(new BaseRoleImpl("role1"));
+
+        Subject decoded = codec.decodeSubject(codec.encodeSubject(subject));
+        assert decoded.getPrincipals().size() == 2 : "Invalid principals " + decoded.getPrincipals();
+
+        BaseUserImpl decodedUser = (BaseUserImpl) decoded.getPrincipals(BaseUserImpl.class).iterator().next();
+        assert decodedUser.getName().equals("user1") : "Invalid user " + decodedUser.getName();
+        assert decodedUser.getProperties()[0].getValue().equals("user1@josso.org") : "Invalid user properties";
+    }
+
+    @Test
+    public void testSubjectClassFilter() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new Date());
+        out.close();
+
+        try {
+            codec.decodeSubject(bytes.toByteArray());
+            assert false : "Class not allowed in subjects decoded";
+        } catch (InvalidClassException e) {
+            // Expected
+        }
+    }
+
+    private MutableBaseSession newSession(String id, String username) {
+        long now = System.currentTimeMillis();
+        MutableBaseSession session = new MutableBaseSession();
+        session.setId(id);
+        session.setUsername(username);
+        session.setCreationTime(now - 60000);
+        session.setLastAccessedTime(now);
+        session.setAccessCount(7);
+        session.setMaxInactiveInterval(1800);
+        session.setValid(true);
+        return session;
+    }
+
+    private void assertSame(BaseSession expected, BaseSession actual) {
+        assert expected.getId().equals(actual.getId()) : "Invalid id " + actual.getId();
+        assert expected.getUsername() == null ? actual.getUsername() == null :
+                expected.getUsername().equals(actual.getUsername()) : "Invalid username " + actual.getUsername();
+        assert expected.getCreationTime() == actual.getCreationTime() : "Invalid creation time";
+        assert expected.getLastAccessTime() == actual.getLastAccessTime() : "Invalid last access time";
+        assert expected.getAccessCount() == actual.getAccessCount() : "Invalid access count";
+        assert expected.getMaxInactiveInterval() == actual.getMaxInactiveInterval() : "Invalid max inactive interval";
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.session.test;
+
+import org.josso.gateway.session.SessionToken;
+import org.josso.gateway.session.SessionTokenSigner;
+import org.junit.Test;
+
+/**
+ * @version $Id$
+ */
+public class SessionTokenSignerTest {
+
+    @Test
+    public void testSignAndVerify() throws Exception {
+        SessionTokenSigner signer = new SessionTokenSigner(SessionTokenSigner.generateKey());
+
+        long expiresAt = System.currentTimeMillis() + 60000;
+        String text = signer.sign(new SessionToken("ABC123", "user1", new String[] {"role1", "role,2&x"}, expiresAt));
+
+        SessionToken token = signer.verify(text);
+        assert token != null : "Token not verified : " + text;
+        assert "ABC123".equals(token.getSessionId()) : "Invalid session id " + token.getSessionId();
+        assert "user1".equals(token.getUsername()) : "Invalid username " + token.getUsername();
+        assert token.getRoles().length == 2 && "role,2&x".equals(token.getRoles()[1]) : "Invalid roles";
+        assert token.getExpiresAt() == expiresAt : "Invalid expiration";
+        assert !token.isExpired(System.currentTimeMillis()) : "Token expired";
+        assert token.expiresWithin(System.currentTimeMillis(), 120000) : "Token should expire within margin";
+    }
+
+    @Test
+    public void testNoRoles() throws Exception {
+        SessionTokenSigner signer = new SessionTokenSigner(SessionTokenSigner.generateKey());
+        SessionToken token = signer.verify(signer.sign(new SessionToken("ABC123", "user1", null, 0)));
+
+        assert token != null && token.getRoles().length == 0 : "Invalid roles";
+        assert token.isExpired(System.currentTimeMillis()) : "Token should be expired";
+    }
+
+    @Test
+    public void testRejectTampered() throws Exception {
+        SessionTokenSigner signer = new SessionTokenSigner(SessionTokenSigner.generateKey());
+        String text = signer.sign(new SessionToken("ABC123", "user1", new String[] {"role1"}, Long.MAX_VALUE));
+
+        String forged = new SessionTokenSigner(SessionTokenSigner.generateKey()).sign(
+                new SessionToken("ABC123", "admin", new String[] {"admin"}, Long.MAX_VALUE));
+        String mixed = forged.substring(0, forged.indexOf('.')) + text.substring(text.indexOf('.'));
+
+        assert signer.verify(forged) == null : "Token signed with another key accepted";
+        assert signer.verify(mixed) == null : "Tampered payload accepted";
+        assert signer.verify("garbage") == null : "Malformed token accepted";
+    }
+}
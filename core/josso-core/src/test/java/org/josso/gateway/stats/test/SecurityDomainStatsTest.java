@@ -0,0 +1,75 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.gateway.stats.test;
+
+import org.josso.gateway.stats.OperationStats;
+import org.josso.gateway.stats.SecurityDomainStats;
+import org.junit.Test;
+
+/**
+ * @version $Id$
+ */
+public class SecurityDomainStatsTest {
+
+    @Test
+    public void testPercentiles() throws Exception {
+        OperationStats stats = new OperationStats("test");
+
+        // 1ms to 1000ms, one value each
+        for (int i = 1; i <= 1000; i++) {
+            stats.record(i * 1000000L, i % 100 == 0);
+        }
+
+        assert stats.getInvocations() == 1000 : "Invalid invocations " + stats.getInvocations();
+        assert stats.getErrors() == 10 : "Invalid errors " + stats.getErrors();
+        assert stats.getMaxTime() == 1000 : "Invalid max " + stats.getMaxTime();
+
+        assertWithin(stats.getPercentileTime(50), 500);
+        assertWithin(stats.getPercentileTime(99), 990);
+        assertWithin(stats.getAverageTime(), 500.5);
+        assert stats.getPercentileTime(100) == 1000 : "Invalid p100 " + stats.getPercentileTime(100);
+
+        stats.reset();
+        assert stats.getInvocations() == 0 && stats.getPercentileTime(99) == 0 : "Stats not reset";
+    }
+
+    @Test
+    public void testDomainStats() throws Exception {
+        SecurityDomainStats stats = SecurityDomainStats.getDomainStats("stats-test");
+        assert stats == SecurityDomainStats.getDomainStats("stats-test") : "Stats not shared";
+
+        stats.record("SessionStore.load", System.nanoTime(), false);
+        stats.record("SessionStore.load", System.nanoTime(), true);
+
+        assert stats.getInvocationCount("SessionStore.load") == 2 : "Invalid invocations";
+        assert stats.getErrorCount("SessionStore.load") == 1 : "Invalid errors";
+        assert stats.getInvocationCount("SessionStore.save") == 0 : "Unknown operation has invocations";
+        assert stats.listStats().length == 1 : "Invalid stats " + stats.listStats().length;
+
+        // No SSO Context, calls go to the default domain
+        assert SecurityDomainStats.DEFAULT_DOMAIN.equals(SecurityDomainStats.getCurrent().getSecurityDomainName());
+    }
+
+    private void assertWithin(double value, double expected) {
+        assert Math.abs(value - expected) <= expected * 0.04 : "Expected " + expected + " but was " + value;
+    }
+}
@@ -20,3 +20,5 @@ CREATE TABLE JOSSO_SESSION
 ALTER TABLE JOSSO_SESSION
        ADD  PRIMARY KEY (SESSION_ID);
 
+-- Counting user sessions and finding the oldest ones on login
+CREATE INDEX JOSSO_SESSION_USERNAME ON JOSSO_SESSION (USERNAME, CREATION_TIME);
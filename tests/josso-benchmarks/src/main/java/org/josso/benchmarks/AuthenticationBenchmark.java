@@ -0,0 +1,100 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.auth.Authenticator;
+import org.josso.auth.Credential;
+import org.josso.gateway.assertion.AssertionManager;
+import org.josso.gateway.session.service.SSOSessionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.security.auth.Subject;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The gateway side of a login : credential check, and the assertion the agent consumes afterwards.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AuthenticationBenchmark {
+
+    @Param({"1000"})
+    public int users;
+
+    private Authenticator authenticator;
+
+    private AssertionManager assertionManager;
+
+    private SSOSessionManager sessionManager;
+
+    private Credential[][] credentials;
+
+    private String[] sessionIds;
+
+    @Setup
+    public void setup() throws Exception {
+        authenticator = BenchmarkSecurityDomain.getAuthenticator();
+        assertionManager = BenchmarkSecurityDomain.getAssertionManager();
+        sessionManager = BenchmarkSecurityDomain.getSessionManager();
+
+        credentials = new Credential[users][];
+        sessionIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            String username = BenchmarkCredentialStore.getUsername(i);
+            credentials[i] = new Credential[] {
+                    authenticator.newCredential(BenchmarkSecurityDomain.BASIC_AUTH_SCHEME, "username", username),
+                    authenticator.newCredential(BenchmarkSecurityDomain.BASIC_AUTH_SCHEME, "password",
+                            BenchmarkCredentialStore.getPassword(i))
+            };
+            sessionIds[i] = sessionManager.initiateSession(username, new Subject());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sessionManager.invalidateAll();
+    }
+
+    @Benchmark
+    public Object check() throws Exception {
+        return authenticator.check(credentials[ThreadLocalRandom.current().nextInt(users)],
+                BenchmarkSecurityDomain.BASIC_AUTH_SCHEME);
+    }
+
+    @Benchmark
+    public Object requestAndConsumeAssertion() {
+        String sessionId = sessionIds[ThreadLocalRandom.current().nextInt(users)];
+        return assertionManager.consumeAssertion(assertionManager.requestAssertion(sessionId).getId());
+    }
+}
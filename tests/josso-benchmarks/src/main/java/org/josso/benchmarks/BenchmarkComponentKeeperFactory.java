@@ -0,0 +1,42 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.ComponentKeeper;
+import org.josso.ComponentKeeperFactory;
+import org.josso.gateway.SSOGateway;
+
+/**
+ * Component keeper factory that serves the gateway built by {@link BenchmarkSecurityDomain}.
+ *
+ * @version $Id$
+ */
+public class BenchmarkComponentKeeperFactory extends ComponentKeeperFactory {
+
+    public ComponentKeeper newComponentKeeper() {
+        return new ComponentKeeper() {
+            public SSOGateway fetchSSOGateway() throws Exception {
+                return BenchmarkSecurityDomain.getGateway();
+            }
+        };
+    }
+}
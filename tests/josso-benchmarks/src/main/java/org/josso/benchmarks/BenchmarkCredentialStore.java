@@ -0,0 +1,63 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.auth.Credential;
+import org.josso.auth.CredentialKey;
+import org.josso.auth.CredentialProvider;
+import org.josso.auth.CredentialStore;
+import org.josso.gateway.identity.exceptions.SSOIdentityException;
+import org.josso.gateway.identity.service.store.SimpleUserKey;
+
+/**
+ * Credential store with generated users : user0 ... userN, whose password is the username followed by 'pwd'.
+ * Credentials are computed on each call, so the benchmarks measure authentication and not a particular store.
+ *
+ * @version $Id$
+ */
+public class BenchmarkCredentialStore implements CredentialStore {
+
+    public static final String USER_PREFIX = "user";
+
+    public static String getUsername(int i) {
+        return USER_PREFIX + i;
+    }
+
+    public static String getPassword(int i) {
+        return getUsername(i) + "pwd";
+    }
+
+    public Credential[] loadCredentials(CredentialKey key, CredentialProvider cp) throws SSOIdentityException {
+        String username = ((SimpleUserKey) key).getId();
+        if (username == null || !username.startsWith(USER_PREFIX))
+            return new Credential[0];
+
+        return new Credential[] {
+                cp.newCredential("username", username),
+                cp.newCredential("password", username + "pwd")
+        };
+    }
+
+    public String loadUID(CredentialKey key, CredentialProvider cp) throws SSOIdentityException {
+        return ((SimpleUserKey) key).getId();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.ComponentKeeperFactory;
+import org.josso.Lookup;
+import org.josso.SecurityDomain;
+import org.josso.SecurityDomainImpl;
+import org.josso.auth.Authenticator;
+import org.josso.auth.AuthenticatorImpl;
+import org.josso.auth.scheme.AuthenticationScheme;
+import org.josso.auth.scheme.UsernamePasswordAuthScheme;
+import org.josso.gateway.SSOGatewayImpl;
+import org.josso.gateway.SecurityDomainRegistry;
+import org.josso.gateway.SecurityDomainRegistryImpl;
+import org.josso.gateway.assertion.AssertionManager;
+import org.josso.gateway.assertion.AssertionManagerImpl;
+import org.josso.gateway.assertion.service.AssertionIdGeneratorImpl;
+import org.josso.gateway.assertion.service.store.MemoryAssertionStore;
+import org.josso.gateway.event.security.SSOSecurityEventManagerImpl;
+import org.josso.gateway.identity.service.store.SimpleIdentityStoreKeyAdapter;
+import org.josso.gateway.session.service.SSOSessionManager;
+import org.josso.gateway.session.service.SSOSessionManagerImpl;
+import org.josso.gateway.session.service.SessionIdGeneratorImpl;
+import org.josso.gateway.session.service.store.MemorySessionStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-process security domain used by the benchmarks, wired by hand instead of loading a Spring configuration.
+ * <p/>
+ * The domain uses the default session, assertion and authentication components with memory stores, and an event
+ * manager without listeners.  It is registered in a gateway served by {@link BenchmarkComponentKeeperFactory}, so
+ * components that use {@link Lookup} to find the security domain registry work as they do in a real gateway.
+ * One domain is built per JVM, JMH forks a new JVM for each benchmark.
+ *
+ * @version $Id$
+ */
+public class BenchmarkSecurityDomain {
+
+    public static final String DOMAIN_NAME = "benchmarks";
+
+    public static final String BASIC_AUTH_SCHEME = "basic-authentication";
+
+    private static SSOGatewayImpl gateway;
+
+    private static SecurityDomainImpl domain;
+
+    private static BenchmarkCredentialStore credentialStore;
+
+    /**
+     * Gets the benchmark security domain, building and initializing it the first time.
+     */
+    public static synchronized SecurityDomain getInstance() throws Exception {
+        if (domain == null)
+            build();
+        return domain;
+    }
+
+    public static SSOSessionManager getSessionManager() throws Exception {
+        return getInstance().getSessionManager();
+    }
+
+    public static AssertionManager getAssertionManager() throws Exception {
+        return getInstance().getAssertionManager();
+    }
+
+    public static Authenticator getAuthenticator() throws Exception {
+        return getInstance().getAuthenticator();
+    }
+
+    public static SecurityDomainRegistry getRegistry() throws Exception {
+        getInstance();
+        return gateway.getSecurityDomainRegistry();
+    }
+
+    public static BenchmarkCredentialStore getCredentialStore() throws Exception {
+        getInstance();
+        return credentialStore;
+    }
+
+    static SSOGatewayImpl getGateway() {
+        return gateway;
+    }
+
+    protected static void build() throws Exception {
+
+        // Gateway, served to Lookup by our component keeper
+        gateway = new SSOGatewayImpl();
+        gateway.setSecurityDomainRegistry(new SecurityDomainRegistryImpl());
+        ComponentKeeperFactory.setFactory(BenchmarkComponentKeeperFactory.class.getName());
+        Lookup.getInstance().lookupSSOGateway();
+
+        BenchmarkEventManager eventManager = new BenchmarkEventManager();
+        eventManager.initialize();
+
+        // Sessions
+        SSOSessionManagerImpl sessionManager = new SSOSessionManagerImpl();
+        sessionManager.setSessionStore(new MemorySessionStore());
+        sessionManager.setSessionIdGenerator(new SessionIdGeneratorImpl());
+        sessionManager.setMaxSessionsPerUser(-1);
+
+        // Assertions
+        AssertionManagerImpl assertionManager = new AssertionManagerImpl();
+        assertionManager.setAssertionStore(new MemoryAssertionStore());
+        assertionManager.setAssertionIdGenerator(new AssertionIdGeneratorImpl());
+
+        // Authentication
+        credentialStore = new BenchmarkCredentialStore();
+        UsernamePasswordAuthScheme basic = new UsernamePasswordAuthScheme();
+        basic.setCredentialStore(credentialStore);
+        basic.setCredentialStoreKeyAdapter(new SimpleIdentityStoreKeyAdapter());
+        AuthenticatorImpl authenticator = new AuthenticatorImpl();
+        authenticator.setAuthenticationSchemes(new AuthenticationScheme[] {basic});
+
+        SecurityDomainImpl sd = new SecurityDomainImpl();
+        sd.setName(DOMAIN_NAME);
+        sd.setEventManager(eventManager);
+        sd.setSessionManager(sessionManager);
+        sd.setAssertionManager(assertionManager);
+        sd.setAuthenticator(authenticator);
+
+        // The gateway is already initialized, setting the domains registers them.
+        List<SecurityDomain> sds = new ArrayList<SecurityDomain>();
+        sds.add(sd);
+        gateway.setSecurityDomains(sds);
+
+        sessionManager.setSecurityDomainName(DOMAIN_NAME);
+        sessionManager.setSecurityEventManager(eventManager);
+        sessionManager.initialize();
+
+        assertionManager.setSecurityDomainName(DOMAIN_NAME);
+        assertionManager.initialize();
+
+        domain = sd;
+    }
+
+    /**
+     * Security event manager without listeners, events are built and dropped.
+     */
+    public static class BenchmarkEventManager extends SSOSecurityEventManagerImpl {
+
+    }
+}
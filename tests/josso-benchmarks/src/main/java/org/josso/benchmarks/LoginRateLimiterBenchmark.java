@@ -0,0 +1,90 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.auth.throttle.LoginRateLimiter;
+import org.josso.auth.throttle.MemoryRateLimitStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login rate limiter cost : checks and failures spread over many users, and failures all on the same user and
+ * location, the brute force case.  Run with several threads (-t) to include contention on the counters.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoginRateLimiterBenchmark {
+
+    @Param({"10000"})
+    public int users;
+
+    private LoginRateLimiter limiter;
+
+    private String[] usernames;
+
+    private String[] locations;
+
+    @Setup
+    public void setup() throws Exception {
+        MemoryRateLimitStore store = new MemoryRateLimitStore();
+        store.setMaxEntries(users * 2);
+
+        limiter = new LoginRateLimiter();
+        limiter.setStore(store);
+
+        usernames = new String[users];
+        locations = new String[users];
+        for (int i = 0; i < users; i++) {
+            usernames[i] = BenchmarkCredentialStore.getUsername(i);
+            locations[i] = "10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+        }
+    }
+
+    @Benchmark
+    public boolean check() {
+        int i = ThreadLocalRandom.current().nextInt(users);
+        return limiter.isBlocked(usernames[i], locations[i]);
+    }
+
+    @Benchmark
+    public void recordFailure() {
+        int i = ThreadLocalRandom.current().nextInt(users);
+        limiter.recordFailure(usernames[i], locations[i]);
+    }
+
+    @Benchmark
+    public void recordFailureSameUser() {
+        limiter.recordFailure(usernames[0], locations[0]);
+    }
+}
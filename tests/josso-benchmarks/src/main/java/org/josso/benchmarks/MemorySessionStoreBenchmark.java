@@ -0,0 +1,90 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.BaseSessionImpl;
+import org.josso.gateway.session.service.store.MemorySessionStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory session store operations, without the session manager on top of it.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MemorySessionStoreBenchmark {
+
+    @Param({"1000", "10000"})
+    public int sessions;
+
+    @Param({"100"})
+    public int users;
+
+    private MemorySessionStore store;
+
+    private BaseSession[] stored;
+
+    @Setup
+    public void setup() throws Exception {
+        store = new MemorySessionStore();
+        stored = new BaseSession[sessions];
+        for (int i = 0; i < sessions; i++) {
+            BaseSessionImpl session = new BaseSessionImpl();
+            session.setId("session-" + i);
+            session.setUsername(BenchmarkCredentialStore.getUsername(i % users));
+            session.setMaxInactiveInterval(30 * 60);
+            stored[i] = session;
+            store.save(session);
+        }
+    }
+
+    @Benchmark
+    public Object load() throws Exception {
+        return store.load(stored[ThreadLocalRandom.current().nextInt(sessions)].getId());
+    }
+
+    @Benchmark
+    public Object loadByUsername() throws Exception {
+        return store.loadByUsername(BenchmarkCredentialStore.getUsername(ThreadLocalRandom.current().nextInt(users)));
+    }
+
+    /**
+     * Saves an already stored session, like the session manager does on each access.
+     */
+    @Benchmark
+    public void save() throws Exception {
+        store.save(stored[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.gateway.session.service.SSOSessionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.security.auth.Subject;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session manager operations, with a store that already holds <code>sessions</code> sessions.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SSOSessionManagerBenchmark {
+
+    @Param({"1000", "10000"})
+    public int sessions;
+
+    @Param({"100"})
+    public int users;
+
+    private SSOSessionManager sessionManager;
+
+    private String[] sessionIds;
+
+    @Setup
+    public void setup() throws Exception {
+        sessionManager = BenchmarkSecurityDomain.getSessionManager();
+        sessionManager.invalidateAll();
+
+        sessionIds = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            sessionIds[i] = sessionManager.initiateSession(BenchmarkCredentialStore.getUsername(i % users), new Subject());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sessionManager.invalidateAll();
+    }
+
+    @Benchmark
+    public Object getSession() throws Exception {
+        return sessionManager.getSession(nextSessionId());
+    }
+
+    @Benchmark
+    public void accessSession() throws Exception {
+        sessionManager.accessSession(nextSessionId());
+    }
+
+    /**
+     * A login followed by a logout, the store keeps its size.
+     */
+    @Benchmark
+    public void initiateAndInvalidate() throws Exception {
+        String username = BenchmarkCredentialStore.getUsername(ThreadLocalRandom.current().nextInt(users));
+        String sessionId = sessionManager.initiateSession(username, new Subject());
+        sessionManager.invalidate(sessionId);
+    }
+
+    private String nextSessionId() {
+        return sessionIds[ThreadLocalRandom.current().nextInt(sessionIds.length)];
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.gateway.SecurityDomainRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Security domain registry token operations, every gateway request resolves its domain this way.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SecurityDomainRegistryBenchmark {
+
+    private static final String TOKEN_TYPE = "benchmark-token";
+
+    @Param({"1000", "100000"})
+    public int tokens;
+
+    private SecurityDomainRegistry registry;
+
+    private String[] registered;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup
+    public void setup() throws Exception {
+        registry = BenchmarkSecurityDomain.getRegistry();
+        registered = new String[tokens];
+        for (int i = 0; i < tokens; i++) {
+            registered[i] = "token-" + i;
+            registry.registerToken(BenchmarkSecurityDomain.DOMAIN_NAME, TOKEN_TYPE, registered[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (int i = 0; i < registered.length; i++) {
+            registry.unregisterToken(BenchmarkSecurityDomain.DOMAIN_NAME, TOKEN_TYPE, registered[i]);
+        }
+    }
+
+    @Benchmark
+    public Object lookupHit() {
+        return registry.lookup(TOKEN_TYPE, registered[ThreadLocalRandom.current().nextInt(tokens)]);
+    }
+
+    @Benchmark
+    public Object lookupMiss() {
+        return registry.lookup(TOKEN_TYPE, "unknown-" + ThreadLocalRandom.current().nextInt(tokens));
+    }
+
+    @Benchmark
+    public void registerAndUnregister() {
+        String token = "new-token-" + sequence.incrementAndGet();
+        registry.registerToken(BenchmarkSecurityDomain.DOMAIN_NAME, TOKEN_TYPE, token);
+        registry.unregisterToken(BenchmarkSecurityDomain.DOMAIN_NAME, TOKEN_TYPE, token);
+    }
+}
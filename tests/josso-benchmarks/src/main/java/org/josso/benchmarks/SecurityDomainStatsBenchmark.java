@@ -0,0 +1,102 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.BaseSessionImpl;
+import org.josso.gateway.session.service.store.MemorySessionStore;
+import org.josso.gateway.stats.SecurityDomainStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instrumentation overhead : compare storeLoad and timedStoreLoad, the cheapest instrumented call, to see what
+ * timing and recording a call costs.  Run with several threads (-t) to include contention on the counters.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SecurityDomainStatsBenchmark {
+
+    private static final String OPERATION = "SessionStore.load";
+
+    private static final int SESSIONS = 10000;
+
+    private MemorySessionStore store;
+
+    private BaseSession[] stored;
+
+    private SecurityDomainStats stats;
+
+    @Setup
+    public void setup() throws Exception {
+        store = new MemorySessionStore();
+        stored = new BaseSession[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            BaseSessionImpl session = new BaseSessionImpl();
+            session.setId("session-" + i);
+            session.setUsername(BenchmarkCredentialStore.getUsername(i));
+            session.setMaxInactiveInterval(30 * 60);
+            stored[i] = session;
+            store.save(session);
+        }
+        stats = SecurityDomainStats.getDomainStats(BenchmarkSecurityDomain.DOMAIN_NAME);
+    }
+
+    @Benchmark
+    public Object storeLoad() throws Exception {
+        return store.load(stored[ThreadLocalRandom.current().nextInt(SESSIONS)].getId());
+    }
+
+    @Benchmark
+    public Object timedStoreLoad() throws Exception {
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            BaseSession s = store.load(stored[ThreadLocalRandom.current().nextInt(SESSIONS)].getId());
+            error = false;
+            return s;
+        } finally {
+            stats.record(OPERATION, start, error);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        stats.record(OPERATION, System.nanoTime(), false);
+    }
+
+    @Benchmark
+    public void recordCurrentDomain() {
+        SecurityDomainStats.getCurrent().record(OPERATION, System.nanoTime(), false);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.BaseSessionImpl;
+import org.josso.gateway.session.service.store.SessionCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session file format : the binary session codec against Java Serialization of the same sessions, as written by
+ * the serialized session store.  Stream sizes are printed once per trial.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionCodecBenchmark {
+
+    @Param({"1000"})
+    public int sessions;
+
+    private SessionCodec codec;
+
+    private BaseSession[] stored;
+
+    private HashMap<String, BaseSession> serialized;
+
+    private byte[] codecBytes;
+
+    private byte[] javaBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        codec = new SessionCodec();
+        stored = new BaseSession[sessions];
+        serialized = new HashMap<String, BaseSession>();
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < sessions; i++) {
+            BaseSessionImpl session = new BaseSessionImpl();
+            session.setId("B9E5A4F1C0D2837465A1B2C3D4E5F6" + i);
+            // Most users have a few sessions
+            session.setUsername(BenchmarkCredentialStore.getUsername(i / 3));
+            session.setCreationTime(now - i * 1000L);
+            session.setMaxInactiveInterval(30 * 60);
+            session.setValid(true);
+            session.access();
+            stored[i] = session;
+            serialized.put(session.getId(), session);
+        }
+
+        codecBytes = writeCodec().toByteArray();
+        javaBytes = writeJava().toByteArray();
+        System.out.println("\nSession codec : " + codecBytes.length + " bytes, Java Serialization : " +
+                javaBytes.length + " bytes, for " + sessions + " sessions");
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream codecWrite() throws IOException {
+        return writeCodec();
+    }
+
+    @Benchmark
+    public BaseSession[] codecRead() throws IOException {
+        return codec.readSessions(new ByteArrayInputStream(codecBytes));
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream javaWrite() throws IOException {
+        return writeJava();
+    }
+
+    @Benchmark
+    public Object javaRead() throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    private ByteArrayOutputStream writeCodec() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * sessions);
+        codec.writeSessions(stored, bytes);
+        return bytes;
+    }
+
+    private ByteArrayOutputStream writeJava() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * sessions);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(serialized);
+        out.close();
+        return bytes;
+    }
+}
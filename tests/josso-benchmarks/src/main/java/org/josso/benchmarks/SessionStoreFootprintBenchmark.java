@@ -0,0 +1,205 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.auth.Authenticator;
+import org.josso.auth.Credential;
+import org.josso.gateway.session.service.BaseSession;
+import org.josso.gateway.session.service.BaseSessionImpl;
+import org.josso.gateway.session.service.store.MemorySessionStore;
+import org.josso.gateway.session.service.store.SessionStore;
+import org.josso.gateway.session.service.store.offheap.OffHeapSessionStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory session store against the off-heap session store with large session populations.
+ * <p/>
+ * Sessions get the subject built by the benchmark authenticator for their user, like the gateway does on login.
+ * Heap used by the sessions and off-heap memory are printed once the store is populated, time spent in garbage
+ * collection is printed at the end of each trial. The fullGc benchmark measures a full collection with the
+ * store populated, i.e. the longest pause the store causes :
+ * <pre>
+ * java -jar target/benchmarks.jar SessionStoreFootprintBenchmark -jvmArgs "-Xmx4g -XX:MaxDirectMemorySize=2g"
+ * </pre>
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionStoreFootprintBenchmark {
+
+    @Param({"memory", "offheap"})
+    public String store;
+
+    @Param({"100000", "1000000"})
+    public int sessions;
+
+    @Param({"10000"})
+    public int users;
+
+    private SessionStore sessionStore;
+
+    private String[] ids;
+
+    private Authenticator authenticator;
+
+    private Credential[][] credentials;
+
+    private long gcCount;
+
+    private long gcTime;
+
+    @Setup
+    public void setup() throws Exception {
+        // Same id format as the default session id generator
+        ids = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            ids[i] = String.format("%016X%016X", ThreadLocalRandom.current().nextLong(), ThreadLocalRandom.current().nextLong());
+        }
+
+        authenticator = BenchmarkSecurityDomain.getAuthenticator();
+        credentials = new Credential[users][];
+        for (int i = 0; i < users; i++) {
+            credentials[i] = new Credential[] {
+                    authenticator.newCredential(BenchmarkSecurityDomain.BASIC_AUTH_SCHEME, "username",
+                            BenchmarkCredentialStore.getUsername(i)),
+                    authenticator.newCredential(BenchmarkSecurityDomain.BASIC_AUTH_SCHEME, "password",
+                            BenchmarkCredentialStore.getPassword(i))
+            };
+        }
+
+        long heap = usedHeap();
+
+        if ("offheap".equals(store)) {
+            OffHeapSessionStore offHeapStore = new OffHeapSessionStore();
+            offHeapStore.setInitialCapacity(sessions);
+            sessionStore = offHeapStore;
+        } else {
+            sessionStore = new MemorySessionStore();
+        }
+
+        for (int i = 0; i < sessions; i++) {
+            sessionStore.save(newSession(ids[i], i % users));
+        }
+
+        long used = Math.max(usedHeap() - heap, 0);
+
+        System.out.println();
+        System.out.println("[" + store + "] " + sessions + " sessions, heap : " + used / (1024 * 1024) + " MB, " +
+                used / sessions + " bytes per session" +
+                (sessionStore instanceof OffHeapSessionStore ?
+                        ", off-heap : " + ((OffHeapSessionStore) sessionStore).getOffHeapSize() / (1024 * 1024) + " MB" : ""));
+
+        gcCount = gcCount();
+        gcTime = gcTime();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println();
+        System.out.println("[" + store + "] " + sessions + " sessions, garbage collections : " + (gcCount() - gcCount) +
+                ", time : " + (gcTime() - gcTime) + " ms");
+    }
+
+    /**
+     * Full collection with the store populated.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public void fullGc() {
+        System.gc();
+    }
+
+    /**
+     * Load, access and save a session, like the session manager does.
+     */
+    @Benchmark
+    public void access() throws Exception {
+        BaseSession session = sessionStore.load(ids[ThreadLocalRandom.current().nextInt(sessions)]);
+        session.access();
+        sessionStore.save(session);
+    }
+
+    /**
+     * Replace a session with a new one, like logins and logouts do.
+     */
+    @Benchmark
+    public void replace() throws Exception {
+        int i = ThreadLocalRandom.current().nextInt(sessions);
+        sessionStore.remove(ids[i]);
+        sessionStore.save(newSession(ids[i], i % users));
+    }
+
+    /**
+     * The expired sessions scan run periodically by the session manager.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public Object loadByValid() throws Exception {
+        return sessionStore.loadByValid(false);
+    }
+
+    private BaseSession newSession(String id, int user) throws Exception {
+        BaseSessionImpl session = new BaseSessionImpl();
+        session.setId(id);
+        session.setUsername(BenchmarkCredentialStore.getUsername(user));
+        session.setSubject(authenticator.check(credentials[user], BenchmarkSecurityDomain.BASIC_AUTH_SCHEME));
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(30 * 60);
+        session.setValid(true);
+        return session;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(gc.getCollectionCount(), 0);
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            time += Math.max(gc.getCollectionTime(), 0);
+        return time;
+    }
+}
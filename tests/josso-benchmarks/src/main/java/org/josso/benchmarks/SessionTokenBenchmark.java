@@ -0,0 +1,108 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.benchmarks;
+
+import org.josso.gateway.session.SessionToken;
+import org.josso.gateway.session.SessionTokenSigner;
+import org.josso.gateway.session.service.SSOSessionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.security.auth.Subject;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session validation done by an agent : verifying a signed session token locally, against accessing the session
+ * in the gateway.  The gateway side is measured in process, a SOAP accessSession adds the HTTP round trip and the
+ * XML binding on top of it.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionTokenBenchmark {
+
+    @Param({"1000"})
+    public int sessions;
+
+    @Param({"5"})
+    public int roles;
+
+    private SessionTokenSigner signer;
+
+    private SSOSessionManager sessionManager;
+
+    private String[] sessionIds;
+
+    private SessionToken[] tokens;
+
+    private String[] signedTokens;
+
+    @Setup
+    public void setup() throws Exception {
+        signer = new SessionTokenSigner(SessionTokenSigner.generateKey());
+        sessionManager = BenchmarkSecurityDomain.getSessionManager();
+
+        String[] roleNames = new String[roles];
+        for (int i = 0; i < roles; i++)
+            roleNames[i] = "role" + i;
+
+        sessionIds = new String[sessions];
+        tokens = new SessionToken[sessions];
+        signedTokens = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            String username = BenchmarkCredentialStore.getUsername(i);
+            sessionIds[i] = sessionManager.initiateSession(username, new Subject());
+            tokens[i] = new SessionToken(sessionIds[i], username, roleNames, Long.MAX_VALUE);
+            signedTokens[i] = signer.sign(tokens[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sessionManager.invalidateAll();
+    }
+
+    @Benchmark
+    public Object verifyToken() {
+        return signer.verify(signedTokens[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+
+    @Benchmark
+    public Object signToken() throws Exception {
+        return signer.sign(tokens[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+
+    @Benchmark
+    public void accessSession() throws Exception {
+        sessionManager.accessSession(sessionIds[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.test.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Load simulation settings : how many virtual users, how many of them run at the same time, and what their SSO
+ * journeys look like.
+ * <p/>
+ * A journey is a login with username and password, the relay of the assertion by a partner application, the
+ * principal lookup, a number of keep-alives sent by the partner applications the user visits and, for some users,
+ * a global logout.  Users that do not log out leave their session to expire in the gateway.
+ * <p/>
+ * Settings can be overridden with josso.load.* system properties, see {@link #fromSystemProperties()}.
+ *
+ * @version $Id$
+ */
+public class LoadScenario {
+
+    public static final String PROPERTY_PREFIX = "josso.load.";
+
+    private String endpoint = "localhost:8181";
+
+    private String securityDomain = "josso";
+
+    private int virtualUsers = 1000;
+
+    private int concurrentUsers = 20;
+
+    private int durationSeconds = 30;
+
+    private int partnerApps = 10;
+
+    private int appsPerJourney = 3;
+
+    private int keepAlivesPerApp = 5;
+
+    private double logoutRatio = 0.5;
+
+    private long thinkTime = 0;
+
+    private List<String[]> accounts = new ArrayList<String[]>();
+
+    public LoadScenario() {
+        accounts.add(new String[] {"user1", "user1pwd"});
+        accounts.add(new String[] {"user2", "user2pwd"});
+    }
+
+    /**
+     * Builds a scenario with the default settings, overridden by system properties like josso.load.virtualUsers or
+     * josso.load.accounts=user1:user1pwd,user2:user2pwd
+     */
+    public static LoadScenario fromSystemProperties() {
+        LoadScenario s = new LoadScenario();
+
+        s.setEndpoint(getProperty("endpoint", s.getEndpoint()));
+        s.setSecurityDomain(getProperty("securityDomain", s.getSecurityDomain()));
+        s.setVirtualUsers(Integer.parseInt(getProperty("virtualUsers", String.valueOf(s.getVirtualUsers()))));
+        s.setConcurrentUsers(Integer.parseInt(getProperty("concurrentUsers", String.valueOf(s.getConcurrentUsers()))));
+        s.setDurationSeconds(Integer.parseInt(getProperty("durationSeconds", String.valueOf(s.getDurationSeconds()))));
+        s.setPartnerApps(Integer.parseInt(getProperty("partnerApps", String.valueOf(s.getPartnerApps()))));
+        s.setAppsPerJourney(Integer.parseInt(getProperty("appsPerJourney", String.valueOf(s.getAppsPerJourney()))));
+        s.setKeepAlivesPerApp(Integer.parseInt(getProperty("keepAlivesPerApp", String.valueOf(s.getKeepAlivesPerApp()))));
+        s.setLogoutRatio(Double.parseDouble(getProperty("logoutRatio", String.valueOf(s.getLogoutRatio()))));
+        s.setThinkTime(Long.parseLong(getProperty("thinkTime", String.valueOf(s.getThinkTime()))));
+
+        String accounts = System.getProperty(PROPERTY_PREFIX + "accounts");
+        if (accounts != null)
+            s.setAccounts(accounts);
+
+        return s;
+    }
+
+    private static String getProperty(String name, String defaultValue) {
+        return System.getProperty(PROPERTY_PREFIX + name, defaultValue);
+    }
+
+    /**
+     * Gateway host and port, as configured in the agent service locator.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getSecurityDomain() {
+        return securityDomain;
+    }
+
+    public void setSecurityDomain(String securityDomain) {
+        this.securityDomain = securityDomain;
+    }
+
+    /**
+     * Number of distinct virtual users, each one runs its journey again once it is done.
+     */
+    public int getVirtualUsers() {
+        return virtualUsers;
+    }
+
+    public void setVirtualUsers(int virtualUsers) {
+        this.virtualUsers = virtualUsers;
+    }
+
+    /**
+     * Number of virtual users running a journey at the same time, one thread each.
+     */
+    public int getConcurrentUsers() {
+        return concurrentUsers;
+    }
+
+    public void setConcurrentUsers(int concurrentUsers) {
+        this.concurrentUsers = concurrentUsers;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(int durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    /**
+     * Number of simulated partner applications, each one uses its own requester id.
+     */
+    public int getPartnerApps() {
+        return partnerApps;
+    }
+
+    public void setPartnerApps(int partnerApps) {
+        this.partnerApps = partnerApps;
+    }
+
+    /**
+     * Partner applications visited by a user in a journey.
+     */
+    public int getAppsPerJourney() {
+        return appsPerJourney;
+    }
+
+    public void setAppsPerJourney(int appsPerJourney) {
+        this.appsPerJourney = appsPerJourney;
+    }
+
+    /**
+     * Keep-alives (accessSession) sent by each visited partner application.
+     */
+    public int getKeepAlivesPerApp() {
+        return keepAlivesPerApp;
+    }
+
+    public void setKeepAlivesPerApp(int keepAlivesPerApp) {
+        this.keepAlivesPerApp = keepAlivesPerApp;
+    }
+
+    /**
+     * Fraction of journeys that end with a global logout.
+     */
+    public double getLogoutRatio() {
+        return logoutRatio;
+    }
+
+    public void setLogoutRatio(double logoutRatio) {
+        this.logoutRatio = logoutRatio;
+    }
+
+    /**
+     * Pause, in milliseconds, between two operations of a journey.
+     */
+    public long getThinkTime() {
+        return thinkTime;
+    }
+
+    public void setThinkTime(long thinkTime) {
+        this.thinkTime = thinkTime;
+    }
+
+    /**
+     * Username and password pairs used by virtual users, in turns.
+     */
+    public List<String[]> getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * @param accounts comma separated username:password pairs.
+     */
+    public void setAccounts(String accounts) {
+        List<String[]> parsed = new ArrayList<String[]>();
+        StringTokenizer st = new StringTokenizer(accounts, ",");
+        while (st.hasMoreTokens()) {
+            String account = st.nextToken().trim();
+            int sep = account.indexOf(':');
+            if (sep <= 0)
+                throw new IllegalArgumentException("Invalid account, use username:password : " + account);
+            parsed.add(new String[] {account.substring(0, sep), account.substring(sep + 1)});
+        }
+        this.accounts = parsed;
+    }
+
+    public String toString() {
+        return "LoadScenario[endpoint=" + endpoint +
+                ", virtualUsers=" + virtualUsers +
+                ", concurrentUsers=" + concurrentUsers +
+                ", durationSeconds=" + durationSeconds +
+                ", partnerApps=" + partnerApps +
+                ", appsPerJourney=" + appsPerJourney +
+                ", keepAlivesPerApp=" + keepAlivesPerApp +
+                ", logoutRatio=" + logoutRatio +
+                ", thinkTime=" + thinkTime +
+                ", accounts=" + accounts.size() + "]";
+    }
+}
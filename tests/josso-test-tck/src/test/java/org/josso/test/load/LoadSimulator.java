@@ -0,0 +1,229 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.test.load;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.josso.gateway.WebserviceGatewayServiceLocator;
+import org.josso.gateway.identity.service.SSOIdentityManagerService;
+import org.josso.gateway.identity.service.SSOIdentityProviderService;
+import org.josso.gateway.session.service.SSOSessionManagerService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives virtual users through SSO journeys against a running gateway, using the same web service client stubs as
+ * the agents.  Each concurrent user runs in its own thread, with its own stubs, and picks the next virtual user once
+ * its journey is done.  See {@link LoadScenario} for the journey steps.
+ *
+ * @version $Id$
+ */
+public class LoadSimulator {
+
+    private static final Log log = LogFactory.getLog(LoadSimulator.class);
+
+    public static final String LOGIN = "SSOIdentityProvider.assertIdentityWithSimpleAuthentication";
+
+    public static final String RELAY = "SSOIdentityProvider.resolveAuthenticationAssertion";
+
+    public static final String FIND_USER = "SSOIdentityManager.findUserInSession";
+
+    public static final String FIND_ROLES = "SSOIdentityManager.findRolesBySSOSessionId";
+
+    public static final String KEEP_ALIVE = "SSOSessionManager.accessSession";
+
+    public static final String LOGOUT = "SSOIdentityProvider.globalSignoff";
+
+    private final LoadScenario scenario;
+
+    private final LoadStats stats = new LoadStats();
+
+    private final AtomicInteger nextUser = new AtomicInteger();
+
+    private final AtomicInteger journeys = new AtomicInteger();
+
+    private volatile long deadline;
+
+    public LoadSimulator(LoadScenario scenario) {
+        this.scenario = scenario;
+    }
+
+    /**
+     * Runs the scenario, it returns once all virtual users finished their journeys after the configured duration.
+     */
+    public LoadStats run() throws Exception {
+
+        log.info("Starting load simulation " + scenario);
+
+        List<Thread> threads = new ArrayList<Thread>(scenario.getConcurrentUsers());
+        for (int i = 0; i < scenario.getConcurrentUsers(); i++) {
+            Thread t = new Thread(new Worker(i), "JOSSOLoad-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+        }
+
+        stats.start();
+        deadline = System.currentTimeMillis() + scenario.getDurationSeconds() * 1000L;
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        stats.stop();
+
+        log.info("Load simulation finished, " + journeys.get() + " journeys in " + stats.getElapsed() + "ms");
+        return stats;
+    }
+
+    public LoadStats getStats() {
+        return stats;
+    }
+
+    public int getJourneys() {
+        return journeys.get();
+    }
+
+    protected String getRequester(int app) {
+        return "partnerapp" + app;
+    }
+
+    /**
+     * A single concurrent user.
+     */
+    protected class Worker implements Runnable {
+
+        private final Random random;
+
+        private SSOSessionManagerService sm;
+
+        private SSOIdentityManagerService im;
+
+        private SSOIdentityProviderService ip;
+
+        Worker(int id) {
+            this.random = new Random(id);
+        }
+
+        public void run() {
+            try {
+                WebserviceGatewayServiceLocator gsl = new WebserviceGatewayServiceLocator();
+                gsl.setEndpoint(scenario.getEndpoint());
+                sm = gsl.getSSOSessionManager();
+                im = gsl.getSSOIdentityManager();
+                ip = gsl.getSSOIdentityProvider();
+            } catch (Exception e) {
+                log.error("Cannot create gateway service clients : " + e.getMessage(), e);
+                return;
+            }
+
+            while (System.currentTimeMillis() < deadline) {
+                int user = nextUser.getAndIncrement() % scenario.getVirtualUsers();
+                try {
+                    journey(user);
+                } catch (Exception e) {
+                    // Already counted, the virtual user starts over.
+                    if (log.isDebugEnabled())
+                        log.debug("Journey failed for virtual user " + user + " : " + e.getMessage(), e);
+                }
+                journeys.incrementAndGet();
+            }
+        }
+
+        protected void journey(int user) throws Exception {
+            String[] account = scenario.getAccounts().get(user % scenario.getAccounts().size());
+            final int firstApp = user % scenario.getPartnerApps();
+            final String requester = getRequester(firstApp);
+
+            // Login at the gateway, then the partner application relays the assertion
+            final String username = account[0];
+            final String password = account[1];
+            final String assertionId = (String) invoke(LOGIN, new Call() {
+                public Object execute() throws Exception {
+                    return ip.assertIdentityWithSimpleAuthentication(requester, scenario.getSecurityDomain(), username, password);
+                }
+            });
+
+            final String sessionId = (String) invoke(RELAY, new Call() {
+                public Object execute() throws Exception {
+                    return ip.resolveAuthenticationAssertion(requester, assertionId);
+                }
+            });
+
+            for (int i = 0; i < scenario.getAppsPerJourney(); i++) {
+                final String app = getRequester((firstApp + i) % scenario.getPartnerApps());
+
+                // Principal lookup done by the agent login module
+                invoke(FIND_USER, new Call() {
+                    public Object execute() throws Exception {
+                        return im.findUserInSession(app, sessionId);
+                    }
+                });
+                invoke(FIND_ROLES, new Call() {
+                    public Object execute() throws Exception {
+                        return im.findRolesBySSOSessionId(app, sessionId);
+                    }
+                });
+
+                for (int k = 0; k < scenario.getKeepAlivesPerApp(); k++) {
+                    invoke(KEEP_ALIVE, new Call() {
+                        public Object execute() throws Exception {
+                            sm.accessSession(app, sessionId);
+                            return null;
+                        }
+                    });
+                }
+            }
+
+            if (random.nextDouble() < scenario.getLogoutRatio()) {
+                invoke(LOGOUT, new Call() {
+                    public Object execute() throws Exception {
+                        ip.globalSignoff(requester, sessionId);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        protected Object invoke(String operation, Call call) throws Exception {
+            long start = System.nanoTime();
+            boolean error = true;
+            try {
+                Object result = call.execute();
+                error = false;
+                return result;
+            } finally {
+                stats.getOperationStats(operation).record(System.nanoTime() - start, error);
+                if (scenario.getThinkTime() > 0)
+                    Thread.sleep(scenario.getThinkTime());
+            }
+        }
+    }
+
+    protected interface Call {
+        Object execute() throws Exception;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.josso.test.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Throughput, latency percentiles and error rates for the operations invoked during a load simulation.
+ * Operations are named like the gateway SOAP counters, i.e. SSOSessionManager.accessSession.
+ *
+ * @version $Id$
+ */
+public class LoadStats {
+
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+
+    private volatile long started = System.currentTimeMillis();
+
+    private volatile long stopped;
+
+    public OperationStats getOperationStats(String operation) {
+        OperationStats stats = operations.get(operation);
+        if (stats == null) {
+            stats = new OperationStats(operation);
+            OperationStats existing = operations.putIfAbsent(operation, stats);
+            if (existing != null)
+                stats = existing;
+        }
+        return stats;
+    }
+
+    public void start() {
+        started = System.currentTimeMillis();
+        stopped = 0;
+    }
+
+    public void stop() {
+        stopped = System.currentTimeMillis();
+    }
+
+    /**
+     * Elapsed time, in milliseconds, since the simulation started and until it stopped.
+     */
+    public long getElapsed() {
+        long end = stopped > 0 ? stopped : System.currentTimeMillis();
+        return Math.max(end - started, 1);
+    }
+
+    public List<OperationStats> getOperations() {
+        List<OperationStats> ops = new ArrayList<OperationStats>(operations.values());
+        Collections.sort(ops);
+        return ops;
+    }
+
+    public long getInvocations() {
+        long count = 0;
+        for (OperationStats stats : operations.values())
+            count += stats.getInvocations();
+        return count;
+    }
+
+    public long getErrors() {
+        long count = 0;
+        for (OperationStats stats : operations.values())
+            count += stats.getErrors();
+        return count;
+    }
+
+    public double getErrorRate() {
+        long invocations = getInvocations();
+        return invocations > 0 ? getErrors() / (double) invocations : 0;
+    }
+
+    /**
+     * One line per operation, latencies in milliseconds.
+     */
+    public String report() {
+        long elapsed = getElapsed();
+        StringBuffer sb = new StringBuffer();
+        sb.append(String.format("%-55s %9s %7s %9s %8s %8s %8s %8s %8s%n",
+                "operation", "calls", "errors", "calls/s", "avg", "p50", "p90", "p99", "max"));
+
+        for (OperationStats stats : getOperations()) {
+            sb.append(String.format("%-55s %9d %7d %9.1f %8.2f %8.2f %8.2f %8.2f %8.2f%n",
+                    stats.getName(),
+                    stats.getInvocations(),
+                    stats.getErrors(),
+                    stats.getInvocations() * 1000D / elapsed,
+                    stats.getAverageTime(),
+                    stats.getPercentile(0.50),
+                    stats.getPercentile(0.90),
+                    stats.getPercentile(0.99),
+                    stats.getMaxTime()));
+        }
+
+        sb.append(String.format("%-55s %9d %7d %9.1f  error rate %.4f%%%n", "total",
+                getInvocations(), getErrors(), getInvocations() * 1000D / elapsed, getErrorRate() * 100));
+        return sb.toString();
+    }
+
+    /**
+     * Counters and latency histogram for a single operation.  The histogram has 32 buckets for each power of two
+     * microseconds, so percentiles are accurate within 3%.
+     */
+    public static class OperationStats implements Comparable<OperationStats> {
+
+        private static final int SUB_BUCKETS = 32;
+
+        private static final int SUB_BUCKET_BITS = 5;
+
+        private final String name;
+
+        private final AtomicLong invocations = new AtomicLong();
+
+        private final AtomicLong errors = new AtomicLong();
+
+        private final AtomicLong totalMicros = new AtomicLong();
+
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        OperationStats(String name) {
+            this.name = name;
+        }
+
+        public void record(long elapsedNanos, boolean error) {
+            long micros = Math.max(elapsedNanos / 1000, 0);
+
+            invocations.incrementAndGet();
+            if (error)
+                errors.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            buckets.incrementAndGet(bucket(micros));
+
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getInvocations() {
+            return invocations.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * Average operation time, in milliseconds.
+         */
+        public double getAverageTime() {
+            long count = invocations.get();
+            return count > 0 ? totalMicros.get() / (count * 1000D) : 0;
+        }
+
+        /**
+         * Max operation time, in milliseconds.
+         */
+        public double getMaxTime() {
+            return maxMicros.get() / 1000D;
+        }
+
+        /**
+         * Operation time, in milliseconds, under which the given fraction of invocations completed.
+         *
+         * @param fraction between 0 and 1, i.e. 0.99
+         */
+        public double getPercentile(double fraction) {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++)
+                count += buckets.get(i);
+            if (count == 0)
+                return 0;
+
+            long target = Math.max((long) Math.ceil(fraction * count), 1);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target)
+                    return Math.min(upperBound(i), maxMicros.get()) / 1000D;
+            }
+            return getMaxTime();
+        }
+
+        public int compareTo(OperationStats o) {
+            return name.compareTo(o.name);
+        }
+
+        static int bucket(long micros) {
+            if (micros < 2 * SUB_BUCKETS)
+                return (int) micros;
+
+            int shift = (63 - Long.numberOfLeadingZeros(micros)) - SUB_BUCKET_BITS;
+            return shift * SUB_BUCKETS + (int) (micros >>> shift);
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < 2 * SUB_BUCKETS)
+                return bucket;
+
+            int shift = bucket / SUB_BUCKETS - 1;
+            long mantissa = bucket - shift * SUB_BUCKETS;
+            return ((mantissa + 1) << shift) - 1;
+        }
+    }
+}
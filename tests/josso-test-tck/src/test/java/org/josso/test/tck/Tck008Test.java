@@ -0,0 +1,73 @@
+/*
+ * JOSSO: Java Open Single Sign-On
+ *
+ * Copyright 2004-2009, Atricore, Inc.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+package org.josso.test.tck;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.josso.test.load.LoadScenario;
+import org.josso.test.load.LoadSimulator;
+import org.josso.test.load.LoadStats;
+import org.josso.test.support.TckTestSupport;
+import org.junit.Test;
+
+/**
+ * Runs the load simulator against the gateway, many virtual users login, relay assertions, keep their sessions alive
+ * from several partner applications and logout using the web service stubs used by the agents.
+ * <p/>
+ * Defaults are small enough for a regular build, use the josso.load.* System properties to run longer scenarios.
+ *
+ * @version $Id$
+ */
+public class Tck008Test extends TckTestSupport {
+
+    private static final Log log = LogFactory.getLog(Tck008Test.class);
+
+    @Test
+    public void runTck() throws Exception {
+
+        setDefault(LoadScenario.PROPERTY_PREFIX + "endpoint", "localhost:" + getProperty("josso.tck.serverPort"));
+        setDefault(LoadScenario.PROPERTY_PREFIX + "virtualUsers", "50");
+        setDefault(LoadScenario.PROPERTY_PREFIX + "concurrentUsers", "5");
+        setDefault(LoadScenario.PROPERTY_PREFIX + "durationSeconds", "10");
+
+        LoadSimulator simulator = new LoadSimulator(LoadScenario.fromSystemProperties());
+        LoadStats stats = simulator.run();
+
+        log.info("Load simulation results, journeys=" + simulator.getJourneys() + "\n" + stats.report());
+
+        double maxErrorRate = Double.parseDouble(System.getProperty(LoadScenario.PROPERTY_PREFIX + "maxErrorRate", "0.01"));
+
+        assert stats.getInvocations() > 0 : "No operations invoked";
+        assert stats.getErrorRate() <= maxErrorRate : "Error rate " + stats.getErrorRate() + " above " + maxErrorRate;
+    }
+
+    protected void setDefault(String name, String value) {
+        if (getProperty(name) == null)
+            setSystemProperty(name, value);
+    }
+
+    @Override
+    protected String getTckId() {
+        return "008";
+    }
+}